@@ -5,11 +5,11 @@
  * @format
  */
 
-import React, { useEffect, useContext } from 'react';
-import { usePerQueuePlayer } from './src/context/PerQueuePlayerContext';
-import { NativeEventEmitter, NativeModules, Platform } from 'react-native';
+import React from 'react';
+import { NativeModules } from 'react-native';
 
-// Force instantiation of the native module at startup
+// Force instantiation of the native module at startup (media buttons are
+// handled natively by the playback service; the module reports them)
 const _forceMediaButtonModule = NativeModules.MediaButton;
 import { StatusBar, StyleSheet, useColorScheme } from 'react-native';
 import { SafeAreaProvider } from 'react-native-safe-area-context';
@@ -20,32 +20,6 @@ import { PerQueuePlayerProvider } from './src/context/PerQueuePlayerContext';
 import { QueueProvider } from './src/context/QueueContext';
 import { AllTracksProvider } from './src/context/AllTracksContext';
 
-// Handles headset/media button events using the player context
-function MediaButtonHandler() {
-  const perQueuePlayer = usePerQueuePlayer();
-  useEffect(() => {
-    if (Platform.OS === 'android' && NativeModules.MediaButton) {
-      const emitter = new NativeEventEmitter(NativeModules.MediaButton);
-      const sub = emitter.addListener('MediaButton', (action: string) => {
-        if (action === 'playpause') {
-          if (typeof (globalThis as any).mediaButtonToggleAllQueues === 'function') {
-            (globalThis as any).mediaButtonToggleAllQueues();
-          }
-        } else if (action === 'play') {
-          if (typeof (globalThis as any).mediaButtonPlayAllQueues === 'function') {
-            (globalThis as any).mediaButtonPlayAllQueues();
-          }
-        } else if (action === 'pause') {
-          if (typeof (globalThis as any).mediaButtonPauseAllQueues === 'function') {
-            (globalThis as any).mediaButtonPauseAllQueues();
-          }
-        }
-      });
-      return () => sub.remove();
-    }
-  }, [perQueuePlayer.players]);
-  return null;
-}
 function App() {
   const isDarkMode = useColorScheme() === 'dark';
   return (
@@ -56,7 +30,6 @@ function App() {
             <SafeAreaProvider>
               <PaperProvider>
                 <StatusBar barStyle={isDarkMode ? 'light-content' : 'dark-content'} />
-                <MediaButtonHandler />
                 <AppNavigator />
               </PaperProvider>
             </SafeAreaProvider>
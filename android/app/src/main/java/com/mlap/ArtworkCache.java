@@ -0,0 +1,158 @@
+package com.mlap;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Downsampled artwork thumbnails: an in-memory LRU keyed by path + size in front
+ * of a disk cache in cacheDir that survives restarts. get() may decode, so call
+ * it off the main and bridge threads.
+ */
+public class ArtworkCache {
+    private static final String TAG = "ArtworkCache";
+    private static final String DIR_NAME = "artwork_thumbs";
+    private static final int MAX_DISK_ENTRIES = 256;
+
+    private static ArtworkCache instance;
+
+    private final Context context;
+    private final File diskDir;
+    private final LruCache<String, Bitmap> memory;
+    private Bitmap fallback;
+    private int fallbackSize;
+
+    public static synchronized ArtworkCache getInstance(Context context) {
+        if (instance == null) instance = new ArtworkCache(context.getApplicationContext());
+        return instance;
+    }
+
+    private ArtworkCache(Context context) {
+        this.context = context;
+        this.diskDir = new File(context.getCacheDir(), DIR_NAME);
+        // An eighth of the heap, measured in KiB
+        int maxKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+        this.memory = new LruCache<String, Bitmap>(maxKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount() / 1024;
+            }
+        };
+    }
+
+    /** Artwork at roughly size x size pixels, or null when the file can't be decoded. */
+    public Bitmap get(String path, int size) {
+        if (path == null || path.isEmpty() || size <= 0) return null;
+        if (path.startsWith("file://")) path = path.substring(7);
+        String key = path + "@" + size;
+        Bitmap cached = memory.get(key);
+        if (cached != null) return cached;
+
+        File source = new File(path);
+        if (!source.isFile()) return null;
+        File thumb = new File(diskDir, diskName(key, source));
+        Bitmap bitmap = thumb.isFile() ? BitmapFactory.decodeFile(thumb.getPath()) : null;
+        if (bitmap == null) {
+            bitmap = decodeSampled(path, size);
+            if (bitmap == null) return null;
+            writeThumb(thumb, bitmap);
+        }
+        memory.put(key, bitmap);
+        return bitmap;
+    }
+
+    /** The app icon at the same size, decoded once. */
+    public synchronized Bitmap getFallback(int size) {
+        if (fallback == null || fallbackSize != size) {
+            int icon = context.getApplicationInfo().icon;
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inJustDecodeBounds = true;
+            BitmapFactory.decodeResource(context.getResources(), icon, opts);
+            opts.inSampleSize = sampleSize(opts.outWidth, opts.outHeight, size);
+            opts.inJustDecodeBounds = false;
+            fallback = BitmapFactory.decodeResource(context.getResources(), icon, opts);
+            fallbackSize = size;
+        }
+        return fallback;
+    }
+
+    public void clearMemory() {
+        memory.evictAll();
+    }
+
+    /** Keeps the most recently used half of the in-memory thumbnails. */
+    public void trimMemory() {
+        memory.trimToSize(memory.size() / 2);
+    }
+
+    private static Bitmap decodeSampled(String path, int size) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, opts);
+        if (opts.outWidth <= 0 || opts.outHeight <= 0) return null;
+        opts.inSampleSize = sampleSize(opts.outWidth, opts.outHeight, size);
+        opts.inJustDecodeBounds = false;
+        Bitmap decoded = BitmapFactory.decodeFile(path, opts);
+        if (decoded == null) return null;
+        // inSampleSize only halves; finish with one scale so thumbnails stay small
+        int longest = Math.max(decoded.getWidth(), decoded.getHeight());
+        if (longest <= size) return decoded;
+        float scale = (float) size / longest;
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded,
+            Math.max(1, Math.round(decoded.getWidth() * scale)),
+            Math.max(1, Math.round(decoded.getHeight() * scale)), true);
+        if (scaled != decoded) decoded.recycle();
+        return scaled;
+    }
+
+    // Largest power of two that keeps both sides at or above the target
+    static int sampleSize(int width, int height, int size) {
+        int sample = 1;
+        if (width <= 0 || height <= 0) return sample;
+        while (width / (sample * 2) >= size && height / (sample * 2) >= size) sample *= 2;
+        return sample;
+    }
+
+    // Source mtime and length are part of the name so edited artwork misses
+    private static String diskName(String key, File source) {
+        String raw = key + "|" + source.lastModified() + "|" + source.length();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(raw.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(hash.length * 2 + 4);
+            for (byte b : hash) sb.append(String.format("%02x", b));
+            return sb.append(".png").toString();
+        } catch (Exception e) {
+            return Integer.toHexString(raw.hashCode()) + ".png";
+        }
+    }
+
+    private void writeThumb(File thumb, Bitmap bitmap) {
+        if (!diskDir.isDirectory() && !diskDir.mkdirs()) return;
+        File tmp = new File(diskDir, thumb.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to write thumbnail", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(thumb)) tmp.delete();
+        trimDisk();
+    }
+
+    // Drops the least recently written thumbnails past the entry limit
+    private void trimDisk() {
+        File[] files = diskDir.listFiles();
+        if (files == null || files.length <= MAX_DISK_ENTRIES) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length - MAX_DISK_ENTRIES; i++) files[i].delete();
+    }
+}
@@ -0,0 +1,471 @@
+package com.mlap;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One audio output for every queue. Each queue's player decodes into its own
+ * MixerAudioSink, which converts to 16-bit stereo at the mixer rate and fills a
+ * channel ring; a single thread mixes the rings with per-queue gain, pan and
+ * mute into one AudioTrack. Three playing queues therefore cost one track
+ * buffer and one wakeup per period instead of three output pipelines.
+ *
+ * The mix loop allocates nothing, and gains ramp across a period so changes do
+ * not click. Crossfades are per-frame envelopes on a channel, read from the
+ * curve tables below, so they are sample-accurate without any caller timing.
+ * Normalization gains switch at the exact frame where the next track starts.
+ * The thread parks while nothing plays; the track is paused then and released
+ * after a minute idle.
+ */
+public final class AudioMixer {
+    private static final String TAG = "AudioMixer";
+    static final int CHANNELS = 2;
+    private static final int PERIOD_MS = 20;
+    private static final int RING_MS = 500;
+    private static final long IDLE_RELEASE_MS = 60_000;
+
+    private static final PerfMetrics.Counter UNDERRUNS = PerfMetrics.counter("mixer.underruns");
+    private static final PerfMetrics.Histogram MIX_TIME = PerfMetrics.timer("mixer.period");
+
+    public static final int CURVE_LINEAR = 0;
+    public static final int CURVE_EQUAL_POWER = 1;
+    public static final int CURVE_S = 2;
+    private static final int CURVE_POINTS = 1024;
+    // Fade-in gain by progress, one table per curve; fade-outs read them backwards
+    private static final float[][] CURVES = new float[3][CURVE_POINTS + 1];
+
+    static {
+        for (int i = 0; i <= CURVE_POINTS; i++) {
+            double p = (double) i / CURVE_POINTS;
+            CURVES[CURVE_LINEAR][i] = (float) p;
+            CURVES[CURVE_EQUAL_POWER][i] = (float) Math.sin(p * Math.PI / 2);
+            CURVES[CURVE_S][i] = (float) (0.5 - 0.5 * Math.cos(p * Math.PI));
+        }
+    }
+
+    private static AudioMixer instance;
+
+    /** Output rate; sinks resample to it. The device's native rate, so the system does not resample again. */
+    public final int sampleRate;
+    private final int periodFrames;
+    private final Object lock = new Object();
+    private final Map<String, Strip> strips = new ConcurrentHashMap<>();
+    // Copy-on-write, so the mix loop iterates without an iterator
+    private volatile Channel[] channels = new Channel[0];
+    private final int[] accum;
+    private final short[] out;
+
+    // Mixer thread only
+    @Nullable private AudioTrack track;
+    private long framesWritten = 0;
+    private long trackBase = 0;
+    @Nullable private Thread thread;
+    private volatile boolean releaseIdleTrack = false;
+
+    // Output frames (counted across tracks) that have reached the speaker
+    private volatile long framesPlayed = 0;
+
+    public static synchronized AudioMixer getInstance() {
+        if (instance == null) instance = new AudioMixer();
+        return instance;
+    }
+
+    private AudioMixer() {
+        int rate = AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+        sampleRate = rate > 0 ? rate : 48000;
+        periodFrames = sampleRate * PERIOD_MS / 1000;
+        accum = new int[periodFrames * CHANNELS];
+        out = new short[periodFrames * CHANNELS];
+    }
+
+    /** Per-queue mix settings; they outlive the queue's players. */
+    public Strip strip(String queueId) {
+        return strips.computeIfAbsent(queueId, id -> new Strip());
+    }
+
+    Channel open(String queueId) {
+        Channel channel = new Channel(strip(queueId), sampleRate * RING_MS / 1000);
+        synchronized (lock) {
+            Channel[] next = Arrays.copyOf(channels, channels.length + 1);
+            next[channels.length] = channel;
+            channels = next;
+        }
+        return channel;
+    }
+
+    void close(Channel channel) {
+        synchronized (lock) {
+            Channel[] current = channels;
+            Channel[] next = new Channel[Math.max(0, current.length - 1)];
+            int n = 0;
+            for (Channel c : current) {
+                if (c != channel && n < next.length) next[n++] = c;
+            }
+            channels = n == next.length ? next : Arrays.copyOf(next, n);
+        }
+    }
+
+    long framesPlayed() {
+        return framesPlayed;
+    }
+
+    int msToFrames(long ms) {
+        return (int) Math.max(1, ms * sampleRate / 1000);
+    }
+
+    /** A channel started playing: make sure the mix loop runs. */
+    void wake() {
+        synchronized (lock) {
+            if (thread == null) {
+                thread = new Thread(this::run, TAG);
+                thread.start();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /** Releases the output track now if nothing is playing, rather than after the idle timeout. */
+    public void trimMemory() {
+        synchronized (lock) {
+            releaseIdleTrack = true;
+            lock.notifyAll();
+        }
+    }
+
+    private boolean anyPlaying() {
+        for (Channel c : channels) {
+            if (c.playing) return true;
+        }
+        return false;
+    }
+
+    private void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        long idleSince = 0;
+        while (true) {
+            synchronized (lock) {
+                while (!anyPlaying()) {
+                    if (track != null) {
+                        long now = SystemClock.uptimeMillis();
+                        if (idleSince == 0) {
+                            track.pause();
+                            idleSince = now;
+                        } else if (releaseIdleTrack || now - idleSince >= IDLE_RELEASE_MS) {
+                            releaseTrack();
+                        }
+                    }
+                    releaseIdleTrack = false;
+                    try {
+                        lock.wait(track != null ? IDLE_RELEASE_MS : 0);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            idleSince = 0;
+            AudioTrack t = ensureTrack();
+            if (t == null) {
+                SystemClock.sleep(PERIOD_MS);
+                continue;
+            }
+            long start = PerfMetrics.now();
+            mix();
+            MIX_TIME.recordSince(start);
+            // Blocks until the track has room: this is what paces the loop
+            int written = t.write(out, 0, out.length);
+            if (written < 0) {
+                Log.w(TAG, "AudioTrack write failed: " + written);
+                releaseTrack();
+                continue;
+            }
+            framesWritten += written / CHANNELS;
+            long head = t.getPlaybackHeadPosition() & 0xffffffffL;
+            long pending = (framesWritten - trackBase - head) & 0xffffffffL;
+            framesPlayed = framesWritten - Math.min(pending, framesWritten - trackBase);
+        }
+    }
+
+    private void mix() {
+        Arrays.fill(accum, 0);
+        Channel[] current = channels;
+        for (Channel c : current) {
+            if (c.playing) c.mixInto(accum, periodFrames, framesWritten);
+        }
+        for (int i = 0; i < accum.length; i++) {
+            int v = accum[i];
+            out[i] = (short) (v > Short.MAX_VALUE ? Short.MAX_VALUE : Math.max(v, Short.MIN_VALUE));
+        }
+    }
+
+    @Nullable
+    private AudioTrack ensureTrack() {
+        if (track == null) {
+            try {
+                int minBuffer = AudioTrack.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT);
+                track = new AudioTrack.Builder()
+                    .setAudioAttributes(new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_MEDIA)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                        .build())
+                    .setAudioFormat(new AudioFormat.Builder()
+                        .setSampleRate(sampleRate)
+                        .setChannelMask(AudioFormat.CHANNEL_OUT_STEREO)
+                        .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                        .build())
+                    .setTransferMode(AudioTrack.MODE_STREAM)
+                    .setBufferSizeInBytes(Math.max(minBuffer, out.length * 2 * 2))
+                    .build();
+                // Everything written to an earlier track counts as played
+                trackBase = framesWritten;
+                framesPlayed = framesWritten;
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to create AudioTrack", e);
+                track = null;
+                return null;
+            }
+        }
+        if (track.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) track.play();
+        return track;
+    }
+
+    private void releaseTrack() {
+        if (track == null) return;
+        track.release();
+        track = null;
+        framesPlayed = framesWritten;
+    }
+
+    /** Gain, pan and mute for one queue. Any thread; the mixer picks changes up on its next period. */
+    public static final class Strip {
+        private volatile float gain = 1f;
+        private volatile float pan = 0f;
+        private volatile boolean muted = false;
+
+        public void setGain(float gain) {
+            this.gain = Math.max(0f, gain);
+        }
+
+        /** -1 is full left, 1 full right; the centre leaves both sides at unity. */
+        public void setPan(float pan) {
+            this.pan = Math.max(-1f, Math.min(1f, pan));
+        }
+
+        public void setMuted(boolean muted) {
+            this.muted = muted;
+        }
+
+        float left() {
+            return muted ? 0f : gain * (pan > 0 ? 1f - pan : 1f);
+        }
+
+        float right() {
+            return muted ? 0f : gain * (pan < 0 ? 1f + pan : 1f);
+        }
+    }
+
+    /**
+     * One sink's ring of interleaved stereo frames at the mixer rate. The sink
+     * (playback thread) writes, the mixer reads; both under the channel lock,
+     * which is held for at most one period's copy.
+     */
+    static final class Channel {
+        final Strip strip;
+        private final short[] ring;
+        private final int capacity;
+        private long readFrames = 0;
+        private long writeFrames = 0;
+        // Frames taken by the mixer since the last clear, and where the last one landed in the output
+        private long consumed = 0;
+        private long outputEnd = 0;
+
+        volatile boolean playing = false;
+        volatile boolean ending = false;
+        volatile float volume = 1f;
+
+        // Crossfade envelope, guarded by the channel lock. fadePos < 0 means none;
+        // hold is the gain left once a fade completes
+        @Nullable private float[] fadeCurve;
+        private boolean fadeOut;
+        private int fadeLength;
+        private int fadePos = -1;
+        private float hold = 1f;
+        private int armedLength = 0;
+        @Nullable private float[] armedCurve;
+
+        // Normalization gain of the track playing, and the one taking over at
+        // frame gainSwitchAt (-1: none pending). Guarded by the channel lock
+        private float trackGain = 1f;
+        private float nextTrackGain = 1f;
+        private long gainSwitchAt = -1;
+        // Mixer thread: the track gain reached at the end of the previous period
+        private float appliedTrackGain = 1f;
+
+        // Mixer thread: gains reached at the end of the previous period, ramped from
+        private float lastLeft = 0f;
+        private float lastRight = 0f;
+        private boolean starved = false;
+
+        Channel(Strip strip, int capacityFrames) {
+            this.strip = strip;
+            this.capacity = capacityFrames;
+            this.ring = new short[capacityFrames * CHANNELS];
+        }
+
+        synchronized int free() {
+            return capacity - (int) (writeFrames - readFrames);
+        }
+
+        synchronized int available() {
+            return (int) (writeFrames - readFrames);
+        }
+
+        synchronized long consumed() {
+            return consumed;
+        }
+
+        /** Frames of this channel that have been heard, given the mixer's played output position. */
+        synchronized long played(long outputPlayed) {
+            long inFlight = Math.max(0, outputEnd - outputPlayed);
+            return Math.max(0, consumed - Math.min(inFlight, consumed));
+        }
+
+        synchronized void clear() {
+            readFrames = 0;
+            writeFrames = 0;
+            consumed = 0;
+            outputEnd = 0;
+            ending = false;
+            gainSwitchAt = -1;
+            if (armedCurve != null) {
+                startFadeLocked(false, armedLength, armedCurve);
+                armedCurve = null;
+            } else if (fadePos < 0) {
+                hold = 1f;
+            }
+        }
+
+        /** Fades this channel out or in over frames, starting with the next frame mixed. */
+        synchronized void startFade(boolean out, int frames, int curve) {
+            armedCurve = null;
+            startFadeLocked(out, frames, CURVES[curve]);
+        }
+
+        /** Fades in from silence once the channel is next cleared, i.e. from the first frame after a seek. */
+        synchronized void fadeInAfterClear(int frames, int curve) {
+            armedLength = frames;
+            armedCurve = CURVES[curve];
+        }
+
+        private void startFadeLocked(boolean out, int frames, float[] curve) {
+            fadeCurve = curve;
+            fadeOut = out;
+            fadeLength = Math.max(1, frames);
+            fadePos = 0;
+            hold = out ? 0f : 1f;
+        }
+
+        /** Sets the track gain from the next period, ramped across it. */
+        synchronized void setTrackGain(float gain) {
+            trackGain = gain;
+            gainSwitchAt = -1;
+        }
+
+        /** Switches to gain at the first frame written after this call: a new track starts there. */
+        synchronized void switchTrackGain(float gain) {
+            if (writeFrames == readFrames) {
+                setTrackGain(gain);
+                return;
+            }
+            nextTrackGain = gain;
+            gainSwitchAt = writeFrames;
+        }
+
+        // Envelope gain for the next frame; advances the fade
+        private float envelope() {
+            if (fadePos < 0) return hold;
+            float[] curve = fadeCurve;
+            float x = (float) (fadeOut ? fadeLength - fadePos : fadePos) / fadeLength * CURVE_POINTS;
+            int i = Math.min((int) x, CURVE_POINTS - 1);
+            float g = curve[i] + (curve[i + 1] - curve[i]) * (x - i);
+            if (++fadePos >= fadeLength) fadePos = -1;
+            return g;
+        }
+
+        /**
+         * Copies up to maxFrames of little-endian 16-bit PCM with the given channel
+         * count from src (advancing it) as stereo: mono is doubled and anything
+         * wider keeps its front pair. Returns the frames copied.
+         */
+        synchronized int write(ByteBuffer src, int srcChannels, int maxFrames) {
+            int frameBytes = srcChannels * 2;
+            int frames = Math.min(Math.min(src.remaining() / frameBytes, maxFrames), free());
+            int pos = src.position();
+            for (int f = 0; f < frames; f++) {
+                int i = pos + f * frameBytes;
+                short l = (short) ((src.get(i) & 0xff) | (src.get(i + 1) << 8));
+                short r = srcChannels == 1 ? l : (short) ((src.get(i + 2) & 0xff) | (src.get(i + 3) << 8));
+                int slot = (int) ((writeFrames + f) % capacity) * CHANNELS;
+                ring[slot] = l;
+                ring[slot + 1] = r;
+            }
+            src.position(pos + frames * frameBytes);
+            writeFrames += frames;
+            return frames;
+        }
+
+        // Mixer thread. Adds up to frames frames into accum, ramping the gains over the period
+        void mixInto(int[] accum, int frames, long outputStart) {
+            float targetLeft = strip.left() * volume;
+            float targetRight = strip.right() * volume;
+            float stepLeft = (targetLeft - lastLeft) / frames;
+            float stepRight = (targetRight - lastRight) / frames;
+            float gl = lastLeft;
+            float gr = lastRight;
+            int n;
+            synchronized (this) {
+                n = (int) Math.min(frames, writeFrames - readFrames);
+                boolean enveloped = fadePos >= 0 || hold != 1f;
+                float tg = appliedTrackGain;
+                float stepTrack = (trackGain - tg) / frames;
+                for (int f = 0; f < n; f++) {
+                    int slot = (int) ((readFrames + f) % capacity) * CHANNELS;
+                    gl += stepLeft;
+                    gr += stepRight;
+                    if (readFrames + f == gainSwitchAt) {
+                        // Track boundary: a step, not a ramp
+                        trackGain = tg = nextTrackGain;
+                        stepTrack = 0f;
+                        gainSwitchAt = -1;
+                    } else {
+                        tg += stepTrack;
+                    }
+                    float env = (enveloped ? envelope() : 1f) * tg;
+                    accum[f * CHANNELS] += (int) (ring[slot] * gl * env);
+                    accum[f * CHANNELS + 1] += (int) (ring[slot + 1] * gr * env);
+                }
+                appliedTrackGain = n == frames ? trackGain : tg;
+                readFrames += n;
+                consumed += n;
+                if (n > 0) outputEnd = outputStart + n;
+            }
+            lastLeft = targetLeft;
+            lastRight = targetRight;
+            if (n < frames && !ending) {
+                if (!starved) UNDERRUNS.inc();
+                starved = true;
+            } else {
+                starved = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.mlap;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.Player;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Crossfades between a queue's items, entirely native. With an overlap set,
+ * the queue gets a tail player that is prepared a few seconds ahead at the
+ * last overlap of the current item. At the fade point the tail starts with a
+ * fade-out and the queue's own player moves to the next item (already
+ * buffered by its playlist) with a fade-in; both envelopes run per frame in
+ * AudioMixer, so the only timing done here is one handler post per item.
+ *
+ * Only automatic transitions fade: skips, seeks, repeat-one and the last item
+ * stay as they were. Main looper only, like QueuePlayerPool.
+ */
+final class Crossfader {
+    private static final long PREPARE_LEAD_MS = 5_000;
+    // Fire this close to the fade point; handler posts are not more precise anyway
+    private static final long TRIGGER_SLOP_MS = 15;
+    // Seeked past the fade point by more than this: let the gapless transition happen
+    private static final long LATE_LIMIT_MS = 250;
+
+    private static final PerfMetrics.Counter FADES = PerfMetrics.counter("player.crossfades");
+
+    private final QueuePlayerPool pool;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, Fade> fades = new HashMap<>();
+
+    private final class Fade {
+        final String queueId;
+        final Runnable check;
+        long overlapMs;
+        int curve;
+        @Nullable ExoPlayer tail;
+        @Nullable MixerAudioSink tailSink;
+        @Nullable MediaItem preparedItem;
+        boolean tailRunning;
+
+        Fade(String queueId) {
+            this.queueId = queueId;
+            this.check = () -> reschedule(queueId);
+        }
+    }
+
+    Crossfader(QueuePlayerPool pool) {
+        this.pool = pool;
+    }
+
+    /** Overlap in ms (0 turns crossfading off) and an AudioMixer.CURVE_* for the queue. */
+    void configure(String queueId, long overlapMs, int curve) {
+        if (overlapMs <= 0) {
+            release(queueId);
+            return;
+        }
+        Fade fade = fades.get(queueId);
+        if (fade == null) {
+            fade = new Fade(queueId);
+            fades.put(queueId, fade);
+        }
+        fade.overlapMs = overlapMs;
+        fade.curve = curve;
+        fade.preparedItem = null;
+        reschedule(queueId);
+    }
+
+    /**
+     * Plans the next fade from the player's position. Called whenever the fade
+     * point may have moved: play/pause, seeks, item and playlist changes.
+     */
+    void reschedule(String queueId) {
+        Fade fade = fades.get(queueId);
+        if (fade == null) return;
+        handler.removeCallbacks(fade.check);
+        ExoPlayer player = pool.get(queueId);
+        if (player == null || !player.isPlaying() || !player.hasNextMediaItem()
+                || player.getRepeatMode() == Player.REPEAT_MODE_ONE) {
+            return;
+        }
+        long duration = player.getDuration();
+        if (duration == C.TIME_UNSET || duration < fade.overlapMs * 2) return;
+        long untilFade = duration - fade.overlapMs - player.getCurrentPosition();
+        if (untilFade < -LATE_LIMIT_MS) return;
+        if (untilFade <= TRIGGER_SLOP_MS) {
+            start(fade, player, duration);
+            return;
+        }
+        if (untilFade <= PREPARE_LEAD_MS) {
+            prepareTail(fade, player, duration);
+            handler.postDelayed(fade.check, untilFade);
+        } else {
+            handler.postDelayed(fade.check, untilFade - PREPARE_LEAD_MS);
+        }
+    }
+
+    private void prepareTail(Fade fade, ExoPlayer player, long duration) {
+        MediaItem item = player.getCurrentMediaItem();
+        // A tail still fading out is left alone; this item then transitions gaplessly
+        if (item == null || item == fade.preparedItem || fade.tailRunning) return;
+        if (fade.tail == null) {
+            fade.tail = pool.newTailPlayer(fade.queueId);
+            fade.tailSink = pool.sinkOf(fade.tail);
+            final Fade owner = fade;
+            fade.tail.addListener(new Player.Listener() {
+                @Override
+                public void onPlaybackStateChanged(int state) {
+                    if (state == Player.STATE_ENDED) stopTail(owner);
+                }
+            });
+        }
+        if (fade.tailSink != null) fade.tailSink.setTrackGain(NormalizationGains.linearGain(item));
+        fade.tail.setMediaItem(item, duration - fade.overlapMs);
+        fade.tail.setPlayWhenReady(false);
+        fade.tail.prepare();
+        fade.preparedItem = item;
+        fade.tailRunning = false;
+    }
+
+    private void start(Fade fade, ExoPlayer player, long duration) {
+        if (fade.tailRunning) return;
+        prepareTail(fade, player, duration);
+        ExoPlayer tail = fade.tail;
+        MixerAudioSink primarySink = pool.sinkOf(player);
+        if (tail == null || fade.tailSink == null || primarySink == null) return;
+        long position = player.getCurrentPosition();
+        if (Math.abs(tail.getCurrentPosition() - position) > TRIGGER_SLOP_MS) tail.seekTo(position);
+        tail.setVolume(player.getVolume());
+        fade.tailSink.fadeOut(Math.max(1, duration - position), fade.curve);
+        tail.play();
+        fade.tailRunning = true;
+        fade.preparedItem = null;
+        primarySink.fadeInAfterFlush(fade.overlapMs, fade.curve);
+        player.seekToNextMediaItem();
+        FADES.inc();
+    }
+
+    private void stopTail(Fade fade) {
+        fade.tailRunning = false;
+        if (fade.tail != null) fade.tail.stop();
+    }
+
+    /** Keeps a running tail in step with its queue being paused or resumed. */
+    void onPlayRequestChanged(String queueId, boolean playWhenReady) {
+        Fade fade = fades.get(queueId);
+        if (fade == null || fade.tail == null || !fade.tailRunning) return;
+        fade.tail.setPlayWhenReady(playWhenReady);
+    }
+
+    /** Picks up changed normalization gains for prepared or running tails. */
+    void refreshTrackGains() {
+        for (Fade fade : fades.values()) {
+            MediaItem item = fade.tail != null ? fade.tail.getCurrentMediaItem() : null;
+            if (item != null && fade.tailSink != null) fade.tailSink.setTrackGain(NormalizationGains.linearGain(item));
+        }
+    }
+
+    /** Frees tail players that are not in the middle of a fade; they are rebuilt on demand. */
+    void trimIdle() {
+        for (Fade fade : fades.values()) {
+            if (fade.tail == null || fade.tailRunning) continue;
+            fade.tail.release();
+            fade.tail = null;
+            fade.tailSink = null;
+            fade.preparedItem = null;
+        }
+    }
+
+    void release(String queueId) {
+        Fade fade = fades.remove(queueId);
+        if (fade == null) return;
+        handler.removeCallbacks(fade.check);
+        if (fade.tail != null) fade.tail.release();
+    }
+}
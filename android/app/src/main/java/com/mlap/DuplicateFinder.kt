@@ -0,0 +1,136 @@
+package com.mlap
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.security.MessageDigest
+
+/** Where a file's audio payload lies once leading and trailing tag blocks are skipped. */
+class PayloadSpan(val offset: Long, val length: Long)
+
+/**
+ * Hashes the audio payload of a file, so two copies that differ only in their
+ * tags still match. Skips ID3v2 (any number, with footers) and FLAC metadata
+ * blocks at the start, and ID3v1 and APEv2 at the end. Containers that keep
+ * tags inside the stream structure (MP4, Ogg) are hashed whole, so for them
+ * only byte-identical copies match.
+ *
+ * Three steps of increasing cost, each only run on files the previous one
+ * could not tell apart: span (a few header bytes), partial hash (the first and
+ * last PARTIAL_BYTES of the payload) and full hash.
+ *
+ * Not thread-safe (reuses its buffer); use one per thread. Checks for
+ * interruption while hashing.
+ */
+class DuplicateFinder {
+
+  private val buffer = ByteArray(CHUNK_BYTES)
+
+  fun span(path: String): PayloadSpan {
+    RandomAccessFile(File(path), "r").use { raf ->
+      val size = raf.length()
+      var start = 0L
+      // ID3v2: "ID3", version, flags, synchsafe size; taggers sometimes stack several
+      while (start + 10 <= size && read(raf, start, 10) == 10 && isAscii(0, "ID3")) {
+        val tagSize = synchsafe(6)
+        val footer = if ((buffer[5].toInt() and 0x10) != 0) 10 else 0
+        start += 10 + tagSize + footer
+      }
+      if (start + 4 <= size && read(raf, start, 4) == 4 && isAscii(0, "fLaC")) {
+        var p = start + 4
+        while (p + 4 <= size && read(raf, p, 4) == 4) {
+          val last = (buffer[0].toInt() and 0x80) != 0
+          p += 4 + int24(1)
+          if (last) break
+        }
+        start = p
+      }
+      var end = size
+      if (end - 128 >= start && read(raf, end - 128, 3) == 3 && isAscii(0, "TAG")) end -= 128
+      if (end - 32 >= start && read(raf, end - 32, 32) == 32 && isAscii(0, "APETAGEX")) {
+        // Size covers items and footer; the optional header is on top
+        val tagSize = int32le(12)
+        val hasHeader = (buffer[23].toInt() and 0x80) != 0
+        end -= tagSize + if (hasHeader) 32 else 0
+      }
+      start = start.coerceIn(0, size)
+      return PayloadSpan(start, (end - start).coerceAtLeast(0))
+    }
+  }
+
+  /** Hash of the payload's first and last PARTIAL_BYTES (the whole payload when shorter). */
+  fun partialHash(path: String, span: PayloadSpan): String {
+    val digest = MessageDigest.getInstance(ALGORITHM)
+    RandomAccessFile(File(path), "r").use { raf ->
+      if (span.length <= PARTIAL_BYTES * 2) {
+        update(digest, raf, span.offset, span.length)
+      } else {
+        update(digest, raf, span.offset, PARTIAL_BYTES)
+        update(digest, raf, span.offset + span.length - PARTIAL_BYTES, PARTIAL_BYTES)
+      }
+    }
+    return hex(digest.digest())
+  }
+
+  fun fullHash(path: String, span: PayloadSpan): String {
+    val digest = MessageDigest.getInstance(ALGORITHM)
+    RandomAccessFile(File(path), "r").use { raf -> update(digest, raf, span.offset, span.length) }
+    return hex(digest.digest())
+  }
+
+  private fun update(digest: MessageDigest, raf: RandomAccessFile, offset: Long, length: Long) {
+    raf.seek(offset)
+    var remaining = length
+    while (remaining > 0) {
+      if (Thread.interrupted()) throw InterruptedException()
+      val r = raf.read(buffer, 0, minOf(remaining, buffer.size.toLong()).toInt())
+      if (r < 0) break
+      digest.update(buffer, 0, r)
+      HASHED_BYTES.add(r.toLong())
+      remaining -= r
+    }
+  }
+
+  private fun read(raf: RandomAccessFile, offset: Long, length: Int): Int {
+    raf.seek(offset)
+    var total = 0
+    while (total < length) {
+      val r = raf.read(buffer, total, length - total)
+      if (r < 0) break
+      total += r
+    }
+    return total
+  }
+
+  private fun isAscii(at: Int, text: String): Boolean {
+    for (i in text.indices) if (buffer[at + i].toInt() != text[i].code) return false
+    return true
+  }
+
+  private fun synchsafe(at: Int): Long =
+    (0 until 4).fold(0L) { acc, i -> (acc shl 7) or (buffer[at + i].toLong() and 0x7f) }
+
+  private fun int24(at: Int): Long =
+    (0 until 3).fold(0L) { acc, i -> (acc shl 8) or (buffer[at + i].toLong() and 0xff) }
+
+  private fun int32le(at: Int): Long =
+    (3 downTo 0).fold(0L) { acc, i -> (acc shl 8) or (buffer[at + i].toLong() and 0xff) }
+
+  companion object {
+    const val PARTIAL_BYTES = 64L * 1024
+    private const val CHUNK_BYTES = 256 * 1024
+    // Not a security boundary; SHA-1 is hardware-accelerated on ARMv8 and plenty for equality
+    private const val ALGORITHM = "SHA-1"
+    private val HASHED_BYTES = PerfMetrics.counter("duplicates.bytesHashed")
+
+    private fun hex(bytes: ByteArray): String {
+      val sb = StringBuilder(bytes.size * 2)
+      for (b in bytes) {
+        val v = b.toInt() and 0xff
+        sb.append(HEX[v shr 4]).append(HEX[v and 0x0f])
+      }
+      return sb.toString()
+    }
+
+    private val HEX = "0123456789abcdef".toCharArray()
+  }
+}
@@ -0,0 +1,172 @@
+package com.mlap
+
+import android.os.Process
+import android.util.Log
+import com.facebook.react.bridge.Promise
+import com.facebook.react.bridge.ReactApplicationContext
+import com.facebook.react.bridge.ReactContextBaseJavaModule
+import com.facebook.react.bridge.ReactMethod
+import com.facebook.react.bridge.WritableNativeArray
+import com.facebook.react.bridge.WritableNativeMap
+import java.io.File
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.Executors
+
+/**
+ * Finds indexed tracks whose audio is identical, whatever their paths, names
+ * or tags. Files are narrowed down by payload length, then by a partial hash,
+ * and only the files still colliding after that are read in full, so a
+ * library with few duplicates costs little more than its headers. Spans and
+ * hashes are cached per path/size/mtime in the track index and saved in
+ * batches, so a rerun (or a run after an interruption) only touches changed
+ * files.
+ */
+class DuplicatesModule(reactContext: ReactApplicationContext) : ReactContextBaseJavaModule(reactContext) {
+
+  // Runs one search at a time; the pool does the reading
+  private val executor = Executors.newSingleThreadExecutor()
+  private val pool = Executors.newFixedThreadPool(POOL_SIZE) { r ->
+    Thread({
+      Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+      r.run()
+    }, "Duplicates")
+  }
+  private val finders = object : ThreadLocal<DuplicateFinder>() {
+    override fun initialValue() = DuplicateFinder()
+  }
+  private val index by lazy { TrackIndexDatabase.getInstance(reactApplicationContext) }
+
+  override fun getName(): String {
+    return "Duplicates"
+  }
+
+  /**
+   * Resolves the groups of indexed tracks with identical audio, as
+   * [{ size, paths }] (size is the payload length in bytes), the groups
+   * wasting the most space first.
+   */
+  @ReactMethod
+  fun find(promise: Promise) {
+    executor.execute {
+      try {
+        val start = PerfMetrics.now()
+        val groups = run()
+        SCAN_TIME.recordSince(start)
+        val result = WritableNativeArray()
+        for (group in groups) {
+          val map = WritableNativeMap()
+          map.putDouble("size", group[0].payloadLength.toDouble())
+          val paths = WritableNativeArray()
+          for (entry in group) paths.pushString(entry.path)
+          map.putArray("paths", paths)
+          result.pushMap(map)
+        }
+        promise.resolve(result)
+      } catch (e: InterruptedException) {
+        promise.reject("ERR_DUPLICATES", "Interrupted")
+      } catch (e: Exception) {
+        promise.reject("ERR_DUPLICATES", e.message)
+      }
+    }
+  }
+
+  override fun onCatalystInstanceDestroy() {
+    super.onCatalystInstanceDestroy()
+    executor.shutdownNow()
+    pool.shutdownNow()
+  }
+
+  private data class Stat(val path: String, val size: Long, val mtime: Long)
+
+  private fun run(): List<List<TrackIndexDatabase.HashEntry>> {
+    val entries = HashMap<String, TrackIndexDatabase.HashEntry>()
+    val stale = ArrayList<Stat>()
+    index.forEachHashState { path, cached ->
+      val file = File(path)
+      val size = file.length()
+      val mtime = file.lastModified()
+      if (size == 0L) return@forEachHashState
+      if (cached != null && cached.size == size && cached.mtime == mtime) entries[path] = cached
+      else stale.add(Stat(path, size, mtime))
+    }
+
+    // Payload spans for new and changed files: a few header bytes each
+    runStage(stale, entries) { finder, stat ->
+      val span = finder.span(stat.path)
+      TrackIndexDatabase.HashEntry(stat.path, stat.size, stat.mtime, span.offset, span.length, null, null)
+    }
+
+    // Partial hashes where payload lengths collide; short payloads are then fully hashed already
+    val sameLength = collisions(entries.values.filter { it.payloadLength > 0 }) { it.payloadLength }
+    runStage(sameLength.filter { it.partialHash == null }, entries) { finder, entry ->
+      val partial = finder.partialHash(entry.path, PayloadSpan(entry.payloadOffset, entry.payloadLength))
+      val whole = entry.payloadLength <= DuplicateFinder.PARTIAL_BYTES * 2
+      entry.copy(partialHash = partial, fullHash = if (whole) partial else null)
+    }
+
+    // Full hashes only where the partial ones collide too
+    val samePartial = collisions(entries.values.filter { it.partialHash != null }) {
+      "${it.payloadLength}:${it.partialHash}"
+    }
+    runStage(samePartial.filter { it.fullHash == null }, entries) { finder, entry ->
+      entry.copy(fullHash = finder.fullHash(entry.path, PayloadSpan(entry.payloadOffset, entry.payloadLength)))
+    }
+
+    return entries.values
+      .filter { it.fullHash != null }
+      .groupBy { "${it.payloadLength}:${it.fullHash}" }
+      .values
+      .filter { it.size > 1 }
+      .map { group -> group.sortedBy { it.path } }
+      .sortedByDescending { it[0].payloadLength * (it.size - 1) }
+  }
+
+  // Items sharing a key with at least one other
+  private fun <T> collisions(items: List<T>, key: (T) -> Any): List<T> =
+    items.groupBy(key).values.filter { it.size > 1 }.flatten()
+
+  // Runs job for every item on the pool, storing results into entries and the index in batches
+  private fun <T> runStage(
+    items: List<T>,
+    entries: MutableMap<String, TrackIndexDatabase.HashEntry>,
+    job: (DuplicateFinder, T) -> TrackIndexDatabase.HashEntry
+  ) {
+    if (items.isEmpty()) return
+    val completion = ExecutorCompletionService<TrackIndexDatabase.HashEntry?>(pool)
+    for (item in items) {
+      completion.submit {
+        try {
+          job(finders.get()!!, item)
+        } catch (e: InterruptedException) {
+          null
+        } catch (e: Exception) {
+          Log.w(TAG, "Failed to read $item", e)
+          null
+        }
+      }
+    }
+    val batch = ArrayList<TrackIndexDatabase.HashEntry>(BATCH_SIZE)
+    try {
+      for (i in items.indices) {
+        val entry = completion.take().get() ?: continue
+        entries[entry.path] = entry
+        batch.add(entry)
+        if (batch.size >= BATCH_SIZE) {
+          index.saveHashes(batch)
+          batch.clear()
+        }
+      }
+    } finally {
+      // Kept even when interrupted; the next run carries on from here
+      index.saveHashes(batch)
+    }
+  }
+
+  companion object {
+    private const val TAG = "Duplicates"
+    // Mostly I/O; a few threads keep flash busy without starving the UI
+    private const val POOL_SIZE = 3
+    private const val BATCH_SIZE = 200
+    private val SCAN_TIME = PerfMetrics.timer("duplicates.scan")
+  }
+}
@@ -0,0 +1,308 @@
+package com.mlap
+
+import java.io.File
+import java.io.RandomAccessFile
+
+/** What the container headers say about a file; 0 where unknown. */
+data class ProbeResult(val durationMs: Long, val bitrate: Int, val sampleRate: Int)
+
+/**
+ * Reads duration, bitrate and sample rate from container headers without
+ * decoding: MP3 (Xing/Info, VBRI, or CBR frame size), MP4 (mvhd/mdhd), FLAC
+ * STREAMINFO, Ogg Vorbis/Opus (last page granule) and WAV (fmt/data). At most
+ * a 64 KiB head, a 64 KiB tail and a few MP4 box headers are read.
+ *
+ * Not thread-safe (reuses its buffer); use one per thread.
+ */
+class DurationProber {
+
+  private val buf = ByteArray(PROBE_WINDOW)
+
+  fun probe(path: String): ProbeResult? {
+    val file = File(path)
+    val size = file.length()
+    if (size < 16) return null
+    RandomAccessFile(file, "r").use { raf ->
+      var start = 0L
+      var n = readAt(raf, 0, buf.size)
+      // Any container may be preceded by an ID3v2 tag
+      if (n >= 10 && buf[0] == 'I'.code.toByte() && buf[1] == 'D'.code.toByte() && buf[2] == '3'.code.toByte()) {
+        val tagSize = syncsafe(buf, 6)
+        val footer = if ((buf[5].toInt() and 0x10) != 0) 10 else 0
+        start = 10L + tagSize + footer
+        if (start >= size) return null
+        n = readAt(raf, start, buf.size)
+      }
+      if (n < 12) return null
+      return when {
+        matches(buf, 0, "fLaC") -> probeFlac(n)
+        matches(buf, 0, "OggS") -> probeOgg(raf, n, size)
+        matches(buf, 0, "RIFF") && matches(buf, 8, "WAVE") -> probeWav(n)
+        matches(buf, 4, "ftyp") -> probeMp4(raf, start, size)
+        else -> probeMp3(n, start, size)
+      }
+    }
+  }
+
+  private fun probeMp3(n: Int, start: Long, size: Long): ProbeResult? {
+    var pos = 0
+    while (pos + 4 <= n) {
+      val frame = Mp3Frame.parse(buf, pos)
+      // A real sync is followed by another frame header (when it fits in the window)
+      if (frame != null && (pos + frame.length + 4 > n || Mp3Frame.parse(buf, pos + frame.length) != null)) {
+        return mp3Result(frame, pos, n, start + pos, size)
+      }
+      pos++
+    }
+    return null
+  }
+
+  private fun mp3Result(frame: Mp3Frame, pos: Int, n: Int, audioStart: Long, size: Long): ProbeResult {
+    val xing = pos + frame.xingOffset
+    if (xing + 16 <= n && (matches(buf, xing, "Xing") || matches(buf, xing, "Info"))) {
+      val flags = int32(buf, xing + 4)
+      if ((flags and 1) != 0) {
+        val frames = uint32(buf, xing + 8)
+        val durationMs = frames * frame.samplesPerFrame * 1000 / frame.sampleRate
+        val bytes = if ((flags and 2) != 0) uint32(buf, xing + 12) else size - audioStart
+        return ProbeResult(durationMs, bitrateOf(bytes, durationMs), frame.sampleRate)
+      }
+    }
+    val vbri = pos + 36
+    if (vbri + 18 <= n && matches(buf, vbri, "VBRI")) {
+      val bytes = uint32(buf, vbri + 10)
+      val frames = uint32(buf, vbri + 14)
+      val durationMs = frames * frame.samplesPerFrame * 1000 / frame.sampleRate
+      return ProbeResult(durationMs, bitrateOf(bytes, durationMs), frame.sampleRate)
+    }
+    // Constant bitrate: the rest of the file at the first frame's rate
+    val bitrate = frame.bitrateKbps * 1000
+    return ProbeResult((size - audioStart) * 8000 / bitrate, bitrate, frame.sampleRate)
+  }
+
+  private fun probeFlac(n: Int): ProbeResult? {
+    // First metadata block is always STREAMINFO (34 bytes); the packed fields start 10 bytes in
+    if (n < 8 + 18 || (buf[4].toInt() and 0x7f) != 0) return null
+    val packed = int64(buf, 8 + 10)
+    val sampleRate = ((packed ushr 44) and 0xfffff).toInt()
+    val totalSamples = packed and 0xfffffffffL
+    if (sampleRate == 0 || totalSamples == 0L) return null
+    return ProbeResult(totalSamples * 1000 / sampleRate, 0, sampleRate)
+  }
+
+  private fun probeOgg(raf: RandomAccessFile, n: Int, size: Long): ProbeResult? {
+    val segments = buf[26].toInt() and 0xff
+    val packet = 27 + segments
+    if (packet + 19 > n) return null
+    val sampleRate: Int
+    var preSkip = 0L
+    when {
+      buf[packet] == 1.toByte() && matches(buf, packet + 1, "vorbis") -> sampleRate = int32le(buf, packet + 12)
+      matches(buf, packet, "OpusHead") -> {
+        // Opus granules always count 48 kHz samples
+        sampleRate = 48000
+        preSkip = (uint16le(buf, packet + 10)).toLong()
+      }
+      else -> return null
+    }
+    if (sampleRate <= 0) return null
+    val tailStart = maxOf(0L, size - buf.size)
+    val tail = readAt(raf, tailStart, buf.size)
+    var i = tail - 14
+    while (i >= 0) {
+      if (matches(buf, i, "OggS") && buf[i + 4] == 0.toByte()) {
+        val granule = int64le(buf, i + 6)
+        if (granule > 0) {
+          val durationMs = (granule - preSkip).coerceAtLeast(0) * 1000 / sampleRate
+          return ProbeResult(durationMs, bitrateOf(size, durationMs), sampleRate)
+        }
+      }
+      i--
+    }
+    return null
+  }
+
+  private fun probeWav(n: Int): ProbeResult? {
+    var pos = 12
+    var byteRate = 0
+    var sampleRate = 0
+    while (pos + 8 <= n) {
+      val chunkSize = int32le(buf, pos + 4).toLong() and 0xffffffffL
+      if (matches(buf, pos, "fmt ") && pos + 20 <= n) {
+        sampleRate = int32le(buf, pos + 12)
+        byteRate = int32le(buf, pos + 16)
+      } else if (matches(buf, pos, "data")) {
+        if (byteRate <= 0) return null
+        return ProbeResult(chunkSize * 1000 / byteRate, byteRate * 8, sampleRate)
+      }
+      if (chunkSize > n) return null
+      pos += 8 + chunkSize.toInt() + (chunkSize.toInt() and 1)
+    }
+    return null
+  }
+
+  private fun probeMp4(raf: RandomAccessFile, start: Long, size: Long): ProbeResult? {
+    val moov = findBox(raf, start, size, "moov") ?: return null
+    val mvhd = findBox(raf, moov.first, moov.second, "mvhd") ?: return null
+    var durationMs = fullBoxTime(raf, mvhd.first)
+    var sampleRate = 0
+    // The sound track's media timescale is its sample rate
+    var trakStart = moov.first
+    while (true) {
+      val trak = findBox(raf, trakStart, moov.second, "trak") ?: break
+      trakStart = trak.second
+      val mdia = findBox(raf, trak.first, trak.second, "mdia") ?: continue
+      val hdlr = findBox(raf, mdia.first, mdia.second, "hdlr") ?: continue
+      if (readAt(raf, hdlr.first + 8, 4) < 4 || !matches(buf, 0, "soun")) continue
+      val mdhd = findBox(raf, mdia.first, mdia.second, "mdhd") ?: continue
+      val version = if (readAt(raf, mdhd.first, 1) == 1) buf[0].toInt() else 0
+      if (readAt(raf, mdhd.first + (if (version == 1) 20 else 12), 4) == 4) sampleRate = int32(buf, 0)
+      if (durationMs == 0L) durationMs = fullBoxTime(raf, mdhd.first)
+      break
+    }
+    if (durationMs <= 0) return null
+    return ProbeResult(durationMs, bitrateOf(size, durationMs), sampleRate)
+  }
+
+  // mvhd/mdhd payload: version, flags, times, then timescale and duration (32 or 64 bit)
+  private fun fullBoxTime(raf: RandomAccessFile, payload: Long): Long {
+    val read = readAt(raf, payload, 32)
+    val timescale: Long
+    val duration: Long
+    if (buf[0].toInt() == 1) {
+      if (read < 32) return 0
+      timescale = uint32(buf, 20)
+      duration = int64(buf, 24)
+    } else {
+      if (read < 20) return 0
+      timescale = uint32(buf, 12)
+      duration = uint32(buf, 16)
+    }
+    return if (timescale > 0) duration * 1000 / timescale else 0
+  }
+
+  // (payload start, box end) of the first child box of the given type within [from, to)
+  private fun findBox(raf: RandomAccessFile, from: Long, to: Long, type: String): Pair<Long, Long>? {
+    var pos = from
+    while (pos + 8 <= to) {
+      if (readAt(raf, pos, 16) < 8) return null
+      var boxSize = uint32(buf, 0)
+      var header = 8L
+      if (boxSize == 1L) {
+        boxSize = int64(buf, 8)
+        header = 16L
+      } else if (boxSize == 0L) {
+        boxSize = to - pos
+      }
+      if (boxSize < header) return null
+      if (matches(buf, 4, type)) return (pos + header) to minOf(pos + boxSize, to)
+      pos += boxSize
+    }
+    return null
+  }
+
+  private fun readAt(raf: RandomAccessFile, offset: Long, length: Int): Int {
+    raf.seek(offset)
+    var total = 0
+    while (total < length) {
+      val read = raf.read(buf, total, length - total)
+      if (read < 0) break
+      total += read
+    }
+    return total
+  }
+
+  /** An MPEG audio frame header, or null when the 4 bytes at pos are not one. */
+  class Mp3Frame private constructor(
+    val bitrateKbps: Int,
+    val sampleRate: Int,
+    val samplesPerFrame: Int,
+    val length: Int,
+    // Start of a Xing/Info header relative to the frame: after the side info
+    val xingOffset: Int
+  ) {
+    companion object {
+      private val BITRATES = arrayOf(
+        intArrayOf(0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448), // V1 L1
+        intArrayOf(0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384), // V1 L2
+        intArrayOf(0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320), // V1 L3
+        intArrayOf(0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256), // V2 L1
+        intArrayOf(0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160) // V2 L2/L3
+      )
+      private val SAMPLE_RATES = intArrayOf(44100, 48000, 32000)
+
+      fun parse(b: ByteArray, pos: Int): Mp3Frame? {
+        if (pos < 0 || pos + 4 > b.size) return null
+        val b0 = b[pos].toInt() and 0xff
+        val b1 = b[pos + 1].toInt() and 0xff
+        val b2 = b[pos + 2].toInt() and 0xff
+        val b3 = b[pos + 3].toInt() and 0xff
+        if (b0 != 0xff || (b1 and 0xe0) != 0xe0) return null
+        val version = (b1 shr 3) and 3 // 3: MPEG1, 2: MPEG2, 0: MPEG2.5
+        val layer = (b1 shr 1) and 3 // 3: I, 2: II, 1: III
+        val bitrateIndex = (b2 shr 4) and 0xf
+        val rateIndex = (b2 shr 2) and 3
+        if (version == 1 || layer == 0 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3) return null
+        val mpeg1 = version == 3
+        val table = when {
+          mpeg1 && layer == 3 -> 0
+          mpeg1 && layer == 2 -> 1
+          mpeg1 -> 2
+          layer == 3 -> 3
+          else -> 4
+        }
+        val bitrate = BITRATES[table][bitrateIndex]
+        val sampleRate = SAMPLE_RATES[rateIndex] shr (if (mpeg1) 0 else if (version == 2) 1 else 2)
+        val padding = (b2 shr 1) and 1
+        val mono = ((b3 shr 6) and 3) == 3
+        val samples = when {
+          layer == 3 -> 384
+          layer == 2 || mpeg1 -> 1152
+          else -> 576
+        }
+        val length = if (layer == 3) {
+          (12 * bitrate * 1000 / sampleRate + padding) * 4
+        } else {
+          samples / 8 * bitrate * 1000 / sampleRate + padding
+        }
+        if (length < 4) return null
+        val sideInfo = if (mpeg1) (if (mono) 17 else 32) else (if (mono) 9 else 17)
+        return Mp3Frame(bitrate, sampleRate, samples, length, 4 + sideInfo)
+      }
+    }
+  }
+
+  companion object {
+    private const val PROBE_WINDOW = 64 * 1024
+
+    private fun bitrateOf(bytes: Long, durationMs: Long): Int =
+      if (durationMs > 0) (bytes * 8000 / durationMs).toInt() else 0
+
+    private fun matches(b: ByteArray, pos: Int, tag: String): Boolean {
+      if (pos < 0 || pos + tag.length > b.size) return false
+      for (i in tag.indices) if (b[pos + i] != tag[i].code.toByte()) return false
+      return true
+    }
+
+    private fun syncsafe(b: ByteArray, pos: Int): Int =
+      ((b[pos].toInt() and 0x7f) shl 21) or ((b[pos + 1].toInt() and 0x7f) shl 14) or
+        ((b[pos + 2].toInt() and 0x7f) shl 7) or (b[pos + 3].toInt() and 0x7f)
+
+    private fun int32(b: ByteArray, pos: Int): Int =
+      ((b[pos].toInt() and 0xff) shl 24) or ((b[pos + 1].toInt() and 0xff) shl 16) or
+        ((b[pos + 2].toInt() and 0xff) shl 8) or (b[pos + 3].toInt() and 0xff)
+
+    private fun uint32(b: ByteArray, pos: Int): Long = int32(b, pos).toLong() and 0xffffffffL
+
+    private fun int64(b: ByteArray, pos: Int): Long = (uint32(b, pos) shl 32) or uint32(b, pos + 4)
+
+    private fun int32le(b: ByteArray, pos: Int): Int =
+      (b[pos].toInt() and 0xff) or ((b[pos + 1].toInt() and 0xff) shl 8) or
+        ((b[pos + 2].toInt() and 0xff) shl 16) or ((b[pos + 3].toInt() and 0xff) shl 24)
+
+    private fun uint16le(b: ByteArray, pos: Int): Int = (b[pos].toInt() and 0xff) or ((b[pos + 1].toInt() and 0xff) shl 8)
+
+    private fun int64le(b: ByteArray, pos: Int): Long =
+      (int32le(b, pos).toLong() and 0xffffffffL) or (int32le(b, pos + 4).toLong() shl 32)
+  }
+}
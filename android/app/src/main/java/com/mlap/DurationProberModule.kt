@@ -0,0 +1,151 @@
+package com.mlap
+
+import android.os.Process
+import android.util.Log
+import com.facebook.react.bridge.Promise
+import com.facebook.react.bridge.ReactApplicationContext
+import com.facebook.react.bridge.ReactContextBaseJavaModule
+import com.facebook.react.bridge.ReactMethod
+import com.facebook.react.bridge.ReadableArray
+import com.facebook.react.bridge.WritableNativeArray
+import com.facebook.react.bridge.WritableNativeMap
+import com.facebook.react.modules.core.DeviceEventManagerModule
+import java.io.File
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.Executors
+
+/**
+ * Finds durations the scanner could not report (files outside MediaStore) by
+ * reading container headers on a small background-priority pool. Results are
+ * cached per path/size/mtime in the track index and sent to JS in batches as
+ * "DurationsProbed" events { items: [{ path, duration, bitrate, sampleRate }] }.
+ */
+class DurationProberModule(reactContext: ReactApplicationContext) : ReactContextBaseJavaModule(reactContext) {
+
+  // Runs one probe request at a time; the pool does the file reads
+  private val executor = Executors.newSingleThreadExecutor()
+  private val pool = Executors.newFixedThreadPool(POOL_SIZE) { r ->
+    Thread({
+      Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+      r.run()
+    }, "DurationProber")
+  }
+  private val probers = object : ThreadLocal<DurationProber>() {
+    override fun initialValue() = DurationProber()
+  }
+  private val index by lazy { TrackIndexDatabase.getInstance(reactApplicationContext) }
+
+  override fun getName(): String {
+    return "DurationProber"
+  }
+
+  // Required for NativeEventEmitter compatibility
+  @ReactMethod
+  fun addListener(eventName: String) {}
+
+  @ReactMethod
+  fun removeListeners(count: Double) {}
+
+  /**
+   * Probes the given paths, or every indexed track without a duration when
+   * paths is null. Resolves the number of files a duration was found for.
+   */
+  @ReactMethod
+  fun probe(paths: ReadableArray?, promise: Promise) {
+    val requested = paths?.let { arr -> List(arr.size()) { arr.getString(it) ?: "" }.filter { it.isNotEmpty() } }
+    executor.execute {
+      try {
+        promise.resolve(run(requested ?: index.pathsWithoutDuration()))
+      } catch (e: Exception) {
+        promise.reject("ERR_DURATION_PROBE", e.message)
+      }
+    }
+  }
+
+  override fun onCatalystInstanceDestroy() {
+    super.onCatalystInstanceDestroy()
+    executor.shutdownNow()
+    pool.shutdownNow()
+  }
+
+  private fun run(paths: List<String>): Int {
+    if (paths.isEmpty()) return 0
+    val cached = index.findProbes(paths)
+    val batch = ArrayList<TrackIndexDatabase.ProbeEntry>(BATCH_SIZE)
+    val fresh = ArrayList<TrackIndexDatabase.ProbeEntry>(BATCH_SIZE)
+    var found = 0
+    var lastSend = System.currentTimeMillis()
+    val completion = ExecutorCompletionService<TrackIndexDatabase.ProbeEntry?>(pool)
+    var submitted = 0
+    for (path in paths) {
+      val file = File(path)
+      val size = file.length()
+      val mtime = file.lastModified()
+      val hit = cached[path]
+      if (hit != null && hit.size == size && hit.mtime == mtime) {
+        // Still sent: JS may hold the track without its duration (e.g. after a fallback scan)
+        if (hit.result.durationMs > 0) batch.add(hit)
+        continue
+      }
+      completion.submit {
+        try {
+          val result = probers.get()!!.probe(path) ?: ProbeResult(0, 0, 0)
+          TrackIndexDatabase.ProbeEntry(path, size, mtime, result)
+        } catch (e: Exception) {
+          Log.w(TAG, "Failed to probe $path", e)
+          null
+        }
+      }
+      submitted++
+    }
+    for (i in 0 until submitted) {
+      val entry = completion.take().get() ?: continue
+      // Unreadable files are cached too, so they are not probed again until they change
+      fresh.add(entry)
+      if (entry.result.durationMs > 0) batch.add(entry)
+      val now = System.currentTimeMillis()
+      if (fresh.size >= BATCH_SIZE || now - lastSend >= SEND_INTERVAL_MS) {
+        index.saveProbes(fresh)
+        fresh.clear()
+        found += send(batch)
+        lastSend = now
+      }
+    }
+    index.saveProbes(fresh)
+    found += send(batch)
+    return found
+  }
+
+  private fun send(batch: MutableList<TrackIndexDatabase.ProbeEntry>): Int {
+    val count = batch.size
+    if (count == 0) return 0
+    if (reactApplicationContext.hasActiveReactInstance()) {
+      val items = WritableNativeArray()
+      for (entry in batch) {
+        val map = WritableNativeMap()
+        map.putString("path", entry.path)
+        map.putDouble("duration", entry.result.durationMs.toDouble())
+        map.putInt("bitrate", entry.result.bitrate)
+        map.putInt("sampleRate", entry.result.sampleRate)
+        items.pushMap(map)
+      }
+      val event = WritableNativeMap()
+      event.putArray("items", items)
+      BRIDGE_ITEMS.record(count.toLong())
+      reactApplicationContext
+        .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter::class.java)
+        .emit(PROBED_EVENT, event)
+    }
+    batch.clear()
+    return count
+  }
+
+  companion object {
+    private const val TAG = "DurationProber"
+    private const val PROBED_EVENT = "DurationsProbed"
+    private const val POOL_SIZE = 2
+    private const val BATCH_SIZE = 100
+    private const val SEND_INTERVAL_MS = 500L
+    private val BRIDGE_ITEMS = PerfMetrics.histogram("bridge.payloadItems", "items")
+  }
+}
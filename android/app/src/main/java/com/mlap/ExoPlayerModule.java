@@ -1,23 +1,58 @@
-
 package com.mlap;
 
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.facebook.react.bridge.*;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.google.android.exoplayer2.*;
-import com.google.android.exoplayer2.source.*;
-import com.google.android.exoplayer2.upstream.*;
-import com.google.android.exoplayer2.util.*;
+import com.google.android.exoplayer2.source.ShuffleOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JS front end to QueuePlayerPool: long-lived ExoPlayer instances, one per
+ * queue id (queue1..queue3). Each player is created once and reused across
+ * tracks via setMediaItem, so a track change no longer tears down decoders and
+ * renderers. The pool belongs to PlaybackService and keeps playing when the JS
+ * runtime goes away; this module only commands it and forwards its events.
+ *
+ * A queue is handed over as a native playlist (setQueue/syncQueue), so
+ * ExoPlayer buffers the next item ahead of time and moves to it gaplessly.
+ * Shuffle order and repeat mode live on the player as well; JS only hears
+ * about track boundaries through onMediaItemTransition.
+ *
+ * Positions are pushed rather than polled: while any queue is playing and the
+ * host is in the foreground, one onPlaybackProgress event carries every
+ * playing queue's position per tick.
+ *
+ * Every queue plays through AudioMixer, one shared output; setMix sets a
+ * queue's gain, pan and mute there on top of its player volume, and
+ * setCrossfade turns automatic transitions into native crossfades.
+ *
+ * All player access happens on the main looper; every @ReactMethod hops there
+ * through UiThreadUtil before touching the pool.
+ */
+public class ExoPlayerModule extends ReactContextBaseJavaModule implements LifecycleEventListener {
+    private static final long DEFAULT_PROGRESS_INTERVAL_MS = 500;
 
-public class ExoPlayerModule extends ReactContextBaseJavaModule {
-    private SimpleExoPlayer player;
-    private ReactApplicationContext reactContext;
+    private final ReactApplicationContext reactContext;
+    private final QueuePlayerPool pool;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable progressTick = this::onProgressTick;
+    private long progressIntervalMs = DEFAULT_PROGRESS_INTERVAL_MS;
+    private boolean progressScheduled = false;
+    private boolean hostPaused = false;
 
     public ExoPlayerModule(ReactApplicationContext context) {
         super(context);
         this.reactContext = context;
+        this.pool = QueuePlayerPool.getInstance(context);
+        context.addLifecycleEventListener(this);
+        UiThreadUtil.runOnUiThread(() -> pool.addListener(poolListener));
     }
 
     @NonNull
@@ -26,66 +61,488 @@ public class ExoPlayerModule extends ReactContextBaseJavaModule {
         return "ExoPlayerModule";
     }
 
+    // Required for NativeEventEmitter compatibility
     @ReactMethod
-    public void play(String url) {
-        if (player != null) {
-            player.release();
-        }
-        player = new SimpleExoPlayer.Builder(reactContext).build();
-        MediaItem mediaItem = MediaItem.fromUri(Uri.parse(url));
-        player.setMediaItem(mediaItem);
-        player.prepare();
-        player.play();
-
-        player.addListener(new Player.Listener() {
-            @Override
-            public void onPlaybackStateChanged(int state) {
-                WritableMap params = Arguments.createMap();
-                if (state == Player.STATE_ENDED) {
-                    params.putString("event", "ended");
-                    sendEvent("onPlaybackEvent", params);
-                } else if (state == Player.STATE_READY) {
-                    params.putString("event", "ready");
-                    sendEvent("onPlaybackEvent", params);
+    public void addListener(String eventName) {
+        // No-op: Required for RN built-in Event Emitter
+    }
+
+    @ReactMethod
+    public void removeListeners(double count) {
+        // No-op: Required for RN built-in Event Emitter
+    }
+
+    @ReactMethod
+    public void create(final String queueId) {
+        UiThreadUtil.runOnUiThread(() -> pool.obtain(queueId));
+    }
+
+    @ReactMethod
+    public void play(final String queueId, final String url) {
+        UiThreadUtil.runOnUiThread(() -> {
+            ExoPlayer player = pool.obtain(queueId);
+            player.setMediaItem(MediaItem.fromUri(Uri.parse(url)));
+            player.prepare();
+            player.play();
+        });
+    }
+
+    /**
+     * Replaces the queue's playlist. Items are maps of { id, path, title?, artist? };
+     * playback starts at startIndex/positionMs.
+     */
+    @ReactMethod
+    public void setQueue(final String queueId, final ReadableArray items, final int startIndex, final double positionMs, final boolean playWhenReady) {
+        final List<MediaItem> mediaItems = toMediaItems(items);
+        UiThreadUtil.runOnUiThread(() -> {
+            ExoPlayer player = pool.obtain(queueId);
+            if (mediaItems.isEmpty()) {
+                player.stop();
+                player.clearMediaItems();
+                return;
+            }
+            int index = Math.max(0, Math.min(startIndex, mediaItems.size() - 1));
+            player.setMediaItems(mediaItems, index, (long) positionMs);
+            player.setPlayWhenReady(playWhenReady);
+            player.prepare();
+        });
+    }
+
+    /**
+     * Brings the playlist in line with the queue while leaving the current item
+     * untouched, so edits to the queue never interrupt or rebuffer playback.
+     */
+    @ReactMethod
+    public void syncQueue(final String queueId, final ReadableArray items) {
+        final List<MediaItem> mediaItems = toMediaItems(items);
+        UiThreadUtil.runOnUiThread(() -> {
+            ExoPlayer player = pool.get(queueId);
+            if (player == null) return;
+            MediaItem current = player.getCurrentMediaItem();
+            if (current == null) {
+                player.setMediaItems(mediaItems, false);
+                return;
+            }
+            if (sameMediaIds(player, mediaItems)) return;
+            int currentIndex = player.getCurrentMediaItemIndex();
+            int newIndex = indexOfMediaId(mediaItems, current.mediaId, currentIndex);
+            int count = player.getMediaItemCount();
+            if (currentIndex + 1 < count) player.removeMediaItems(currentIndex + 1, count);
+            if (currentIndex > 0) player.removeMediaItems(0, currentIndex);
+            if (newIndex < 0) {
+                // Current track was removed from the queue: let it finish, then continue with the queue
+                player.addMediaItems(mediaItems);
+            } else {
+                player.addMediaItems(0, mediaItems.subList(0, newIndex));
+                player.addMediaItems(mediaItems.subList(newIndex + 1, mediaItems.size()));
+            }
+        });
+    }
+
+    @ReactMethod
+    public void addToQueue(final String queueId, final ReadableMap item) {
+        final MediaItem mediaItem = toMediaItem(item);
+        if (mediaItem == null) return;
+        UiThreadUtil.runOnUiThread(() -> pool.obtain(queueId).addMediaItem(mediaItem));
+    }
+
+    @ReactMethod
+    public void skipToIndex(final String queueId, final int index) {
+        UiThreadUtil.runOnUiThread(() -> {
+            ExoPlayer player = pool.get(queueId);
+            if (player == null || index < 0 || index >= player.getMediaItemCount()) return;
+            player.seekTo(index, 0);
+            player.play();
+        });
+    }
+
+    @ReactMethod
+    public void next(final String queueId) {
+        UiThreadUtil.runOnUiThread(() -> pool.next(queueId));
+    }
+
+    @ReactMethod
+    public void previous(final String queueId) {
+        UiThreadUtil.runOnUiThread(() -> pool.previous(queueId));
+    }
+
+    /**
+     * Enables or disables shuffle. When given, order is the play order as indices
+     * into the playlist; anything that is not a permutation of the playlist is
+     * replaced by a random order.
+     */
+    @ReactMethod
+    public void setShuffle(final String queueId, final boolean enabled, @Nullable final ReadableArray order) {
+        final int[] shuffled = order != null ? toIntArray(order) : null;
+        UiThreadUtil.runOnUiThread(() -> {
+            ExoPlayer player = pool.get(queueId);
+            if (player == null) return;
+            if (enabled) {
+                int count = player.getMediaItemCount();
+                if (shuffled != null && isPermutation(shuffled, count)) {
+                    player.setShuffleOrder(new ShuffleOrder.DefaultShuffleOrder(shuffled, System.nanoTime()));
+                } else {
+                    player.setShuffleOrder(new ShuffleOrder.DefaultShuffleOrder(count));
                 }
             }
-            @Override
-            public void onPlayerError(@NonNull PlaybackException error) {
-                WritableMap params = Arguments.createMap();
-                params.putString("event", "error");
-                params.putString("message", error.getMessage());
-                sendEvent("onPlaybackEvent", params);
+            player.setShuffleModeEnabled(enabled);
+        });
+    }
+
+    /** mode is one of 'off', 'all' or 'one', matching the JS LoopMode. */
+    @ReactMethod
+    public void setRepeatMode(final String queueId, final String mode) {
+        final int repeatMode;
+        if ("all".equals(mode)) repeatMode = Player.REPEAT_MODE_ALL;
+        else if ("one".equals(mode)) repeatMode = Player.REPEAT_MODE_ONE;
+        else repeatMode = Player.REPEAT_MODE_OFF;
+        UiThreadUtil.runOnUiThread(() -> pool.obtain(queueId).setRepeatMode(repeatMode));
+    }
+
+    @ReactMethod
+    public void pause(final String queueId) {
+        UiThreadUtil.runOnUiThread(() -> {
+            ExoPlayer player = pool.get(queueId);
+            if (player != null) player.pause();
+        });
+    }
+
+    @ReactMethod
+    public void resume(final String queueId) {
+        UiThreadUtil.runOnUiThread(() -> {
+            ExoPlayer player = pool.get(queueId);
+            if (player != null) player.play();
+        });
+    }
+
+    @ReactMethod
+    public void seekTo(final String queueId, final double ms) {
+        UiThreadUtil.runOnUiThread(() -> {
+            ExoPlayer player = pool.get(queueId);
+            if (player != null) player.seekTo((long) ms);
+        });
+    }
+
+    @ReactMethod
+    public void setVolume(final String queueId, final double volume) {
+        UiThreadUtil.runOnUiThread(() -> {
+            ExoPlayer player = pool.get(queueId);
+            if (player != null) player.setVolume((float) volume);
+        });
+    }
+
+    /**
+     * Mixer settings for a queue: { gain?, pan?, muted? }. Missing keys keep
+     * their value; gain is linear (1 = unity), pan runs from -1 (left) to 1.
+     * Applies from the mixer's next period, no player hop needed.
+     */
+    @ReactMethod
+    public void setMix(final String queueId, final ReadableMap mix) {
+        AudioMixer.Strip strip = AudioMixer.getInstance().strip(queueId);
+        if (mix.hasKey("gain")) strip.setGain((float) mix.getDouble("gain"));
+        if (mix.hasKey("pan")) strip.setPan((float) mix.getDouble("pan"));
+        if (mix.hasKey("muted")) strip.setMuted(mix.getBoolean("muted"));
+    }
+
+    /**
+     * Crossfades the queue's automatic track changes over durationMs (0 turns
+     * it off). curve is "linear", "equalPower" (the default) or "sCurve".
+     */
+    @ReactMethod
+    public void setCrossfade(final String queueId, final double durationMs, final String curve) {
+        final int mixerCurve;
+        if ("linear".equals(curve)) mixerCurve = AudioMixer.CURVE_LINEAR;
+        else if ("sCurve".equals(curve)) mixerCurve = AudioMixer.CURVE_S;
+        else mixerCurve = AudioMixer.CURVE_EQUAL_POWER;
+        UiThreadUtil.runOnUiThread(() -> pool.setCrossfade(queueId, (long) durationMs, mixerCurve));
+    }
+
+    /**
+     * Loudness normalization for every queue: on by default, with preampDb
+     * added to each track's gain (still limited so the track's peak does not clip).
+     */
+    @ReactMethod
+    public void setNormalization(final boolean enabled, final double preampDb) {
+        NormalizationGains.configure(enabled, preampDb);
+        UiThreadUtil.runOnUiThread(pool::refreshTrackGains);
+    }
+
+    // Stops playback but keeps the instance (and its renderers) for the next track
+    @ReactMethod
+    public void stop(final String queueId) {
+        UiThreadUtil.runOnUiThread(() -> {
+            ExoPlayer player = pool.get(queueId);
+            if (player != null) {
+                player.stop();
+                player.clearMediaItems();
             }
         });
     }
 
     @ReactMethod
-    public void pause() {
-        if (player != null) player.pause();
+    public void release(final String queueId) {
+        UiThreadUtil.runOnUiThread(() -> pool.release(queueId));
     }
 
     @ReactMethod
-    public void resume() {
-        if (player != null) player.play();
+    public void releaseAll() {
+        UiThreadUtil.runOnUiThread(pool::releaseAll);
     }
 
     @ReactMethod
-    public void stop() {
-        if (player != null) {
-            player.stop();
-            player.release();
-            player = null;
-        }
+    public void getStatus(final String queueId, final Promise promise) {
+        UiThreadUtil.runOnUiThread(() -> {
+            ExoPlayer player = pool.get(queueId);
+            WritableMap status = Arguments.createMap();
+            status.putString("queueId", queueId);
+            if (player == null) {
+                status.putBoolean("isPlaying", false);
+                status.putDouble("position", 0);
+                status.putDouble("duration", 0);
+            } else {
+                long duration = player.getDuration();
+                status.putBoolean("isPlaying", player.isPlaying());
+                status.putDouble("position", player.getCurrentPosition());
+                status.putDouble("duration", duration == C.TIME_UNSET ? 0 : duration);
+            }
+            promise.resolve(status);
+        });
     }
 
+    /** Progress tick rate in ms; 0 or less stops the progress stream. */
     @ReactMethod
-    public void seekTo(double ms) {
-        if (player != null) player.seekTo((long) ms);
+    public void setProgressInterval(final double intervalMs) {
+        UiThreadUtil.runOnUiThread(() -> {
+            progressIntervalMs = (long) intervalMs;
+            mainHandler.removeCallbacks(progressTick);
+            progressScheduled = false;
+            startProgressUpdates();
+        });
+    }
+
+    @Override
+    public void onHostResume() {
+        UiThreadUtil.runOnUiThread(() -> {
+            hostPaused = false;
+            startProgressUpdates();
+        });
+    }
+
+    @Override
+    public void onHostPause() {
+        UiThreadUtil.runOnUiThread(() -> {
+            hostPaused = true;
+            mainHandler.removeCallbacks(progressTick);
+            progressScheduled = false;
+        });
+    }
+
+    @Override
+    public void onHostDestroy() {
+        onHostPause();
+    }
+
+    // Emits right away, then keeps ticking while something plays
+    private void startProgressUpdates() {
+        if (progressScheduled || hostPaused || progressIntervalMs <= 0) return;
+        progressScheduled = true;
+        mainHandler.post(progressTick);
+    }
+
+    private void onProgressTick() {
+        progressScheduled = false;
+        WritableArray queues = Arguments.createArray();
+        for (Map.Entry<String, ExoPlayer> entry : pool.all().entrySet()) {
+            ExoPlayer player = entry.getValue();
+            if (player.isPlaying()) queues.pushMap(progressParams(entry.getKey(), player));
+        }
+        if (queues.size() == 0) return;
+        WritableMap params = Arguments.createMap();
+        params.putArray("queues", queues);
+        sendEvent("onPlaybackProgress", params);
+        if (hostPaused || progressIntervalMs <= 0) return;
+        progressScheduled = true;
+        mainHandler.postDelayed(progressTick, progressIntervalMs);
+    }
+
+    private static WritableMap progressParams(String queueId, ExoPlayer player) {
+        WritableMap map = Arguments.createMap();
+        long duration = player.getDuration();
+        map.putString("queueId", queueId);
+        map.putBoolean("isPlaying", player.isPlaying());
+        map.putDouble("position", player.getCurrentPosition());
+        map.putDouble("duration", duration == C.TIME_UNSET ? 0 : duration);
+        return map;
+    }
+
+    private final QueuePlayerPool.Listener poolListener = new QueuePlayerPool.Listener() {
+        @Override
+        public void onPlaybackStateChanged(String queueId, int state) {
+            if (state == Player.STATE_ENDED) {
+                sendPlaybackEvent(queueId, "ended", null);
+            } else if (state == Player.STATE_READY) {
+                WritableMap params = playbackEventParams(queueId, "ready");
+                long duration = pool.get(queueId).getDuration();
+                params.putDouble("duration", duration == C.TIME_UNSET ? 0 : duration);
+                sendEvent("onPlaybackEvent", params);
+            }
+        }
+        // Play/pause may come from the media session with JS idle; keep JS in step
+        @Override
+        public void onPlayWhenReadyChanged(String queueId, boolean playWhenReady) {
+            sendPlaybackEvent(queueId, playWhenReady ? "playing" : "paused", null);
+        }
+        @Override
+        public void onIsPlayingChanged(String queueId, boolean isPlaying) {
+            if (isPlaying) {
+                startProgressUpdates();
+                return;
+            }
+            // One final position for a queue that stopped, so JS does not lag behind
+            ExoPlayer stopped = pool.get(queueId);
+            if (stopped == null || hostPaused) return;
+            WritableArray queues = Arguments.createArray();
+            queues.pushMap(progressParams(queueId, stopped));
+            WritableMap params = Arguments.createMap();
+            params.putArray("queues", queues);
+            sendEvent("onPlaybackProgress", params);
+        }
+        @Override
+        public void onMediaItemTransition(String queueId, @Nullable MediaItem mediaItem, int reason) {
+            sendTransitionEvent(queueId, mediaItem, reason);
+        }
+        @Override
+        public void onPlayerError(String queueId, PlaybackException error) {
+            sendPlaybackEvent(queueId, "error", error.getMessage());
+        }
+        @Override
+        public void onQueueEnded(String queueId) {
+            sendPlaybackEvent(queueId, "ended", null);
+        }
+    };
+
+    private void sendTransitionEvent(String queueId, @Nullable MediaItem mediaItem, int reason) {
+        ExoPlayer player = pool.get(queueId);
+        if (player == null) return;
+        WritableMap params = Arguments.createMap();
+        params.putString("queueId", queueId);
+        params.putInt("index", player.getCurrentMediaItemIndex());
+        params.putString("mediaId", mediaItem != null ? mediaItem.mediaId : null);
+        switch (reason) {
+            case Player.MEDIA_ITEM_TRANSITION_REASON_AUTO:
+                params.putString("reason", "auto");
+                break;
+            case Player.MEDIA_ITEM_TRANSITION_REASON_REPEAT:
+                params.putString("reason", "repeat");
+                break;
+            case Player.MEDIA_ITEM_TRANSITION_REASON_SEEK:
+                params.putString("reason", "seek");
+                break;
+            default:
+                params.putString("reason", "playlist");
+                break;
+        }
+        sendEvent("onMediaItemTransition", params);
+    }
+
+    private static List<MediaItem> toMediaItems(@Nullable ReadableArray items) {
+        List<MediaItem> mediaItems = new ArrayList<>();
+        if (items == null) return mediaItems;
+        for (int i = 0; i < items.size(); i++) {
+            MediaItem mediaItem = toMediaItem(items.getMap(i));
+            if (mediaItem != null) mediaItems.add(mediaItem);
+        }
+        return mediaItems;
+    }
+
+    @Nullable
+    private static MediaItem toMediaItem(@Nullable ReadableMap item) {
+        if (item == null || !item.hasKey("path") || item.isNull("path")) return null;
+        String path = item.getString("path");
+        String id = item.hasKey("id") && !item.isNull("id") ? item.getString("id") : path;
+        String title = item.hasKey("title") && !item.isNull("title") ? item.getString("title") : null;
+        String artist = item.hasKey("artist") && !item.isNull("artist") ? item.getString("artist") : null;
+        return mediaItem(id, path, title, artist);
+    }
+
+    // Shared with PlaybackService, which restores a queue without JS
+    static MediaItem mediaItem(String id, String path, @Nullable String title, @Nullable String artist) {
+        MediaMetadata.Builder metadata = new MediaMetadata.Builder();
+        if (title != null) metadata.setTitle(title);
+        if (artist != null) metadata.setArtist(artist);
+        return new MediaItem.Builder()
+            .setMediaId(id)
+            .setUri(Uri.parse(path))
+            .setMediaMetadata(metadata.build())
+            .build();
+    }
+
+    private static boolean sameMediaIds(ExoPlayer player, List<MediaItem> mediaItems) {
+        if (player.getMediaItemCount() != mediaItems.size()) return false;
+        for (int i = 0; i < mediaItems.size(); i++) {
+            if (!player.getMediaItemAt(i).mediaId.equals(mediaItems.get(i).mediaId)) return false;
+        }
+        return true;
+    }
+
+    // Index of mediaId in items, preferring the occurrence closest to near (queues may hold duplicates)
+    private static int indexOfMediaId(List<MediaItem> items, String mediaId, int near) {
+        int best = -1;
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i).mediaId.equals(mediaId) && (best < 0 || Math.abs(i - near) < Math.abs(best - near))) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static int[] toIntArray(ReadableArray array) {
+        int[] result = new int[array.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = array.getInt(i);
+        }
+        return result;
+    }
+
+    private static boolean isPermutation(int[] order, int count) {
+        if (order.length != count) return false;
+        boolean[] seen = new boolean[count];
+        for (int index : order) {
+            if (index < 0 || index >= count || seen[index]) return false;
+            seen[index] = true;
+        }
+        return true;
+    }
+
+    private void sendPlaybackEvent(String queueId, String event, @Nullable String message) {
+        WritableMap params = playbackEventParams(queueId, event);
+        if (message != null) params.putString("message", message);
+        sendEvent("onPlaybackEvent", params);
+    }
+
+    private static WritableMap playbackEventParams(String queueId, String event) {
+        WritableMap params = Arguments.createMap();
+        params.putString("queueId", queueId);
+        params.putString("event", event);
+        return params;
     }
 
     private void sendEvent(String eventName, @Nullable WritableMap params) {
+        if (!reactContext.hasActiveReactInstance()) return;
         reactContext
             .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
             .emit(eventName, params);
     }
+
+    @Override
+    public void onCatalystInstanceDestroy() {
+        super.onCatalystInstanceDestroy();
+        reactContext.removeLifecycleEventListener(this);
+        // Players stay with PlaybackService; only stop talking to this runtime
+        UiThreadUtil.runOnUiThread(() -> {
+            pool.removeListener(poolListener);
+            mainHandler.removeCallbacks(progressTick);
+            progressScheduled = false;
+        });
+    }
 }
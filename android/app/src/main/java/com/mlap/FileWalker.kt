@@ -0,0 +1,125 @@
+package com.mlap
+
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+
+/**
+ * Parallel directory walk for when MediaStore is unavailable. Each directory is
+ * a fork/join task, so deep and wide trees are spread across a work-stealing
+ * pool. Hidden entries, excluded path prefixes and system folders are pruned at
+ * the directory, and matches are handed to onBatch in groups of batchSize
+ * (from pool threads, one call at a time).
+ */
+class FileWalker(
+  extensions: Collection<String>,
+  private val excludedPrefixes: Collection<String>,
+  private val batchSize: Int = DEFAULT_BATCH_SIZE,
+  private val onBatch: (List<String>) -> Unit
+) {
+
+  // Lowercase, without the dot; matched in place against the file name
+  private val exts = extensions.map { it.removePrefix(".").lowercase() }.filter { it.isNotEmpty() }.toTypedArray()
+  private val maxExtLength = exts.maxOfOrNull { it.length } ?: 0
+  private val visited = ConcurrentHashMap.newKeySet<String>()
+  private val pending = ArrayList<String>(batchSize)
+  private var count = 0
+
+  /** Walks every root and returns the number of files found. Roots reached again through another root or a link are walked once. */
+  fun walk(roots: List<String>): Int {
+    val tasks = ArrayList<DirTask>()
+    // Claim all roots first so a root nested in another is walked as itself, in order
+    for (root in roots) {
+      val dir = File(root)
+      if (!dir.isDirectory || isExcluded(root)) continue
+      if (visited.add(canonical(dir))) tasks.add(DirTask(dir))
+    }
+    val pool = ForkJoinPool(PARALLELISM)
+    try {
+      pool.invoke(object : RecursiveAction() {
+        override fun compute() {
+          invokeAll(tasks)
+        }
+      })
+    } finally {
+      pool.shutdown()
+    }
+    synchronized(pending) { flush() }
+    return count
+  }
+
+  fun matchesExtension(name: String): Boolean {
+    val dot = name.lastIndexOf('.')
+    if (dot < 0) return false
+    val length = name.length - dot - 1
+    if (length == 0 || length > maxExtLength) return false
+    for (ext in exts) {
+      if (ext.length == length && name.regionMatches(dot + 1, ext, 0, length, ignoreCase = true)) return true
+    }
+    return false
+  }
+
+  private inner class DirTask(private val dir: File) : RecursiveAction() {
+    override fun compute() {
+      val names = dir.list() ?: return
+      var found: ArrayList<String>? = null
+      var subdirs: ArrayList<DirTask>? = null
+      val base = dir.path
+      for (name in names) {
+        if (name.isEmpty() || name[0] == '.') continue
+        val child = File(dir, name)
+        // Only files count; a folder named like a track (Album.mp3) is walked instead
+        if (matchesExtension(name) && child.isFile) {
+          (found ?: ArrayList<String>().also { found = it }).add("$base/$name")
+          continue
+        }
+        if (isSkippedFolder(name)) continue
+        if (!child.isDirectory) continue
+        if (isExcluded(child.path) || !visited.add(canonical(child))) continue
+        (subdirs ?: ArrayList<DirTask>().also { subdirs = it }).add(DirTask(child))
+      }
+      found?.let { emit(it) }
+      subdirs?.let { invokeAll(it) }
+    }
+  }
+
+  private fun emit(paths: List<String>) {
+    synchronized(pending) {
+      count += paths.size
+      pending.addAll(paths)
+      if (pending.size >= batchSize) flush()
+    }
+  }
+
+  // Caller holds the pending lock
+  private fun flush() {
+    if (pending.isEmpty()) return
+    onBatch(ArrayList(pending))
+    pending.clear()
+  }
+
+  private fun isExcluded(path: String): Boolean {
+    for (prefix in excludedPrefixes) {
+      if (prefix.isNotEmpty() && path.startsWith(prefix)) return true
+    }
+    return false
+  }
+
+  private fun canonical(dir: File): String =
+    try {
+      dir.canonicalPath
+    } catch (e: Exception) {
+      dir.absolutePath
+    }
+
+  companion object {
+    private const val DEFAULT_BATCH_SIZE = 256
+    // Listing directories is mostly waiting on storage, so run more walkers than cores
+    private val PARALLELISM = (Runtime.getRuntime().availableProcessors() * 2).coerceIn(2, 16)
+
+    private val SKIPPED_FOLDERS = arrayOf("Android", "obb", "cache", "System Volume Information")
+
+    fun isSkippedFolder(name: String): Boolean = SKIPPED_FOLDERS.any { name.contains(it) }
+  }
+}
@@ -0,0 +1,49 @@
+package com.mlap
+
+import com.facebook.react.bridge.WritableMap
+import com.facebook.react.bridge.WritableNativeMap
+
+/**
+ * One row of the on-device track index. id is the JS track id (the file path);
+ * mediaId is the MediaStore _ID, or null for files found outside MediaStore.
+ * artwork is a cached cover image file, filled in by MetadataExtractor;
+ * bitrate (bps) and sampleRate (Hz) come from DurationProber, 0 when unknown.
+ */
+data class IndexedTrack(
+  val id: String,
+  val mediaId: Long?,
+  val path: String,
+  val title: String?,
+  val artist: String?,
+  val album: String?,
+  val duration: Long,
+  val mime: String?,
+  val folder: String,
+  val dateModified: Long,
+  val artwork: String? = null,
+  val bitrate: Int = 0,
+  val sampleRate: Int = 0
+) {
+
+  fun toWritableMap(): WritableNativeMap = WritableNativeMap().also { writeTo(it) }
+
+  fun writeTo(map: WritableMap) {
+    map.putString("id", id)
+    map.putString("title", title)
+    map.putString("artist", artist)
+    map.putString("album", album)
+    map.putDouble("duration", duration.toDouble())
+    map.putString("path", path)
+    map.putString("mimeType", mime)
+    map.putString("picture", artwork)
+    if (bitrate > 0) map.putInt("bitrate", bitrate)
+    if (sampleRate > 0) map.putInt("sampleRate", sampleRate)
+  }
+
+  companion object {
+    fun folderOf(path: String): String {
+      val slash = path.lastIndexOf('/')
+      return if (slash > 0) path.substring(0, slash) else path
+    }
+  }
+}
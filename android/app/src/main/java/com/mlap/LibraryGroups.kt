@@ -0,0 +1,129 @@
+package com.mlap
+
+import java.text.CollationKey
+import java.text.Collator
+import java.util.Locale
+
+/**
+ * Album, artist and folder-tree groupings of the track index with counts,
+ * built in one pass and reused until the index changes. Names are ordered by
+ * collation keys computed once per group rather than on every comparison.
+ */
+class LibraryGroups private constructor(val generation: Long) {
+
+  class AlbumGroup(val name: String, var artist: String?, var count: Int) {
+    lateinit var sortKey: CollationKey
+  }
+
+  class ArtistGroup(val name: String, var count: Int) {
+    val albums = HashSet<String>()
+    lateinit var sortKey: CollationKey
+  }
+
+  class FolderNode(val path: String, val name: String, val parent: FolderNode?) {
+    val children = HashMap<String, FolderNode>()
+    var trackCount = 0 // this folder and everything below it
+    var directCount = 0
+    lateinit var sortKey: CollationKey
+    lateinit var sortedChildren: List<FolderNode>
+  }
+
+  lateinit var albums: List<AlbumGroup>
+    private set
+  lateinit var artists: List<ArtistGroup>
+    private set
+  private val folders = HashMap<String, FolderNode>()
+  private val root = FolderNode("", "", null)
+
+  /** Deepest folder that still contains every track (what the folder view opens at). */
+  val commonRoot: FolderNode
+    get() {
+      var node = root
+      while (node.directCount == 0 && node.children.size == 1) node = node.children.values.first()
+      return node
+    }
+
+  fun folder(path: String): FolderNode? = if (path.isEmpty()) root else folders[path]
+
+  private fun build(forEachTrack: ((IndexedTrack) -> Unit) -> Unit) {
+    val albumMap = HashMap<String, AlbumGroup>()
+    val artistMap = HashMap<String, ArtistGroup>()
+    forEachTrack { track ->
+      val album = track.album
+      if (album != null) {
+        val group = albumMap.getOrPut(album) { AlbumGroup(album, track.artist, 0) }
+        group.count++
+        if (group.artist == null) group.artist = track.artist
+      }
+      val artist = track.artist
+      if (artist != null) {
+        val group = artistMap.getOrPut(artist) { ArtistGroup(artist, 0) }
+        group.count++
+        if (album != null) group.albums.add(album)
+      }
+      var node: FolderNode? = folderNode(track.folder)
+      node!!.directCount++
+      while (node != null) {
+        node.trackCount++
+        node = node.parent
+      }
+    }
+
+    val collator = Collator.getInstance(Locale.getDefault())
+    collator.strength = Collator.SECONDARY
+    for (group in albumMap.values) group.sortKey = collator.getCollationKey(group.name)
+    for (group in artistMap.values) group.sortKey = collator.getCollationKey(group.name)
+    albums = albumMap.values.sortedWith { a, b -> a.sortKey.compareTo(b.sortKey) }
+    artists = artistMap.values.sortedWith { a, b -> a.sortKey.compareTo(b.sortKey) }
+    sortChildren(root, collator)
+    for (node in folders.values) sortChildren(node, collator)
+  }
+
+  // Paths are only split the first time a folder is seen
+  private fun folderNode(path: String): FolderNode {
+    if (path.isEmpty()) return root
+    folders[path]?.let { return it }
+    val slash = path.lastIndexOf('/')
+    val parent = if (slash > 0) folderNode(path.substring(0, slash)) else root
+    val node = FolderNode(path, path.substring(slash + 1), parent)
+    parent.children[node.name] = node
+    folders[path] = node
+    return node
+  }
+
+  private fun sortChildren(node: FolderNode, collator: Collator) {
+    for (child in node.children.values) child.sortKey = collator.getCollationKey(child.name)
+    node.sortedChildren = node.children.values.sortedWith { a, b -> a.sortKey.compareTo(b.sortKey) }
+  }
+
+  companion object {
+    @Volatile
+    private var current: LibraryGroups? = null
+
+    /** Groupings for the index as it is now; rebuilt only after the index changed. */
+    fun get(index: TrackIndexDatabase): LibraryGroups {
+      val generation = index.generation
+      current?.let { if (it.generation == generation) return it }
+      synchronized(this) {
+        current?.let { if (it.generation == generation) return it }
+        val groups = LibraryGroups(generation)
+        groups.build(index::forEachTrack)
+        current = groups
+        return groups
+      }
+    }
+
+    /** Drops the cached groupings; the next get() rebuilds them from the index. */
+    @JvmStatic
+    fun trimMemory() {
+      current = null
+    }
+
+    /** Groupings of the given tracks, uncached. */
+    internal fun of(tracks: Iterable<IndexedTrack>): LibraryGroups {
+      val groups = LibraryGroups(0)
+      groups.build { onTrack -> tracks.forEach(onTrack) }
+      return groups
+    }
+  }
+}
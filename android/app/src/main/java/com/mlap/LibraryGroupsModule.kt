@@ -0,0 +1,96 @@
+package com.mlap
+
+import com.facebook.react.bridge.Promise
+import com.facebook.react.bridge.ReactApplicationContext
+import com.facebook.react.bridge.ReactContextBaseJavaModule
+import com.facebook.react.bridge.ReactMethod
+import com.facebook.react.bridge.WritableNativeArray
+import com.facebook.react.bridge.WritableNativeMap
+import java.util.concurrent.Executors
+
+/**
+ * Precomputed album/artist/folder groupings over the track index, so the
+ * browse tabs never rebuild them over the full track list in JS.
+ */
+class LibraryGroupsModule(reactContext: ReactApplicationContext) : ReactContextBaseJavaModule(reactContext) {
+
+  private val executor = Executors.newSingleThreadExecutor()
+  private val index by lazy { TrackIndexDatabase.getInstance(reactApplicationContext) }
+
+  override fun getName(): String {
+    return "LibraryGroups"
+  }
+
+  /** Resolves [{ name, artist, count }] in collation order. */
+  @ReactMethod
+  fun getAlbums(promise: Promise) {
+    executor.execute {
+      try {
+        val arr = WritableNativeArray()
+        for (album in LibraryGroups.get(index).albums) {
+          val map = WritableNativeMap()
+          map.putString("name", album.name)
+          map.putString("artist", album.artist)
+          map.putInt("count", album.count)
+          arr.pushMap(map)
+        }
+        promise.resolve(arr)
+      } catch (e: Exception) {
+        promise.reject("ERR_LIBRARY_GROUPS", e.message)
+      }
+    }
+  }
+
+  /** Resolves [{ name, albums, count }] in collation order. */
+  @ReactMethod
+  fun getArtists(promise: Promise) {
+    executor.execute {
+      try {
+        val arr = WritableNativeArray()
+        for (artist in LibraryGroups.get(index).artists) {
+          val map = WritableNativeMap()
+          map.putString("name", artist.name)
+          map.putInt("albums", artist.albums.size)
+          map.putInt("count", artist.count)
+          arr.pushMap(map)
+        }
+        promise.resolve(arr)
+      } catch (e: Exception) {
+        promise.reject("ERR_LIBRARY_GROUPS", e.message)
+      }
+    }
+  }
+
+  /**
+   * Resolves { path, rootPath, trackCount, directCount, folders: [{ name, path, count }] }
+   * for a folder; a null path opens the deepest folder common to all tracks.
+   * Files directly in the folder are read page by page via MediaScanner.query.
+   */
+  @ReactMethod
+  fun getFolderChildren(path: String?, promise: Promise) {
+    executor.execute {
+      try {
+        val groups = LibraryGroups.get(index)
+        val rootNode = groups.commonRoot
+        val node = if (path == null) rootNode else groups.folder(path)
+        val result = WritableNativeMap()
+        result.putString("path", node?.path ?: path)
+        result.putString("rootPath", rootNode.path)
+        result.putInt("trackCount", node?.trackCount ?: 0)
+        result.putInt("directCount", node?.directCount ?: 0)
+        val folders = WritableNativeArray()
+        node?.sortedChildren?.forEach { child ->
+          val map = WritableNativeMap()
+          map.putString("name", child.name)
+          map.putString("path", child.path)
+          map.putInt("count", child.trackCount)
+          folders.pushMap(map)
+        }
+        result.putArray("folders", folders)
+        promise.resolve(result)
+      } catch (e: Exception) {
+        promise.reject("ERR_LIBRARY_GROUPS", e.message)
+      }
+    }
+  }
+}
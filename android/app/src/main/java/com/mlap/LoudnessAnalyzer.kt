@@ -0,0 +1,215 @@
+package com.mlap
+
+import android.media.AudioFormat
+import android.media.MediaCodec
+import android.media.MediaExtractor
+import android.media.MediaFormat
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteOrder
+import kotlin.math.log10
+
+/**
+ * Track gain in dB to reach REFERENCE_LUFS (ReplayGain 2.0's -18 LUFS), the
+ * sample peak (1.0 = full scale), and the measured integrated loudness (null
+ * when the gain came from tags). source is SOURCE_TAG, SOURCE_R128 or
+ * SOURCE_NONE (nothing usable: silence, undecodable), which is cached too.
+ */
+data class LoudnessResult(val gainDb: Double, val peak: Double, val loudness: Double?, val source: String)
+
+/**
+ * Finds a track's normalization gain: existing ReplayGain (or Opus R128) tags
+ * when the file has them, otherwise a full decode through MediaCodec measured
+ * with R128Meter. Tags are looked for as plain text in the first and last
+ * 256 KiB, which covers ID3v2 TXXX (Latin-1/UTF-8), Vorbis comments in FLAC
+ * and Ogg, APEv2 and MP4 freeform atoms.
+ *
+ * Not thread-safe (reuses its buffers); use one per thread. Checks for
+ * interruption while decoding.
+ */
+class LoudnessAnalyzer {
+
+  private val window = ByteArray(TAG_WINDOW)
+  private var shorts = ShortArray(0)
+  private var floats = FloatArray(0)
+
+  fun analyze(path: String): LoudnessResult {
+    readTags(path)?.let { return it }
+    return measure(path) ?: LoudnessResult(0.0, 1.0, null, SOURCE_NONE)
+  }
+
+  fun readTags(path: String): LoudnessResult? {
+    val file = File(path)
+    val size = file.length()
+    RandomAccessFile(file, "r").use { raf ->
+      val head = read(raf, 0, window.size)
+      tagsIn(head)?.let { return it }
+      if (size > window.size) {
+        val tail = read(raf, maxOf(window.size.toLong(), size - window.size), window.size)
+        tagsIn(tail)?.let { return it }
+      }
+    }
+    return null
+  }
+
+  private fun tagsIn(n: Int): LoudnessResult? {
+    val gain = valueAfter(n, "REPLAYGAIN_TRACK_GAIN")
+    if (gain != null && gain in -60.0..60.0) {
+      val peak = valueAfter(n, "REPLAYGAIN_TRACK_PEAK")?.takeIf { it > 0 && it < 10 } ?: 1.0
+      return LoudnessResult(gain, peak, null, SOURCE_TAG)
+    }
+    // Opus: Q7.8 dB relative to -23 LUFS; no peak is stored
+    val r128 = valueAfter(n, "R128_TRACK_GAIN") ?: return null
+    return LoudnessResult(r128 / 256 + (REFERENCE_LUFS - R128_REFERENCE_LUFS), 1.0, null, SOURCE_TAG)
+  }
+
+  // The number following a case-insensitive key in window[0, n), skipping separators and atom headers
+  private fun valueAfter(n: Int, key: String): Double? {
+    var i = indexOfIgnoreCase(n, key, 0)
+    while (i >= 0) {
+      var p = i + key.length
+      val limit = minOf(n, p + 48)
+      while (p < limit && !isNumberChar(window[p])) p++
+      val start = p
+      while (p < n && p - start < 16 && isNumberChar(window[p])) p++
+      if (p > start) {
+        String(window, start, p - start, Charsets.ISO_8859_1).toDoubleOrNull()?.let { return it }
+      }
+      i = indexOfIgnoreCase(n, key, i + 1)
+    }
+    return null
+  }
+
+  private fun indexOfIgnoreCase(n: Int, key: String, from: Int): Int {
+    val first = key[0].code
+    outer@ for (i in from..n - key.length) {
+      if ((window[i].toInt() and 0xdf) != first) continue
+      for (j in 1 until key.length) {
+        val c = window[i + j].toInt()
+        val k = key[j].code
+        if (c != k && !(k in 'A'.code..'Z'.code && c == k + 32)) continue@outer
+      }
+      return i
+    }
+    return -1
+  }
+
+  private fun isNumberChar(b: Byte): Boolean {
+    val c = b.toInt()
+    return c in '0'.code..'9'.code || c == '-'.code || c == '+'.code || c == '.'.code
+  }
+
+  private fun read(raf: RandomAccessFile, offset: Long, length: Int): Int {
+    raf.seek(offset)
+    var total = 0
+    while (total < length) {
+      val r = raf.read(window, total, length - total)
+      if (r < 0) break
+      total += r
+    }
+    return total
+  }
+
+  /** Decodes the first audio track and measures it; null when it can't be decoded or is silent. */
+  fun measure(path: String): LoudnessResult? {
+    val extractor = MediaExtractor()
+    var codec: MediaCodec? = null
+    try {
+      extractor.setDataSource(path)
+      val track = (0 until extractor.trackCount).firstOrNull {
+        extractor.getTrackFormat(it).getString(MediaFormat.KEY_MIME)?.startsWith("audio/") == true
+      } ?: return null
+      extractor.selectTrack(track)
+      val format = extractor.getTrackFormat(track)
+      codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME)!!)
+      codec.configure(format, null, null, 0)
+      codec.start()
+      return decode(extractor, codec)
+    } catch (e: InterruptedException) {
+      throw e
+    } catch (e: Exception) {
+      return null
+    } finally {
+      codec?.let {
+        try {
+          it.stop()
+        } catch (ignored: Exception) {
+        }
+        it.release()
+      }
+      extractor.release()
+    }
+  }
+
+  private fun decode(extractor: MediaExtractor, codec: MediaCodec): LoudnessResult? {
+    val info = MediaCodec.BufferInfo()
+    var meter: R128Meter? = null
+    var channels = 0
+    var isFloat = false
+    var inputDone = false
+    while (true) {
+      if (Thread.interrupted()) throw InterruptedException()
+      if (!inputDone) {
+        val inIndex = codec.dequeueInputBuffer(TIMEOUT_US)
+        if (inIndex >= 0) {
+          val input = codec.getInputBuffer(inIndex)!!
+          val size = extractor.readSampleData(input, 0)
+          if (size < 0) {
+            codec.queueInputBuffer(inIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM)
+            inputDone = true
+          } else {
+            codec.queueInputBuffer(inIndex, 0, size, extractor.sampleTime, 0)
+            extractor.advance()
+          }
+        }
+      }
+      val outIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US)
+      if (outIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+        val out = codec.outputFormat
+        channels = out.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+        isFloat = out.containsKey(MediaFormat.KEY_PCM_ENCODING) &&
+          out.getInteger(MediaFormat.KEY_PCM_ENCODING) == AudioFormat.ENCODING_PCM_FLOAT
+        meter = R128Meter(out.getInteger(MediaFormat.KEY_SAMPLE_RATE), channels)
+      } else if (outIndex >= 0) {
+        val m = meter
+        if (m != null && info.size > 0) {
+          val buffer = codec.getOutputBuffer(outIndex)!!.order(ByteOrder.LITTLE_ENDIAN)
+          buffer.position(info.offset).limit(info.offset + info.size)
+          if (isFloat) {
+            val count = info.size / 4
+            if (floats.size < count) floats = FloatArray(count)
+            buffer.asFloatBuffer().get(floats, 0, count)
+            m.add(floats, count / channels)
+          } else {
+            val count = info.size / 2
+            if (shorts.size < count) shorts = ShortArray(count)
+            buffer.asShortBuffer().get(shorts, 0, count)
+            m.add(shorts, count / channels)
+          }
+        }
+        codec.releaseOutputBuffer(outIndex, false)
+        if ((info.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) break
+      }
+    }
+    val m = meter ?: return null
+    val loudness = m.integratedLoudness() ?: return null
+    return LoudnessResult(REFERENCE_LUFS - loudness, m.peak, loudness, SOURCE_R128)
+  }
+
+  companion object {
+    const val REFERENCE_LUFS = -18.0
+    private const val R128_REFERENCE_LUFS = -23.0
+    const val SOURCE_TAG = "tag"
+    const val SOURCE_R128 = "r128"
+    const val SOURCE_NONE = "none"
+    private const val TAG_WINDOW = 256 * 1024
+    private const val TIMEOUT_US = 10_000L
+
+    /** Linear gain for a result, lowered where needed so the peak does not clip. */
+    @JvmStatic
+    fun linearGain(gainDb: Double, peak: Double, preampDb: Double): Float {
+      val limit = if (peak > 0) -20 * log10(peak) else gainDb + preampDb
+      return Math.pow(10.0, minOf(gainDb + preampDb, limit) / 20).toFloat()
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package com.mlap
+
+import android.os.Process
+import android.util.Log
+import com.facebook.react.bridge.Promise
+import com.facebook.react.bridge.ReactApplicationContext
+import com.facebook.react.bridge.ReactContextBaseJavaModule
+import com.facebook.react.bridge.ReactMethod
+import com.facebook.react.bridge.ReadableArray
+import com.facebook.react.bridge.UiThreadUtil
+import java.io.File
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.Executors
+
+/**
+ * Finds normalization gains for the library in the background: ReplayGain
+ * tags where files have them, otherwise an EBU R128 measurement of the decoded
+ * audio. Runs on a small lowest-priority pool so playback and scrolling never
+ * wait on it. Results are stored per path/size/mtime in the track index in
+ * small batches, so an interrupted run resumes where it stopped and unchanged
+ * files are never analyzed twice; the player picks them up through
+ * NormalizationGains as they arrive.
+ */
+class LoudnessModule(reactContext: ReactApplicationContext) : ReactContextBaseJavaModule(reactContext) {
+
+  // Runs one analysis request at a time; the pool does the decoding
+  private val executor = Executors.newSingleThreadExecutor()
+  private val pool = Executors.newFixedThreadPool(POOL_SIZE) { r ->
+    Thread({
+      Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST)
+      r.run()
+    }, "Loudness")
+  }
+  private val analyzers = object : ThreadLocal<LoudnessAnalyzer>() {
+    override fun initialValue() = LoudnessAnalyzer()
+  }
+  private val index by lazy { TrackIndexDatabase.getInstance(reactApplicationContext) }
+
+  override fun getName(): String {
+    return "Loudness"
+  }
+
+  /**
+   * Analyzes the given paths, or every indexed track whose file changed since
+   * it was last analyzed (or never was) when paths is null. Resolves the
+   * number of files analyzed.
+   */
+  @ReactMethod
+  fun analyze(paths: ReadableArray?, promise: Promise) {
+    val requested = paths?.let { arr -> List(arr.size()) { arr.getString(it) ?: "" }.filter { it.isNotEmpty() } }
+    executor.execute {
+      try {
+        promise.resolve(run(requested))
+      } catch (e: InterruptedException) {
+        promise.reject("ERR_LOUDNESS", "Interrupted")
+      } catch (e: Exception) {
+        promise.reject("ERR_LOUDNESS", e.message)
+      }
+    }
+  }
+
+  override fun onCatalystInstanceDestroy() {
+    super.onCatalystInstanceDestroy()
+    executor.shutdownNow()
+    pool.shutdownNow()
+  }
+
+  private fun run(requested: List<String>?): Int {
+    val stale = ArrayList<String>()
+    if (requested == null) {
+      index.forEachLoudnessState { path, size, mtime ->
+        if (size == null || isChanged(path, size, mtime)) stale.add(path)
+      }
+    } else {
+      val cached = index.findLoudness(requested)
+      for (path in requested) {
+        val hit = cached[path]
+        if (hit == null || isChanged(path, hit.size, hit.mtime)) stale.add(path)
+      }
+    }
+    if (stale.isEmpty()) return 0
+    val completion = ExecutorCompletionService<TrackIndexDatabase.LoudnessEntry?>(pool)
+    for (path in stale) {
+      completion.submit {
+        val file = File(path)
+        val size = file.length()
+        val mtime = file.lastModified()
+        try {
+          val start = PerfMetrics.now()
+          val result = analyzers.get()!!.analyze(path)
+          (if (result.source == LoudnessAnalyzer.SOURCE_TAG) TAG_TIME else MEASURE_TIME).recordSince(start)
+          TrackIndexDatabase.LoudnessEntry(path, size, mtime, result)
+        } catch (e: InterruptedException) {
+          null
+        } catch (e: Exception) {
+          Log.w(TAG, "Failed to analyze $path", e)
+          null
+        }
+      }
+    }
+    val batch = ArrayList<TrackIndexDatabase.LoudnessEntry>(BATCH_SIZE)
+    var analyzed = 0
+    var lastSave = System.currentTimeMillis()
+    try {
+      for (i in stale.indices) {
+        val entry = completion.take().get() ?: continue
+        // Undecodable files are stored too (SOURCE_NONE), so they wait until they change
+        batch.add(entry)
+        analyzed++
+        val now = System.currentTimeMillis()
+        if (batch.size >= BATCH_SIZE || now - lastSave >= SAVE_INTERVAL_MS) {
+          save(batch)
+          lastSave = now
+        }
+      }
+    } finally {
+      // Whatever finished before an interruption is kept; the rest is picked up next run
+      save(batch)
+    }
+    return analyzed
+  }
+
+  private fun isChanged(path: String, size: Long, mtime: Long?): Boolean {
+    val file = File(path)
+    return file.length() != size || file.lastModified() != mtime
+  }
+
+  private fun save(batch: MutableList<TrackIndexDatabase.LoudnessEntry>) {
+    if (batch.isEmpty()) return
+    index.saveLoudness(batch)
+    for (entry in batch) NormalizationGains.put(entry.path, entry.result)
+    batch.clear()
+    val context = reactApplicationContext
+    UiThreadUtil.runOnUiThread { QueuePlayerPool.getInstance(context).refreshTrackGains() }
+  }
+
+  companion object {
+    private const val TAG = "Loudness"
+    // Decoding is CPU-bound; two threads at lowest priority leave the rest of the device alone
+    private const val POOL_SIZE = 2
+    private const val BATCH_SIZE = 20
+    private const val SAVE_INTERVAL_MS = 2_000L
+    private val TAG_TIME = PerfMetrics.timer("loudness.tags")
+    private val MEASURE_TIME = PerfMetrics.timer("loudness.measure")
+  }
+}
@@ -0,0 +1,151 @@
+package com.mlap;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.KeyEvent;
+import androidx.annotation.Nullable;
+import java.util.ArrayDeque;
+
+/**
+ * The one place media buttons and transport commands are handled. Every source
+ * (media session key events, session transport callbacks, the manifest
+ * receiver via the session) feeds it; it drops duplicates, turns headset-hook
+ * multi-clicks into skip gestures, executes the command on the player pool and
+ * queues it for JS, which only reads it back as information.
+ *
+ * Main looper only. drain may be called from any thread; it hops to the main
+ * looper, so the JS queue is only ever touched there.
+ */
+public final class MediaButtonDispatcher {
+    public static final String PLAY_PAUSE = "playpause";
+    public static final String PLAY = "play";
+    public static final String PAUSE = "pause";
+    public static final String STOP = "stop";
+    public static final String NEXT = "next";
+    public static final String PREVIOUS = "previous";
+
+    // The same press delivered twice (e.g. a key event and its transport callback)
+    private static final long DEDUPE_WINDOW_MS = 200;
+    // Headset hook: clicks closer together than this make one gesture
+    private static final long MULTI_CLICK_WINDOW_MS = 400;
+    // Actions kept for a JS runtime that is not listening yet
+    private static final int MAX_PENDING = 32;
+
+    private static MediaButtonDispatcher instance;
+
+    private final QueuePlayerPool pool;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ArrayDeque<String> pending = new ArrayDeque<>();
+
+    private int lastKeyCode = KeyEvent.KEYCODE_UNKNOWN;
+    private long lastKeyDownTime = -1;
+    @Nullable private String lastCommand;
+    private long lastCommandAt;
+    private int hookClicks = 0;
+    private final Runnable hookGesture = this::finishHookGesture;
+
+    public static synchronized MediaButtonDispatcher getInstance(Context context) {
+        if (instance == null) instance = new MediaButtonDispatcher(context.getApplicationContext());
+        return instance;
+    }
+
+    private MediaButtonDispatcher(Context context) {
+        this.pool = QueuePlayerPool.getInstance(context);
+    }
+
+    /** Handles a media key; returns false for keys it does not know, so the caller can fall back. */
+    public boolean onKeyEvent(KeyEvent event) {
+        String command = commandFor(event.getKeyCode());
+        boolean hook = event.getKeyCode() == KeyEvent.KEYCODE_HEADSETHOOK;
+        if (command == null && !hook) return false;
+        // Act on the first down only; ups and auto-repeats are consumed
+        if (event.getAction() != KeyEvent.ACTION_DOWN || event.getRepeatCount() > 0) return true;
+        // Same physical press seen through another path. Synthesized events
+        // (notification actions) have no down time and rely on the command window
+        long downTime = event.getDownTime();
+        if (downTime > 0 && downTime == lastKeyDownTime && event.getKeyCode() == lastKeyCode) return true;
+        lastKeyCode = event.getKeyCode();
+        lastKeyDownTime = downTime;
+        if (hook) {
+            hookClicks++;
+            handler.removeCallbacks(hookGesture);
+            if (hookClicks >= 3) {
+                finishHookGesture();
+            } else {
+                handler.postDelayed(hookGesture, MULTI_CLICK_WINDOW_MS);
+            }
+            return true;
+        }
+        onCommand(command);
+        return true;
+    }
+
+    /** Runs a transport command unless the same one just ran. */
+    public void onCommand(String command) {
+        long now = SystemClock.uptimeMillis();
+        if (command.equals(lastCommand) && now - lastCommandAt < DEDUPE_WINDOW_MS) return;
+        lastCommand = command;
+        lastCommandAt = now;
+        execute(command);
+        publish(command);
+    }
+
+    /** Hands queued actions to the consumer, oldest first, on the main looper; callable from any thread. */
+    public void drain(ActionConsumer consumer) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            handler.post(() -> drain(consumer));
+            return;
+        }
+        String action;
+        while ((action = pending.poll()) != null) consumer.accept(action);
+    }
+
+    public interface ActionConsumer {
+        void accept(String action);
+    }
+
+    // One click toggles, two skip forward, three skip back
+    private void finishHookGesture() {
+        handler.removeCallbacks(hookGesture);
+        int clicks = hookClicks;
+        hookClicks = 0;
+        if (clicks == 1) onCommand(PLAY_PAUSE);
+        else if (clicks == 2) onCommand(NEXT);
+        else if (clicks >= 3) onCommand(PREVIOUS);
+    }
+
+    private void execute(String command) {
+        String queueId = pool.getActiveQueueId();
+        switch (command) {
+            case PLAY_PAUSE: pool.togglePlayAll(); break;
+            case PLAY: pool.playAll(); break;
+            case PAUSE:
+            case STOP: pool.pauseAll(); break;
+            case NEXT: if (queueId != null) pool.next(queueId); break;
+            case PREVIOUS: if (queueId != null) pool.previous(queueId); break;
+            default: break;
+        }
+    }
+
+    private void publish(String command) {
+        pending.offer(command);
+        // Bounded: with no JS listening for a long time, the oldest actions go
+        if (pending.size() > MAX_PENDING) pending.poll();
+        MediaButtonModule.deliverPending();
+    }
+
+    @Nullable
+    private static String commandFor(int keyCode) {
+        switch (keyCode) {
+            case KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE: return PLAY_PAUSE;
+            case KeyEvent.KEYCODE_MEDIA_PLAY: return PLAY;
+            case KeyEvent.KEYCODE_MEDIA_PAUSE: return PAUSE;
+            case KeyEvent.KEYCODE_MEDIA_STOP: return STOP;
+            case KeyEvent.KEYCODE_MEDIA_NEXT: return NEXT;
+            case KeyEvent.KEYCODE_MEDIA_PREVIOUS: return PREVIOUS;
+            default: return null;
+        }
+    }
+}
@@ -1,116 +1,661 @@
 package com.mlap
 
+import android.database.ContentObserver
 import android.database.Cursor
+import android.net.Uri
+import android.os.Build
+import android.os.FileObserver
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
 import android.provider.MediaStore
+import android.util.Log
 import com.facebook.react.bridge.Promise
 import com.facebook.react.bridge.ReactApplicationContext
 import com.facebook.react.bridge.ReactContextBaseJavaModule
 import com.facebook.react.bridge.ReactMethod
+import com.facebook.react.bridge.ReadableArray
+import com.facebook.react.bridge.ReadableMap
 import com.facebook.react.bridge.WritableNativeArray
 import com.facebook.react.bridge.WritableNativeMap
+import com.facebook.react.modules.core.DeviceEventManagerModule
+import java.io.File
+import java.util.concurrent.Executors
 
 class MediaScannerModule(reactContext: ReactApplicationContext) : ReactContextBaseJavaModule(reactContext) {
 
+  // Scans never run on the bridge thread, and index writes are serialized here
+  private val executor = Executors.newSingleThreadExecutor()
+  private val index by lazy { TrackIndexDatabase.getInstance(reactApplicationContext) }
+
+  // Filesystem walks are long and independent of the index, so they get their own thread
+  private val walkExecutor = Executors.newSingleThreadExecutor()
+
+  // Searches are short reads that must not queue behind a scan
+  private val searchExecutor = Executors.newSingleThreadExecutor()
+
+  // Library watching: observer callbacks are coalesced here and synced on the executor
+  private val mainHandler = Handler(Looper.getMainLooper())
+  private var audioObserver: ContentObserver? = null
+  private val folderObservers = ArrayList<FileObserver>()
+  private val pendingFiles = LinkedHashSet<String>()
+  @Volatile private var mediaStoreDirty = false
+  private var firstPendingAt = 0L
+  private val watchSync = Runnable {
+    firstPendingAt = 0L
+    executor.execute { syncWatched() }
+  }
+
   override fun getName(): String {
     return "MediaScanner"
   }
 
+  // Required for NativeEventEmitter compatibility
+  @ReactMethod
+  fun addListener(eventName: String) {}
+
+  @ReactMethod
+  fun removeListeners(count: Double) {}
+
+  /**
+   * Walks the given directories for files with one of the extensions, skipping
+   * hidden entries and paths under the excluded prefixes. Matches stream out as
+   * "MediaScannerWalkBatch" events { walkId, paths }; resolves the total count
+   * once every batch has been sent.
+   */
+  @ReactMethod
+  fun walk(walkId: String, roots: ReadableArray, exts: ReadableArray, excludes: ReadableArray, promise: Promise) {
+    val rootList = stringList(roots)
+    val walker = FileWalker(stringList(exts), stringList(excludes)) { paths ->
+      if (!reactApplicationContext.hasActiveReactInstance()) return@FileWalker
+      val batch = WritableNativeMap()
+      batch.putString("walkId", walkId)
+      val arr = WritableNativeArray()
+      for (path in paths) arr.pushString(path)
+      batch.putArray("paths", arr)
+      BRIDGE_ITEMS.record(paths.size.toLong())
+      reactApplicationContext
+        .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter::class.java)
+        .emit(WALK_BATCH_EVENT, batch)
+    }
+    walkExecutor.execute {
+      try {
+        promise.resolve(walker.walk(rootList))
+      } catch (e: Exception) {
+        promise.reject("ERR_MEDIA_WALK", e.message)
+      }
+    }
+  }
+
   @ReactMethod
   fun getAll(promise: Promise) {
-    try {
-      val resolver = reactApplicationContext.contentResolver
-      val uri = MediaStore.Files.getContentUri("external")
-      val projection = arrayOf(
-        MediaStore.Files.FileColumns._ID,
-        MediaStore.Files.FileColumns.TITLE,
-        MediaStore.Files.FileColumns.MIME_TYPE,
-        MediaStore.Files.FileColumns.DATA,
-        MediaStore.Files.FileColumns.DURATION,
-        MediaStore.Files.FileColumns.ARTIST,
-        MediaStore.Files.FileColumns.ALBUM
-      )
+    executor.execute {
+      try {
+        val start = PerfMetrics.now()
+        val tracks = ArrayList<IndexedTrack>()
+        val foundPaths = mutableSetOf<String>()
+        queryAudio(null, null) { cursor, cols ->
+          val track = readRow(cursor, cols) ?: return@queryAudio
+          tracks.add(track)
+          foundPaths.add(track.path)
+        }
+        addDownloadsFallback(tracks, foundPaths)
+        val arr = WritableNativeArray()
+        for (track in tracks) arr.pushMap(track.toWritableMap())
+        FULL_SCAN_TIME.recordSince(start)
+        BRIDGE_ITEMS.record(tracks.size.toLong())
+        promise.resolve(arr)
+      } catch (e: Exception) {
+        promise.reject("ERR_MEDIA_SCAN", e.message)
+      }
+    }
+  }
 
-      // List of supported audio file extensions (must match JS)
-      val exts = listOf(
-        ".mp3", ".m4a", ".aac", ".wav", ".flac", ".ogg", ".opus", ".amr", ".3gp", ".mp4",
-        // ".wma", // (only some Android devices)
-        ".mid", ".midi", ".xmf", ".mxmf", ".rtttl", ".rtx", ".ota", ".imy"
-        // ".aiff", ".aif" // (only some devices)
-      )
+  /**
+   * Incremental scan. Resolves { token, full, added, updated, deleted } with only
+   * the rows that changed since the given sync token, found via
+   * GENERATION_MODIFIED (API 30+) or DATE_MODIFIED. A null or stale token, or a
+   * MediaStore version change, falls back to a full scan (full: true, everything
+   * in added). deleted holds { id, path } entries. The delta is written to the
+   * track index before resolving. Without withRows a full scan leaves added
+   * empty, for callers that page the index instead of holding the library.
+   */
+  @ReactMethod
+  fun getChangesSince(token: String?, withRows: Boolean, promise: Promise) {
+    executor.execute {
+      try {
+        promise.resolve(scanChanges(token, withRows))
+      } catch (e: Exception) {
+        promise.reject("ERR_MEDIA_SCAN", e.message)
+      }
+    }
+  }
 
-      // Build selection string to match audio MIME types or extensions
-      val audioMimeTypes = listOf(
-        "audio/mpeg", "audio/mp4", "audio/aac", "audio/x-wav", "audio/wav", "audio/flac", "audio/x-flac",
-        "audio/ogg", "audio/opus", "audio/amr", "audio/3gpp", "audio/mp4a-latm", "audio/x-ms-wma",
-        "audio/midi", "audio/x-midi", "audio/xmf", "audio/imelody"
-      )
-      val mimeSelection = audioMimeTypes.joinToString(" OR ") { "${MediaStore.Files.FileColumns.MIME_TYPE}='" + it + "'" }
-      val extSelection = exts.joinToString(" OR ") { "${MediaStore.Files.FileColumns.DATA} LIKE '%" + it + "'" }
-      val selection = "($mimeSelection) OR ($extSelection)"
+  /** Resolves { token, count } for the persisted index without reading its rows. */
+  @ReactMethod
+  fun getIndexInfo(promise: Promise) {
+    executor.execute {
+      try {
+        val result = WritableNativeMap()
+        result.putString("token", index.getMeta(TrackIndexDatabase.META_SYNC_TOKEN))
+        result.putInt("count", index.count(TrackQuery()))
+        promise.resolve(result)
+      } catch (e: Exception) {
+        promise.reject("ERR_TRACK_INDEX", e.message)
+      }
+    }
+  }
 
-      val cursor: Cursor? = resolver.query(uri, projection, selection, null, null)
-      val arr = WritableNativeArray()
-      cursor?.use {
-        val idIdx = it.getColumnIndexOrThrow(MediaStore.Files.FileColumns._ID)
-        val titleIdx = it.getColumnIndexOrThrow(MediaStore.Files.FileColumns.TITLE)
-        val mimeIdx = it.getColumnIndexOrThrow(MediaStore.Files.FileColumns.MIME_TYPE)
-        val dataIdx = it.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DATA)
-        val durationIdx = if (it.getColumnIndex(MediaStore.Files.FileColumns.DURATION) >= 0) it.getColumnIndex(MediaStore.Files.FileColumns.DURATION) else -1
-        val artistIdx = if (it.getColumnIndex(MediaStore.Files.FileColumns.ARTIST) >= 0) it.getColumnIndex(MediaStore.Files.FileColumns.ARTIST) else -1
-        val albumIdx = if (it.getColumnIndex(MediaStore.Files.FileColumns.ALBUM) >= 0) it.getColumnIndex(MediaStore.Files.FileColumns.ALBUM) else -1
-
-        while (it.moveToNext()) {
-          val path = it.getString(dataIdx)
-          // Only include files in Download, Music, or Documents folders
-          if (path != null && (path.contains("Download") || path.contains("Music") || path.contains("Documents"))) {
-            val map = WritableNativeMap()
-            map.putString("id", it.getString(idIdx))
-            map.putString("title", it.getString(titleIdx))
-            map.putString("artist", if (artistIdx >= 0) it.getString(artistIdx) else null)
-            map.putString("album", if (albumIdx >= 0) it.getString(albumIdx) else null)
-            if (durationIdx >= 0) map.putInt("duration", it.getInt(durationIdx))
-            map.putString("path", path)
-            map.putString("mimeType", it.getString(mimeIdx))
-            arr.pushMap(map)
+  /** Resolves the indexed rows for the given track ids (paths); ids not in the index are left out. */
+  @ReactMethod
+  fun getTracks(ids: ReadableArray, promise: Promise) {
+    executor.execute {
+      try {
+        val arr = WritableNativeArray()
+        for (track in index.findByIds(stringList(ids)).values) arr.pushMap(track.toWritableMap())
+        BRIDGE_ITEMS.record(arr.size().toLong())
+        promise.resolve(arr)
+      } catch (e: Exception) {
+        promise.reject("ERR_TRACK_INDEX", e.message)
+      }
+    }
+  }
+
+  /**
+   * Windowed read of the track index: options are { sort, descending, filter,
+   * offset, limit }. Resolves { total, offset, items } so lists only pull the
+   * rows they display.
+   */
+  @ReactMethod
+  fun query(options: ReadableMap?, promise: Promise) {
+    executor.execute {
+      try {
+        val query = TrackQuery.fromMap(options)
+        val offset = if (options != null && options.hasKey("offset")) options.getInt("offset") else 0
+        val limit = if (options != null && options.hasKey("limit")) options.getInt("limit") else DEFAULT_PAGE_SIZE
+        val items = WritableNativeArray()
+        index.page(query, offset, limit) { items.pushMap(it.toWritableMap()) }
+        BRIDGE_ITEMS.record(items.size().toLong())
+        val result = WritableNativeMap()
+        result.putInt("total", index.count(query))
+        result.putInt("offset", offset)
+        result.putArray("items", items)
+        promise.resolve(result)
+      } catch (e: Exception) {
+        promise.reject("ERR_TRACK_INDEX", e.message)
+      }
+    }
+  }
+
+  /** Resolves up to `limit` tracks matching a search box query, best match first. */
+  @ReactMethod
+  fun search(query: String, limit: Double, promise: Promise) {
+    searchExecutor.execute {
+      try {
+        val start = PerfMetrics.now()
+        val ids = index.search(query, limit.toInt().coerceAtLeast(1))
+        val rows = index.findByIds(ids)
+        val arr = WritableNativeArray()
+        for (id in ids) rows[id]?.let { arr.pushMap(it.toWritableMap()) }
+        SEARCH_TIME.recordSince(start)
+        promise.resolve(arr)
+      } catch (e: Exception) {
+        promise.reject("ERR_MEDIA_SEARCH", e.message)
+      }
+    }
+  }
+
+  /**
+   * Keeps the index in step with the device: MediaStore audio changes and files
+   * appearing in or leaving the Download/Music folders are debounced, applied
+   * to the index, and sent as "MediaScannerLibraryChanged" events shaped like
+   * getChangesSince results. Does nothing until a first sync has been made.
+   */
+  @ReactMethod
+  fun startWatching() {
+    mainHandler.post {
+      if (audioObserver != null) return@post
+      val observer = object : ContentObserver(mainHandler) {
+        override fun onChange(selfChange: Boolean, uri: Uri?) {
+          mediaStoreDirty = true
+          scheduleWatchSync()
+        }
+      }
+      reactApplicationContext.contentResolver.registerContentObserver(
+        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, observer
+      )
+      audioObserver = observer
+      for (path in WATCHED_FOLDERS) {
+        if (!File(path).isDirectory) continue
+        @Suppress("DEPRECATION")
+        val folderObserver = object : FileObserver(path, FOLDER_EVENTS) {
+          override fun onEvent(event: Int, name: String?) {
+            if (name == null || name.startsWith(".") || !hasSupportedExtension(name)) return
+            synchronized(pendingFiles) { pendingFiles.add("$path/$name") }
+            mainHandler.post { scheduleWatchSync() }
           }
         }
+        folderObserver.startWatching()
+        folderObservers.add(folderObserver)
       }
+    }
+  }
 
-      // Explicitly scan the Downloads folder for supported extensions if not already found
-      val foundPaths = mutableSetOf<String>()
-      for (i in 0 until arr.size()) {
-        val map = arr.getMap(i)
-        if (map != null && map.hasKey("path")) {
-          val path = map.getString("path")
-          if (path != null) foundPaths.add(path)
+  @ReactMethod
+  fun stopWatching() {
+    mainHandler.post { unregisterWatchers() }
+  }
+
+  override fun onCatalystInstanceDestroy() {
+    super.onCatalystInstanceDestroy()
+    mainHandler.post { unregisterWatchers() }
+  }
+
+  // Main thread. Trailing debounce, but a steady stream of changes still syncs every MAX_WATCH_DELAY_MS
+  private fun scheduleWatchSync() {
+    val now = SystemClock.uptimeMillis()
+    if (firstPendingAt == 0L) firstPendingAt = now
+    mainHandler.removeCallbacks(watchSync)
+    val delay = minOf(WATCH_DEBOUNCE_MS, firstPendingAt + MAX_WATCH_DELAY_MS - now).coerceAtLeast(0L)
+    mainHandler.postDelayed(watchSync, delay)
+  }
+
+  private fun unregisterWatchers() {
+    mainHandler.removeCallbacks(watchSync)
+    firstPendingAt = 0L
+    audioObserver?.let { reactApplicationContext.contentResolver.unregisterContentObserver(it) }
+    audioObserver = null
+    for (observer in folderObservers) observer.stopWatching()
+    folderObservers.clear()
+  }
+
+  // Executor thread
+  private fun syncWatched() {
+    val paths = synchronized(pendingFiles) {
+      ArrayList(pendingFiles).also { pendingFiles.clear() }
+    }
+    val mediaChanged = mediaStoreDirty
+    mediaStoreDirty = false
+    try {
+      val token = index.getMeta(TrackIndexDatabase.META_SYNC_TOKEN) ?: return
+      if (paths.isNotEmpty()) syncFolderFiles(paths, token)?.let { sendLibraryChanged(it) }
+      if (mediaChanged) {
+        val changes = scanChanges(token, false)
+        if (changes.getBoolean("full") || CHANGE_KEYS.any { changes.getArray(it)!!.size() > 0 }) {
+          sendLibraryChanged(changes)
         }
       }
+    } catch (e: Exception) {
+      Log.w(TAG, "Failed to sync library changes", e)
+    }
+  }
 
-      val downloadsPath = "/storage/emulated/0/Download"
-      val downloadsDir = java.io.File(downloadsPath)
-      if (downloadsDir.exists() && downloadsDir.isDirectory) {
-        val files = downloadsDir.listFiles()
-        if (files != null) {
-          for (file in files) {
-            val path = file.absolutePath
-            if (!foundPaths.contains(path) && exts.any { path.lowercase().endsWith(it) }) {
-              val map = WritableNativeMap()
-              map.putString("id", path)
-              map.putString("title", file.name)
-              map.putString("artist", null)
-              map.putString("album", null)
-              map.putInt("duration", 0)
-              map.putString("path", path)
-              map.putString("mimeType", null)
-              arr.pushMap(map)
-            }
-          }
+  // Files MediaStore has not indexed (yet), and rewritten ones it never will;
+  // files MediaStore knows are left to its own delta
+  private fun syncFolderFiles(paths: List<String>, token: String): WritableNativeMap? {
+    val known = index.findByIds(paths)
+    val upserts = ArrayList<IndexedTrack>()
+    val added = WritableNativeArray()
+    val updatedPaths = ArrayList<String>()
+    val deletedPaths = ArrayList<String>()
+    for (path in paths) {
+      val file = File(path)
+      val row = known[path]
+      if (file.isFile) {
+        if (row == null) {
+          upserts.add(fileTrack(file).also { added.pushMap(it.toWritableMap()) })
+        } else if (row.mediaId == null && row.dateModified != file.lastModified() / 1000) {
+          // Retagged or replaced in place; the tag pass picks up the rest by size/mtime
+          upserts.add(fileTrack(file))
+          updatedPaths.add(path)
         }
+      } else if (row != null) {
+        deletedPaths.add(path)
       }
+    }
+    if (upserts.isEmpty() && deletedPaths.isEmpty()) return null
+    index.applyChanges(upserts, deletedPaths, token)
+    // Re-read: the index still merges in what was extracted or probed before
+    val updated = WritableNativeArray()
+    for (track in index.findByIds(updatedPaths).values) updated.pushMap(track.toWritableMap())
+    val deleted = WritableNativeArray()
+    for (path in deletedPaths) {
+      val map = WritableNativeMap()
+      map.putString("id", path)
+      map.putString("path", path)
+      deleted.pushMap(map)
+    }
+    return changesResult(token, false, added, updated, deleted)
+  }
 
-      promise.resolve(arr)
-    } catch (e: Exception) {
-      promise.reject("ERR_MEDIA_SCAN", e.message)
+  private fun sendLibraryChanged(changes: WritableNativeMap) {
+    if (!reactApplicationContext.hasActiveReactInstance()) return
+    reactApplicationContext
+      .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter::class.java)
+      .emit(LIBRARY_CHANGED_EVENT, changes)
+  }
+
+  private fun scanChanges(token: String?, withRows: Boolean): WritableNativeMap {
+    val start = PerfMetrics.now()
+    val marker = currentMarker()
+    val storedToken = index.getMeta(TrackIndexDatabase.META_SYNC_TOKEN)
+    val since = storedToken?.let { SyncMarker.parse(it) }
+    val canDiff = token != null && token == storedToken && since?.sameVersion(marker) == true
+
+    val added = WritableNativeArray()
+    val updated = WritableNativeArray()
+    val deleted = WritableNativeArray()
+    var maxDateModified = marker.maxDateModified
+
+    if (canDiff) {
+      val known = index.knownMediaIds()
+      val upserts = ArrayList<IndexedTrack>()
+      val deletedPaths = LinkedHashSet<String>()
+      val changed = LinkedHashMap<String, IndexedTrack>()
+      val (selection, args) = marker.changedSelection(since!!)
+      queryAudio(selection, args) { cursor, cols ->
+        maxDateModified = maxOf(maxDateModified, cursor.getLong(cols.dateModified))
+        val track = readRow(cursor, cols) ?: return@queryAudio
+        changed[track.path] = track
+      }
+      // DATE_MODIFIED has one-second resolution, so the last second is selected
+      // again (>=); rows already indexed with that same time are not changes
+      if (marker.usesDateModified()) {
+        val boundary = changed.values.filter { it.dateModified == since.maxDateModified }.map { it.path }
+        for ((path, row) in index.findByIds(boundary)) {
+          if (row.dateModified == since.maxDateModified && row.mediaId == changed[path]?.mediaId) changed.remove(path)
+        }
+      }
+      // MediaStore keeps no tombstones, and a file copied in with an older mtime
+      // never matches the delta query: diff the ids still there against the known
+      // ones both ways, reading rows the index has never seen by id
+      val present = HashSet<Long>()
+      queryAudioIds { id, path -> if (isLibraryPath(path)) present.add(id) }
+      val seen = changed.values.mapNotNullTo(HashSet()) { it.mediaId }
+      val unseen = present.filter { !known.containsKey(it) && !seen.contains(it) }
+      for (chunk in unseen.chunked(ID_BATCH)) {
+        queryAudio("${MediaStore.Files.FileColumns._ID} IN (${chunk.joinToString(",")})", null) { cursor, cols ->
+          val track = readRow(cursor, cols) ?: return@queryAudio
+          changed[track.path] = track
+        }
+      }
+      for (track in changed.values) {
+        val previousPath = track.mediaId?.let { known[it] }
+        if (previousPath == track.path) {
+          updated.pushMap(track.toWritableMap())
+        } else {
+          // New row, or a renamed file whose id (path) changed
+          if (previousPath != null) deletedPaths.add(previousPath)
+          added.pushMap(track.toWritableMap())
+        }
+        upserts.add(track)
+      }
+      for ((id, path) in known) {
+        if (!present.contains(id)) deletedPaths.add(path)
+      }
+      // Rows MediaStore never had (Download fallback, folder files) are checked on disk
+      for (path in index.pathsWithoutMediaId()) {
+        if (!changed.containsKey(path) && !File(path).isFile) deletedPaths.add(path)
+      }
+      for (path in deletedPaths) {
+        val map = WritableNativeMap()
+        map.putString("id", path)
+        map.putString("path", path)
+        deleted.pushMap(map)
+      }
+      val newToken = marker.copy(maxDateModified = maxDateModified).encode()
+      index.applyChanges(upserts, deletedPaths, newToken)
+      DELTA_SCAN_TIME.recordSince(start)
+      return changesResult(newToken, false, added, updated, deleted)
+    }
+
+    val tracks = ArrayList<IndexedTrack>()
+    val foundPaths = mutableSetOf<String>()
+    queryAudio(null, null) { cursor, cols ->
+      maxDateModified = maxOf(maxDateModified, cursor.getLong(cols.dateModified))
+      val track = readRow(cursor, cols) ?: return@queryAudio
+      tracks.add(track)
+      foundPaths.add(track.path)
+    }
+    addDownloadsFallback(tracks, foundPaths)
+    if (withRows) for (track in tracks) added.pushMap(track.toWritableMap())
+    val newToken = marker.copy(maxDateModified = maxDateModified).encode()
+    index.replaceAll(tracks, newToken)
+    FULL_SCAN_TIME.recordSince(start)
+    return changesResult(newToken, true, added, updated, deleted)
+  }
+
+  private fun changesResult(
+    token: String,
+    full: Boolean,
+    added: WritableNativeArray,
+    updated: WritableNativeArray,
+    deleted: WritableNativeArray
+  ): WritableNativeMap {
+    BRIDGE_ITEMS.record((added.size() + updated.size() + deleted.size()).toLong())
+    val result = WritableNativeMap()
+    result.putString("token", token)
+    result.putBoolean("full", full)
+    result.putArray("added", added)
+    result.putArray("updated", updated)
+    result.putArray("deleted", deleted)
+    return result
+  }
+
+  // Column indexes resolved once per cursor
+  internal class Columns(c: Cursor) {
+    val id = c.getColumnIndexOrThrow(MediaStore.Files.FileColumns._ID)
+    val title = c.getColumnIndexOrThrow(MediaStore.Files.FileColumns.TITLE)
+    val mime = c.getColumnIndexOrThrow(MediaStore.Files.FileColumns.MIME_TYPE)
+    val data = c.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DATA)
+    val dateModified = c.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DATE_MODIFIED)
+    val duration = c.getColumnIndex(MediaStore.Files.FileColumns.DURATION)
+    val artist = c.getColumnIndex(MediaStore.Files.FileColumns.ARTIST)
+    val album = c.getColumnIndex(MediaStore.Files.FileColumns.ALBUM)
+  }
+
+  private fun queryAudio(extraSelection: String?, extraArgs: Array<String>?, onRow: (Cursor, Columns) -> Unit) {
+    val (selection, args) = audioSelection(extraSelection, extraArgs)
+    val cursor: Cursor? = reactApplicationContext.contentResolver.query(FILES_URI, PROJECTION, selection, args, null)
+    cursor?.use {
+      val cols = Columns(it)
+      while (it.moveToNext()) onRow(it, cols)
+      ROWS_SCANNED.add(it.count.toLong())
+    }
+  }
+
+  private fun queryAudioIds(onRow: (Long, String) -> Unit) {
+    val projection = arrayOf(MediaStore.Files.FileColumns._ID, MediaStore.Files.FileColumns.DATA)
+    val cursor: Cursor? = reactApplicationContext.contentResolver.query(FILES_URI, projection, AUDIO_SELECTION, AUDIO_SELECTION_ARGS, null)
+    cursor?.use {
+      while (it.moveToNext()) {
+        val path = it.getString(1) ?: continue
+        onRow(it.getLong(0), path)
+      }
+    }
+  }
+
+  // Explicitly scan the Downloads folder for supported extensions if not already found
+  private fun addDownloadsFallback(tracks: MutableList<IndexedTrack>, foundPaths: Set<String>) {
+    val downloadsDir = File(DOWNLOADS_PATH)
+    if (!downloadsDir.exists() || !downloadsDir.isDirectory) return
+    val files = downloadsDir.listFiles() ?: return
+    for (file in files) {
+      val path = file.absolutePath
+      if (!foundPaths.contains(path) && hasSupportedExtension(path)) tracks.add(fileTrack(file))
+    }
+  }
+
+  // A file MediaStore does not know about, described by its name only
+  private fun fileTrack(file: File): IndexedTrack {
+    val path = file.absolutePath
+    return IndexedTrack(
+      id = path,
+      mediaId = null,
+      path = path,
+      title = file.name,
+      artist = null,
+      album = null,
+      duration = 0,
+      mime = null,
+      folder = IndexedTrack.folderOf(path),
+      dateModified = file.lastModified() / 1000
+    )
+  }
+
+  private fun stringList(arr: ReadableArray): List<String> =
+    List(arr.size()) { arr.getString(it) ?: "" }
+
+  private fun currentMarker(): SyncMarker {
+    val context = reactApplicationContext
+    return when {
+      Build.VERSION.SDK_INT >= Build.VERSION_CODES.R -> {
+        val volumes = MediaStore.getExternalVolumeNames(context).sorted().map { volume ->
+          VolumeMarker(volume, MediaStore.getVersion(context, volume), MediaStore.getGeneration(context, volume))
+        }
+        SyncMarker(volumes, null, 0)
+      }
+      Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q -> SyncMarker(emptyList(), MediaStore.getVersion(context), 0)
+      else -> SyncMarker(emptyList(), null, 0)
+    }
+  }
+
+  internal data class VolumeMarker(val name: String, val version: String, val generation: Long)
+
+  /**
+   * Encodes where the last sync stopped: per-volume version and generation on
+   * API 30+, otherwise the MediaStore version (if any) plus the newest
+   * DATE_MODIFIED seen.
+   */
+  internal data class SyncMarker(val volumes: List<VolumeMarker>, val legacyVersion: String?, val maxDateModified: Long) {
+
+    fun sameVersion(other: SyncMarker): Boolean =
+      legacyVersion == other.legacyVersion &&
+        volumes.map { it.name to it.version } == other.volumes.map { it.name to it.version }
+
+    // Without per-volume generations, changes are found by DATE_MODIFIED
+    fun usesDateModified(): Boolean = volumes.isEmpty()
+
+    // Selection for rows changed since `since`, which must have the same version.
+    // DATE_MODIFIED is compared with >= so a change later in the last synced
+    // second is not missed; the caller drops rows it already has
+    fun changedSelection(since: SyncMarker): Pair<String, Array<String>> {
+      if (usesDateModified()) {
+        return "${MediaStore.Files.FileColumns.DATE_MODIFIED} >= ?" to arrayOf(since.maxDateModified.toString())
+      }
+      val clauses = since.volumes.map {
+        "(${MediaStore.Files.FileColumns.VOLUME_NAME} = ? AND ${MediaStore.Files.FileColumns.GENERATION_MODIFIED} > ?)"
+      }
+      val args = since.volumes.flatMap { listOf(it.name, it.generation.toString()) }
+      return clauses.joinToString(" OR ") to args.toTypedArray()
     }
+
+    fun encode(): String {
+      val vols = volumes.joinToString(",") { "${it.name}=${it.version}@${it.generation}" }
+      return "1|${legacyVersion ?: ""}|$maxDateModified|$vols"
+    }
+
+    companion object {
+      fun parse(token: String): SyncMarker? {
+        val parts = token.split("|")
+        if (parts.size != 4 || parts[0] != "1") return null
+        val maxDateModified = parts[2].toLongOrNull() ?: return null
+        val volumes = if (parts[3].isEmpty()) emptyList() else parts[3].split(",").map { entry ->
+          val name = entry.substringBefore("=")
+          val version = entry.substringAfter("=").substringBeforeLast("@")
+          val generation = entry.substringAfterLast("@").toLongOrNull() ?: return null
+          VolumeMarker(name, version, generation)
+        }
+        return SyncMarker(volumes, parts[1].ifEmpty { null }, maxDateModified)
+      }
+    }
+  }
+
+  companion object {
+    private val FILES_URI = MediaStore.Files.getContentUri("external")
+
+    private val PROJECTION = arrayOf(
+      MediaStore.Files.FileColumns._ID,
+      MediaStore.Files.FileColumns.TITLE,
+      MediaStore.Files.FileColumns.MIME_TYPE,
+      MediaStore.Files.FileColumns.DATA,
+      MediaStore.Files.FileColumns.DATE_MODIFIED,
+      MediaStore.Files.FileColumns.DURATION,
+      MediaStore.Files.FileColumns.ARTIST,
+      MediaStore.Files.FileColumns.ALBUM
+    )
+
+    // List of supported audio file extensions (must match JS)
+    val SUPPORTED_EXTS = listOf(
+      ".mp3", ".m4a", ".aac", ".wav", ".flac", ".ogg", ".opus", ".amr", ".3gp", ".mp4",
+      // ".wma", // (only some Android devices)
+      ".mid", ".midi", ".xmf", ".mxmf", ".rtttl", ".rtx", ".ota", ".imy"
+      // ".aiff", ".aif" // (only some devices)
+    )
+
+    val AUDIO_MIME_TYPES = listOf(
+      "audio/mpeg", "audio/mp4", "audio/aac", "audio/x-wav", "audio/wav", "audio/flac", "audio/x-flac",
+      "audio/ogg", "audio/opus", "audio/amr", "audio/3gpp", "audio/mp4a-latm", "audio/x-ms-wma",
+      "audio/midi", "audio/x-midi", "audio/xmf", "audio/imelody"
+    )
+
+    // Audio MIME types or extensions, as one IN clause plus bound LIKE patterns
+    private val AUDIO_SELECTION =
+      "${MediaStore.Files.FileColumns.MIME_TYPE} IN (${AUDIO_MIME_TYPES.joinToString(",") { "?" }}) OR " +
+        SUPPORTED_EXTS.joinToString(" OR ") { "${MediaStore.Files.FileColumns.DATA} LIKE ?" }
+    private val AUDIO_SELECTION_ARGS = (AUDIO_MIME_TYPES + SUPPORTED_EXTS.map { "%$it" }).toTypedArray()
+
+    private const val DEFAULT_PAGE_SIZE = 100
+    // Ids per _ID IN (...) query when reading rows missing from the index
+    private const val ID_BATCH = 500
+    private const val WALK_BATCH_EVENT = "MediaScannerWalkBatch"
+    private const val LIBRARY_CHANGED_EVENT = "MediaScannerLibraryChanged"
+    private const val TAG = "MediaScanner"
+    private const val WATCH_DEBOUNCE_MS = 1500L
+    private const val MAX_WATCH_DELAY_MS = 10_000L
+    private val CHANGE_KEYS = arrayOf("added", "updated", "deleted")
+    private const val FOLDER_EVENTS =
+      FileObserver.CLOSE_WRITE or FileObserver.MOVED_TO or FileObserver.MOVED_FROM or FileObserver.DELETE
+    private val WATCHED_FOLDERS = arrayOf(DOWNLOADS_PATH, "/storage/emulated/0/Music")
+    private const val DOWNLOADS_PATH = "/storage/emulated/0/Download"
+
+    private val FULL_SCAN_TIME = PerfMetrics.timer("scan.full")
+    private val DELTA_SCAN_TIME = PerfMetrics.timer("scan.delta")
+    private val ROWS_SCANNED = PerfMetrics.counter("scan.rows")
+    private val SEARCH_TIME = PerfMetrics.timer("search.query")
+    // Items (tracks, paths or changes) per array sent over the bridge
+    private val BRIDGE_ITEMS = PerfMetrics.histogram("bridge.payloadItems", "items")
+
+    // The audio selection, narrowed by extraSelection when given
+    internal fun audioSelection(extraSelection: String?, extraArgs: Array<String>?): Pair<String, Array<String>> {
+      val selection = if (extraSelection != null) "($AUDIO_SELECTION) AND ($extraSelection)" else AUDIO_SELECTION
+      val args = if (extraArgs != null) AUDIO_SELECTION_ARGS + extraArgs else AUDIO_SELECTION_ARGS
+      return selection to args
+    }
+
+    // Null for rows outside the library folders
+    internal fun readRow(c: Cursor, cols: Columns): IndexedTrack? {
+      val path = c.getString(cols.data) ?: return null
+      if (!isLibraryPath(path)) return null
+      return IndexedTrack(
+        id = path,
+        mediaId = c.getLong(cols.id),
+        path = path,
+        title = c.getString(cols.title),
+        artist = if (cols.artist >= 0) c.getString(cols.artist) else null,
+        album = if (cols.album >= 0) c.getString(cols.album) else null,
+        duration = if (cols.duration >= 0) c.getLong(cols.duration) else 0,
+        mime = c.getString(cols.mime),
+        folder = IndexedTrack.folderOf(path),
+        dateModified = c.getLong(cols.dateModified)
+      )
+    }
+
+    // Only include files in Download, Music, or Documents folders
+    fun isLibraryPath(path: String): Boolean =
+      path.contains("Download") || path.contains("Music") || path.contains("Documents")
+
+    fun hasSupportedExtension(path: String): Boolean =
+      SUPPORTED_EXTS.any { path.endsWith(it, ignoreCase = true) }
   }
 }
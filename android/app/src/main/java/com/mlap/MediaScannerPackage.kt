@@ -7,7 +7,17 @@ import com.facebook.react.uimanager.ViewManager
 
 class MediaScannerPackage : ReactPackage {
   override fun createNativeModules(reactContext: ReactApplicationContext): List<NativeModule> {
-    return listOf(MediaScannerModule(reactContext))
+    return listOf(
+      MediaScannerModule(reactContext),
+      LibraryGroupsModule(reactContext),
+      PlayerPersistenceModule(reactContext),
+      MetadataExtractorModule(reactContext),
+      DurationProberModule(reactContext),
+      LoudnessModule(reactContext),
+      DuplicatesModule(reactContext),
+      PlaylistsModule(reactContext),
+      PerfMetricsModule(reactContext)
+    )
   }
 
   override fun createViewManagers(reactContext: ReactApplicationContext): List<ViewManager<*, *>> {
@@ -0,0 +1,180 @@
+package com.mlap
+
+import android.content.Context
+import android.media.MediaMetadataRetriever
+import android.util.Log
+import java.io.File
+import java.io.FileOutputStream
+import java.security.MessageDigest
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/** Tags, duration and cover art read from one file, stamped with its size and mtime. */
+data class ExtractedMeta(
+  val path: String,
+  val size: Long,
+  val mtime: Long,
+  val title: String?,
+  val artist: String?,
+  val album: String?,
+  val duration: Long,
+  val artwork: String?
+)
+
+/**
+ * Reads ID3v2 / Vorbis comment / MP4 tags, duration and embedded cover art for
+ * every indexed file whose size or mtime changed since it was last read, on a
+ * bounded pool with one worker per core. Results go into the track index in
+ * batches; cover art is stored once per distinct image under filesDir/artwork.
+ */
+class MetadataExtractor(context: Context, private val index: TrackIndexDatabase) {
+
+  class Progress(val processed: Int, val total: Int, val updated: Int)
+
+  private val artworkDir = File(context.filesDir, ARTWORK_DIR)
+  private val cancelled = AtomicBoolean(false)
+
+  fun cancel() {
+    cancelled.set(true)
+  }
+
+  /**
+   * Blocks until every candidate is read (or cancel()); onProgress runs on the
+   * calling thread. Candidates are the whole index, or only `paths` when given.
+   */
+  fun run(paths: Collection<String>?, onProgress: (Progress) -> Unit): Progress {
+    cancelled.set(false)
+    val candidates = ArrayList<Triple<String, Long?, Long?>>()
+    index.forEachExtractionState(paths) { path, size, mtime -> candidates.add(Triple(path, size, mtime)) }
+    val total = candidates.size
+    val threads = Runtime.getRuntime().availableProcessors().coerceAtLeast(1)
+    val pool = Executors.newFixedThreadPool(threads) { r ->
+      Thread(r, "MetadataExtractor").apply { priority = Thread.MIN_PRIORITY }
+    }
+    // Bounds the work handed to the pool so a large library is not queued up front
+    val permits = Semaphore(threads * 4)
+    val results = LinkedBlockingQueue<Any>()
+    val batch = ArrayList<ExtractedMeta>(BATCH_SIZE)
+    var processed = 0
+    var updated = 0
+    var lastReport = 0L
+
+    fun drain(block: Boolean) {
+      var next: Any? = if (block) results.poll(REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS) else results.poll()
+      while (next != null) {
+        processed++
+        if (next is ExtractedMeta) batch.add(next)
+        if (batch.size >= BATCH_SIZE) {
+          index.saveExtractedMeta(batch)
+          updated += batch.size
+          batch.clear()
+        }
+        next = results.poll()
+      }
+      val now = System.currentTimeMillis()
+      if (now - lastReport >= REPORT_INTERVAL_MS) {
+        lastReport = now
+        onProgress(Progress(processed, total, updated))
+      }
+    }
+
+    try {
+      var submitted = 0
+      for ((path, knownSize, knownMtime) in candidates) {
+        if (cancelled.get()) break
+        while (!permits.tryAcquire(REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS)) drain(false)
+        submitted++
+        pool.execute {
+          try {
+            results.add(extractIfChanged(path, knownSize, knownMtime) ?: SKIPPED)
+          } catch (e: Exception) {
+            Log.w(TAG, "Failed to read tags from $path", e)
+            results.add(SKIPPED)
+          } finally {
+            permits.release()
+          }
+        }
+        drain(false)
+      }
+      while (processed < submitted) drain(true)
+    } finally {
+      pool.shutdownNow()
+      index.saveExtractedMeta(batch)
+      updated += batch.size
+      batch.clear()
+    }
+    val done = Progress(processed, total, updated)
+    onProgress(done)
+    return done
+  }
+
+  // Null when the file is gone or unchanged since it was last read. A file the
+  // retriever cannot parse still gets its stamp (with no tags), so it is not
+  // tried again until it changes
+  private fun extractIfChanged(path: String, knownSize: Long?, knownMtime: Long?): ExtractedMeta? {
+    if (cancelled.get()) return null
+    val file = File(path)
+    val size = file.length()
+    val mtime = file.lastModified()
+    if (size == 0L || (size == knownSize && mtime == knownMtime)) return null
+    val retriever = MediaMetadataRetriever()
+    try {
+      retriever.setDataSource(path)
+      val duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION)?.toLongOrNull() ?: 0L
+      return ExtractedMeta(
+        path = path,
+        size = size,
+        mtime = mtime,
+        title = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE)?.trim()?.ifEmpty { null },
+        artist = (retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST)
+          ?: retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUMARTIST))?.trim()?.ifEmpty { null },
+        album = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM)?.trim()?.ifEmpty { null },
+        duration = duration,
+        artwork = retriever.embeddedPicture?.let { storeArtwork(it) }
+      )
+    } catch (e: RuntimeException) {
+      Log.w(TAG, "Failed to read tags from $path", e)
+      return ExtractedMeta(path, size, mtime, null, null, null, 0L, null)
+    } finally {
+      retriever.release()
+    }
+  }
+
+  // Content-addressed, so an album's tracks share one file
+  private fun storeArtwork(bytes: ByteArray): String? {
+    val digest = MessageDigest.getInstance("SHA-1").digest(bytes)
+    val name = buildString(digest.size * 2 + 4) {
+      for (b in digest) append(HEX[(b.toInt() shr 4) and 0xf]).append(HEX[b.toInt() and 0xf])
+      append(if (isPng(bytes)) ".png" else ".jpg")
+    }
+    val target = File(artworkDir, name)
+    if (target.isFile) return target.path
+    if (!artworkDir.isDirectory && !artworkDir.mkdirs()) return null
+    val tmp = File.createTempFile(name, ".tmp", artworkDir)
+    try {
+      FileOutputStream(tmp).use { it.write(bytes) }
+      if (!tmp.renameTo(target)) tmp.delete()
+    } catch (e: Exception) {
+      tmp.delete()
+      Log.w(TAG, "Failed to store artwork", e)
+      return null
+    }
+    return target.path
+  }
+
+  companion object {
+    private const val TAG = "MetadataExtractor"
+    private const val ARTWORK_DIR = "artwork"
+    private const val BATCH_SIZE = 200
+    private const val REPORT_INTERVAL_MS = 250L
+    private val SKIPPED = Any()
+    private val HEX = "0123456789abcdef".toCharArray()
+
+    private fun isPng(bytes: ByteArray): Boolean =
+      bytes.size > 4 && bytes[0] == 0x89.toByte() && bytes[1] == 'P'.code.toByte() &&
+        bytes[2] == 'N'.code.toByte() && bytes[3] == 'G'.code.toByte()
+  }
+}
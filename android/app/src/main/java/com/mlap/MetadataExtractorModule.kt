@@ -0,0 +1,79 @@
+package com.mlap
+
+import com.facebook.react.bridge.Promise
+import com.facebook.react.bridge.ReactApplicationContext
+import com.facebook.react.bridge.ReactContextBaseJavaModule
+import com.facebook.react.bridge.ReactMethod
+import com.facebook.react.bridge.ReadableArray
+import com.facebook.react.bridge.WritableNativeMap
+import com.facebook.react.modules.core.DeviceEventManagerModule
+import java.util.concurrent.Executors
+
+/**
+ * Runs MetadataExtractor over the track index in the background and reports
+ * progress as "MetadataProgress" events. Runs are serialized; a repeat run only
+ * reads files changed since the last one.
+ */
+class MetadataExtractorModule(reactContext: ReactApplicationContext) : ReactContextBaseJavaModule(reactContext) {
+
+  private val executor = Executors.newSingleThreadExecutor()
+  private val extractor by lazy {
+    MetadataExtractor(reactApplicationContext, TrackIndexDatabase.getInstance(reactApplicationContext))
+  }
+
+  override fun getName(): String {
+    return "MetadataExtractor"
+  }
+
+  // Required for NativeEventEmitter compatibility
+  @ReactMethod
+  fun addListener(eventName: String) {}
+
+  @ReactMethod
+  fun removeListeners(count: Double) {}
+
+  /**
+   * Reads every changed file in the index, or only the given paths (e.g. the
+   * ones a live library change touched). Resolves { processed, updated } once
+   * they have all been read.
+   */
+  @ReactMethod
+  fun start(paths: ReadableArray?, promise: Promise) {
+    val requested = paths?.let { arr -> List(arr.size()) { arr.getString(it) ?: "" }.filter { it.isNotEmpty() } }
+    executor.execute {
+      try {
+        val result = extractor.run(requested) { progress -> sendProgress(progress, false) }
+        sendProgress(result, true)
+        val map = WritableNativeMap()
+        map.putInt("processed", result.processed)
+        map.putInt("updated", result.updated)
+        promise.resolve(map)
+      } catch (e: Exception) {
+        promise.reject("ERR_METADATA_EXTRACTION", e.message)
+      }
+    }
+  }
+
+  @ReactMethod
+  fun cancel() {
+    extractor.cancel()
+  }
+
+  override fun onCatalystInstanceDestroy() {
+    super.onCatalystInstanceDestroy()
+    extractor.cancel()
+    executor.shutdown()
+  }
+
+  private fun sendProgress(progress: MetadataExtractor.Progress, done: Boolean) {
+    if (!reactApplicationContext.hasActiveReactInstance()) return
+    val map = WritableNativeMap()
+    map.putInt("processed", progress.processed)
+    map.putInt("total", progress.total)
+    map.putInt("updated", progress.updated)
+    map.putBoolean("done", done)
+    reactApplicationContext
+      .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter::class.java)
+      .emit("MetadataProgress", map)
+  }
+}
@@ -0,0 +1,372 @@
+package com.mlap;
+
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.audio.AudioProcessor;
+import com.google.android.exoplayer2.audio.DefaultAudioSink;
+import com.google.android.exoplayer2.audio.ForwardingAudioSink;
+import com.google.android.exoplayer2.audio.SonicAudioProcessor;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.Util;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Audio sink for one queue's player that feeds AudioMixer instead of owning an
+ * AudioTrack. Decoded PCM is converted to 16 bits, resampled to the mixer rate
+ * when needed and copied into the queue's mixer channel; the player's clock is
+ * the channel's share of what the mixer's track has actually played.
+ *
+ * The wrapped DefaultAudioSink is never configured, so it never opens a track;
+ * it only answers the calls this sink has no opinion on. Playback speed and
+ * skip-silence are not supported. Encoder delay is trimmed; end padding is not.
+ *
+ * Normalization gains are set from the main thread: the current track's
+ * directly, the next one's ahead of time. The sink switches to the next gain
+ * at the frame where the renderer reports a new stream (handleDiscontinuity
+ * at the gapless boundary), so it applies from the first sample of that track.
+ *
+ * Playback thread only, like any AudioSink, except the fade and gain methods,
+ * which the pool and its Crossfader call from the main thread.
+ */
+public final class MixerAudioSink extends ForwardingAudioSink {
+    private static final int SLICE_FRAMES = 2048;
+    // Headroom for frames the resampler holds back and releases with the next slice
+    private static final int RESAMPLER_SLACK_FRAMES = 1024;
+
+    private final AudioMixer mixer = AudioMixer.getInstance();
+    private final String queueId;
+    private final SonicAudioProcessor resampler = new SonicAudioProcessor();
+    @Nullable private volatile AudioMixer.Channel channel;
+    // A fade-out requested before the first format arrived; applied when the channel opens
+    private int pendingFadeOutFrames = 0;
+    private int pendingFadeOutCurve;
+    @Nullable private Listener listener;
+    private float volume = 1f;
+    private float trackGain = 1f;
+    private volatile float nextTrackGain = 1f;
+    // Whether anything was written since the last flush; a stream change before that is a seek or start
+    private boolean wroteSinceFlush;
+
+    private int encoding;
+    private int channelCount;
+    private int inputRate;
+    private int inputFrameBytes;
+    private boolean resampling;
+    private int trimStartFrames;
+    private ByteBuffer converted = ByteBuffer.allocateDirect(0).order(ByteOrder.LITTLE_ENDIAN);
+    // Converted frames that did not fit in the ring yet; written before any new input
+    @Nullable private ByteBuffer pendingOutput;
+
+    private long startMediaTimeUs = C.TIME_UNSET;
+    private boolean playing;
+    private boolean endOfStreamQueued;
+    private boolean positionAdvancing;
+
+    public MixerAudioSink(String queueId) {
+        super(new DefaultAudioSink.Builder().build());
+        this.queueId = queueId;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public boolean supportsFormat(Format format) {
+        return getFormatSupport(format) != SINK_FORMAT_UNSUPPORTED;
+    }
+
+    @Override
+    public int getFormatSupport(Format format) {
+        if (!MimeTypes.AUDIO_RAW.equals(format.sampleMimeType)) return SINK_FORMAT_UNSUPPORTED;
+        switch (format.pcmEncoding) {
+            case C.ENCODING_PCM_16BIT:
+                return SINK_FORMAT_SUPPORTED_DIRECTLY;
+            case C.ENCODING_PCM_8BIT:
+            case C.ENCODING_PCM_24BIT:
+            case C.ENCODING_PCM_32BIT:
+            case C.ENCODING_PCM_FLOAT:
+                return SINK_FORMAT_SUPPORTED_WITH_TRANSCODING;
+            default:
+                return SINK_FORMAT_UNSUPPORTED;
+        }
+    }
+
+    // Called for every new format, including between gapless items; the ring and clock carry on
+    @Override
+    public void configure(Format inputFormat, int specifiedBufferSize, @Nullable int[] outputChannels)
+            throws ConfigurationException {
+        if (getFormatSupport(inputFormat) == SINK_FORMAT_UNSUPPORTED) {
+            throw new ConfigurationException("Unsupported format", inputFormat);
+        }
+        encoding = inputFormat.pcmEncoding;
+        channelCount = inputFormat.channelCount;
+        inputRate = inputFormat.sampleRate;
+        inputFrameBytes = Util.getPcmFrameSize(encoding, channelCount);
+        resampler.setOutputSampleRateHz(mixer.sampleRate);
+        try {
+            resampler.configure(new AudioProcessor.AudioFormat(inputRate, channelCount, C.ENCODING_PCM_16BIT));
+        } catch (AudioProcessor.UnhandledAudioFormatException e) {
+            throw new ConfigurationException(e, inputFormat);
+        }
+        resampling = resampler.isActive();
+        if (resampling) resampler.flush();
+        trimStartFrames = inputFormat.encoderDelay;
+        if (channel == null) openChannel();
+        if (playing) play();
+    }
+
+    private synchronized void openChannel() {
+        AudioMixer.Channel opened = mixer.open(queueId);
+        opened.volume = volume;
+        opened.setTrackGain(trackGain);
+        if (pendingFadeOutFrames > 0) {
+            opened.startFade(true, pendingFadeOutFrames, pendingFadeOutCurve);
+            pendingFadeOutFrames = 0;
+        }
+        channel = opened;
+    }
+
+    /** Fades out over durationMs from the next frame played, then stays silent until flushed. */
+    public synchronized void fadeOut(long durationMs, int curve) {
+        AudioMixer.Channel c = channel;
+        if (c != null) {
+            c.startFade(true, mixer.msToFrames(durationMs), curve);
+        } else {
+            pendingFadeOutFrames = mixer.msToFrames(durationMs);
+            pendingFadeOutCurve = curve;
+        }
+    }
+
+    /** Fades in over durationMs from the first frame after the next flush, i.e. after a seek. */
+    public void fadeInAfterFlush(long durationMs, int curve) {
+        AudioMixer.Channel c = channel;
+        if (c != null) c.fadeInAfterClear(mixer.msToFrames(durationMs), curve);
+    }
+
+    /** Normalization gain of the item playing now; applies from the next mixer period. */
+    public synchronized void setTrackGain(float gain) {
+        trackGain = gain;
+        AudioMixer.Channel c = channel;
+        if (c != null) c.setTrackGain(gain);
+    }
+
+    /** Normalization gain for the item after the current one, applied where it starts. */
+    public void setNextTrackGain(float gain) {
+        nextTrackGain = gain;
+    }
+
+    @Override
+    public void play() {
+        playing = true;
+        positionAdvancing = false;
+        if (channel == null) return;
+        channel.playing = true;
+        mixer.wake();
+    }
+
+    @Override
+    public void pause() {
+        playing = false;
+        if (channel != null) channel.playing = false;
+    }
+
+    // Called when the renderer moves on to the next stream. Positions come from frames
+    // played, not from buffer timestamps, so all that changes is the track gain
+    @Override
+    public void handleDiscontinuity() {
+        AudioMixer.Channel channel = this.channel;
+        if (channel == null || !wroteSinceFlush) return;
+        float gain;
+        synchronized (this) {
+            trackGain = gain = nextTrackGain;
+        }
+        channel.switchTrackGain(gain);
+    }
+
+    @Override
+    public boolean handleBuffer(ByteBuffer buffer, long presentationTimeUs, int encodedAccessUnitCount) {
+        AudioMixer.Channel channel = Assertions.checkStateNotNull(this.channel);
+        if (!drainPending()) return false;
+        if (startMediaTimeUs == C.TIME_UNSET) startMediaTimeUs = presentationTimeUs;
+        wroteSinceFlush = true;
+        while (buffer.remaining() >= inputFrameBytes) {
+            int frames = Math.min(buffer.remaining() / inputFrameBytes, SLICE_FRAMES);
+            if (trimStartFrames > 0) {
+                int skip = Math.min(trimStartFrames, frames);
+                buffer.position(buffer.position() + skip * inputFrameBytes);
+                trimStartFrames -= skip;
+                continue;
+            }
+            long outFrames = (long) frames * mixer.sampleRate / inputRate + RESAMPLER_SLACK_FRAMES;
+            if (channel.free() < outFrames) return false;
+            if (encoding == C.ENCODING_PCM_16BIT && !resampling) {
+                channel.write(buffer, channelCount, frames);
+                continue;
+            }
+            ByteBuffer pcm;
+            if (encoding == C.ENCODING_PCM_16BIT) {
+                int limit = buffer.limit();
+                buffer.limit(buffer.position() + frames * inputFrameBytes);
+                resampler.queueInput(buffer);
+                buffer.limit(limit);
+                pcm = resampler.getOutput();
+            } else {
+                pcm = toPcm16(buffer, frames);
+                if (resampling) {
+                    resampler.queueInput(pcm);
+                    pcm = resampler.getOutput();
+                }
+            }
+            channel.write(pcm, channelCount, Integer.MAX_VALUE);
+            if (pcm.hasRemaining()) {
+                pendingOutput = pcm;
+                return false;
+            }
+        }
+        // A trailing partial frame is malformed input; drop it
+        buffer.position(buffer.limit());
+        return true;
+    }
+
+    private boolean drainPending() {
+        if (pendingOutput == null || channel == null) return true;
+        channel.write(pendingOutput, channelCount, Integer.MAX_VALUE);
+        if (pendingOutput.hasRemaining()) return false;
+        pendingOutput = null;
+        return true;
+    }
+
+    // Reads frames of the input encoding from src (advancing it) into little-endian 16-bit samples
+    private ByteBuffer toPcm16(ByteBuffer src, int frames) {
+        int samples = frames * channelCount;
+        if (converted.capacity() < samples * 2) {
+            converted = ByteBuffer.allocateDirect(samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        converted.clear();
+        int pos = src.position();
+        int bytesPerSample = inputFrameBytes / channelCount;
+        for (int s = 0; s < samples; s++) {
+            int i = pos + s * bytesPerSample;
+            short v;
+            switch (encoding) {
+                case C.ENCODING_PCM_8BIT:
+                    v = (short) (((src.get(i) & 0xff) - 128) << 8);
+                    break;
+                case C.ENCODING_PCM_24BIT:
+                    v = (short) ((src.get(i + 2) << 8) | (src.get(i + 1) & 0xff));
+                    break;
+                case C.ENCODING_PCM_32BIT:
+                    v = (short) ((src.get(i + 3) << 8) | (src.get(i + 2) & 0xff));
+                    break;
+                default: {
+                    int bits = (src.get(i) & 0xff) | (src.get(i + 1) & 0xff) << 8
+                        | (src.get(i + 2) & 0xff) << 16 | src.get(i + 3) << 24;
+                    float f = Float.intBitsToFloat(bits);
+                    v = (short) (Math.max(-1f, Math.min(1f, f)) * Short.MAX_VALUE);
+                }
+            }
+            converted.putShort(v);
+        }
+        src.position(pos + frames * inputFrameBytes);
+        converted.flip();
+        return converted;
+    }
+
+    @Override
+    public void playToEndOfStream() {
+        if (channel == null || !drainPending()) return;
+        if (!endOfStreamQueued) {
+            endOfStreamQueued = true;
+            if (resampling) {
+                resampler.queueEndOfStream();
+                pendingOutput = resampler.getOutput();
+                if (!drainPending()) return;
+            }
+        }
+        channel.ending = pendingOutput == null;
+    }
+
+    @Override
+    public boolean isEnded() {
+        if (channel == null) return true;
+        if (endOfStreamQueued) playToEndOfStream();
+        return endOfStreamQueued && pendingOutput == null && !hasPendingData();
+    }
+
+    @Override
+    public boolean hasPendingData() {
+        AudioMixer.Channel channel = this.channel;
+        if (channel == null) return false;
+        return pendingOutput != null || channel.available() > 0
+            || channel.played(mixer.framesPlayed()) < channel.consumed();
+    }
+
+    @Override
+    public long getCurrentPositionUs(boolean sourceEnded) {
+        AudioMixer.Channel channel = this.channel;
+        if (channel == null || startMediaTimeUs == C.TIME_UNSET) return CURRENT_POSITION_NOT_SET;
+        long played = channel.played(mixer.framesPlayed());
+        if (playing && !positionAdvancing && played > 0) {
+            positionAdvancing = true;
+            if (listener != null) {
+                listener.onPositionAdvancing(System.currentTimeMillis() - played * 1000 / mixer.sampleRate);
+            }
+        }
+        return startMediaTimeUs + played * C.MICROS_PER_SECOND / mixer.sampleRate;
+    }
+
+    @Override
+    public void setPlaybackParameters(PlaybackParameters playbackParameters) {
+        // Always 1x: the mixer runs every queue off one clock
+    }
+
+    @Override
+    public PlaybackParameters getPlaybackParameters() {
+        return PlaybackParameters.DEFAULT;
+    }
+
+    @Override
+    public void setSkipSilenceEnabled(boolean skipSilenceEnabled) {}
+
+    @Override
+    public boolean getSkipSilenceEnabled() {
+        return false;
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        this.volume = volume;
+        if (channel != null) channel.volume = volume;
+    }
+
+    @Override
+    public void flush() {
+        if (channel != null) channel.clear();
+        if (resampling) resampler.flush();
+        pendingOutput = null;
+        trimStartFrames = 0;
+        startMediaTimeUs = C.TIME_UNSET;
+        endOfStreamQueued = false;
+        positionAdvancing = false;
+        wroteSinceFlush = false;
+    }
+
+    @Override
+    public void reset() {
+        flush();
+        resampler.reset();
+        resampling = false;
+        if (channel != null) {
+            mixer.close(channel);
+            channel = null;
+        }
+        playing = false;
+        super.reset();
+    }
+}
@@ -0,0 +1,71 @@
+package com.mlap;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.MediaItem;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-track normalization gains for the player, by file path. Loaded once
+ * from the track index's track_loudness table on a background thread and kept
+ * current by LoudnessModule as it analyzes; a track not known yet plays at
+ * unity. Lookups are a map read, cheap enough for every item transition.
+ */
+public final class NormalizationGains {
+    private static final String TAG = "NormalizationGains";
+
+    private static final Map<String, LoudnessResult> gains = new ConcurrentHashMap<>();
+    private static volatile boolean enabled = true;
+    private static volatile double preampDb = 0;
+    private static boolean loadStarted = false;
+
+    private NormalizationGains() {}
+
+    /** Reads the stored gains in the background, then runs onLoaded there; later calls do nothing. */
+    static synchronized void load(Context context, Runnable onLoaded) {
+        if (loadStarted) return;
+        loadStarted = true;
+        final Context app = context.getApplicationContext();
+        Thread loader = new Thread(() -> {
+            try {
+                // putIfAbsent: results the analyzer put meanwhile are newer
+                for (Map.Entry<String, LoudnessResult> entry : TrackIndexDatabase.getInstance(app).loudnessGains().entrySet()) {
+                    gains.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+                onLoaded.run();
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to load gains", e);
+            }
+        }, TAG);
+        loader.setPriority(Thread.MIN_PRIORITY);
+        loader.start();
+    }
+
+    static void put(String path, LoudnessResult result) {
+        if (LoudnessAnalyzer.SOURCE_NONE.equals(result.getSource())) gains.remove(path);
+        else gains.put(path, result);
+    }
+
+    /** Turns normalization on or off; preampDb is added to every track's gain. */
+    static void configure(boolean enabled, double preampDb) {
+        NormalizationGains.enabled = enabled;
+        NormalizationGains.preampDb = preampDb;
+    }
+
+    /** Linear gain for a track, clip-limited by its peak; 1 when unknown or disabled. */
+    static float linearGain(@Nullable String path) {
+        if (!enabled || path == null) return 1f;
+        LoudnessResult result = gains.get(path);
+        if (result == null) return 1f;
+        return LoudnessAnalyzer.linearGain(result.getGainDb(), result.getPeak(), preampDb);
+    }
+
+    static float linearGain(@Nullable MediaItem item) {
+        if (item == null || item.localConfiguration == null) return 1f;
+        Uri uri = item.localConfiguration.uri;
+        return linearGain(uri.getPath());
+    }
+}
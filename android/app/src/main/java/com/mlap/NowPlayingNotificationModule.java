@@ -7,7 +7,11 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.util.SparseArray;
 import androidx.core.app.NotificationCompat;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
@@ -16,6 +20,7 @@ import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 import android.util.Log;
+import java.util.Objects;
 
 public class NowPlayingNotificationModule extends ReactContextBaseJavaModule {
     // Required for NativeEventEmitter compatibility
@@ -28,17 +33,83 @@ public class NowPlayingNotificationModule extends ReactContextBaseJavaModule {
     public void removeListeners(double count) {
         // No-op: Required for RN built-in Event Emitter
     }
-    private static final String CHANNEL_ID = "now_playing_channel";
+    static final String CHANNEL_ID = "now_playing_channel";
     private static final int NOTIFICATION_ID = 1002;
     private final ReactApplicationContext reactContext;
     private NotificationManager notificationManager;
     private BroadcastReceiver actionReceiver;
+    // At most one post per notification id per window; updates in between are merged
+    private static final long MIN_POST_INTERVAL_MS = 500;
+    private static final PerfMetrics.Meter POSTS = PerfMetrics.meter("notification.posts");
+    private static final PerfMetrics.Histogram POST_TIME = PerfMetrics.timer("notification.post");
+    // Artwork decoding and notify() run on this thread instead of the bridge thread.
+    // Everything below is only touched from it.
+    private final HandlerThread notificationThread = new HandlerThread("NowPlayingNotification");
+    private final Handler handler;
+    private final ArtworkCache artworkCache;
+    private final int largeIconSize;
+    private final SparseArray<NotificationState> posted = new SparseArray<>();
+    // Latest state asked for per id, kept while PlaybackService owns the id so it can be posted when it lets go
+    private final SparseArray<NotificationState> requested = new SparseArray<>();
+    private final SparseArray<NotificationState> pending = new SparseArray<>();
+    private final SparseArray<Long> lastPostTime = new SparseArray<>();
+    private final SparseArray<NotificationCompat.Builder> builders = new SparseArray<>();
+    private final SparseArray<NotificationCompat.Action[]> actions = new SparseArray<>();
+    private final SparseArray<MediaSessionCompat.Token> styledTokens = new SparseArray<>();
+
+    // What a notification shows; equal states are not reposted
+    private static final class NotificationState {
+        final String title;
+        final String artist;
+        final String artworkPath;
+        final boolean isPlaying;
+
+        NotificationState(String title, String artist, String artworkPath, boolean isPlaying) {
+            this.title = title;
+            this.artist = artist;
+            this.artworkPath = artworkPath;
+            this.isPlaying = isPlaying;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof NotificationState)) return false;
+            NotificationState other = (NotificationState) o;
+            return isPlaying == other.isPlaying
+                && Objects.equals(title, other.title)
+                && Objects.equals(artist, other.artist)
+                && Objects.equals(artworkPath, other.artworkPath);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(title, artist, artworkPath, isPlaying);
+        }
+    }
 
     public NowPlayingNotificationModule(ReactApplicationContext context) {
         super(context);
         this.reactContext = context;
         notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        artworkCache = ArtworkCache.getInstance(context);
+        largeIconSize = context.getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+        notificationThread.start();
+        handler = new Handler(notificationThread.getLooper());
+        createNotificationChannel(context);
         registerInternalReceiver();
+        PlaybackService.setOwnershipListener(ownershipListener);
+    }
+
+    private final Runnable ownershipListener = () -> handler.post(this::onOwnershipChanged);
+
+    // The service took or released an id: forget what was posted under an owned id, repost released ones
+    private void onOwnershipChanged() {
+        int owned = PlaybackService.ownedNotificationId();
+        if (owned != 0) posted.remove(owned);
+        for (int i = 0; i < requested.size(); i++) {
+            int notificationId = requested.keyAt(i);
+            if (notificationId != owned) schedule(notificationId, requested.valueAt(i));
+        }
     }
 
     private void registerInternalReceiver() {
@@ -48,7 +119,6 @@ public class NowPlayingNotificationModule extends ReactContextBaseJavaModule {
             public void onReceive(Context context, Intent intent) {
                 String action = intent.getAction();
                 int notificationId = intent.getIntExtra("notificationId", -1);
-                Log.d("NowPlayingNotif", "Received action: " + action + ", notificationId=" + notificationId);
                 String jsAction = null;
                 if (action == null) return;
                 if (action.equals("com.mlap.NP_PREV")) jsAction = "previous";
@@ -97,65 +167,107 @@ public class NowPlayingNotificationModule extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void showNotification(ReadableMap track, boolean isPlaying, int notificationId, Promise promise) {
+        String title = track.hasKey("title") ? track.getString("title") : "Unknown Title";
+        String artist = track.hasKey("artist") ? track.getString("artist") : "Unknown Artist";
+        String artworkPath = track.hasKey("artwork") ? track.getString("artwork") : null;
+        NotificationState state = new NotificationState(title, artist, artworkPath, isPlaying);
+        handler.post(() -> schedule(notificationId, state));
+        promise.resolve(true);
+    }
+
+    // Records the latest state and makes sure one post is due for it
+    private void schedule(int notificationId, NotificationState state) {
+        requested.put(notificationId, state);
+        if (notificationId == PlaybackService.ownedNotificationId()) return;
+        boolean alreadyScheduled = pending.get(notificationId) != null;
+        if (!alreadyScheduled && state.equals(posted.get(notificationId))) return;
+        pending.put(notificationId, state);
+        if (alreadyScheduled) return;
+        Long last = lastPostTime.get(notificationId);
+        long delay = last == null ? 0 : Math.max(0, last + MIN_POST_INTERVAL_MS - SystemClock.uptimeMillis());
+        handler.postDelayed(() -> flush(notificationId), delay);
+    }
+
+    private void flush(int notificationId) {
+        NotificationState state = pending.get(notificationId);
+        pending.remove(notificationId);
+        if (state == null || state.equals(posted.get(notificationId))) return;
+        // Taken over by PlaybackService while this was waiting
+        if (notificationId == PlaybackService.ownedNotificationId()) return;
         try {
-            String title = track.hasKey("title") ? track.getString("title") : "Unknown Title";
-            String artist = track.hasKey("artist") ? track.getString("artist") : "Unknown Artist";
-            String artworkPath = track.hasKey("artwork") ? track.getString("artwork") : null;
-            Log.d("NowPlayingNotif", "showNotification called: title=" + title + ", artist=" + artist + ", isPlaying=" + isPlaying + ", artworkPath=" + artworkPath + ", notificationId=" + notificationId);
-            Bitmap artwork = null;
-            if (artworkPath != null && artworkPath.length() > 0) {
-                artwork = BitmapFactory.decodeFile(artworkPath);
-            }
-            if (artwork == null) {
-                artwork = BitmapFactory.decodeResource(reactContext.getResources(), reactContext.getApplicationInfo().icon);
-            }
-            createNotificationChannel();
-
-
-            Intent prevIntent = new Intent("com.mlap.NP_PREV");
-            prevIntent.putExtra("notificationId", notificationId);
-            Intent playPauseIntent = new Intent("com.mlap.NP_PLAY_PAUSE");
-            playPauseIntent.putExtra("notificationId", notificationId);
-            Intent nextIntent = new Intent("com.mlap.NP_NEXT");
-            nextIntent.putExtra("notificationId", notificationId);
-            PendingIntent prevPending = PendingIntent.getBroadcast(reactContext, notificationId * 10 + 0, prevIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-            PendingIntent playPausePending = PendingIntent.getBroadcast(reactContext, notificationId * 10 + 1, playPauseIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-            PendingIntent nextPending = PendingIntent.getBroadcast(reactContext, notificationId * 10 + 2, nextIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-
-            NotificationCompat.Builder builder = new NotificationCompat.Builder(reactContext, CHANNEL_ID)
-                .setContentTitle(title)
-                .setContentText(artist)
+            post(notificationId, state);
+            posted.put(notificationId, state);
+            lastPostTime.put(notificationId, SystemClock.uptimeMillis());
+        } catch (Exception e) {
+            Log.e("NowPlayingNotif", "Error in showNotification", e);
+        }
+    }
+
+    private void post(int notificationId, NotificationState state) {
+        long start = PerfMetrics.now();
+        NotificationState previous = posted.get(notificationId);
+        NotificationCompat.Builder builder = builders.get(notificationId);
+        if (builder == null) {
+            builder = new NotificationCompat.Builder(reactContext, CHANNEL_ID)
                 .setSmallIcon(reactContext.getApplicationInfo().icon)
-                .setLargeIcon(artwork)
-                .addAction(android.R.drawable.ic_media_previous, "Prev", prevPending)
-                .addAction(isPlaying ? android.R.drawable.ic_media_pause : android.R.drawable.ic_media_play, isPlaying ? "Pause" : "Play", playPausePending)
-                .addAction(android.R.drawable.ic_media_next, "Next", nextPending)
-                .setOngoing(isPlaying)
                 .setPriority(NotificationCompat.PRIORITY_LOW)
                 .setOnlyAlertOnce(true);
-            // Attach MediaSession token if available
-            try {
-                Class<?> mediaButtonClass = Class.forName("com.mlap.MediaButtonModule");
-                android.support.v4.media.session.MediaSessionCompat mediaSession = (android.support.v4.media.session.MediaSessionCompat) mediaButtonClass.getField("mediaSessionInstance").get(null);
-                if (mediaSession != null) {
-                    builder.setStyle(new androidx.media.app.NotificationCompat.MediaStyle().setMediaSession(mediaSession.getSessionToken()));
-                } else {
-                    builder.setStyle(new androidx.media.app.NotificationCompat.MediaStyle());
-                }
-            } catch (Exception e) {
-                builder.setStyle(new androidx.media.app.NotificationCompat.MediaStyle());
+            builders.put(notificationId, builder);
+        }
+        if (previous == null || !Objects.equals(previous.artworkPath, state.artworkPath)) {
+            Bitmap artwork = artworkCache.get(state.artworkPath, largeIconSize);
+            if (artwork == null) {
+                artwork = artworkCache.getFallback(largeIconSize);
             }
-
-            Log.d("NowPlayingNotif", "Notifying notificationManager with id=" + notificationId);
-            notificationManager.notify(notificationId, builder.build());
-            promise.resolve(true);
-        } catch (Exception e) {
-            Log.e("NowPlayingNotif", "Error in showNotification", e);
-            promise.reject("notification_error", e);
+            builder.setLargeIcon(artwork);
         }
+        NotificationCompat.Action[] acts = actionsFor(notificationId);
+        builder.setContentTitle(state.title)
+            .setContentText(state.artist)
+            .setOngoing(state.isPlaying)
+            .clearActions()
+            .addAction(acts[0])
+            .addAction(state.isPlaying ? acts[2] : acts[1])
+            .addAction(acts[3]);
+        // Restyle only when the session behind MediaButtonModule changes
+        MediaSessionCompat mediaSession = MediaButtonModule.mediaSessionInstance;
+        MediaSessionCompat.Token token = mediaSession != null ? mediaSession.getSessionToken() : null;
+        if (previous == null || !Objects.equals(token, styledTokens.get(notificationId))) {
+            androidx.media.app.NotificationCompat.MediaStyle style = new androidx.media.app.NotificationCompat.MediaStyle();
+            if (token != null) style.setMediaSession(token);
+            builder.setStyle(style);
+            styledTokens.put(notificationId, token);
+        }
+        notificationManager.notify(notificationId, builder.build());
+        POSTS.mark();
+        POST_TIME.recordSince(start);
+    }
+
+    // prev, play, pause, next; the intents never change for an id so they are built once
+    private NotificationCompat.Action[] actionsFor(int notificationId) {
+        NotificationCompat.Action[] acts = actions.get(notificationId);
+        if (acts != null) return acts;
+        PendingIntent prevPending = actionIntent("com.mlap.NP_PREV", notificationId, 0);
+        PendingIntent playPausePending = actionIntent("com.mlap.NP_PLAY_PAUSE", notificationId, 1);
+        PendingIntent nextPending = actionIntent("com.mlap.NP_NEXT", notificationId, 2);
+        acts = new NotificationCompat.Action[] {
+            new NotificationCompat.Action(android.R.drawable.ic_media_previous, "Prev", prevPending),
+            new NotificationCompat.Action(android.R.drawable.ic_media_play, "Play", playPausePending),
+            new NotificationCompat.Action(android.R.drawable.ic_media_pause, "Pause", playPausePending),
+            new NotificationCompat.Action(android.R.drawable.ic_media_next, "Next", nextPending),
+        };
+        actions.put(notificationId, acts);
+        return acts;
+    }
+
+    private PendingIntent actionIntent(String action, int notificationId, int slot) {
+        Intent intent = new Intent(action);
+        intent.putExtra("notificationId", notificationId);
+        return PendingIntent.getBroadcast(reactContext, notificationId * 10 + slot, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
     }
 
-    private void createNotificationChannel() {
+    // Shared with PlaybackService, which may post before this module exists
+    static void createNotificationChannel(Context context) {
         // Create the notification channel if needed (Android O+)
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
             String name = "Now Playing";
@@ -163,7 +275,7 @@ public class NowPlayingNotificationModule extends ReactContextBaseJavaModule {
             int importance = NotificationManager.IMPORTANCE_LOW;
             android.app.NotificationChannel channel = new android.app.NotificationChannel(CHANNEL_ID, name, importance);
             channel.setDescription(description);
-            NotificationManager manager = (NotificationManager) reactContext.getSystemService(Context.NOTIFICATION_SERVICE);
+            NotificationManager manager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
             if (manager != null) {
                 manager.createNotificationChannel(channel);
             }
@@ -175,6 +287,8 @@ public class NowPlayingNotificationModule extends ReactContextBaseJavaModule {
     @Override
     public void onCatalystInstanceDestroy() {
         super.onCatalystInstanceDestroy();
+        PlaybackService.setOwnershipListener(null);
+        notificationThread.quitSafely();
         if (actionReceiver != null) {
             reactContext.unregisterReceiver(actionReceiver);
             actionReceiver = null;
@@ -0,0 +1,241 @@
+package com.mlap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide performance metrics: counters, histograms (timers are
+ * histograms of microseconds) and one-minute rate meters, created by name on
+ * first use. Recording is a handful of atomic adds with no locks and no
+ * allocation, so it stays on in release builds; callers keep the metric in a
+ * static field. PerfMetricsModule exposes snapshot() to JS.
+ *
+ * Plain Java on purpose: safe from any thread and usable from JVM benchmarks.
+ */
+public final class PerfMetrics {
+
+    private static final ConcurrentHashMap<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    private PerfMetrics() {}
+
+    public static Counter counter(String name) {
+        return (Counter) metrics.computeIfAbsent(name, Counter::new);
+    }
+
+    public static Histogram histogram(String name, String unit) {
+        return (Histogram) metrics.computeIfAbsent(name, n -> new Histogram(n, unit));
+    }
+
+    /** A histogram of durations in microseconds; pair with now() and recordSince(). */
+    public static Histogram timer(String name) {
+        return histogram(name, "us");
+    }
+
+    public static Meter meter(String name) {
+        return (Meter) metrics.computeIfAbsent(name, Meter::new);
+    }
+
+    /** Start mark for Histogram.recordSince. */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /** Copies every metric, sorted by name. */
+    public static List<Snapshot> snapshot() {
+        List<Snapshot> list = new ArrayList<>(metrics.size());
+        for (Metric metric : metrics.values()) list.add(metric.snapshot());
+        Collections.sort(list, (a, b) -> a.name.compareTo(b.name));
+        return list;
+    }
+
+    /** Zeroes every metric; registrations (and callers' references) stay valid. */
+    public static void reset() {
+        for (Metric metric : metrics.values()) metric.reset();
+    }
+
+    public abstract static class Metric {
+        public final String name;
+
+        Metric(String name) {
+            this.name = name;
+        }
+
+        abstract Snapshot snapshot();
+
+        abstract void reset();
+    }
+
+    public static final class Counter extends Metric {
+        private final LongAdder value = new LongAdder();
+
+        Counter(String name) {
+            super(name);
+        }
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        @Override
+        Snapshot snapshot() {
+            long v = value.sum();
+            return new Snapshot(name, "counter", "", v, v, 0, 0, 0, 0, 0, 0);
+        }
+
+        @Override
+        void reset() {
+            value.reset();
+        }
+    }
+
+    /**
+     * Log2-bucketed distribution of non-negative values: bucket i holds
+     * [2^(i-1), 2^i), so percentiles are within a factor of two and capped at
+     * the exact maximum.
+     */
+    public static final class Histogram extends Metric {
+        public final String unit;
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+        Histogram(String name, String unit) {
+            super(name);
+            this.unit = unit;
+        }
+
+        public void record(long value) {
+            if (value < 0) value = 0;
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            sum.add(value);
+            long m;
+            while (value < (m = min.get()) && !min.compareAndSet(m, value)) {}
+            while (value > (m = max.get()) && !max.compareAndSet(m, value)) {}
+        }
+
+        /** Records the microseconds elapsed since a PerfMetrics.now() mark. */
+        public void recordSince(long startNanos) {
+            record((System.nanoTime() - startNanos) / 1000);
+        }
+
+        private long percentile(long[] counts, long total, long maxValue, double q) {
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return i == 0 ? 0 : Math.min(maxValue, (1L << i) - 1);
+            }
+            return maxValue;
+        }
+
+        @Override
+        Snapshot snapshot() {
+            long[] counts = new long[buckets.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) return new Snapshot(name, "histogram", unit, 0, 0, 0, 0, 0, 0, 0, 0);
+            long hi = max.get();
+            return new Snapshot(
+                name, "histogram", unit, total, sum.sum(), min.get(), hi,
+                percentile(counts, total, hi, 0.5), percentile(counts, total, hi, 0.95), percentile(counts, total, hi, 0.99), 0
+            );
+        }
+
+        @Override
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++) buckets.set(i, 0);
+            sum.reset();
+            min.set(Long.MAX_VALUE);
+            max.set(Long.MIN_VALUE);
+        }
+    }
+
+    /** Events per minute over a sliding window of one-second slots, plus the all-time total. */
+    public static final class Meter extends Metric {
+        private static final int SLOTS = 60;
+        private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+        private final AtomicLongArray seconds = new AtomicLongArray(SLOTS);
+        private final LongAdder total = new LongAdder();
+
+        Meter(String name) {
+            super(name);
+        }
+
+        public void mark() {
+            long second = System.nanoTime() / 1_000_000_000L;
+            int slot = (int) (second % SLOTS);
+            long stamp = seconds.get(slot);
+            // First event in this slot for a new second clears what it counted a minute ago
+            if (stamp != second && seconds.compareAndSet(slot, stamp, second)) counts.set(slot, 0);
+            counts.incrementAndGet(slot);
+            total.increment();
+        }
+
+        public long perMinute() {
+            long now = System.nanoTime() / 1_000_000_000L;
+            long sum = 0;
+            for (int i = 0; i < SLOTS; i++) {
+                if (now - seconds.get(i) < SLOTS) sum += counts.get(i);
+            }
+            return sum;
+        }
+
+        @Override
+        Snapshot snapshot() {
+            long t = total.sum();
+            return new Snapshot(name, "meter", "/min", t, t, 0, 0, 0, 0, 0, perMinute());
+        }
+
+        @Override
+        void reset() {
+            for (int i = 0; i < SLOTS; i++) {
+                counts.set(i, 0);
+                seconds.set(i, 0);
+            }
+            total.reset();
+        }
+    }
+
+    /** Point-in-time copy of one metric. Counters and meters report their total as count and sum. */
+    public static final class Snapshot {
+        public final String name;
+        public final String type;
+        public final String unit;
+        public final long count;
+        public final long sum;
+        public final long min;
+        public final long max;
+        public final long p50;
+        public final long p95;
+        public final long p99;
+        public final long perMinute;
+
+        Snapshot(String name, String type, String unit, long count, long sum, long min, long max,
+                 long p50, long p95, long p99, long perMinute) {
+            this.name = name;
+            this.type = type;
+            this.unit = unit;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.perMinute = perMinute;
+        }
+    }
+}
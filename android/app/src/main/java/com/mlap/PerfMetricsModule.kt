@@ -0,0 +1,84 @@
+package com.mlap
+
+import android.os.SystemClock
+import com.facebook.react.bridge.Promise
+import com.facebook.react.bridge.ReactApplicationContext
+import com.facebook.react.bridge.ReactContextBaseJavaModule
+import com.facebook.react.bridge.ReactMethod
+import com.facebook.react.bridge.WritableNativeArray
+import com.facebook.react.bridge.WritableNativeMap
+import org.json.JSONArray
+import org.json.JSONObject
+
+/**
+ * JS access to PerfMetrics: snapshots for the debug screen, a JSON export for
+ * bug reports, and timings measured on the JS side (recorded under "js.").
+ */
+class PerfMetricsModule(reactContext: ReactApplicationContext) : ReactContextBaseJavaModule(reactContext) {
+
+  override fun getName(): String {
+    return "PerfMetrics"
+  }
+
+  /**
+   * Resolves { uptimeMs, metrics: [{ name, type, unit, count, sum, min, max,
+   * p50, p95, p99, perMinute }] }, sorted by name. Timer values are microseconds.
+   */
+  @ReactMethod
+  fun getSnapshot(promise: Promise) {
+    val metrics = WritableNativeArray()
+    for (s in PerfMetrics.snapshot()) {
+      val map = WritableNativeMap()
+      map.putString("name", s.name)
+      map.putString("type", s.type)
+      map.putString("unit", s.unit)
+      map.putDouble("count", s.count.toDouble())
+      map.putDouble("sum", s.sum.toDouble())
+      map.putDouble("min", s.min.toDouble())
+      map.putDouble("max", s.max.toDouble())
+      map.putDouble("p50", s.p50.toDouble())
+      map.putDouble("p95", s.p95.toDouble())
+      map.putDouble("p99", s.p99.toDouble())
+      map.putDouble("perMinute", s.perMinute.toDouble())
+      metrics.pushMap(map)
+    }
+    val result = WritableNativeMap()
+    result.putDouble("uptimeMs", SystemClock.elapsedRealtime().toDouble())
+    result.putArray("metrics", metrics)
+    promise.resolve(result)
+  }
+
+  /** Resolves the snapshot as a JSON string. */
+  @ReactMethod
+  fun exportJson(promise: Promise) {
+    try {
+      val metrics = JSONArray()
+      for (s in PerfMetrics.snapshot()) {
+        metrics.put(
+          JSONObject()
+            .put("name", s.name).put("type", s.type).put("unit", s.unit)
+            .put("count", s.count).put("sum", s.sum).put("min", s.min).put("max", s.max)
+            .put("p50", s.p50).put("p95", s.p95).put("p99", s.p99).put("perMinute", s.perMinute)
+        )
+      }
+      val root = JSONObject()
+        .put("uptimeMs", SystemClock.elapsedRealtime())
+        .put("exportedAt", System.currentTimeMillis())
+        .put("metrics", metrics)
+      promise.resolve(root.toString(2))
+    } catch (e: Exception) {
+      promise.reject("ERR_PERF_EXPORT", e.message)
+    }
+  }
+
+  @ReactMethod
+  fun reset() {
+    PerfMetrics.reset()
+  }
+
+  /** Adds a JS-measured duration in milliseconds to the timer "js.<name>". */
+  @ReactMethod
+  fun recordTiming(name: String, ms: Double) {
+    PerfMetrics.timer("js.$name").record((ms * 1000).toLong())
+  }
+}
@@ -0,0 +1,478 @@
+package com.mlap;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Process;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaDescriptionCompat;
+import android.support.v4.media.MediaMetadataCompat;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
+import android.util.Log;
+import android.view.KeyEvent;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.ServiceCompat;
+import androidx.core.content.ContextCompat;
+import androidx.media.MediaBrowserServiceCompat;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.MediaMetadata;
+import com.google.android.exoplayer2.Player;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Owns playback outside the JS runtime: keeps the QueuePlayerPool alive, runs
+ * the media session with the real state of the active queue, and goes
+ * foreground while anything plays. Media buttons and session commands are
+ * executed here directly, so they work with the JS engine suspended or cold.
+ */
+public class PlaybackService extends MediaBrowserServiceCompat {
+    private static final String TAG = "PlaybackService";
+    private static final String ROOT_ID = "root";
+    private static final String EXTRA_FOREGROUND = "com.mlap.EXTRA_FOREGROUND";
+    private static final PerfMetrics.Meter NOTIFICATION_POSTS = PerfMetrics.meter("notification.posts");
+    // Browsers allowed in besides this app, the system and holders of MEDIA_CONTENT_CONTROL
+    private static final Set<String> KNOWN_CLIENTS = new HashSet<>(Arrays.asList(
+        "com.android.systemui",
+        "com.google.android.projection.gearhead",
+        "com.google.android.wearable.app",
+        "com.google.android.autosimulator"));
+
+    private static PlaybackService instance;
+    // The per-queue notification id this service currently posts (0 for none);
+    // NowPlayingNotificationModule leaves that id alone and is told when it changes
+    private static volatile int ownedNotificationId = 0;
+    @Nullable
+    private static volatile Runnable ownershipListener;
+
+    private QueuePlayerPool pool;
+    private MediaButtonDispatcher dispatcher;
+    private MediaSessionCompat session;
+    private boolean foreground = false;
+    private int foregroundNotificationId = 0;
+
+    /** Starts the service in the background; it promotes itself once playback begins. */
+    public static void start(Context context) {
+        if (instance != null) return;
+        try {
+            context.startService(new Intent(context, PlaybackService.class));
+        } catch (IllegalStateException e) {
+            // Background start restrictions: the next media button or play starts it
+            Log.w(TAG, "Could not start playback service", e);
+        }
+    }
+
+    static int ownedNotificationId() {
+        return ownedNotificationId;
+    }
+
+    static void setOwnershipListener(@Nullable Runnable listener) {
+        ownershipListener = listener;
+    }
+
+    /** Runs a media button intent through the session, starting the service if needed. */
+    public static void handleMediaButton(Context context, Intent mediaButtonIntent) {
+        if (instance != null) {
+            androidx.media.session.MediaButtonReceiver.handleIntent(instance.session, mediaButtonIntent);
+            return;
+        }
+        Intent intent = new Intent(context, PlaybackService.class);
+        intent.setAction(Intent.ACTION_MEDIA_BUTTON);
+        intent.putExtras(mediaButtonIntent);
+        intent.putExtra(EXTRA_FOREGROUND, true);
+        try {
+            ContextCompat.startForegroundService(context, intent);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Could not start playback service for media button", e);
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        instance = this;
+        pool = QueuePlayerPool.getInstance(this);
+        dispatcher = MediaButtonDispatcher.getInstance(this);
+        NowPlayingNotificationModule.createNotificationChannel(this);
+        session = new MediaSessionCompat(this, "MLAPMediaSession");
+        session.setCallback(sessionCallback);
+        setSessionToken(session.getSessionToken());
+        MediaButtonModule.mediaSessionInstance = session;
+        pool.addListener(poolListener);
+        updateSession();
+        session.setActive(true);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && intent.getBooleanExtra(EXTRA_FOREGROUND, false)) {
+            // Started with startForegroundService: must go foreground before anything else
+            goForeground();
+        }
+        if (intent != null && Intent.ACTION_MEDIA_BUTTON.equals(intent.getAction())) {
+            // Cold start: bring back the queue that last played so the button has something to resume
+            if (pool.all().isEmpty()) restoreLastQueue();
+            androidx.media.session.MediaButtonReceiver.handleIntent(session, intent);
+        }
+        if (pool.all().isEmpty()) {
+            // Cold start with nothing saved: there is nothing a button could resume
+            ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE);
+            foreground = false;
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        updateForeground();
+        return START_NOT_STICKY;
+    }
+
+    // Reads the saved player state without repairing it (PlayerPersistenceModule owns
+    // the files) and loads the active queue, or failing that the first one with a
+    // current track, paused. Tracks missing from the index are their own path.
+    private void restoreLastQueue() {
+        PlayerStateStore store = new PlayerStateStore(new File(getFilesDir(), PlayerPersistenceModule.STATE_DIR));
+        if (!store.load(false)) return;
+        String queueId = store.getActiveQueueId();
+        PlayerStateStore.QueueState state = queueId != null ? store.getQueues().get(queueId) : null;
+        if (state == null) {
+            for (Map.Entry<String, PlayerStateStore.QueueState> entry : store.getQueues().entrySet()) {
+                if (entry.getValue().getCurrentTrackId() == null) continue;
+                queueId = entry.getKey();
+                state = entry.getValue();
+                break;
+            }
+        }
+        if (state == null || state.getTrackIds().isEmpty()) return;
+        Map<String, IndexedTrack> tracks = TrackIndexDatabase.getInstance(this).findByIds(state.getTrackIds());
+        List<MediaItem> items = new ArrayList<>();
+        int startIndex = -1;
+        for (String id : state.getTrackIds()) {
+            IndexedTrack track = tracks.get(id);
+            String path = track != null ? track.getPath() : id;
+            if (!new File(path).isFile()) continue;
+            if (startIndex < 0 && id.equals(state.getCurrentTrackId())) startIndex = items.size();
+            items.add(ExoPlayerModule.mediaItem(id, path,
+                track != null && track.getTitle() != null ? track.getTitle() : new File(path).getName(),
+                track != null ? track.getArtist() : null));
+        }
+        if (items.isEmpty()) return;
+        ExoPlayer player = pool.obtain(queueId);
+        if (startIndex >= 0) {
+            player.setMediaItems(items, startIndex, state.getPosition());
+        } else {
+            player.setMediaItems(items, 0, 0);
+        }
+        player.setVolume(state.getVolume());
+        player.setShuffleModeEnabled(state.getShuffle());
+        player.setRepeatMode(repeatModeOf(state.getLoopMode()));
+        player.setPlayWhenReady(false);
+    }
+
+    private static int repeatModeOf(int loopMode) {
+        if (loopMode == PlayerStateStore.LOOP_ALL) return Player.REPEAT_MODE_ALL;
+        if (loopMode == PlayerStateStore.LOOP_ONE) return Player.REPEAT_MODE_ONE;
+        return Player.REPEAT_MODE_OFF;
+    }
+
+    @Override
+    public void onTaskRemoved(Intent rootIntent) {
+        super.onTaskRemoved(rootIntent);
+        if (!pool.isAnyPlaying()) stopSelf();
+    }
+
+    @Override
+    public void onDestroy() {
+        pool.removeListener(poolListener);
+        pool.releaseAll();
+        setOwnedNotification(0);
+        if (MediaButtonModule.mediaSessionInstance == session) MediaButtonModule.mediaSessionInstance = null;
+        session.setActive(false);
+        session.release();
+        instance = null;
+        super.onDestroy();
+    }
+
+    @Nullable
+    @Override
+    public BrowserRoot onGetRoot(@NonNull String clientPackageName, int clientUid, @Nullable Bundle rootHints) {
+        if (!isAllowedClient(clientPackageName, clientUid)) {
+            Log.w(TAG, "Refusing browser connection from " + clientPackageName + " (uid " + clientUid + ")");
+            return null;
+        }
+        return new BrowserRoot(ROOT_ID, null);
+    }
+
+    // The service is exported so system surfaces can find it; anyone else gets no root.
+    // MediaBrowserServiceCompat has already checked that the package belongs to the uid.
+    private boolean isAllowedClient(String packageName, int uid) {
+        if (uid == Process.myUid() || uid == Process.SYSTEM_UID) return true;
+        if (checkPermission(android.Manifest.permission.MEDIA_CONTENT_CONTROL, -1, uid) == PackageManager.PERMISSION_GRANTED) {
+            return true;
+        }
+        return KNOWN_CLIENTS.contains(packageName);
+    }
+
+    // The browsable tree is the active queue; media ids are playlist indices
+    @Override
+    public void onLoadChildren(@NonNull String parentId, @NonNull Result<List<MediaBrowserCompat.MediaItem>> result) {
+        List<MediaBrowserCompat.MediaItem> children = new ArrayList<>();
+        ExoPlayer player = activePlayer();
+        if (ROOT_ID.equals(parentId) && player != null) {
+            for (int i = 0; i < player.getMediaItemCount(); i++) {
+                MediaItem item = player.getMediaItemAt(i);
+                MediaDescriptionCompat description = new MediaDescriptionCompat.Builder()
+                    .setMediaId(String.valueOf(i))
+                    .setTitle(item.mediaMetadata.title)
+                    .setSubtitle(item.mediaMetadata.artist)
+                    .build();
+                children.add(new MediaBrowserCompat.MediaItem(description, MediaBrowserCompat.MediaItem.FLAG_PLAYABLE));
+            }
+        }
+        result.sendResult(children);
+    }
+
+    @Nullable
+    private ExoPlayer activePlayer() {
+        String queueId = pool.getActiveQueueId();
+        return queueId != null ? pool.get(queueId) : null;
+    }
+
+    private final MediaSessionCompat.Callback sessionCallback = new MediaSessionCompat.Callback() {
+        // Keys and transport commands all go through the dispatcher, which dedupes them
+        @Override
+        public boolean onMediaButtonEvent(Intent mediaButtonIntent) {
+            KeyEvent event = mediaButtonIntent.getParcelableExtra(Intent.EXTRA_KEY_EVENT);
+            if (event != null && dispatcher.onKeyEvent(event)) return true;
+            return super.onMediaButtonEvent(mediaButtonIntent);
+        }
+
+        @Override
+        public void onPlay() {
+            dispatcher.onCommand(MediaButtonDispatcher.PLAY);
+        }
+
+        @Override
+        public void onPause() {
+            dispatcher.onCommand(MediaButtonDispatcher.PAUSE);
+        }
+
+        @Override
+        public void onStop() {
+            dispatcher.onCommand(MediaButtonDispatcher.STOP);
+        }
+
+        @Override
+        public void onSkipToNext() {
+            dispatcher.onCommand(MediaButtonDispatcher.NEXT);
+        }
+
+        @Override
+        public void onSkipToPrevious() {
+            dispatcher.onCommand(MediaButtonDispatcher.PREVIOUS);
+        }
+
+        @Override
+        public void onSeekTo(long pos) {
+            ExoPlayer player = activePlayer();
+            if (player != null) player.seekTo(pos);
+        }
+
+        @Override
+        public void onPlayFromMediaId(String mediaId, Bundle extras) {
+            ExoPlayer player = activePlayer();
+            if (player == null) return;
+            try {
+                int index = Integer.parseInt(mediaId);
+                if (index < 0 || index >= player.getMediaItemCount()) return;
+                player.seekTo(index, 0);
+                player.play();
+            } catch (NumberFormatException ignored) {
+            }
+        }
+    };
+
+    private final QueuePlayerPool.Listener poolListener = new QueuePlayerPool.Listener() {
+        @Override
+        public void onPlaybackStateChanged(String queueId, int state) {
+            updateSession();
+        }
+
+        @Override
+        public void onPlayWhenReadyChanged(String queueId, boolean playWhenReady) {
+            updateSession();
+        }
+
+        @Override
+        public void onIsPlayingChanged(String queueId, boolean isPlaying) {
+            updateSession();
+            updateForeground();
+        }
+
+        @Override
+        public void onMediaItemTransition(String queueId, @Nullable MediaItem mediaItem, int reason) {
+            updateSession();
+            postForegroundNotification();
+            if (queueId.equals(pool.getActiveQueueId())) notifyChildrenChanged(ROOT_ID);
+        }
+
+        @Override
+        public void onPlayerReleased(String queueId) {
+            updateSession();
+            updateForeground();
+        }
+    };
+
+    // Mirrors the active queue into the session's playback state and metadata
+    private void updateSession() {
+        ExoPlayer player = activePlayer();
+        long actions = PlaybackStateCompat.ACTION_PLAY
+            | PlaybackStateCompat.ACTION_PAUSE
+            | PlaybackStateCompat.ACTION_PLAY_PAUSE
+            | PlaybackStateCompat.ACTION_STOP
+            | PlaybackStateCompat.ACTION_SEEK_TO
+            | PlaybackStateCompat.ACTION_SKIP_TO_NEXT
+            | PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS
+            | PlaybackStateCompat.ACTION_PLAY_FROM_MEDIA_ID;
+        PlaybackStateCompat.Builder state = new PlaybackStateCompat.Builder().setActions(actions);
+        if (player == null) {
+            state.setState(PlaybackStateCompat.STATE_NONE, 0, 0f);
+            session.setPlaybackState(state.build());
+            return;
+        }
+        int sessionState;
+        boolean shed = pool.isBufferShed(pool.getActiveQueueId());
+        if (player.getMediaItemCount() == 0 || (player.getPlaybackState() == Player.STATE_IDLE && !shed)) {
+            sessionState = PlaybackStateCompat.STATE_STOPPED;
+        } else if (player.getPlaybackState() == Player.STATE_BUFFERING && player.getPlayWhenReady()) {
+            sessionState = PlaybackStateCompat.STATE_BUFFERING;
+        } else if (player.isPlaying()) {
+            sessionState = PlaybackStateCompat.STATE_PLAYING;
+        } else {
+            sessionState = PlaybackStateCompat.STATE_PAUSED;
+        }
+        float speed = player.isPlaying() ? player.getPlaybackParameters().speed : 0f;
+        state.setState(sessionState, player.getCurrentPosition(), speed);
+        session.setPlaybackState(state.build());
+
+        MediaItem item = player.getCurrentMediaItem();
+        if (item == null) {
+            session.setMetadata(null);
+            return;
+        }
+        MediaMetadata meta = item.mediaMetadata;
+        long duration = player.getDuration();
+        session.setMetadata(new MediaMetadataCompat.Builder()
+            .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, item.mediaId)
+            .putString(MediaMetadataCompat.METADATA_KEY_TITLE, meta.title != null ? meta.title.toString() : null)
+            .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, meta.artist != null ? meta.artist.toString() : null)
+            .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, duration == C.TIME_UNSET ? -1 : duration)
+            .build());
+    }
+
+    // Foreground while anything plays; otherwise the notification stays but can be dismissed
+    private void updateForeground() {
+        if (pool.isAnyPlaying()) {
+            goForeground();
+        } else if (foreground) {
+            ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_DETACH);
+            foreground = false;
+            // The detached notification stays ours; show it paused
+            postForegroundNotification();
+        }
+    }
+
+    private void goForeground() {
+        Notification notification = buildNotification();
+        int id = notificationIdFor(pool.getActiveQueueId());
+        if (foreground && id == foregroundNotificationId) {
+            postForegroundNotification();
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(id, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_MEDIA_PLAYBACK);
+        } else {
+            startForeground(id, notification);
+        }
+        foreground = true;
+        foregroundNotificationId = id;
+        setOwnedNotification(id);
+        NOTIFICATION_POSTS.mark();
+    }
+
+    private void postForegroundNotification() {
+        android.app.NotificationManager manager = (android.app.NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (manager == null || foregroundNotificationId == 0) return;
+        manager.notify(foregroundNotificationId, buildNotification());
+        NOTIFICATION_POSTS.mark();
+    }
+
+    // Takes over a queue's notification id. The one given up is cancelled, so the
+    // module can post its own version there without the two overwriting each other.
+    private void setOwnedNotification(int id) {
+        int previous = ownedNotificationId;
+        if (previous == id) return;
+        ownedNotificationId = id;
+        if (previous != 0) {
+            android.app.NotificationManager manager = (android.app.NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            if (manager != null) manager.cancel(previous);
+        }
+        Runnable listener = ownershipListener;
+        if (listener != null) listener.run();
+    }
+
+    // Uses the per-queue ids of NowPlayingNotificationModule, so a queue has one entry
+    // in the shade: this service's while it owns the id, the module's otherwise
+    static int notificationIdFor(@Nullable String queueId) {
+        if (queueId != null && queueId.startsWith("queue")) {
+            try {
+                return 1000 + Integer.parseInt(queueId.substring(5));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return 1000;
+    }
+
+    private Notification buildNotification() {
+        ExoPlayer player = activePlayer();
+        MediaItem item = player != null ? player.getCurrentMediaItem() : null;
+        CharSequence title = item != null && item.mediaMetadata.title != null ? item.mediaMetadata.title : "Unknown Title";
+        CharSequence artist = item != null && item.mediaMetadata.artist != null ? item.mediaMetadata.artist : "Unknown Artist";
+        boolean playing = player != null && player.getPlayWhenReady();
+        Intent launch = getPackageManager().getLaunchIntentForPackage(getPackageName());
+        PendingIntent content = launch != null ? PendingIntent.getActivity(this, 0, launch, PendingIntent.FLAG_IMMUTABLE) : null;
+        return new NotificationCompat.Builder(this, NowPlayingNotificationModule.CHANNEL_ID)
+            .setContentTitle(title)
+            .setContentText(artist)
+            .setSmallIcon(getApplicationInfo().icon)
+            .setLargeIcon(ArtworkCache.getInstance(this).getFallback(
+                getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_width)))
+            .setContentIntent(content)
+            .addAction(android.R.drawable.ic_media_previous, "Prev",
+                androidx.media.session.MediaButtonReceiver.buildMediaButtonPendingIntent(this, PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS))
+            .addAction(playing ? android.R.drawable.ic_media_pause : android.R.drawable.ic_media_play, playing ? "Pause" : "Play",
+                androidx.media.session.MediaButtonReceiver.buildMediaButtonPendingIntent(this, PlaybackStateCompat.ACTION_PLAY_PAUSE))
+            .addAction(android.R.drawable.ic_media_next, "Next",
+                androidx.media.session.MediaButtonReceiver.buildMediaButtonPendingIntent(this, PlaybackStateCompat.ACTION_SKIP_TO_NEXT))
+            .setStyle(new androidx.media.app.NotificationCompat.MediaStyle()
+                .setMediaSession(session.getSessionToken())
+                .setShowActionsInCompactView(0, 1, 2))
+            .setOngoing(playing)
+            .setPriority(NotificationCompat.PRIORITY_LOW)
+            .setOnlyAlertOnce(true)
+            .build();
+    }
+}
@@ -0,0 +1,165 @@
+package com.mlap;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One media-buffer budget for all queue players. Each player gets a load
+ * control from here that stops loading once its allocator holds the playing
+ * queues' equal share of the budget, so three queues buffer about as much as
+ * one did with ExoPlayer's defaults. A paused queue loads only enough to be
+ * ready; QueuePlayerPool drops its buffers entirely after PAUSED_SHED_DELAY_MS.
+ *
+ * onTrimMemory sheds in stages: artwork first, then paused queues' buffers
+ * and the shares of playing ones, then everything idle. Pressure lifts
+ * PRESSURE_HOLD_MS after the last signal.
+ */
+public final class PlayerMemoryBudget implements ComponentCallbacks2 {
+    /** How long a paused queue keeps its buffers before the pool releases them. */
+    static final long PAUSED_SHED_DELAY_MS = 60_000;
+    private static final long PRESSURE_HOLD_MS = 5 * 60_000;
+    private static final long MAX_TOTAL_BYTES = 24L * 1024 * 1024;
+    // Enough for a few seconds of lossless audio, so a playing queue can always start
+    private static final long MIN_SHARE_BYTES = 3L * 1024 * 1024;
+    // Local files load fast; ExoPlayer's 50 s window is meant for networks
+    private static final int MIN_BUFFER_MS = 15_000;
+    private static final int MAX_BUFFER_MS = 30_000;
+
+    static final int PRESSURE_NONE = 0;
+    static final int PRESSURE_MODERATE = 1;
+    static final int PRESSURE_LOW = 2;
+    static final int PRESSURE_CRITICAL = 3;
+
+    /** What the pool does when memory runs short. Main thread. */
+    interface Host {
+        void shedPausedQueues();
+        void trimIdle();
+    }
+
+    private static final PerfMetrics.Counter TRIMS = PerfMetrics.counter("memory.trims");
+
+    private final Context context;
+    private final Host host;
+    private final long totalBytes;
+    private final Set<String> playing = ConcurrentHashMap.newKeySet();
+    private volatile int pressure = PRESSURE_NONE;
+    private volatile long pressureAt = 0;
+
+    PlayerMemoryBudget(Context context, Host host) {
+        this.context = context;
+        this.host = host;
+        this.totalBytes = Math.min(MAX_TOTAL_BYTES, Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    LoadControl newLoadControl(String queueId) {
+        return new BudgetedLoadControl(this, queueId, totalBytes);
+    }
+
+    void setPlaying(String queueId, boolean isPlaying) {
+        if (isPlaying) playing.add(queueId);
+        else playing.remove(queueId);
+    }
+
+    boolean isPlaying(String queueId) {
+        return playing.contains(queueId);
+    }
+
+    /** The buffer a playing queue may hold right now. */
+    long shareBytes() {
+        long budget = totalBytes >> pressure();
+        return Math.max(MIN_SHARE_BYTES, budget / Math.max(1, playing.size()));
+    }
+
+    int pressure() {
+        int level = pressure;
+        if (level != PRESSURE_NONE && SystemClock.uptimeMillis() - pressureAt > PRESSURE_HOLD_MS) {
+            pressure = level = PRESSURE_NONE;
+        }
+        return level;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        int stage;
+        boolean clearArtwork = true;
+        if (level >= TRIM_MEMORY_COMPLETE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            stage = PRESSURE_CRITICAL;
+        } else if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_LOW) {
+            stage = PRESSURE_LOW;
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_MODERATE) {
+            stage = PRESSURE_MODERATE;
+        } else {
+            // UI hidden: thumbnails for screens nobody is looking at
+            stage = PRESSURE_NONE;
+            clearArtwork = false;
+        }
+        TRIMS.inc();
+        ArtworkCache artwork = ArtworkCache.getInstance(context);
+        if (clearArtwork) artwork.clearMemory();
+        else artwork.trimMemory();
+        if (stage == PRESSURE_NONE) return;
+        if (stage >= pressure()) {
+            pressure = stage;
+            pressureAt = SystemClock.uptimeMillis();
+        }
+        if (stage >= PRESSURE_LOW) host.shedPausedQueues();
+        if (stage >= PRESSURE_CRITICAL) {
+            host.trimIdle();
+            LibraryGroups.trimMemory();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {}
+
+    /**
+     * DefaultLoadControl with a shorter time window and a byte cap that follows
+     * the budget. Runs on the player's playback thread.
+     */
+    private static final class BudgetedLoadControl extends DefaultLoadControl {
+        private final PlayerMemoryBudget budget;
+        private final String queueId;
+        private final long bufferForPlaybackUs;
+
+        BudgetedLoadControl(PlayerMemoryBudget budget, String queueId, long totalBytes) {
+            super(
+                new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE),
+                MIN_BUFFER_MS,
+                MAX_BUFFER_MS,
+                DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+                DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS,
+                (int) totalBytes,
+                false,
+                DEFAULT_BACK_BUFFER_DURATION_MS,
+                DEFAULT_RETAIN_BACK_BUFFER_FROM_KEYFRAME
+            );
+            this.budget = budget;
+            this.queueId = queueId;
+            this.bufferForPlaybackUs = DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS * 1000L;
+        }
+
+        @Override
+        public boolean shouldContinueLoading(long playbackPositionUs, long bufferedDurationUs, float playbackSpeed) {
+            // Below this the player could not start at all, whatever the budget says
+            if (bufferedDurationUs < bufferForPlaybackUs) return true;
+            // Paused: just enough to report ready and start promptly
+            if (!budget.isPlaying(queueId)) return false;
+            if (getAllocator().getTotalBytesAllocated() >= budget.shareBytes()) return false;
+            return super.shouldContinueLoading(playbackPositionUs, bufferedDurationUs, playbackSpeed);
+        }
+    }
+}
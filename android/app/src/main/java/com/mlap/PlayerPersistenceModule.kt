@@ -0,0 +1,192 @@
+package com.mlap
+
+import com.facebook.react.bridge.LifecycleEventListener
+import com.facebook.react.bridge.Promise
+import com.facebook.react.bridge.ReactApplicationContext
+import com.facebook.react.bridge.ReactContextBaseJavaModule
+import com.facebook.react.bridge.ReactMethod
+import com.facebook.react.bridge.ReadableMap
+import com.facebook.react.bridge.WritableNativeArray
+import com.facebook.react.bridge.WritableNativeMap
+import java.io.File
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Saves and restores per-queue player state through PlayerStateStore. JS sends
+ * only the fields that changed; position ticks are coalesced and written a few
+ * seconds later, or when the app goes to the background.
+ */
+class PlayerPersistenceModule(reactContext: ReactApplicationContext) :
+  ReactContextBaseJavaModule(reactContext), LifecycleEventListener {
+
+  private val executor = Executors.newSingleThreadScheduledExecutor()
+  private val store = PlayerStateStore(File(reactContext.filesDir, STATE_DIR))
+  private val index by lazy { TrackIndexDatabase.getInstance(reactApplicationContext) }
+  private var loaded = false
+  private val pendingPositions = HashMap<String, Long>()
+  private var positionFlush: ScheduledFuture<*>? = null
+
+  init {
+    reactContext.addLifecycleEventListener(this)
+  }
+
+  override fun getName(): String {
+    return "PlayerPersistence"
+  }
+
+  /**
+   * Applies a partial update to one queue: any of { queue (track ids),
+   * currentTrackId, position, volume, shuffle, loopMode, active }.
+   * active marks the queue a cold-started PlaybackService restores.
+   */
+  @ReactMethod
+  fun update(queueId: String, patch: ReadableMap) {
+    val ids = if (patch.hasKey("queue") && !patch.isNull("queue")) {
+      val arr = patch.getArray("queue")!!
+      List(arr.size()) { arr.getString(it) ?: "" }
+    } else null
+    val hasCurrent = patch.hasKey("currentTrackId")
+    val currentTrackId = if (hasCurrent && !patch.isNull("currentTrackId")) patch.getString("currentTrackId") else null
+    val position = if (patch.hasKey("position")) patch.getDouble("position").toLong() else null
+    val volume = if (patch.hasKey("volume")) patch.getDouble("volume").toFloat() else null
+    val shuffle = if (patch.hasKey("shuffle")) patch.getBoolean("shuffle") else null
+    val loopMode = if (patch.hasKey("loopMode")) loopModeOf(patch.getString("loopMode")) else null
+    val active = patch.hasKey("active") && patch.getBoolean("active")
+    executor.execute {
+      ensureLoaded()
+      val state = store.queues[queueId]
+      if (ids != null) store.setQueue(queueId, ids)
+      if (hasCurrent && currentTrackId != state?.currentTrackId) {
+        // A new track starts with its own position; a stale pending one must not follow it
+        pendingPositions.remove(queueId)
+        store.setCurrent(queueId, currentTrackId, position ?: 0L)
+      } else if (position != null) {
+        pendingPositions[queueId] = position
+        schedulePositionFlush()
+      }
+      if (volume != null) store.setVolume(queueId, volume)
+      if (shuffle != null || loopMode != null) {
+        val current = store.queues[queueId]
+        store.setModes(queueId, shuffle ?: current?.shuffle ?: false, loopMode ?: current?.loopMode ?: PlayerStateStore.LOOP_OFF)
+      }
+      if (active) store.setActive(queueId)
+      store.flush()
+      store.compactIfNeeded()
+    }
+  }
+
+  /**
+   * Resolves { [queueId]: { queue, currentTrackId, position, volume, shuffle, loopMode } }
+   * with queue tracks read from the track index, or null when nothing is stored.
+   */
+  @ReactMethod
+  fun load(promise: Promise) {
+    executor.execute {
+      try {
+        val hasState = ensureLoaded()
+        if (!hasState || store.queues.isEmpty()) {
+          promise.resolve(null)
+          return@execute
+        }
+        val allIds = HashSet<String>()
+        for (state in store.queues.values) allIds.addAll(state.trackIds)
+        val tracks = index.findByIds(allIds)
+        val result = WritableNativeMap()
+        for ((queueId, state) in store.queues) {
+          val queue = WritableNativeArray()
+          for (id in state.trackIds) queue.pushMap(tracks[id]?.toWritableMap() ?: unindexedTrack(id))
+          val map = WritableNativeMap()
+          map.putArray("queue", queue)
+          map.putString("currentTrackId", state.currentTrackId)
+          map.putDouble("position", (pendingPositions[queueId] ?: state.position).toDouble())
+          map.putDouble("volume", state.volume.toDouble())
+          map.putBoolean("shuffle", state.shuffle)
+          map.putString("loopMode", loopModeName(state.loopMode))
+          result.putMap(queueId, map)
+        }
+        promise.resolve(result)
+      } catch (e: Exception) {
+        promise.reject("ERR_PLAYER_STATE", e.message)
+      }
+    }
+  }
+
+  @ReactMethod
+  fun clear() {
+    executor.execute {
+      positionFlush?.cancel(false)
+      pendingPositions.clear()
+      store.clear()
+      loaded = true
+    }
+  }
+
+  override fun onHostResume() {}
+
+  // Backgrounding is the last reliable moment to write
+  override fun onHostPause() {
+    executor.execute {
+      flushPositions()
+      store.compactIfNeeded()
+    }
+  }
+
+  override fun onHostDestroy() {}
+
+  override fun onCatalystInstanceDestroy() {
+    super.onCatalystInstanceDestroy()
+    reactApplicationContext.removeLifecycleEventListener(this)
+    executor.execute {
+      flushPositions()
+      store.close()
+    }
+    executor.shutdown()
+  }
+
+  private fun ensureLoaded(): Boolean {
+    if (loaded) return store.queues.isNotEmpty()
+    loaded = true
+    return store.load()
+  }
+
+  private fun schedulePositionFlush() {
+    if (positionFlush?.isDone == false) return
+    positionFlush = executor.schedule({ flushPositions() }, POSITION_FLUSH_DELAY_MS, TimeUnit.MILLISECONDS)
+  }
+
+  private fun flushPositions() {
+    if (pendingPositions.isEmpty()) return
+    for ((queueId, position) in pendingPositions) store.setPosition(queueId, position)
+    pendingPositions.clear()
+    store.flush()
+  }
+
+  // Tracks outside the index (e.g. from the filesystem fallback) keep their path as id
+  private fun unindexedTrack(id: String): WritableNativeMap {
+    val map = WritableNativeMap()
+    map.putString("id", id)
+    map.putString("path", id)
+    map.putString("title", id.substringAfterLast('/'))
+    return map
+  }
+
+  companion object {
+    // Under filesDir; PlaybackService reads the same store on a cold start
+    const val STATE_DIR = "player_state"
+    private const val POSITION_FLUSH_DELAY_MS = 3000L
+
+    private fun loopModeOf(name: String?): Int = when (name) {
+      "all" -> PlayerStateStore.LOOP_ALL
+      "one" -> PlayerStateStore.LOOP_ONE
+      else -> PlayerStateStore.LOOP_OFF
+    }
+
+    private fun loopModeName(mode: Int): String = when (mode) {
+      PlayerStateStore.LOOP_ALL -> "all"
+      PlayerStateStore.LOOP_ONE -> "one"
+      else -> "off"
+    }
+  }
+}
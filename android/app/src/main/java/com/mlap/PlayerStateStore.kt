@@ -0,0 +1,417 @@
+package com.mlap
+
+import android.util.Log
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.util.zip.CRC32
+
+/**
+ * Player state for every queue, kept as a binary snapshot plus an append-only
+ * journal of the changes made since. Queues are lists of track ids (keys of the
+ * track index), written once each through the snapshot's string table; a queue
+ * edit is journalled as a splice, so a save costs the size of the change.
+ *
+ * Snapshot and journal both carry a generation. compact() writes the next
+ * generation's snapshot before it drops the journal, so after a crash in
+ * between, load() finds a journal older than the snapshot and skips it
+ * instead of applying its splices a second time.
+ *
+ * Setters that change nothing write nothing. Not thread-safe: the owner
+ * confines it to one thread.
+ */
+class PlayerStateStore(private val dir: File) {
+
+  class QueueState {
+    val trackIds = ArrayList<String>()
+    var currentTrackId: String? = null
+    var position = 0L
+    var volume = 1f
+    var shuffle = false
+    var loopMode = LOOP_OFF
+  }
+
+  val queues = LinkedHashMap<String, QueueState>()
+  // The queue that last started playing; media buttons resume it on a cold start
+  var activeQueueId: String? = null
+    private set
+
+  private val snapshotFile = File(dir, SNAPSHOT_NAME)
+  private val journalFile = File(dir, JOURNAL_NAME)
+  private var journal: DataOutputStream? = null
+  // Generation of the snapshot on disk (0 when there is none); the journal extends it
+  private var generation = 0L
+  private var journalBytes = 0L
+  private var journalRecords = 0
+  private val recordBuffer = ByteArrayOutputStream(256)
+  private val crc = CRC32()
+
+  /**
+   * Reads the snapshot and replays the journal; false when nothing was stored.
+   * Without repair a damaged or stale journal is left as it is, so a reader
+   * that does not own the files can load them safely.
+   */
+  fun load(repair: Boolean = true): Boolean {
+    closeJournal()
+    queues.clear()
+    activeQueueId = null
+    generation = 0
+    journalBytes = 0
+    journalRecords = 0
+    val hadSnapshot = snapshotFile.isFile && readSnapshot()
+    val hadJournal = journalFile.isFile && replayJournal(repair)
+    return hadSnapshot || hadJournal
+  }
+
+  fun setQueue(queueId: String, ids: List<String>) {
+    val state = queue(queueId)
+    val old = state.trackIds
+    var prefix = 0
+    val shortest = minOf(old.size, ids.size)
+    while (prefix < shortest && old[prefix] == ids[prefix]) prefix++
+    var suffix = 0
+    while (suffix < shortest - prefix && old[old.size - 1 - suffix] == ids[ids.size - 1 - suffix]) suffix++
+    val deleteCount = old.size - prefix - suffix
+    val inserted = ids.subList(prefix, ids.size - suffix)
+    if (deleteCount == 0 && inserted.isEmpty()) return
+    applySplice(state, prefix, deleteCount, inserted)
+    append(REC_SPLICE, queueId) { out ->
+      out.writeInt(prefix)
+      out.writeInt(deleteCount)
+      out.writeInt(inserted.size)
+      for (id in inserted) out.writeUTF(id)
+    }
+  }
+
+  /** The current track changes together with its position. */
+  fun setCurrent(queueId: String, trackId: String?, position: Long) {
+    val state = queue(queueId)
+    if (state.currentTrackId == trackId && state.position == position) return
+    state.currentTrackId = trackId
+    state.position = position
+    append(REC_CURRENT, queueId) { out ->
+      out.writeBoolean(trackId != null)
+      if (trackId != null) out.writeUTF(trackId)
+      out.writeLong(position)
+    }
+  }
+
+  fun setPosition(queueId: String, position: Long) {
+    val state = queue(queueId)
+    if (state.position == position) return
+    state.position = position
+    append(REC_POSITION, queueId) { it.writeLong(position) }
+  }
+
+  fun setVolume(queueId: String, volume: Float) {
+    val state = queue(queueId)
+    if (state.volume == volume) return
+    state.volume = volume
+    append(REC_VOLUME, queueId) { it.writeFloat(volume) }
+  }
+
+  fun setModes(queueId: String, shuffle: Boolean, loopMode: Int) {
+    val state = queue(queueId)
+    if (state.shuffle == shuffle && state.loopMode == loopMode) return
+    state.shuffle = shuffle
+    state.loopMode = loopMode
+    append(REC_MODES, queueId) { out ->
+      out.writeBoolean(shuffle)
+      out.writeByte(loopMode)
+    }
+  }
+
+  fun setActive(queueId: String) {
+    if (activeQueueId == queueId) return
+    activeQueueId = queueId
+    append(REC_ACTIVE, queueId) {}
+  }
+
+  /** Pushes buffered journal records to the file. */
+  fun flush() {
+    val out = journal ?: return
+    val start = PerfMetrics.now()
+    try {
+      out.flush()
+      FLUSH_TIME.recordSince(start)
+    } catch (e: IOException) {
+      Log.w(TAG, "Failed to flush player state journal", e)
+      closeJournal()
+    }
+  }
+
+  fun compactIfNeeded() {
+    if (journalRecords >= MAX_JOURNAL_RECORDS || journalBytes >= MAX_JOURNAL_BYTES) compact()
+  }
+
+  /** Folds the journal into a fresh snapshot and starts an empty journal. */
+  fun compact() {
+    val start = PerfMetrics.now()
+    closeJournal()
+    if (!dir.isDirectory && !dir.mkdirs()) return
+    val tmp = File(dir, "$SNAPSHOT_NAME.tmp")
+    val next = generation + 1
+    try {
+      FileOutputStream(tmp).use { fos ->
+        val out = DataOutputStream(BufferedOutputStream(fos))
+        writeSnapshot(out, next)
+        out.flush()
+        fos.fd.sync()
+      }
+      if (!tmp.renameTo(snapshotFile)) throw IOException("rename failed")
+      // From here the old journal is stale whether or not the delete happens
+      generation = next
+      journalFile.delete()
+      journalBytes = 0
+      journalRecords = 0
+      COMPACT_TIME.recordSince(start)
+    } catch (e: IOException) {
+      Log.w(TAG, "Failed to compact player state", e)
+      tmp.delete()
+    }
+  }
+
+  fun clear() {
+    closeJournal()
+    queues.clear()
+    activeQueueId = null
+    snapshotFile.delete()
+    journalFile.delete()
+    generation = 0
+    journalBytes = 0
+    journalRecords = 0
+  }
+
+  fun close() {
+    closeJournal()
+  }
+
+  private fun queue(queueId: String): QueueState = queues.getOrPut(queueId) { QueueState() }
+
+  private fun applySplice(state: QueueState, start: Int, deleteCount: Int, inserted: List<String>) {
+    val ids = state.trackIds
+    if (start < 0 || deleteCount < 0 || start + deleteCount > ids.size) throw IOException("bad splice")
+    ids.subList(start, start + deleteCount).clear()
+    ids.addAll(start, inserted)
+  }
+
+  // Each record is [length][crc32][type][queueId][payload]; a torn tail fails the crc
+  private inline fun append(type: Int, queueId: String, payload: (DataOutputStream) -> Unit) {
+    recordBuffer.reset()
+    val body = DataOutputStream(recordBuffer)
+    body.writeByte(type)
+    body.writeUTF(queueId)
+    payload(body)
+    body.flush()
+    val bytes = recordBuffer.toByteArray()
+    crc.reset()
+    crc.update(bytes)
+    try {
+      val out = openJournal() ?: return
+      out.writeInt(bytes.size)
+      out.writeInt(crc.value.toInt())
+      out.write(bytes)
+      journalBytes += 8 + bytes.size
+      journalRecords++
+    } catch (e: IOException) {
+      Log.w(TAG, "Failed to append player state", e)
+      closeJournal()
+    }
+  }
+
+  // A new journal starts with [magic][generation of the snapshot it extends]
+  private fun openJournal(): DataOutputStream? {
+    journal?.let { return it }
+    if (!dir.isDirectory && !dir.mkdirs()) return null
+    val fresh = journalFile.length() < JOURNAL_HEADER_BYTES
+    val out = DataOutputStream(BufferedOutputStream(FileOutputStream(journalFile, !fresh)))
+    if (fresh) {
+      out.writeInt(JOURNAL_MAGIC)
+      out.writeLong(generation)
+      journalBytes = JOURNAL_HEADER_BYTES.toLong()
+      journalRecords = 0
+    }
+    journal = out
+    return out
+  }
+
+  private fun closeJournal() {
+    try {
+      journal?.close()
+    } catch (e: IOException) {
+      Log.w(TAG, "Failed to close player state journal", e)
+    }
+    journal = null
+  }
+
+  private fun writeSnapshot(out: DataOutputStream, generation: Long) {
+    val table = LinkedHashMap<String, Int>()
+    for (state in queues.values) {
+      for (id in state.trackIds) table.getOrPut(id) { table.size }
+      state.currentTrackId?.let { table.getOrPut(it) { table.size } }
+    }
+    out.writeInt(SNAPSHOT_MAGIC)
+    out.writeInt(FORMAT_VERSION)
+    out.writeLong(generation)
+    out.writeInt(table.size)
+    for (id in table.keys) out.writeUTF(id)
+    out.writeInt(queues.size)
+    for ((queueId, state) in queues) {
+      out.writeUTF(queueId)
+      out.writeInt(state.trackIds.size)
+      for (id in state.trackIds) out.writeInt(table.getValue(id))
+      out.writeInt(state.currentTrackId?.let { table.getValue(it) } ?: -1)
+      out.writeLong(state.position)
+      out.writeFloat(state.volume)
+      out.writeBoolean(state.shuffle)
+      out.writeByte(state.loopMode)
+    }
+    val active = activeQueueId
+    out.writeBoolean(active != null)
+    if (active != null) out.writeUTF(active)
+  }
+
+  private fun readSnapshot(): Boolean {
+    try {
+      DataInputStream(BufferedInputStream(FileInputStream(snapshotFile))).use { input ->
+        if (input.readInt() != SNAPSHOT_MAGIC) return false
+        val version = input.readInt()
+        if (version != FORMAT_VERSION && version != FORMAT_VERSION_NO_ACTIVE) return false
+        val snapshotGeneration = input.readLong()
+        val table = Array(input.readInt()) { input.readUTF() }
+        repeat(input.readInt()) {
+          val state = queue(input.readUTF())
+          val count = input.readInt()
+          state.trackIds.ensureCapacity(count)
+          repeat(count) { state.trackIds.add(table[input.readInt()]) }
+          val current = input.readInt()
+          state.currentTrackId = if (current >= 0) table[current] else null
+          state.position = input.readLong()
+          state.volume = input.readFloat()
+          state.shuffle = input.readBoolean()
+          state.loopMode = input.readByte().toInt()
+        }
+        if (version == FORMAT_VERSION && input.readBoolean()) activeQueueId = input.readUTF()
+        generation = snapshotGeneration
+      }
+      return true
+    } catch (e: Exception) {
+      Log.w(TAG, "Discarding unreadable player state snapshot", e)
+      queues.clear()
+      activeQueueId = null
+      generation = 0
+      return false
+    }
+  }
+
+  // Replays records up to the first damaged one and cuts the file there. A
+  // journal written for another generation is already covered (or was left
+  // by clear()) and is dropped whole. Without repair the file is not touched.
+  private fun replayJournal(repair: Boolean): Boolean {
+    var goodBytes = 0L
+    var records = 0
+    try {
+      DataInputStream(BufferedInputStream(FileInputStream(journalFile))).use { input ->
+        if (input.readInt() != JOURNAL_MAGIC) throw IOException("not a player state journal")
+        val journalGeneration = input.readLong()
+        if (journalGeneration != generation) {
+          Log.w(TAG, "Dropping player state journal of generation $journalGeneration (snapshot is $generation)")
+          return@use
+        }
+        goodBytes = JOURNAL_HEADER_BYTES.toLong()
+        while (true) {
+          val length = try {
+            input.readInt()
+          } catch (e: EOFException) {
+            break
+          }
+          val expectedCrc = input.readInt()
+          if (length <= 0 || length > MAX_RECORD_BYTES) break
+          val bytes = ByteArray(length)
+          input.readFully(bytes)
+          crc.reset()
+          crc.update(bytes)
+          if (crc.value.toInt() != expectedCrc) break
+          applyRecord(DataInputStream(bytes.inputStream()))
+          goodBytes += 8 + length
+          records++
+        }
+      }
+    } catch (e: Exception) {
+      Log.w(TAG, "Player state journal ends in a damaged record", e)
+    }
+    if (repair && goodBytes == 0L) {
+      journalFile.delete()
+    } else if (repair && goodBytes < journalFile.length()) {
+      RandomAccessFile(journalFile, "rw").use { it.setLength(goodBytes) }
+    }
+    journalBytes = goodBytes
+    journalRecords = records
+    return records > 0
+  }
+
+  private fun applyRecord(input: DataInputStream) {
+    val type = input.readByte().toInt()
+    val queueId = input.readUTF()
+    if (type == REC_ACTIVE) {
+      activeQueueId = queueId
+      return
+    }
+    val state = queue(queueId)
+    when (type) {
+      REC_SPLICE -> {
+        val start = input.readInt()
+        val deleteCount = input.readInt()
+        val inserted = List(input.readInt()) { input.readUTF() }
+        applySplice(state, start, deleteCount, inserted)
+      }
+      REC_CURRENT -> {
+        state.currentTrackId = if (input.readBoolean()) input.readUTF() else null
+        state.position = input.readLong()
+      }
+      REC_POSITION -> state.position = input.readLong()
+      REC_VOLUME -> state.volume = input.readFloat()
+      REC_MODES -> {
+        state.shuffle = input.readBoolean()
+        state.loopMode = input.readByte().toInt()
+      }
+      else -> throw IOException("unknown record type $type")
+    }
+  }
+
+  companion object {
+    private const val TAG = "PlayerStateStore"
+    private val FLUSH_TIME = PerfMetrics.timer("state.flush")
+    private val COMPACT_TIME = PerfMetrics.timer("state.compact")
+    private const val SNAPSHOT_NAME = "player_state.snapshot"
+    private const val JOURNAL_NAME = "player_state.journal"
+    private const val SNAPSHOT_MAGIC = 0x4D4C5053 // "MLPS"
+    private const val JOURNAL_MAGIC = 0x4D4C504A // "MLPJ"
+    private const val JOURNAL_HEADER_BYTES = 12
+    private const val FORMAT_VERSION = 3
+    // Snapshots from before the active queue was kept; read with no active queue
+    private const val FORMAT_VERSION_NO_ACTIVE = 2
+    private const val MAX_JOURNAL_RECORDS = 4096
+    private const val MAX_JOURNAL_BYTES = 256L * 1024
+    private const val MAX_RECORD_BYTES = 16 * 1024 * 1024
+
+    private const val REC_SPLICE = 1
+    private const val REC_CURRENT = 2
+    private const val REC_POSITION = 3
+    private const val REC_VOLUME = 4
+    private const val REC_MODES = 5
+    private const val REC_ACTIVE = 6
+
+    const val LOOP_OFF = 0
+    const val LOOP_ALL = 1
+    const val LOOP_ONE = 2
+  }
+}
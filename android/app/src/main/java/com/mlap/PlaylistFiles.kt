@@ -0,0 +1,151 @@
+package com.mlap
+
+import android.net.Uri
+import java.io.BufferedReader
+import java.io.File
+import java.io.Writer
+
+/**
+ * Streaming M3U/M3U8 and PLS reading and writing. Entries are handed out one
+ * at a time as the file is read, so a playlist of any length costs one line
+ * of memory here; the caller batches them.
+ *
+ * Locations are returned as absolute paths: relative ones are resolved
+ * against the playlist's folder, file:// URIs are decoded and Windows
+ * separators are turned around (drive letters are kept; the caller can still
+ * match those by file name). Streams (http and the like) are skipped.
+ */
+object PlaylistFiles {
+
+  private val SCHEME = Regex("^([A-Za-z][A-Za-z0-9+.-]+)://")
+  private val DRIVE = Regex("^[A-Za-z]:/")
+
+  fun isPls(file: File): Boolean = file.name.endsWith(".pls", ignoreCase = true)
+
+  /** Calls onEntry(path, title) for each entry in order; returns how many lines were skipped as streams. */
+  fun read(file: File, onEntry: (path: String, title: String?) -> Unit): Int {
+    val base = file.absoluteFile.parentFile
+    var skipped = 0
+    file.bufferedReader(Charsets.UTF_8).use { reader ->
+      val first = reader.readLine()?.removePrefix("\uFEFF") ?: return 0
+      val pls = isPls(file) || first.trim().equals("[playlist]", ignoreCase = true)
+      val emit: (String, String?) -> Unit = { location, title ->
+        val path = resolve(location, base)
+        if (path == null) skipped++ else onEntry(path, title)
+      }
+      if (pls) readPls(first, reader, emit) else readM3u(first, reader, emit)
+    }
+    return skipped
+  }
+
+  // #EXTINF:<seconds>,<display title> precedes the location it describes
+  private fun readM3u(first: String, reader: BufferedReader, emit: (String, String?) -> Unit) {
+    var title: String? = null
+    var line: String? = first
+    while (line != null) {
+      if (Thread.interrupted()) throw InterruptedException()
+      val trimmed = line.trim()
+      when {
+        trimmed.isEmpty() -> {}
+        trimmed.startsWith("#EXTINF:", ignoreCase = true) ->
+          title = trimmed.substringAfter(',', "").trim().ifEmpty { null }
+        trimmed.startsWith("#") -> {}
+        else -> {
+          emit(trimmed, title)
+          title = null
+        }
+      }
+      line = reader.readLine()
+    }
+  }
+
+  // FileN=, TitleN=, LengthN= in any order within an entry; an entry is emitted
+  // once the next number starts (or the file ends), so only one is held at a time
+  private fun readPls(first: String, reader: BufferedReader, emit: (String, String?) -> Unit) {
+    var number: String? = null
+    var location: String? = null
+    var title: String? = null
+    val flush = {
+      location?.let { emit(it, title) }
+      location = null
+      title = null
+    }
+    var line: String? = first
+    while (line != null) {
+      if (Thread.interrupted()) throw InterruptedException()
+      val eq = line.indexOf('=')
+      if (eq > 0) {
+        val key = line.substring(0, eq).trim()
+        val value = line.substring(eq + 1).trim()
+        val field = key.takeWhile { it.isLetter() }.lowercase()
+        val n = key.substring(field.length)
+        if ((field == "file" || field == "title") && n.isNotEmpty()) {
+          if (n != number) {
+            flush()
+            number = n
+          }
+          if (field == "file") location = value else title = value.ifEmpty { null }
+        }
+      }
+      line = reader.readLine()
+    }
+    flush()
+  }
+
+  private fun resolve(location: String, base: File?): String? {
+    var path = location
+    val scheme = SCHEME.find(path)?.groupValues?.get(1)
+    if (scheme != null) {
+      if (!scheme.equals("file", ignoreCase = true)) return null
+      path = Uri.parse(path).path ?: return null
+    }
+    path = path.replace('\\', '/')
+    if (DRIVE.containsMatchIn(path)) return path
+    if (!path.startsWith("/")) path = if (base != null) "${base.path}/$path" else "/$path"
+    return normalize(path)
+  }
+
+  // Collapses "." and ".." without touching the filesystem (canonical paths
+  // would follow /sdcard-style links away from the paths MediaStore reports)
+  private fun normalize(path: String): String {
+    val parts = ArrayList<String>()
+    for (part in path.split('/')) {
+      when (part) {
+        "", "." -> {}
+        ".." -> if (parts.isNotEmpty()) parts.removeAt(parts.size - 1)
+        else -> parts.add(part)
+      }
+    }
+    return parts.joinToString("/", prefix = "/")
+  }
+
+  /** Writes an extended M3U header; follow with writeM3uEntry per entry. */
+  fun writeM3uHeader(out: Writer) {
+    out.write("#EXTM3U\n")
+  }
+
+  fun writeM3uEntry(out: Writer, path: String, title: String?, artist: String?, durationMs: Long) {
+    if (title != null) {
+      val seconds = if (durationMs > 0) durationMs / 1000 else -1
+      val display = if (artist.isNullOrEmpty()) title else "$artist - $title"
+      out.write("#EXTINF:$seconds,$display\n")
+    }
+    out.write(path)
+    out.write("\n")
+  }
+
+  fun writePlsHeader(out: Writer) {
+    out.write("[playlist]\n")
+  }
+
+  /** number counts from 1. */
+  fun writePlsEntry(out: Writer, number: Int, path: String, title: String?, durationMs: Long) {
+    out.write("File$number=$path\n")
+    if (title != null) out.write("Title$number=$title\n")
+    out.write("Length$number=${if (durationMs > 0) durationMs / 1000 else -1}\n")
+  }
+
+  fun writePlsFooter(out: Writer, count: Int) {
+    out.write("NumberOfEntries=$count\nVersion=2\n")
+  }
+}
@@ -0,0 +1,27 @@
+package com.mlap
+
+/**
+ * Position arithmetic for playlist entries. Entries are spaced GAP apart, so
+ * an entry moved between two others takes the midpoint of their positions
+ * and only a gap that has run out forces the playlist to be renumbered.
+ */
+object PlaylistPositions {
+
+  // 2^16 leaves 16 midpoint inserts in one spot before a renumber
+  const val GAP = 1L shl 16
+
+  /** Position for an entry placed after the one at last (0 for an empty playlist). */
+  fun after(last: Long): Long = last + GAP
+
+  /**
+   * Position halfway between previous (0 when moving to the front) and next;
+   * null when no position is left between them and the playlist needs renumber.
+   */
+  fun between(previous: Long, next: Long): Long? {
+    val middle = previous + (next - previous) / 2
+    return if (middle == previous) null else middle
+  }
+
+  /** Position of the entry at index (from 0) after a renumber. */
+  fun renumbered(index: Int): Long = (index + 1) * GAP
+}
@@ -0,0 +1,209 @@
+package com.mlap
+
+import com.facebook.react.bridge.Promise
+import com.facebook.react.bridge.ReactApplicationContext
+import com.facebook.react.bridge.ReactContextBaseJavaModule
+import com.facebook.react.bridge.ReactMethod
+import com.facebook.react.bridge.ReadableArray
+import com.facebook.react.bridge.WritableNativeArray
+import com.facebook.react.bridge.WritableNativeMap
+import java.io.File
+import java.util.concurrent.Executors
+
+/**
+ * Playlists stored in the track index. JS reads them a page at a time and
+ * edits them by entry id; import and export stream the file on the module's
+ * thread, so a 10k-entry playlist never passes through JS in one piece.
+ */
+class PlaylistsModule(reactContext: ReactApplicationContext) : ReactContextBaseJavaModule(reactContext) {
+
+  // One thread: edits apply in the order JS made them
+  private val executor = Executors.newSingleThreadExecutor()
+  private val index by lazy { TrackIndexDatabase.getInstance(reactApplicationContext) }
+
+  override fun getName(): String {
+    return "Playlists"
+  }
+
+  /** Resolves [{ id, name, count, modified }] sorted by name. */
+  @ReactMethod
+  fun list(promise: Promise) = submit(promise) {
+    val arr = WritableNativeArray()
+    for (p in index.playlists()) {
+      val map = WritableNativeMap()
+      map.putDouble("id", p.id.toDouble())
+      map.putString("name", p.name)
+      map.putInt("count", p.count)
+      map.putDouble("modified", p.modified.toDouble())
+      arr.pushMap(map)
+    }
+    arr
+  }
+
+  @ReactMethod
+  fun create(name: String, promise: Promise) = submit(promise) { index.createPlaylist(name).toDouble() }
+
+  @ReactMethod
+  fun rename(playlistId: Double, name: String, promise: Promise) = submit(promise) {
+    index.renamePlaylist(playlistId.toLong(), name)
+    null
+  }
+
+  @ReactMethod
+  fun deletePlaylist(playlistId: Double, promise: Promise) = submit(promise) {
+    index.deletePlaylist(playlistId.toLong())
+    null
+  }
+
+  /**
+   * One window of a playlist: resolves { total, offset, items }, each item a
+   * track map (indexed fields when the file is indexed, otherwise just path
+   * and title) plus entryId and missing (no index row and no file at the path).
+   */
+  @ReactMethod
+  fun getEntries(playlistId: Double, offset: Double, limit: Double, promise: Promise) = submit(promise) {
+    val items = WritableNativeArray()
+    index.pagePlaylist(playlistId.toLong(), offset.toInt(), limit.toInt()) { entry ->
+      val map = entry.track?.toWritableMap() ?: WritableNativeMap().also {
+        it.putString("id", entry.path)
+        it.putString("path", entry.path)
+        it.putString("title", entry.title ?: entry.path.substringAfterLast('/'))
+      }
+      map.putDouble("entryId", entry.id.toDouble())
+      // Files kept on import without an index row still play; only absent files are missing
+      map.putBoolean("missing", entry.track == null && !File(entry.path).isFile)
+      items.pushMap(map)
+    }
+    BRIDGE_ITEMS.record(items.size().toLong())
+    val result = WritableNativeMap()
+    result.putInt("total", index.playlistSize(playlistId.toLong()))
+    result.putInt("offset", offset.toInt())
+    result.putArray("items", items)
+    result
+  }
+
+  @ReactMethod
+  fun add(playlistId: Double, paths: ReadableArray, promise: Promise) = submit(promise) {
+    val entries = List(paths.size()) { Pair(paths.getString(it) ?: "", null as String?) }.filter { it.first.isNotEmpty() }
+    index.appendToPlaylist(playlistId.toLong(), entries)
+    null
+  }
+
+  /** Moves an entry in front of beforeEntryId, or to the end when that is negative. */
+  @ReactMethod
+  fun moveEntry(playlistId: Double, entryId: Double, beforeEntryId: Double, promise: Promise) = submit(promise) {
+    index.movePlaylistEntry(playlistId.toLong(), entryId.toLong(), if (beforeEntryId < 0) null else beforeEntryId.toLong())
+    null
+  }
+
+  @ReactMethod
+  fun removeEntries(playlistId: Double, entryIds: ReadableArray, promise: Promise) = submit(promise) {
+    index.removePlaylistEntries(playlistId.toLong(), List(entryIds.size()) { entryIds.getDouble(it).toLong() })
+    null
+  }
+
+  /**
+   * Imports an M3U/M3U8/PLS file as a new playlist (named after the file when
+   * name is null). Entries are resolved against the index in batches: exact
+   * path, else kept as is when the file exists, else a unique file name in
+   * the index; anything else is kept as a missing entry. Resolves { id, entries,
+   * resolved, skipped }.
+   */
+  @ReactMethod
+  fun importFile(path: String, name: String?, promise: Promise) = submit(promise) {
+    val start = PerfMetrics.now()
+    val file = File(path)
+    val playlistId = index.createPlaylist(name ?: file.nameWithoutExtension)
+    val pending = ArrayList<Pair<String, String?>>(BATCH_SIZE)
+    var byName: HashMap<String, String?>? = null
+    var total = 0
+    var resolved = 0
+    val flush = {
+      val known = index.indexedPaths(pending.map { it.first })
+      for (i in pending.indices) {
+        val (location, title) = pending[i]
+        if (location in known) {
+          resolved++
+          continue
+        }
+        // Not indexed but present (e.g. a folder MediaStore skips): playable as it is
+        if (File(location).isFile) continue
+        val names = byName ?: index.indexedPathsByName().also { byName = it }
+        val match = names[location.substringAfterLast('/').lowercase()] ?: continue
+        resolved++
+        pending[i] = Pair(match, title)
+      }
+      index.appendToPlaylist(playlistId, pending)
+      total += pending.size
+      pending.clear()
+    }
+    val skipped = try {
+      PlaylistFiles.read(file) { location, title ->
+        pending.add(Pair(location, title))
+        if (pending.size >= BATCH_SIZE) flush()
+      }.also { flush() }
+    } catch (e: Exception) {
+      // A half-imported playlist is worse than none
+      index.deletePlaylist(playlistId)
+      throw e
+    }
+    IMPORT_TIME.recordSince(start)
+    val result = WritableNativeMap()
+    result.putDouble("id", playlistId.toDouble())
+    result.putInt("entries", total)
+    result.putInt("resolved", resolved)
+    result.putInt("skipped", skipped)
+    result
+  }
+
+  /** Writes a playlist to path as PLS (for a .pls name) or extended M3U; resolves the entry count. */
+  @ReactMethod
+  fun exportFile(playlistId: Double, path: String, promise: Promise) = submit(promise) {
+    val id = playlistId.toLong()
+    val file = File(path)
+    val pls = PlaylistFiles.isPls(file)
+    var count = 0
+    file.parentFile?.mkdirs()
+    file.bufferedWriter(Charsets.UTF_8).use { out ->
+      if (pls) PlaylistFiles.writePlsHeader(out) else PlaylistFiles.writeM3uHeader(out)
+      // Paged, so the cursor window stays small however long the playlist is
+      var offset = 0
+      while (true) {
+        var read = 0
+        index.pagePlaylist(id, offset, BATCH_SIZE) { entry ->
+          read++
+          count++
+          val title = entry.track?.title ?: entry.title
+          val duration = entry.track?.duration ?: 0L
+          if (pls) PlaylistFiles.writePlsEntry(out, count, entry.path, title, duration)
+          else PlaylistFiles.writeM3uEntry(out, entry.path, title, entry.track?.artist, duration)
+        }
+        if (read < BATCH_SIZE) break
+        offset += read
+      }
+      if (pls) PlaylistFiles.writePlsFooter(out, count)
+    }
+    count
+  }
+
+  override fun onCatalystInstanceDestroy() {
+    super.onCatalystInstanceDestroy()
+    executor.shutdownNow()
+  }
+
+  private fun submit(promise: Promise, block: () -> Any?) {
+    executor.execute {
+      try {
+        promise.resolve(block())
+      } catch (e: Exception) {
+        promise.reject("ERR_PLAYLISTS", e.message)
+      }
+    }
+  }
+
+  companion object {
+    private const val BATCH_SIZE = 500
+    private val BRIDGE_ITEMS = PerfMetrics.histogram("bridge.payloadItems", "items")
+    private val IMPORT_TIME = PerfMetrics.timer("playlists.import")
+  }
+}
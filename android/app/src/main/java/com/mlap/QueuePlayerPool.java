@@ -0,0 +1,402 @@
+package com.mlap;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultRenderersFactory;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.PlaybackException;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.audio.AudioSink;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process-wide pool of ExoPlayer instances, one per queue id. It outlives the
+ * JS runtime: PlaybackService drives the media session from it, and
+ * ExoPlayerModule is just one more listener/commander when JS is running.
+ *
+ * Buffering follows PlayerMemoryBudget: playing queues share one budget, and a
+ * queue paused for a minute (or at once under memory pressure) is stopped to
+ * free its buffers. It keeps its playlist and position and is prepared again
+ * when it resumes; isBufferShed() tells the session it is still only paused.
+ *
+ * Each player's sink is kept told the normalization gain of its current and
+ * next item (NormalizationGains), on every transition and playlist change.
+ *
+ * Main looper only.
+ */
+public final class QueuePlayerPool {
+
+    /** Player callbacks tagged with the queue they came from. */
+    public interface Listener {
+        default void onPlaybackStateChanged(String queueId, int state) {}
+        default void onPlayWhenReadyChanged(String queueId, boolean playWhenReady) {}
+        default void onIsPlayingChanged(String queueId, boolean isPlaying) {}
+        default void onMediaItemTransition(String queueId, @Nullable MediaItem mediaItem, int reason) {}
+        default void onPlayerError(String queueId, PlaybackException error) {}
+        /** next() was called on the last item; the queue has been paused. */
+        default void onQueueEnded(String queueId) {}
+        default void onPlayerReleased(String queueId) {}
+    }
+
+    private static final PerfMetrics.Counter SHEDS = PerfMetrics.counter("memory.bufferSheds");
+
+    private static QueuePlayerPool instance;
+
+    private final Context context;
+    private final Map<String, ExoPlayer> players = new LinkedHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final PlayerMemoryBudget budget;
+    private final Map<String, Runnable> pendingSheds = new HashMap<>();
+    private final Set<String> shedQueues = new HashSet<>();
+    private final Map<ExoPlayer, MixerAudioSink> sinks = new WeakHashMap<>();
+    private final Crossfader crossfader = new Crossfader(this);
+    @Nullable private String activeQueueId;
+
+    public static synchronized QueuePlayerPool getInstance(Context context) {
+        if (instance == null) instance = new QueuePlayerPool(context.getApplicationContext());
+        return instance;
+    }
+
+    private QueuePlayerPool(Context context) {
+        this.context = context;
+        this.budget = new PlayerMemoryBudget(context, new PlayerMemoryBudget.Host() {
+            @Override
+            public void shedPausedQueues() {
+                for (String queueId : new ArrayList<>(players.keySet())) shedIfPaused(queueId);
+            }
+            @Override
+            public void trimIdle() {
+                crossfader.trimIdle();
+                AudioMixer.getInstance().trimMemory();
+            }
+        });
+        context.registerComponentCallbacks(budget);
+        NormalizationGains.load(context, () -> mainHandler.post(this::refreshTrackGains));
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Nullable
+    public ExoPlayer get(String queueId) {
+        return players.get(queueId);
+    }
+
+    public Map<String, ExoPlayer> all() {
+        return Collections.unmodifiableMap(players);
+    }
+
+    /** The queue the session and media buttons act on: the one most recently started. */
+    @Nullable
+    public String getActiveQueueId() {
+        return activeQueueId;
+    }
+
+    /** Whether the queue's buffers were dropped while paused; it resumes from where it was. */
+    public boolean isBufferShed(String queueId) {
+        return shedQueues.contains(queueId);
+    }
+
+    public boolean isAnyPlaying() {
+        for (ExoPlayer player : players.values()) {
+            if (player.isPlaying()) return true;
+        }
+        return false;
+    }
+
+    public ExoPlayer obtain(final String queueId) {
+        ExoPlayer player = players.get(queueId);
+        if (player != null) return player;
+        player = newPlayer(queueId, queueId);
+        player.addListener(new Player.Listener() {
+            @Override
+            public void onPlaybackStateChanged(int state) {
+                for (Listener l : listeners) l.onPlaybackStateChanged(queueId, state);
+            }
+            @Override
+            public void onPlayWhenReadyChanged(boolean playWhenReady, int reason) {
+                if (playWhenReady) activeQueueId = queueId;
+                onPlayRequestChanged(queueId, playWhenReady);
+                crossfader.onPlayRequestChanged(queueId, playWhenReady);
+                for (Listener l : listeners) l.onPlayWhenReadyChanged(queueId, playWhenReady);
+            }
+            @Override
+            public void onIsPlayingChanged(boolean isPlaying) {
+                crossfader.reschedule(queueId);
+                for (Listener l : listeners) l.onIsPlayingChanged(queueId, isPlaying);
+            }
+            @Override
+            public void onMediaItemTransition(@Nullable MediaItem mediaItem, int reason) {
+                applyTrackGains(players.get(queueId));
+                crossfader.reschedule(queueId);
+                for (Listener l : listeners) l.onMediaItemTransition(queueId, mediaItem, reason);
+            }
+            // Seeks, playlist edits and durations becoming known all move the fade point
+            @Override
+            public void onPositionDiscontinuity(@NonNull Player.PositionInfo oldPosition,
+                                                @NonNull Player.PositionInfo newPosition, int reason) {
+                crossfader.reschedule(queueId);
+            }
+            @Override
+            public void onTimelineChanged(@NonNull Timeline timeline, int reason) {
+                applyTrackGains(players.get(queueId));
+                crossfader.reschedule(queueId);
+            }
+            @Override
+            public void onRepeatModeChanged(int repeatMode) {
+                applyTrackGains(players.get(queueId));
+                crossfader.reschedule(queueId);
+            }
+            @Override
+            public void onShuffleModeEnabledChanged(boolean shuffleModeEnabled) {
+                applyTrackGains(players.get(queueId));
+            }
+            @Override
+            public void onPlayerError(@NonNull PlaybackException error) {
+                for (Listener l : listeners) l.onPlayerError(queueId, error);
+            }
+        });
+        player.addAnalyticsListener(new PlaybackTimings());
+        players.put(queueId, player);
+        if (activeQueueId == null) activeQueueId = queueId;
+        PlaybackService.start(context);
+        return player;
+    }
+
+    // Builds a player whose audio goes to AudioMixer under queueId, buffering as bufferId
+    private ExoPlayer newPlayer(String queueId, String bufferId) {
+        MixerRenderersFactory renderers = new MixerRenderersFactory(context, queueId);
+        ExoPlayer player = new ExoPlayer.Builder(context, renderers)
+            .setLoadControl(budget.newLoadControl(bufferId))
+            .setLooper(Looper.getMainLooper())
+            .build();
+        // The factory builds the sink while the player is constructed
+        if (renderers.sink != null) sinks.put(player, renderers.sink);
+        return player;
+    }
+
+    /** A second player mixed as the same queue, for crossfade tails; not part of the pool. */
+    ExoPlayer newTailPlayer(String queueId) {
+        return newPlayer(queueId, queueId + "#tail");
+    }
+
+    @Nullable
+    MixerAudioSink sinkOf(ExoPlayer player) {
+        return sinks.get(player);
+    }
+
+    // Current item's gain now, the next item's for when the sink reaches it
+    private void applyTrackGains(@Nullable ExoPlayer player) {
+        MixerAudioSink sink = player != null ? sinks.get(player) : null;
+        if (sink == null) return;
+        sink.setTrackGain(NormalizationGains.linearGain(player.getCurrentMediaItem()));
+        Timeline timeline = player.getCurrentTimeline();
+        int next = timeline.isEmpty() ? C.INDEX_UNSET : timeline.getNextWindowIndex(
+            player.getCurrentMediaItemIndex(), player.getRepeatMode(), player.getShuffleModeEnabled());
+        sink.setNextTrackGain(next == C.INDEX_UNSET ? 1f
+            : NormalizationGains.linearGain(player.getMediaItemAt(next)));
+    }
+
+    /** Re-reads every queue's gains, after the settings or the stored gains change. */
+    public void refreshTrackGains() {
+        for (ExoPlayer player : players.values()) applyTrackGains(player);
+        crossfader.refreshTrackGains();
+    }
+
+    /** Crossfade overlap in ms (0 for hard cuts) and AudioMixer.CURVE_* for a queue. */
+    public void setCrossfade(String queueId, long overlapMs, int curve) {
+        crossfader.configure(queueId, overlapMs, curve);
+    }
+
+    /** Moves to the next item; on the last one pauses and reports the queue as ended. */
+    public void next(String queueId) {
+        ExoPlayer player = players.get(queueId);
+        if (player == null) return;
+        if (player.hasNextMediaItem()) {
+            player.seekToNextMediaItem();
+        } else {
+            player.pause();
+            for (Listener l : listeners) l.onQueueEnded(queueId);
+        }
+    }
+
+    public void previous(String queueId) {
+        ExoPlayer player = players.get(queueId);
+        if (player == null) return;
+        if (player.hasPreviousMediaItem()) {
+            player.seekToPreviousMediaItem();
+        } else {
+            player.seekTo(0);
+        }
+    }
+
+    /** Resumes every queue that has something loaded. */
+    public void playAll() {
+        for (ExoPlayer player : players.values()) {
+            if (player.getMediaItemCount() == 0) continue;
+            if (player.getPlaybackState() == Player.STATE_IDLE) player.prepare();
+            player.play();
+        }
+    }
+
+    public void pauseAll() {
+        for (ExoPlayer player : players.values()) player.pause();
+    }
+
+    /** Resumes the paused queues if there are any, otherwise pauses everything. */
+    public void togglePlayAll() {
+        boolean anyPaused = false;
+        for (ExoPlayer player : players.values()) {
+            if (player.getMediaItemCount() > 0 && !player.getPlayWhenReady()) {
+                anyPaused = true;
+                break;
+            }
+        }
+        if (!anyPaused) {
+            pauseAll();
+            return;
+        }
+        for (ExoPlayer player : players.values()) {
+            if (player.getMediaItemCount() == 0 || player.getPlayWhenReady()) continue;
+            if (player.getPlaybackState() == Player.STATE_IDLE) player.prepare();
+            player.play();
+        }
+    }
+
+    private void onPlayRequestChanged(String queueId, boolean playWhenReady) {
+        budget.setPlaying(queueId, playWhenReady);
+        Runnable pending = pendingSheds.remove(queueId);
+        if (pending != null) mainHandler.removeCallbacks(pending);
+        if (playWhenReady) {
+            ExoPlayer player = players.get(queueId);
+            if (shedQueues.remove(queueId) && player != null && player.getPlaybackState() == Player.STATE_IDLE) {
+                player.prepare();
+            }
+            return;
+        }
+        Runnable shed = () -> {
+            pendingSheds.remove(queueId);
+            shedIfPaused(queueId);
+        };
+        pendingSheds.put(queueId, shed);
+        mainHandler.postDelayed(shed, PlayerMemoryBudget.PAUSED_SHED_DELAY_MS);
+    }
+
+    // stop() keeps the playlist and position but releases the loaded media and its allocations
+    private void shedIfPaused(String queueId) {
+        ExoPlayer player = players.get(queueId);
+        if (player == null || player.getPlayWhenReady()) return;
+        if (player.getMediaItemCount() == 0 || player.getPlaybackState() == Player.STATE_IDLE) return;
+        SHEDS.inc();
+        shedQueues.add(queueId);
+        player.stop();
+    }
+
+    public void release(String queueId) {
+        ExoPlayer player = players.remove(queueId);
+        if (player == null) return;
+        Runnable pending = pendingSheds.remove(queueId);
+        if (pending != null) mainHandler.removeCallbacks(pending);
+        shedQueues.remove(queueId);
+        budget.setPlaying(queueId, false);
+        crossfader.release(queueId);
+        sinks.remove(player);
+        player.release();
+        if (queueId.equals(activeQueueId)) {
+            activeQueueId = players.isEmpty() ? null : players.keySet().iterator().next();
+        }
+        for (Listener l : listeners) l.onPlayerReleased(queueId);
+    }
+
+    public void releaseAll() {
+        for (String queueId : new ArrayList<>(players.keySet())) release(queueId);
+    }
+
+    // Every queue's audio goes through AudioMixer rather than a track of its own
+    private static final class MixerRenderersFactory extends DefaultRenderersFactory {
+        private final String queueId;
+        @Nullable MixerAudioSink sink;
+
+        MixerRenderersFactory(Context context, String queueId) {
+            super(context);
+            this.queueId = queueId;
+        }
+
+        @Override
+        protected AudioSink buildAudioSink(Context context, boolean enableFloatOutput,
+                                           boolean enableAudioTrackPlaybackParams, boolean enableOffload) {
+            sink = new MixerAudioSink(queueId);
+            return sink;
+        }
+    }
+
+    // Prepare, rebuffer and start-of-audio latencies for PerfMetrics; one per player
+    private static final class PlaybackTimings implements AnalyticsListener {
+        private static final PerfMetrics.Histogram PREPARE = PerfMetrics.timer("player.prepare");
+        private static final PerfMetrics.Histogram BUFFERING = PerfMetrics.timer("player.buffering");
+        private static final PerfMetrics.Histogram FIRST_AUDIO = PerfMetrics.timer("player.firstAudio");
+        private static final PerfMetrics.Counter ERRORS = PerfMetrics.counter("player.errors");
+
+        private int state = Player.STATE_IDLE;
+        private long bufferingSince = 0;
+        private boolean fromIdle = false;
+        // Wall clock, to compare with playoutStartSystemTimeMs
+        private long playRequestedAt = 0;
+
+        @Override
+        public void onPlaybackStateChanged(@NonNull EventTime eventTime, int newState) {
+            if (newState == Player.STATE_BUFFERING) {
+                if (bufferingSince == 0) {
+                    bufferingSince = PerfMetrics.now();
+                    fromIdle = state == Player.STATE_IDLE;
+                }
+            } else {
+                if (newState == Player.STATE_READY && bufferingSince != 0) {
+                    (fromIdle ? PREPARE : BUFFERING).recordSince(bufferingSince);
+                }
+                bufferingSince = 0;
+            }
+            state = newState;
+        }
+
+        @Override
+        public void onPlayWhenReadyChanged(@NonNull EventTime eventTime, boolean playWhenReady, int reason) {
+            playRequestedAt = playWhenReady ? System.currentTimeMillis() : 0;
+        }
+
+        // Audio has no first frame; this is when its output position first advances
+        @Override
+        public void onAudioPositionAdvancing(@NonNull EventTime eventTime, long playoutStartSystemTimeMs) {
+            if (playRequestedAt == 0) return;
+            FIRST_AUDIO.record(Math.max(0, playoutStartSystemTimeMs - playRequestedAt) * 1000);
+            playRequestedAt = 0;
+        }
+
+        @Override
+        public void onPlayerError(@NonNull EventTime eventTime, @NonNull PlaybackException error) {
+            ERRORS.inc();
+        }
+    }
+}
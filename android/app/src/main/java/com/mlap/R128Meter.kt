@@ -0,0 +1,151 @@
+package com.mlap
+
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.log10
+import kotlin.math.max
+import kotlin.math.pow
+import kotlin.math.tan
+
+/**
+ * EBU R128 (ITU-R BS.1770-4) integrated loudness and sample peak of
+ * interleaved PCM: K-weighting, 400 ms blocks on a 100 ms hop, an absolute
+ * gate at -70 LUFS and a relative gate 10 LU below the gated mean.
+ *
+ * Block energies go into a fixed histogram of 0.04 LU bins (summing the exact
+ * energies per bin), so memory is constant however long the track is and only
+ * the relative-gate edge is quantized.
+ *
+ * Not thread-safe; one per decode.
+ */
+class R128Meter(sampleRate: Int, private val channels: Int) {
+
+  // Stage 1: high shelf (head effects); stage 2: RLB high-pass. Coefficients from the
+  // analog prototypes, so any sample rate works (these match the spec's 48 kHz table)
+  private val s1b: DoubleArray
+  private val s1a: DoubleArray
+  private val s2b = doubleArrayOf(1.0, -2.0, 1.0)
+  private val s2a: DoubleArray
+  // Per channel: stage 1 z1, z2, stage 2 z1, z2
+  private val state = Array(channels) { DoubleArray(4) }
+  private val weights = DoubleArray(channels) { channelWeight(it, channels) }
+
+  private val subBlockFrames = max(1, sampleRate / 10)
+  private var subFrames = 0
+  private var subEnergy = 0.0
+  private val recent = DoubleArray(4)
+  private var recentCount = 0
+
+  private val binEnergy = DoubleArray(BINS)
+  private val binCount = LongArray(BINS)
+
+  /** Largest absolute sample so far, 1.0 = full scale. */
+  var peak = 0.0
+    private set
+
+  init {
+    var k = tan(PI * 1681.974450955533 / sampleRate)
+    val vh = 10.0.pow(3.999843853973347 / 20)
+    val vb = vh.pow(0.4996667741545416)
+    var q = 0.7071752369554196
+    var a0 = 1 + k / q + k * k
+    s1b = doubleArrayOf((vh + vb * k / q + k * k) / a0, 2 * (k * k - vh) / a0, (vh - vb * k / q + k * k) / a0)
+    s1a = doubleArrayOf(1.0, 2 * (k * k - 1) / a0, (1 - k / q + k * k) / a0)
+    k = tan(PI * 38.13547087602444 / sampleRate)
+    q = 0.5003270373238773
+    a0 = 1 + k / q + k * k
+    s2a = doubleArrayOf(1.0, 2 * (k * k - 1) / a0, (1 - k / q + k * k) / a0)
+  }
+
+  /** Adds frames of 16-bit samples. */
+  fun add(samples: ShortArray, frames: Int) {
+    var i = 0
+    for (f in 0 until frames) {
+      var energy = 0.0
+      for (ch in 0 until channels) {
+        energy += weights[ch] * filter(ch, samples[i++] / 32768.0)
+      }
+      endFrame(energy)
+    }
+  }
+
+  /** Adds frames of float samples in [-1, 1]. */
+  fun add(samples: FloatArray, frames: Int) {
+    var i = 0
+    for (f in 0 until frames) {
+      var energy = 0.0
+      for (ch in 0 until channels) {
+        energy += weights[ch] * filter(ch, samples[i++].toDouble())
+      }
+      endFrame(energy)
+    }
+  }
+
+  // K-weights one sample and returns its square; tracks the peak on the way
+  private fun filter(ch: Int, x: Double): Double {
+    val a = abs(x)
+    if (a > peak) peak = a
+    val z = state[ch]
+    val y1 = s1b[0] * x + z[0]
+    z[0] = s1b[1] * x - s1a[1] * y1 + z[1]
+    z[1] = s1b[2] * x - s1a[2] * y1
+    val y2 = s2b[0] * y1 + z[2]
+    z[2] = s2b[1] * y1 - s2a[1] * y2 + z[3]
+    z[3] = s2b[2] * y1 - s2a[2] * y2
+    return y2 * y2
+  }
+
+  private fun endFrame(energy: Double) {
+    subEnergy += energy
+    if (++subFrames < subBlockFrames) return
+    // Each 400 ms block is the mean of the last four 100 ms sub-blocks
+    recent[recentCount % 4] = subEnergy / subBlockFrames
+    recentCount++
+    subFrames = 0
+    subEnergy = 0.0
+    if (recentCount < 4) return
+    val block = (recent[0] + recent[1] + recent[2] + recent[3]) / 4
+    val loudness = loudnessOf(block)
+    if (loudness <= ABSOLUTE_GATE) return
+    val bin = ((loudness - ABSOLUTE_GATE) / BIN_WIDTH).toInt().coerceIn(0, BINS - 1)
+    binEnergy[bin] += block
+    binCount[bin]++
+  }
+
+  /** Gated integrated loudness in LUFS, or null when nothing rose above the absolute gate. */
+  fun integratedLoudness(): Double? {
+    var sum = 0.0
+    var count = 0L
+    for (i in 0 until BINS) {
+      sum += binEnergy[i]
+      count += binCount[i]
+    }
+    if (count == 0L) return null
+    val relativeGate = loudnessOf(sum / count) - 10
+    sum = 0.0
+    count = 0
+    for (i in 0 until BINS) {
+      if (ABSOLUTE_GATE + (i + 1) * BIN_WIDTH <= relativeGate) continue
+      sum += binEnergy[i]
+      count += binCount[i]
+    }
+    return if (count == 0L) null else loudnessOf(sum / count)
+  }
+
+  companion object {
+    private const val ABSOLUTE_GATE = -70.0
+    private const val BIN_WIDTH = 0.04
+    // -70 to +10 LUFS
+    private const val BINS = 2000
+
+    private fun loudnessOf(energy: Double) = -0.691 + 10 * log10(energy)
+
+    // BS.1770 channel weights for the usual layouts: surrounds count 1.41, LFE not at all
+    private fun channelWeight(channel: Int, channels: Int): Double = when {
+      channels < 5 -> 1.0
+      channels == 6 && channel == 3 -> 0.0
+      channel >= (if (channels == 6) 4 else 3) -> 1.41
+      else -> 1.0
+    }
+  }
+}
@@ -0,0 +1,864 @@
+package com.mlap
+
+import android.content.Context
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteOpenHelper
+import android.database.sqlite.SQLiteStatement
+import java.util.PriorityQueue
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Persistent track index. The scanner writes MediaStore deltas into it and the
+ * app reads it at startup, so first paint never waits for a rescan.
+ */
+class TrackIndexDatabase private constructor(context: Context) :
+  SQLiteOpenHelper(context.applicationContext, DB_NAME, null, DB_VERSION) {
+
+  private val appContext = context.applicationContext
+
+  // Several modules write from their own threads, hence atomic
+  private val writes = AtomicLong()
+
+  /** Bumped after every committed write, so derived views (groupings) know when to rebuild. */
+  val generation: Long
+    get() = writes.get()
+
+  override fun onConfigure(db: SQLiteDatabase) {
+    db.enableWriteAheadLogging()
+  }
+
+  override fun onCreate(db: SQLiteDatabase) {
+    db.execSQL(
+      """
+      CREATE TABLE tracks (
+        id TEXT PRIMARY KEY NOT NULL,
+        media_id INTEGER,
+        path TEXT NOT NULL UNIQUE,
+        title TEXT,
+        artist TEXT,
+        album TEXT,
+        duration INTEGER NOT NULL DEFAULT 0,
+        mime TEXT,
+        folder TEXT NOT NULL,
+        date_modified INTEGER NOT NULL DEFAULT 0,
+        artwork TEXT,
+        bitrate INTEGER NOT NULL DEFAULT 0,
+        sample_rate INTEGER NOT NULL DEFAULT 0
+      )
+      """.trimIndent()
+    )
+    db.execSQL("CREATE INDEX idx_tracks_media_id ON tracks(media_id)")
+    db.execSQL("CREATE INDEX idx_tracks_folder ON tracks(folder)")
+    db.execSQL("CREATE INDEX idx_tracks_artist ON tracks(artist COLLATE NOCASE)")
+    db.execSQL("CREATE INDEX idx_tracks_album ON tracks(album COLLATE NOCASE)")
+    db.execSQL("CREATE INDEX idx_tracks_title ON tracks(title COLLATE NOCASE)")
+    db.execSQL("CREATE TABLE meta (key TEXT PRIMARY KEY NOT NULL, value TEXT)")
+    createTrackMetaTable(db)
+    createSearchTable(db)
+    createTrackProbeTable(db)
+    createTrackLoudnessTable(db)
+    createTrackHashTable(db)
+    createPlaylistTables(db)
+    // Sync state used to live in a flat file before the index existed
+    appContext.deleteFile(LEGACY_SYNC_STATE_FILE)
+  }
+
+  override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    if (oldVersion < 2) {
+      db.execSQL("ALTER TABLE tracks ADD COLUMN artwork TEXT")
+      createTrackMetaTable(db)
+    }
+    if (oldVersion < 3) {
+      createSearchTable(db)
+      rebuildSearch(db)
+    }
+    if (oldVersion < 4) {
+      db.execSQL("ALTER TABLE tracks ADD COLUMN bitrate INTEGER NOT NULL DEFAULT 0")
+      db.execSQL("ALTER TABLE tracks ADD COLUMN sample_rate INTEGER NOT NULL DEFAULT 0")
+      createTrackProbeTable(db)
+    }
+    if (oldVersion < 5) {
+      createTrackLoudnessTable(db)
+    }
+    if (oldVersion < 6) {
+      createTrackHashTable(db)
+    }
+    if (oldVersion < 7) {
+      createPlaylistTables(db)
+    }
+  }
+
+  // Tags read from the files themselves, keyed by path and kept across rescans
+  // (which rewrite tracks); size + mtime tell whether a file needs reading again
+  private fun createTrackMetaTable(db: SQLiteDatabase) {
+    db.execSQL(
+      """
+      CREATE TABLE track_meta (
+        path TEXT PRIMARY KEY NOT NULL,
+        size INTEGER NOT NULL,
+        mtime INTEGER NOT NULL,
+        title TEXT,
+        artist TEXT,
+        album TEXT,
+        duration INTEGER NOT NULL DEFAULT 0,
+        artwork TEXT
+      )
+      """.trimIndent()
+    )
+  }
+
+  // Full-text index over title/artist/album/path; docid is the tracks rowid.
+  // unicode61 folds case and diacritics, so "beyonce" finds "Beyoncé"
+  private fun createSearchTable(db: SQLiteDatabase) {
+    db.execSQL("CREATE VIRTUAL TABLE track_search USING fts4(title, artist, album, path, tokenize=unicode61)")
+  }
+
+  // Header-probed stream info, keyed by path like track_meta. Also holds files
+  // outside the index (the filesystem fallback), so probes are never repeated
+  private fun createTrackProbeTable(db: SQLiteDatabase) {
+    db.execSQL(
+      """
+      CREATE TABLE track_probe (
+        path TEXT PRIMARY KEY NOT NULL,
+        size INTEGER NOT NULL,
+        mtime INTEGER NOT NULL,
+        duration INTEGER NOT NULL,
+        bitrate INTEGER NOT NULL,
+        sample_rate INTEGER NOT NULL
+      )
+      """.trimIndent()
+    )
+  }
+
+  // Normalization gains, keyed by path like track_probe. Not merged into tracks:
+  // only the player reads them, through NormalizationGains
+  private fun createTrackLoudnessTable(db: SQLiteDatabase) {
+    db.execSQL(
+      """
+      CREATE TABLE track_loudness (
+        path TEXT PRIMARY KEY NOT NULL,
+        size INTEGER NOT NULL,
+        mtime INTEGER NOT NULL,
+        gain REAL NOT NULL,
+        peak REAL NOT NULL,
+        loudness REAL,
+        source TEXT NOT NULL
+      )
+      """.trimIndent()
+    )
+  }
+
+  // Payload spans and hashes for duplicate detection, keyed by path like
+  // track_probe. Hashes stay null until a file needed one to be told apart
+  private fun createTrackHashTable(db: SQLiteDatabase) {
+    db.execSQL(
+      """
+      CREATE TABLE track_hash (
+        path TEXT PRIMARY KEY NOT NULL,
+        size INTEGER NOT NULL,
+        mtime INTEGER NOT NULL,
+        payload_offset INTEGER NOT NULL,
+        payload_length INTEGER NOT NULL,
+        partial_hash TEXT,
+        full_hash TEXT
+      )
+      """.trimIndent()
+    )
+  }
+
+  // Playlists refer to tracks by path, so they survive rescans and can hold files
+  // that are not indexed (yet). Entries are ordered by position, spaced
+  // PlaylistPositions.GAP apart so a move or insert only renumbers when a gap runs out
+  private fun createPlaylistTables(db: SQLiteDatabase) {
+    db.execSQL(
+      """
+      CREATE TABLE playlists (
+        id INTEGER PRIMARY KEY AUTOINCREMENT,
+        name TEXT NOT NULL,
+        modified INTEGER NOT NULL
+      )
+      """.trimIndent()
+    )
+    db.execSQL(
+      """
+      CREATE TABLE playlist_entries (
+        id INTEGER PRIMARY KEY AUTOINCREMENT,
+        playlist_id INTEGER NOT NULL,
+        position INTEGER NOT NULL,
+        path TEXT NOT NULL,
+        title TEXT
+      )
+      """.trimIndent()
+    )
+    db.execSQL("CREATE INDEX idx_playlist_entries_position ON playlist_entries(playlist_id, position)")
+  }
+
+  fun getMeta(key: String): String? {
+    readableDatabase.rawQuery("SELECT value FROM meta WHERE key = ?", arrayOf(key)).use {
+      return if (it.moveToFirst()) it.getString(0) else null
+    }
+  }
+
+  /** MediaStore _ID -> path for every indexed MediaStore row. */
+  fun knownMediaIds(): HashMap<Long, String> {
+    val known = HashMap<Long, String>()
+    readableDatabase.rawQuery("SELECT media_id, path FROM tracks WHERE media_id IS NOT NULL", null).use {
+      while (it.moveToNext()) known[it.getLong(0)] = it.getString(1)
+    }
+    return known
+  }
+
+  /** Paths of rows MediaStore does not know about (Download fallback and watched folder files). */
+  fun pathsWithoutMediaId(): List<String> {
+    val paths = ArrayList<String>()
+    readableDatabase.rawQuery("SELECT path FROM tracks WHERE media_id IS NULL", null).use {
+      while (it.moveToNext()) paths.add(it.getString(0))
+    }
+    return paths
+  }
+
+  fun forEachTrack(onRow: (IndexedTrack) -> Unit) {
+    readableDatabase.rawQuery("SELECT $TRACK_COLUMNS FROM tracks", null).use {
+      while (it.moveToNext()) onRow(readTrack(it))
+    }
+  }
+
+  /** Looks tracks up by id; ids missing from the index are absent from the result. */
+  fun findByIds(ids: Collection<String>): HashMap<String, IndexedTrack> {
+    val found = HashMap<String, IndexedTrack>(ids.size * 2)
+    // Stay under SQLite's bound-parameter limit
+    for (chunk in ids.distinct().chunked(MAX_BOUND_ARGS)) {
+      val placeholders = chunk.joinToString(",") { "?" }
+      readableDatabase.rawQuery("SELECT $TRACK_COLUMNS FROM tracks WHERE id IN ($placeholders)", chunk.toTypedArray()).use {
+        while (it.moveToNext()) {
+          val track = readTrack(it)
+          found[track.id] = track
+        }
+      }
+    }
+    return found
+  }
+
+  fun count(query: TrackQuery): Int {
+    val (where, args) = query.whereClause()
+    readableDatabase.rawQuery("SELECT COUNT(*) FROM tracks$where", args).use {
+      return if (it.moveToFirst()) it.getInt(0) else 0
+    }
+  }
+
+  /** One window of the sorted, filtered library; a negative limit reads to the end. */
+  fun page(query: TrackQuery, offset: Int, limit: Int, onRow: (IndexedTrack) -> Unit) {
+    val (where, args) = query.whereClause()
+    val sql = "SELECT $TRACK_COLUMNS FROM tracks$where ORDER BY ${query.orderBy()} LIMIT ? OFFSET ?"
+    readableDatabase.rawQuery(sql, args + arrayOf(limit.toString(), offset.toString())).use {
+      while (it.moveToNext()) onRow(readTrack(it))
+    }
+  }
+
+  /**
+   * Ids of the best matches for a search box query, best first. Every word
+   * must prefix-match a word of the title, artist, album or path; hits in the
+   * title rank highest.
+   */
+  fun search(query: String, limit: Int): List<String> {
+    val match = TrackSearch.matchExpression(query) ?: return emptyList()
+    val phrases = TrackSearch.tokens(query).size
+    // Min-heap of the best `limit` rows seen so far
+    val best = PriorityQueue<SearchHit>(limit + 1, SEARCH_ORDER.reversed())
+    readableDatabase.rawQuery(
+      "SELECT t.id, t.title, matchinfo(track_search, 'x') FROM track_search " +
+        "JOIN tracks t ON t.rowid = track_search.docid WHERE track_search MATCH ?",
+      arrayOf(match)
+    ).use {
+      while (it.moveToNext()) {
+        best.add(SearchHit(it.getString(0), it.getString(1) ?: "", TrackSearch.score(it.getBlob(2), phrases)))
+        if (best.size > limit) best.poll()
+      }
+    }
+    return best.sortedWith(SEARCH_ORDER).map { it.id }
+  }
+
+  /** Replaces the whole index (full scan). */
+  fun replaceAll(tracks: List<IndexedTrack>, syncToken: String) {
+    inTransaction { db ->
+      db.execSQL("DELETE FROM tracks")
+      val insert = db.compileStatement(UPSERT_SQL)
+      for (track in tracks) bindAndInsert(insert, track)
+      db.execSQL(MERGE_META_SQL)
+      db.execSQL(MERGE_PROBE_SQL)
+      rebuildSearch(db)
+      putMeta(db, META_SYNC_TOKEN, syncToken)
+    }
+  }
+
+  /** Applies an incremental delta; deleted entries are track ids (paths). */
+  fun applyChanges(upserts: List<IndexedTrack>, deleted: Collection<String>, syncToken: String) {
+    inTransaction { db ->
+      // Replaced rows get a new rowid, so their old search rows go first
+      deleteSearchRows(db, "id", deleted + upserts.map { it.id })
+      deleteSearchRows(db, "path", upserts.map { it.path })
+      val delete = db.compileStatement("DELETE FROM tracks WHERE id = ?")
+      for (id in deleted) {
+        delete.bindString(1, id)
+        delete.executeUpdateDelete()
+      }
+      val insert = db.compileStatement(UPSERT_SQL)
+      for (track in upserts) bindAndInsert(insert, track)
+      if (upserts.isNotEmpty()) {
+        db.execSQL(MERGE_META_SQL)
+        db.execSQL(MERGE_PROBE_SQL)
+      }
+      insertSearchRows(db, upserts.map { it.path })
+      putMeta(db, META_SYNC_TOKEN, syncToken)
+    }
+  }
+
+  /**
+   * Every indexed path (or only those of `paths` that are indexed) with the
+   * size/mtime its tags were last read at (null: never).
+   */
+  fun forEachExtractionState(paths: Collection<String>? = null, onRow: (path: String, size: Long?, mtime: Long?) -> Unit) {
+    val sql = "SELECT t.path, m.size, m.mtime FROM tracks t LEFT JOIN track_meta m ON m.path = t.path"
+    val chunks = paths?.distinct()?.chunked(MAX_BOUND_ARGS)?.map { chunk ->
+      "$sql WHERE t.path IN (${chunk.joinToString(",") { "?" }})" to chunk.toTypedArray()
+    } ?: listOf(sql to null)
+    for ((query, args) in chunks) {
+      readableDatabase.rawQuery(query, args).use {
+        while (it.moveToNext()) {
+          onRow(it.getString(0), if (it.isNull(1)) null else it.getLong(1), if (it.isNull(2)) null else it.getLong(2))
+        }
+      }
+    }
+  }
+
+  /** Stores tags read from files and fills the gaps they cover in the index. */
+  fun saveExtractedMeta(results: List<ExtractedMeta>) {
+    if (results.isEmpty()) return
+    inTransaction { db ->
+      val insert = db.compileStatement(
+        "INSERT OR REPLACE INTO track_meta (path, size, mtime, title, artist, album, duration, artwork) VALUES (?, ?, ?, ?, ?, ?, ?, ?)"
+      )
+      for (meta in results) {
+        insert.clearBindings()
+        insert.bindString(1, meta.path)
+        insert.bindLong(2, meta.size)
+        insert.bindLong(3, meta.mtime)
+        bindNullable(insert, 4, meta.title)
+        bindNullable(insert, 5, meta.artist)
+        bindNullable(insert, 6, meta.album)
+        insert.bindLong(7, meta.duration)
+        bindNullable(insert, 8, meta.artwork)
+        insert.executeInsert()
+      }
+      db.execSQL(MERGE_META_SQL)
+      val paths = results.map { it.path }
+      deleteSearchRows(db, "path", paths)
+      insertSearchRows(db, paths)
+    }
+  }
+
+  /** Indexed paths whose duration is still unknown. */
+  fun pathsWithoutDuration(): List<String> {
+    val paths = ArrayList<String>()
+    readableDatabase.rawQuery("SELECT path FROM tracks WHERE duration <= 0", null).use {
+      while (it.moveToNext()) paths.add(it.getString(0))
+    }
+    return paths
+  }
+
+  /** Cached probes for the given paths, with the size/mtime they were taken at. */
+  fun findProbes(paths: Collection<String>): HashMap<String, ProbeEntry> {
+    val found = HashMap<String, ProbeEntry>(paths.size * 2)
+    for (chunk in paths.distinct().chunked(MAX_BOUND_ARGS)) {
+      val placeholders = chunk.joinToString(",") { "?" }
+      readableDatabase.rawQuery(
+        "SELECT path, size, mtime, duration, bitrate, sample_rate FROM track_probe WHERE path IN ($placeholders)",
+        chunk.toTypedArray()
+      ).use {
+        while (it.moveToNext()) {
+          found[it.getString(0)] = ProbeEntry(
+            it.getString(0), it.getLong(1), it.getLong(2),
+            ProbeResult(it.getLong(3), it.getInt(4), it.getInt(5))
+          )
+        }
+      }
+    }
+    return found
+  }
+
+  /** Caches probe results and fills in tracks still missing a duration. */
+  fun saveProbes(entries: List<ProbeEntry>) {
+    if (entries.isEmpty()) return
+    inTransaction { db ->
+      val insert = db.compileStatement(
+        "INSERT OR REPLACE INTO track_probe (path, size, mtime, duration, bitrate, sample_rate) VALUES (?, ?, ?, ?, ?, ?)"
+      )
+      for (entry in entries) {
+        insert.clearBindings()
+        insert.bindString(1, entry.path)
+        insert.bindLong(2, entry.size)
+        insert.bindLong(3, entry.mtime)
+        insert.bindLong(4, entry.result.durationMs)
+        insert.bindLong(5, entry.result.bitrate.toLong())
+        insert.bindLong(6, entry.result.sampleRate.toLong())
+        insert.executeInsert()
+      }
+      db.execSQL(MERGE_PROBE_SQL)
+    }
+  }
+
+  /** Every indexed path with the size/mtime its loudness was found at (null: never). */
+  fun forEachLoudnessState(onRow: (path: String, size: Long?, mtime: Long?) -> Unit) {
+    readableDatabase.rawQuery(
+      "SELECT t.path, l.size, l.mtime FROM tracks t LEFT JOIN track_loudness l ON l.path = t.path",
+      null
+    ).use {
+      while (it.moveToNext()) {
+        onRow(it.getString(0), if (it.isNull(1)) null else it.getLong(1), if (it.isNull(2)) null else it.getLong(2))
+      }
+    }
+  }
+
+  /** Cached loudness for the given paths, with the size/mtime it was found at. */
+  fun findLoudness(paths: Collection<String>): HashMap<String, LoudnessEntry> {
+    val found = HashMap<String, LoudnessEntry>(paths.size * 2)
+    for (chunk in paths.distinct().chunked(MAX_BOUND_ARGS)) {
+      val placeholders = chunk.joinToString(",") { "?" }
+      readableDatabase.rawQuery(
+        "SELECT path, size, mtime, gain, peak, loudness, source FROM track_loudness WHERE path IN ($placeholders)",
+        chunk.toTypedArray()
+      ).use {
+        while (it.moveToNext()) {
+          found[it.getString(0)] = readLoudness(it)
+        }
+      }
+    }
+    return found
+  }
+
+  /** Every stored gain that can be applied (not SOURCE_NONE), by path. */
+  fun loudnessGains(): HashMap<String, LoudnessResult> {
+    val found = HashMap<String, LoudnessResult>()
+    readableDatabase.rawQuery(
+      "SELECT path, size, mtime, gain, peak, loudness, source FROM track_loudness WHERE source != ?",
+      arrayOf(LoudnessAnalyzer.SOURCE_NONE)
+    ).use {
+      while (it.moveToNext()) found[it.getString(0)] = readLoudness(it).result
+    }
+    return found
+  }
+
+  fun saveLoudness(entries: List<LoudnessEntry>) {
+    if (entries.isEmpty()) return
+    inTransaction { db ->
+      val insert = db.compileStatement(
+        "INSERT OR REPLACE INTO track_loudness (path, size, mtime, gain, peak, loudness, source) VALUES (?, ?, ?, ?, ?, ?, ?)"
+      )
+      for (entry in entries) {
+        insert.clearBindings()
+        insert.bindString(1, entry.path)
+        insert.bindLong(2, entry.size)
+        insert.bindLong(3, entry.mtime)
+        insert.bindDouble(4, entry.result.gainDb)
+        insert.bindDouble(5, entry.result.peak)
+        val loudness = entry.result.loudness
+        if (loudness != null) insert.bindDouble(6, loudness) else insert.bindNull(6)
+        insert.bindString(7, entry.result.source)
+        insert.executeInsert()
+      }
+    }
+  }
+
+  private fun readLoudness(c: Cursor) = LoudnessEntry(
+    c.getString(0), c.getLong(1), c.getLong(2),
+    LoudnessResult(c.getDouble(3), c.getDouble(4), if (c.isNull(5)) null else c.getDouble(5), c.getString(6))
+  )
+
+  /** Every indexed path with its cached hash entry, if any (it may be stale; compare size/mtime). */
+  fun forEachHashState(onRow: (path: String, cached: HashEntry?) -> Unit) {
+    readableDatabase.rawQuery(
+      "SELECT t.path, h.size, h.mtime, h.payload_offset, h.payload_length, h.partial_hash, h.full_hash " +
+        "FROM tracks t LEFT JOIN track_hash h ON h.path = t.path",
+      null
+    ).use {
+      while (it.moveToNext()) {
+        val path = it.getString(0)
+        onRow(
+          path,
+          if (it.isNull(1)) null else HashEntry(
+            path, it.getLong(1), it.getLong(2), it.getLong(3), it.getLong(4), it.getString(5), it.getString(6)
+          )
+        )
+      }
+    }
+  }
+
+  fun saveHashes(entries: Collection<HashEntry>) {
+    if (entries.isEmpty()) return
+    inTransaction { db ->
+      val insert = db.compileStatement(
+        "INSERT OR REPLACE INTO track_hash (path, size, mtime, payload_offset, payload_length, partial_hash, full_hash) VALUES (?, ?, ?, ?, ?, ?, ?)"
+      )
+      for (entry in entries) {
+        insert.clearBindings()
+        insert.bindString(1, entry.path)
+        insert.bindLong(2, entry.size)
+        insert.bindLong(3, entry.mtime)
+        insert.bindLong(4, entry.payloadOffset)
+        insert.bindLong(5, entry.payloadLength)
+        bindNullable(insert, 6, entry.partialHash)
+        bindNullable(insert, 7, entry.fullHash)
+        insert.executeInsert()
+      }
+    }
+  }
+
+  fun playlists(): List<PlaylistInfo> {
+    val found = ArrayList<PlaylistInfo>()
+    readableDatabase.rawQuery(
+      "SELECT p.id, p.name, p.modified, (SELECT COUNT(*) FROM playlist_entries e WHERE e.playlist_id = p.id) " +
+        "FROM playlists p ORDER BY p.name COLLATE NOCASE",
+      null
+    ).use {
+      while (it.moveToNext()) found.add(PlaylistInfo(it.getLong(0), it.getString(1), it.getLong(2), it.getInt(3)))
+    }
+    return found
+  }
+
+  fun createPlaylist(name: String): Long {
+    var id = 0L
+    inTransaction { db ->
+      db.execSQL("INSERT INTO playlists (name, modified) VALUES (?, ?)", arrayOf<Any>(name, System.currentTimeMillis()))
+      db.rawQuery("SELECT last_insert_rowid()", null).use { if (it.moveToFirst()) id = it.getLong(0) }
+    }
+    return id
+  }
+
+  fun renamePlaylist(playlistId: Long, name: String) {
+    inTransaction { db ->
+      db.execSQL(
+        "UPDATE playlists SET name = ?, modified = ? WHERE id = ?",
+        arrayOf<Any>(name, System.currentTimeMillis(), playlistId)
+      )
+    }
+  }
+
+  fun deletePlaylist(playlistId: Long) {
+    inTransaction { db ->
+      db.execSQL("DELETE FROM playlist_entries WHERE playlist_id = ?", arrayOf<Any>(playlistId))
+      db.execSQL("DELETE FROM playlists WHERE id = ?", arrayOf<Any>(playlistId))
+    }
+  }
+
+  fun playlistSize(playlistId: Long): Int {
+    readableDatabase.rawQuery(
+      "SELECT COUNT(*) FROM playlist_entries WHERE playlist_id = ?",
+      arrayOf(playlistId.toString())
+    ).use {
+      return if (it.moveToFirst()) it.getInt(0) else 0
+    }
+  }
+
+  /** Appends entries (path, title or null) after the playlist's last one, in order. */
+  fun appendToPlaylist(playlistId: Long, entries: List<Pair<String, String?>>) {
+    if (entries.isEmpty()) return
+    inTransaction { db ->
+      var position = lastPosition(db, playlistId)
+      val insert = db.compileStatement(
+        "INSERT INTO playlist_entries (playlist_id, position, path, title) VALUES (?, ?, ?, ?)"
+      )
+      for ((path, title) in entries) {
+        position = PlaylistPositions.after(position)
+        insert.clearBindings()
+        insert.bindLong(1, playlistId)
+        insert.bindLong(2, position)
+        insert.bindString(3, path)
+        bindNullable(insert, 4, title)
+        insert.executeInsert()
+      }
+      touchPlaylist(db, playlistId)
+    }
+  }
+
+  /**
+   * Moves an entry in front of another one, or to the end when beforeEntryId
+   * is null. Takes the midpoint of the neighbours' positions; only when they
+   * are adjacent is the playlist renumbered first.
+   */
+  fun movePlaylistEntry(playlistId: Long, entryId: Long, beforeEntryId: Long?) {
+    if (entryId == beforeEntryId) return
+    inTransaction { db ->
+      var target = targetPosition(db, playlistId, entryId, beforeEntryId)
+      if (target == null) {
+        renumberPlaylist(db, playlistId)
+        target = targetPosition(db, playlistId, entryId, beforeEntryId)
+      }
+      if (target != null) {
+        db.execSQL(
+          "UPDATE playlist_entries SET position = ? WHERE id = ? AND playlist_id = ?",
+          arrayOf<Any>(target, entryId, playlistId)
+        )
+        touchPlaylist(db, playlistId)
+      }
+    }
+  }
+
+  fun removePlaylistEntries(playlistId: Long, entryIds: Collection<Long>) {
+    if (entryIds.isEmpty()) return
+    inTransaction { db ->
+      for (chunk in entryIds.distinct().chunked(MAX_BOUND_ARGS)) {
+        val placeholders = chunk.joinToString(",") { "?" }
+        db.execSQL(
+          "DELETE FROM playlist_entries WHERE playlist_id = ? AND id IN ($placeholders)",
+          arrayOf<Any>(playlistId) + chunk.toTypedArray()
+        )
+      }
+      touchPlaylist(db, playlistId)
+    }
+  }
+
+  /** One window of a playlist in order, each entry with its indexed track when there is one. */
+  fun pagePlaylist(playlistId: Long, offset: Int, limit: Int, onRow: (PlaylistEntry) -> Unit) {
+    readableDatabase.rawQuery(
+      "SELECT $PLAYLIST_ENTRY_COLUMNS FROM playlist_entries e LEFT JOIN tracks t ON t.path = e.path " +
+        "WHERE e.playlist_id = ? ORDER BY e.position LIMIT ? OFFSET ?",
+      arrayOf(playlistId.toString(), limit.toString(), offset.toString())
+    ).use {
+      while (it.moveToNext()) onRow(readPlaylistEntry(it))
+    }
+  }
+
+  /** Which of the given paths are indexed. */
+  fun indexedPaths(paths: Collection<String>): HashSet<String> {
+    val found = HashSet<String>(paths.size * 2)
+    for (chunk in paths.distinct().chunked(MAX_BOUND_ARGS)) {
+      val placeholders = chunk.joinToString(",") { "?" }
+      readableDatabase.rawQuery("SELECT path FROM tracks WHERE path IN ($placeholders)", chunk.toTypedArray()).use {
+        while (it.moveToNext()) found.add(it.getString(0))
+      }
+    }
+    return found
+  }
+
+  /** Indexed paths by lower-cased file name; names shared by several files map to null. */
+  fun indexedPathsByName(): HashMap<String, String?> {
+    val byName = HashMap<String, String?>()
+    readableDatabase.rawQuery("SELECT path FROM tracks", null).use {
+      while (it.moveToNext()) {
+        val path = it.getString(0)
+        val name = path.substringAfterLast('/').lowercase()
+        byName[name] = if (byName.containsKey(name)) null else path
+      }
+    }
+    return byName
+  }
+
+  private fun lastPosition(db: SQLiteDatabase, playlistId: Long): Long {
+    db.rawQuery(
+      "SELECT MAX(position) FROM playlist_entries WHERE playlist_id = ?",
+      arrayOf(playlistId.toString())
+    ).use {
+      return if (it.moveToFirst() && !it.isNull(0)) it.getLong(0) else 0L
+    }
+  }
+
+  // Midpoint between the entry's new neighbours, or null when they leave no gap
+  private fun targetPosition(db: SQLiteDatabase, playlistId: Long, entryId: Long, beforeEntryId: Long?): Long? {
+    if (beforeEntryId == null) return PlaylistPositions.after(lastPosition(db, playlistId))
+    val next = db.rawQuery(
+      "SELECT position FROM playlist_entries WHERE id = ? AND playlist_id = ?",
+      arrayOf(beforeEntryId.toString(), playlistId.toString())
+    ).use { if (it.moveToFirst()) it.getLong(0) else return PlaylistPositions.after(lastPosition(db, playlistId)) }
+    val previous = db.rawQuery(
+      "SELECT MAX(position) FROM playlist_entries WHERE playlist_id = ? AND position < ? AND id != ?",
+      arrayOf(playlistId.toString(), next.toString(), entryId.toString())
+    ).use { if (it.moveToFirst() && !it.isNull(0)) it.getLong(0) else 0L }
+    return PlaylistPositions.between(previous, next)
+  }
+
+  private fun renumberPlaylist(db: SQLiteDatabase, playlistId: Long) {
+    val update = db.compileStatement("UPDATE playlist_entries SET position = ? WHERE id = ?")
+    var index = 0
+    db.rawQuery(
+      "SELECT id FROM playlist_entries WHERE playlist_id = ? ORDER BY position",
+      arrayOf(playlistId.toString())
+    ).use {
+      while (it.moveToNext()) {
+        update.clearBindings()
+        update.bindLong(1, PlaylistPositions.renumbered(index++))
+        update.bindLong(2, it.getLong(0))
+        update.executeUpdateDelete()
+      }
+    }
+  }
+
+  private fun touchPlaylist(db: SQLiteDatabase, playlistId: Long) {
+    db.execSQL("UPDATE playlists SET modified = ? WHERE id = ?", arrayOf<Any>(System.currentTimeMillis(), playlistId))
+  }
+
+  private fun rebuildSearch(db: SQLiteDatabase) {
+    db.execSQL("DELETE FROM track_search")
+    db.execSQL("INSERT INTO track_search (docid, title, artist, album, path) SELECT rowid, title, artist, album, path FROM tracks")
+  }
+
+  // column is "id" or "path"
+  private fun deleteSearchRows(db: SQLiteDatabase, column: String, keys: Collection<String>) {
+    for (chunk in keys.distinct().chunked(MAX_BOUND_ARGS)) {
+      val placeholders = chunk.joinToString(",") { "?" }
+      db.execSQL(
+        "DELETE FROM track_search WHERE docid IN (SELECT rowid FROM tracks WHERE $column IN ($placeholders))",
+        chunk.toTypedArray()
+      )
+    }
+  }
+
+  private fun insertSearchRows(db: SQLiteDatabase, paths: Collection<String>) {
+    for (chunk in paths.distinct().chunked(MAX_BOUND_ARGS)) {
+      val placeholders = chunk.joinToString(",") { "?" }
+      db.execSQL(
+        "INSERT INTO track_search (docid, title, artist, album, path) " +
+          "SELECT rowid, title, artist, album, path FROM tracks WHERE path IN ($placeholders)",
+        chunk.toTypedArray()
+      )
+    }
+  }
+
+  private inline fun inTransaction(block: (SQLiteDatabase) -> Unit) {
+    val start = PerfMetrics.now()
+    val db = writableDatabase
+    db.beginTransaction()
+    var succeeded = false
+    try {
+      block(db)
+      db.setTransactionSuccessful()
+      succeeded = true
+    } finally {
+      // Only once committed: a rolled-back write changes nothing a reader could see
+      db.endTransaction()
+      if (succeeded) writes.incrementAndGet()
+      WRITE_TIME.recordSince(start)
+    }
+  }
+
+  private fun putMeta(db: SQLiteDatabase, key: String, value: String) {
+    db.execSQL("INSERT OR REPLACE INTO meta (key, value) VALUES (?, ?)", arrayOf(key, value))
+  }
+
+  private fun bindAndInsert(statement: SQLiteStatement, track: IndexedTrack) {
+    statement.clearBindings()
+    statement.bindString(1, track.id)
+    if (track.mediaId != null) statement.bindLong(2, track.mediaId) else statement.bindNull(2)
+    statement.bindString(3, track.path)
+    bindNullable(statement, 4, track.title)
+    bindNullable(statement, 5, track.artist)
+    bindNullable(statement, 6, track.album)
+    statement.bindLong(7, track.duration)
+    bindNullable(statement, 8, track.mime)
+    statement.bindString(9, track.folder)
+    statement.bindLong(10, track.dateModified)
+    bindNullable(statement, 11, track.artwork)
+    statement.bindLong(12, track.bitrate.toLong())
+    statement.bindLong(13, track.sampleRate.toLong())
+    statement.executeInsert()
+  }
+
+  private fun bindNullable(statement: SQLiteStatement, index: Int, value: String?) {
+    if (value != null) statement.bindString(index, value) else statement.bindNull(index)
+  }
+
+  companion object {
+    private const val DB_NAME = "track_index.db"
+    private const val DB_VERSION = 7
+    private const val LEGACY_SYNC_STATE_FILE = "media_scan_state.bin"
+    const val META_SYNC_TOKEN = "sync_token"
+    private const val MAX_BOUND_ARGS = 500
+    private val WRITE_TIME = PerfMetrics.timer("index.write")
+
+    const val TRACK_COLUMNS =
+      "id, media_id, path, title, artist, album, duration, mime, folder, date_modified, artwork, bitrate, sample_rate"
+    private val PLAYLIST_ENTRY_COLUMNS =
+      "e.id, e.path, e.title, " + TRACK_COLUMNS.split(", ").joinToString(", ") { "t.$it" }
+    private const val UPSERT_SQL = "INSERT OR REPLACE INTO tracks ($TRACK_COLUMNS) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
+
+    // Extracted tags only fill what MediaStore left empty (titles only for files
+    // outside MediaStore, whose title is just the file name); artwork always comes from them
+    private const val MERGE_META_SQL = """
+      UPDATE tracks SET
+        title = CASE WHEN media_id IS NULL OR title IS NULL
+          THEN COALESCE((SELECT m.title FROM track_meta m WHERE m.path = tracks.path), title) ELSE title END,
+        artist = COALESCE(artist, (SELECT m.artist FROM track_meta m WHERE m.path = tracks.path)),
+        album = COALESCE(album, (SELECT m.album FROM track_meta m WHERE m.path = tracks.path)),
+        duration = CASE WHEN duration > 0 THEN duration
+          ELSE COALESCE((SELECT m.duration FROM track_meta m WHERE m.path = tracks.path), 0) END,
+        artwork = (SELECT m.artwork FROM track_meta m WHERE m.path = tracks.path)
+      WHERE path IN (SELECT path FROM track_meta)
+    """
+
+    // Probed durations fill gaps only; bitrate and sample rate have no other source
+    private const val MERGE_PROBE_SQL = """
+      UPDATE tracks SET
+        duration = CASE WHEN duration > 0 THEN duration
+          ELSE COALESCE((SELECT p.duration FROM track_probe p WHERE p.path = tracks.path), 0) END,
+        bitrate = (SELECT p.bitrate FROM track_probe p WHERE p.path = tracks.path),
+        sample_rate = (SELECT p.sample_rate FROM track_probe p WHERE p.path = tracks.path)
+      WHERE path IN (SELECT path FROM track_probe)
+    """
+
+    class ProbeEntry(val path: String, val size: Long, val mtime: Long, val result: ProbeResult)
+
+    class LoudnessEntry(val path: String, val size: Long, val mtime: Long, val result: LoudnessResult)
+
+    class PlaylistInfo(val id: Long, val name: String, val modified: Long, val count: Int)
+
+    /** track is null when the entry's path is not (or no longer) indexed. */
+    class PlaylistEntry(val id: Long, val path: String, val title: String?, val track: IndexedTrack?)
+
+    data class HashEntry(
+      val path: String,
+      val size: Long,
+      val mtime: Long,
+      val payloadOffset: Long,
+      val payloadLength: Long,
+      val partialHash: String?,
+      val fullHash: String?
+    )
+
+    private class SearchHit(val id: String, val title: String, val score: Int)
+
+    private val SEARCH_ORDER = compareByDescending<SearchHit> { it.score }
+      .thenBy(String.CASE_INSENSITIVE_ORDER) { it.title }
+      .thenBy { it.id }
+
+    // Reads a row selected with TRACK_COLUMNS, starting at column first
+    fun readTrack(c: Cursor, first: Int = 0): IndexedTrack = IndexedTrack(
+      id = c.getString(first),
+      mediaId = if (c.isNull(first + 1)) null else c.getLong(first + 1),
+      path = c.getString(first + 2),
+      title = c.getString(first + 3),
+      artist = c.getString(first + 4),
+      album = c.getString(first + 5),
+      duration = c.getLong(first + 6),
+      mime = c.getString(first + 7),
+      folder = c.getString(first + 8),
+      dateModified = c.getLong(first + 9),
+      artwork = c.getString(first + 10),
+      bitrate = c.getInt(first + 11),
+      sampleRate = c.getInt(first + 12)
+    )
+
+    // Reads a row selected with PLAYLIST_ENTRY_COLUMNS
+    private fun readPlaylistEntry(c: Cursor) = PlaylistEntry(
+      c.getLong(0), c.getString(1), c.getString(2), if (c.isNull(3)) null else readTrack(c, 3)
+    )
+
+    @Volatile
+    private var instance: TrackIndexDatabase? = null
+
+    @JvmStatic
+    fun getInstance(context: Context): TrackIndexDatabase =
+      instance ?: synchronized(this) {
+        instance ?: TrackIndexDatabase(context).also { instance = it }
+      }
+  }
+}
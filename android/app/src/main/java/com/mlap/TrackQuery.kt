@@ -0,0 +1,74 @@
+package com.mlap
+
+import com.facebook.react.bridge.ReadableMap
+
+/**
+ * Sort and filter for windowed reads of the track index. Sort keys are
+ * whitelisted; filters are exact matches except text, which is a substring
+ * match over title, artist and album.
+ */
+class TrackQuery(
+  val sort: String = "title",
+  val descending: Boolean = false,
+  val artist: String? = null,
+  val album: String? = null,
+  val folder: String? = null,
+  val text: String? = null
+) {
+
+  fun whereClause(): Pair<String, Array<String>> {
+    val clauses = ArrayList<String>()
+    val args = ArrayList<String>()
+    if (artist != null) {
+      clauses.add("artist = ?")
+      args.add(artist)
+    }
+    if (album != null) {
+      clauses.add("album = ?")
+      args.add(album)
+    }
+    if (folder != null) {
+      clauses.add("folder = ?")
+      args.add(folder)
+    }
+    if (!text.isNullOrBlank()) {
+      val pattern = "%" + text.trim().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%"
+      clauses.add("(title LIKE ? ESCAPE '\\' OR artist LIKE ? ESCAPE '\\' OR album LIKE ? ESCAPE '\\')")
+      args.add(pattern)
+      args.add(pattern)
+      args.add(pattern)
+    }
+    val where = if (clauses.isEmpty()) "" else " WHERE " + clauses.joinToString(" AND ")
+    return where to args.toTypedArray()
+  }
+
+  fun orderBy(): String {
+    val column = when (sort) {
+      "artist" -> "artist COLLATE NOCASE"
+      "album" -> "album COLLATE NOCASE"
+      "duration" -> "duration"
+      "path" -> "path"
+      else -> "title COLLATE NOCASE"
+    }
+    val direction = if (descending) "DESC" else "ASC"
+    return "$column $direction, id $direction"
+  }
+
+  companion object {
+    // { sort?, descending?, filter?: { artist?, album?, folder?, text? } }
+    fun fromMap(options: ReadableMap?): TrackQuery {
+      val filter = if (options != null && options.hasKey("filter") && !options.isNull("filter")) options.getMap("filter") else null
+      return TrackQuery(
+        sort = options?.optString("sort") ?: "title",
+        descending = options != null && options.hasKey("descending") && options.getBoolean("descending"),
+        artist = filter?.optString("artist"),
+        album = filter?.optString("album"),
+        folder = filter?.optString("folder"),
+        text = filter?.optString("text")
+      )
+    }
+
+    private fun ReadableMap.optString(key: String): String? =
+      if (hasKey(key) && !isNull(key)) getString(key) else null
+  }
+}
@@ -0,0 +1,55 @@
+package com.mlap
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.text.Normalizer
+
+/**
+ * Query side of the track_search FTS table: turns what the user typed into a
+ * prefix MATCH expression, and scores rows from their matchinfo('x') blob.
+ * The table's unicode61 tokenizer folds case and diacritics when indexing;
+ * queries are folded the same way here.
+ */
+object TrackSearch {
+
+  // Column order of track_search; a hit in the title outweighs one in the path
+  private val COLUMN_WEIGHTS = intArrayOf(8, 4, 3, 1)
+  private val COMBINING_MARKS = Regex("\\p{Mn}+")
+
+  /** Lowercased, diacritic-free word tokens of the query. */
+  fun tokens(query: String): List<String> {
+    val folded = COMBINING_MARKS.replace(Normalizer.normalize(query, Normalizer.Form.NFD), "").lowercase()
+    val tokens = ArrayList<String>()
+    var start = -1
+    for (i in 0..folded.length) {
+      val wordChar = i < folded.length && folded[i].isLetterOrDigit()
+      if (wordChar && start < 0) start = i
+      if (!wordChar && start >= 0) {
+        tokens.add(folded.substring(start, i))
+        start = -1
+      }
+    }
+    return tokens
+  }
+
+  /** Every token as a prefix term (implicitly ANDed), or null when there is nothing to match. */
+  fun matchExpression(query: String): String? {
+    val tokens = tokens(query)
+    if (tokens.isEmpty()) return null
+    return tokens.joinToString(" ") { "$it*" }
+  }
+
+  /** Weighted count of in-row hits; matchinfo 'x' holds 3 ints per phrase and column. */
+  fun score(matchinfo: ByteArray, phrases: Int): Int {
+    val ints = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder()).asIntBuffer()
+    val columns = COLUMN_WEIGHTS.size
+    var score = 0
+    for (p in 0 until phrases) {
+      for (c in 0 until columns) {
+        val offset = 3 * (p * columns + c)
+        if (offset < ints.limit()) score += COLUMN_WEIGHTS[c] * ints.get(offset)
+      }
+    }
+    return score
+  }
+}
@@ -0,0 +1,134 @@
+package com.mlap
+
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.file.Files
+import kotlin.random.Random
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Before
+import org.junit.Test
+
+class DuplicateFinderTest {
+
+  private lateinit var dir: File
+  private val finder = DuplicateFinder()
+  private val audio = Random(7).nextBytes(10_000)
+
+  @Before
+  fun setUp() {
+    dir = Files.createTempDirectory("duplicates").toFile()
+  }
+
+  @After
+  fun tearDown() {
+    dir.deleteRecursively()
+  }
+
+  private fun file(name: String, vararg parts: ByteArray): String {
+    val f = File(dir, name)
+    f.writeBytes(parts.fold(ByteArray(0)) { acc, b -> acc + b })
+    return f.path
+  }
+
+  private fun assertSpan(offset: Long, length: Long, path: String) {
+    val span = finder.span(path)
+    assertEquals(offset, span.offset)
+    assertEquals(length, span.length)
+  }
+
+  // ID3v2 header with a synchsafe size, optionally flagged as followed by a footer
+  private fun id3v2(bodySize: Int, footer: Boolean = false): ByteArray {
+    val tag = ByteArray(10 + bodySize + if (footer) 10 else 0)
+    "ID3".toByteArray().copyInto(tag)
+    tag[3] = 4
+    tag[5] = if (footer) 0x10 else 0
+    for (i in 0 until 4) tag[6 + i] = ((bodySize shr (7 * (3 - i))) and 0x7f).toByte()
+    return tag
+  }
+
+  private fun id3v1(): ByteArray = ByteArray(128).also { "TAG".toByteArray().copyInto(it) }
+
+  // APEv2 footer; size counts items plus footer, the header comes on top
+  private fun ape(items: Int, header: Boolean): ByteArray {
+    val footer = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN)
+      .put("APETAGEX".toByteArray()).putInt(2000).putInt(items + 32).putInt(1)
+      .putInt(if (header) 0x80000000.toInt() else 0).putLong(0).array()
+    return (if (header) ByteArray(32) else ByteArray(0)) + ByteArray(items) + footer
+  }
+
+  private fun flacHeader(vararg blockSizes: Int): ByteArray {
+    var out = "fLaC".toByteArray()
+    blockSizes.forEachIndexed { i, size ->
+      val last = if (i == blockSizes.lastIndex) 0x80 else 0
+      out += byteArrayOf(last.toByte(), (size shr 16).toByte(), (size shr 8).toByte(), size.toByte()) + ByteArray(size)
+    }
+    return out
+  }
+
+  @Test
+  fun untaggedFileIsAllPayload() {
+    assertSpan(0, audio.size.toLong(), file("a.mp3", audio))
+  }
+
+  @Test
+  fun stackedId3v2TagsAndFootersAreSkipped() {
+    val first = id3v2(100)
+    val second = id3v2(50, footer = true)
+    assertSpan((first.size + second.size).toLong(), audio.size.toLong(), file("a.mp3", first, second, audio))
+  }
+
+  @Test
+  fun flacMetadataBlocksAreSkipped() {
+    val header = flacHeader(34, 200, 1000)
+    assertSpan(header.size.toLong(), audio.size.toLong(), file("a.flac", header, audio))
+  }
+
+  @Test
+  fun id3BeforeFlacIsSkippedToo() {
+    val tag = id3v2(30)
+    val header = flacHeader(34)
+    assertSpan((tag.size + header.size).toLong(), audio.size.toLong(), file("a.flac", tag, header, audio))
+  }
+
+  @Test
+  fun trailingId3v1AndApeAreCut() {
+    assertSpan(0, audio.size.toLong(), file("a.mp3", audio, id3v1()))
+    assertSpan(0, audio.size.toLong(), file("b.mp3", audio, ape(300, header = true)))
+    assertSpan(0, audio.size.toLong(), file("c.mp3", audio, ape(300, header = false)))
+    // APE sits before ID3v1 when both are present
+    assertSpan(0, audio.size.toLong(), file("d.mp3", audio, ape(100, header = true), id3v1()))
+  }
+
+  @Test
+  fun tagSizesPastTheFileAreClamped() {
+    val span = finder.span(file("a.mp3", id3v2(1_000_000).copyOf(20)))
+    assertEquals(20L, span.offset)
+    assertEquals(0L, span.length)
+  }
+
+  @Test
+  fun copiesDifferingOnlyInTagsHashAlike() {
+    val plain = file("a.mp3", audio)
+    val tagged = file("b.mp3", id3v2(400, footer = true), audio, ape(64, header = true), id3v1())
+    val plainSpan = finder.span(plain)
+    val taggedSpan = finder.span(tagged)
+    assertEquals(finder.partialHash(plain, plainSpan), finder.partialHash(tagged, taggedSpan))
+    assertEquals(finder.fullHash(plain, plainSpan), finder.fullHash(tagged, taggedSpan))
+  }
+
+  @Test
+  fun partialHashOnlyLooksAtTheEnds() {
+    val size = (DuplicateFinder.PARTIAL_BYTES * 3).toInt()
+    val a = Random(1).nextBytes(size)
+    val b = a.copyOf().also { it[size / 2] = (it[size / 2] + 1).toByte() }
+    val pathA = file("a.mp3", a)
+    val pathB = file("b.mp3", b)
+    val spanA = finder.span(pathA)
+    val spanB = finder.span(pathB)
+    assertEquals(finder.partialHash(pathA, spanA), finder.partialHash(pathB, spanB))
+    assertNotEquals(finder.fullHash(pathA, spanA), finder.fullHash(pathB, spanB))
+  }
+}
@@ -0,0 +1,150 @@
+package com.mlap
+
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.file.Files
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+
+class DurationProberTest {
+
+  private lateinit var dir: File
+  private val prober = DurationProber()
+
+  @Before
+  fun setUp() {
+    dir = Files.createTempDirectory("probe").toFile()
+  }
+
+  @After
+  fun tearDown() {
+    dir.deleteRecursively()
+  }
+
+  private fun probe(name: String, bytes: ByteArray): ProbeResult? {
+    val file = File(dir, name).also { it.writeBytes(bytes) }
+    return prober.probe(file.path)
+  }
+
+  private fun bytes(size: Int, order: ByteOrder = ByteOrder.BIG_ENDIAN, fill: ByteBuffer.() -> Unit): ByteArray =
+    ByteBuffer.allocate(size).order(order).apply(fill).array()
+
+  private fun ByteBuffer.ascii(s: String): ByteBuffer = put(s.toByteArray(Charsets.US_ASCII))
+
+  // MPEG-1 Layer III, 128 kbps, 44.1 kHz, stereo, no padding: 417 bytes per frame
+  private fun mp3Frame(): ByteArray = ByteArray(417).also {
+    it[0] = 0xff.toByte()
+    it[1] = 0xfb.toByte()
+    it[2] = 0x90.toByte()
+  }
+
+  private fun cbrMp3(frames: Int): ByteArray {
+    val out = ByteArrayOutputStream()
+    repeat(frames) { out.write(mp3Frame()) }
+    return out.toByteArray()
+  }
+
+  @Test
+  fun cbrMp3TakesTheRestOfTheFileAtTheFrameRate() {
+    // 100 frames * 417 bytes at 128 kbps
+    assertEquals(ProbeResult(41_700L * 8000 / 128_000, 128_000, 44100), probe("a.mp3", cbrMp3(100)))
+  }
+
+  @Test
+  fun id3TagIsSkipped() {
+    val tag = bytes(10 + 300) {
+      ascii("ID3").put(4).put(0).put(0)
+      put(0).put(0).put(2).put(0x2c) // syncsafe 300
+    }
+    val audio = cbrMp3(100)
+    assertEquals(ProbeResult(41_700L * 8000 / 128_000, 128_000, 44100), probe("a.mp3", tag + audio))
+  }
+
+  @Test
+  fun xingHeaderGivesFramesAndBytes() {
+    val first = mp3Frame()
+    // Xing sits after the 4-byte header and 32 bytes of stereo MPEG-1 side info
+    ByteBuffer.wrap(first, 36, 16).ascii("Xing").putInt(3).putInt(1000).putInt(400_000)
+    val durationMs = 1000L * 1152 * 1000 / 44100
+    val result = probe("v.mp3", first + cbrMp3(10))
+    assertEquals(ProbeResult(durationMs, (400_000L * 8000 / durationMs).toInt(), 44100), result)
+  }
+
+  @Test
+  fun garbageBeforeTheFirstRealFrameIsSkipped() {
+    // A lone sync-looking byte pair not followed by another frame is not a frame
+    val junk = byteArrayOf(0, 0xff.toByte(), 0xfb.toByte(), 0x90.toByte(), 0, 0, 0)
+    val result = probe("j.mp3", junk + cbrMp3(20))
+    assertEquals(ProbeResult((20L * 417) * 8000 / 128_000, 128_000, 44100), result)
+  }
+
+  @Test
+  fun flacStreamInfo() {
+    val flac = bytes(8 + 34) {
+      ascii("fLaC")
+      put(0x80.toByte()).put(0).put(0).put(34) // last block, STREAMINFO, 34 bytes
+      position(8 + 10)
+      // 44100 Hz (20 bits), 2 channels, 16 bits, 441000 samples (36 bits)
+      putLong((44100L shl 44) or (1L shl 41) or (15L shl 36) or 441_000L)
+    }
+    assertEquals(ProbeResult(10_000, 0, 44100), probe("a.flac", flac))
+  }
+
+  @Test
+  fun wavFmtAndDataChunks() {
+    val wav = bytes(44, ByteOrder.LITTLE_ENDIAN) {
+      ascii("RIFF").putInt(36 + 352_800).ascii("WAVE")
+      ascii("fmt ").putInt(16).putShort(1).putShort(2).putInt(44100).putInt(176_400).putShort(4).putShort(16)
+      ascii("data").putInt(352_800)
+    }
+    assertEquals(ProbeResult(2000, 176_400 * 8, 44100), probe("a.wav", wav))
+  }
+
+  private fun oggPage(headerType: Int, granule: Long, packet: ByteArray): ByteArray =
+    bytes(27 + 1 + packet.size, ByteOrder.LITTLE_ENDIAN) {
+      ascii("OggS").put(0).put(headerType.toByte()).putLong(granule)
+      putInt(1).putInt(0).putInt(0)
+      put(1).put(packet.size.toByte()).put(packet)
+    }
+
+  @Test
+  fun vorbisDurationComesFromTheLastGranule() {
+    val ident = bytes(30, ByteOrder.LITTLE_ENDIAN) { put(1).ascii("vorbis").putInt(0).put(2).putInt(44100) }
+    val file = oggPage(2, 0, ident) + ByteArray(1000) + oggPage(4, 441_000, ByteArray(10))
+    assertEquals(ProbeResult(10_000, (file.size.toLong() * 8000 / 10_000).toInt(), 44100), probe("a.ogg", file))
+  }
+
+  @Test
+  fun opusSubtractsPreSkipAt48kHz() {
+    val head = bytes(19, ByteOrder.LITTLE_ENDIAN) { ascii("OpusHead").put(1).put(2).putShort(312).putInt(44100) }
+    val file = oggPage(2, 0, head) + ByteArray(1000) + oggPage(4, 48_000L * 5 + 312, ByteArray(10))
+    assertEquals(ProbeResult(5000, (file.size.toLong() * 8000 / 5000).toInt(), 48000), probe("a.opus", file))
+  }
+
+  private fun box(type: String, vararg children: ByteArray): ByteArray {
+    val payload = children.fold(ByteArray(0)) { acc, b -> acc + b }
+    return bytes(8 + payload.size) { putInt(8 + payload.size).ascii(type).put(payload) }
+  }
+
+  @Test
+  fun mp4DurationFromMvhdAndRateFromTheSoundTrack() {
+    val ftyp = box("ftyp", bytes(8) { ascii("M4A ").putInt(0) })
+    val mvhd = box("mvhd", bytes(20) { putInt(0).putInt(0).putInt(0).putInt(1000).putInt(123_456) })
+    val hdlr = box("hdlr", bytes(12) { putInt(0).putInt(0).ascii("soun") })
+    val mdhd = box("mdhd", bytes(20) { putInt(0).putInt(0).putInt(0).putInt(44100).putInt(44100 * 123) })
+    val moov = box("moov", mvhd, box("trak", box("mdia", hdlr, mdhd)))
+    val file = ftyp + moov
+    assertEquals(ProbeResult(123_456, (file.size.toLong() * 8000 / 123_456).toInt(), 44100), probe("a.m4a", file))
+  }
+
+  @Test
+  fun unknownOrTinyFilesGiveNothing() {
+    assertNull(probe("tiny.mp3", ByteArray(8)))
+    assertNull(probe("zeros.mp3", ByteArray(4096)))
+  }
+}
@@ -0,0 +1,160 @@
+package com.mlap
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class PlayerStateStoreTest {
+
+  private lateinit var dir: File
+
+  @Before
+  fun setUp() {
+    dir = Files.createTempDirectory("player_state").toFile()
+  }
+
+  @After
+  fun tearDown() {
+    dir.deleteRecursively()
+  }
+
+  private fun reopen(): PlayerStateStore = PlayerStateStore(dir).also { it.load() }
+
+  @Test
+  fun emptyDirectoryLoadsNothing() {
+    assertFalse(PlayerStateStore(dir).load())
+  }
+
+  @Test
+  fun journalReplaysEveryKindOfRecord() {
+    val store = PlayerStateStore(dir)
+    store.load()
+    store.setQueue("queue1", listOf("a", "b", "c"))
+    store.setQueue("queue1", listOf("a", "x", "c", "d"))
+    store.setCurrent("queue1", "x", 1500)
+    store.setPosition("queue1", 2500)
+    store.setVolume("queue1", 0.5f)
+    store.setModes("queue1", true, PlayerStateStore.LOOP_ONE)
+    store.close()
+
+    val state = reopen().queues.getValue("queue1")
+    assertEquals(listOf("a", "x", "c", "d"), state.trackIds)
+    assertEquals("x", state.currentTrackId)
+    assertEquals(2500L, state.position)
+    assertEquals(0.5f, state.volume)
+    assertTrue(state.shuffle)
+    assertEquals(PlayerStateStore.LOOP_ONE, state.loopMode)
+  }
+
+  @Test
+  fun compactedStateSurvivesReload() {
+    val store = PlayerStateStore(dir)
+    store.load()
+    store.setQueue("queue1", listOf("a", "b"))
+    store.setCurrent("queue1", null, 0)
+    store.compact()
+    store.setQueue("queue2", listOf("c"))
+    store.close()
+
+    val loaded = reopen()
+    assertEquals(listOf("a", "b"), loaded.queues.getValue("queue1").trackIds)
+    assertNull(loaded.queues.getValue("queue1").currentTrackId)
+    assertEquals(listOf("c"), loaded.queues.getValue("queue2").trackIds)
+  }
+
+  @Test
+  fun journalLeftBehindByCompactionIsNotReplayedTwice() {
+    val store = PlayerStateStore(dir)
+    store.load()
+    store.setQueue("queue1", listOf("a", "b"))
+    store.setQueue("queue1", listOf("a", "b", "c"))
+    store.close()
+    val journal = File(dir, "player_state.journal")
+    val oldJournal = journal.readBytes()
+
+    // Crash after the snapshot rename, before the journal delete
+    store.load()
+    store.compact()
+    journal.writeBytes(oldJournal)
+
+    val loaded = reopen()
+    assertEquals(listOf("a", "b", "c"), loaded.queues.getValue("queue1").trackIds)
+    assertFalse(journal.exists())
+  }
+
+  @Test
+  fun tornTailIsCutAndEarlierRecordsKept() {
+    val store = PlayerStateStore(dir)
+    store.load()
+    store.setQueue("queue1", listOf("a"))
+    store.setPosition("queue1", 100)
+    store.close()
+    val journal = File(dir, "player_state.journal")
+    val intact = journal.length()
+    RandomAccessFile(journal, "rw").use { it.setLength(intact - 3) }
+
+    val loaded = reopen()
+    assertEquals(listOf("a"), loaded.queues.getValue("queue1").trackIds)
+    assertEquals(0L, loaded.queues.getValue("queue1").position)
+    assertTrue(journal.length() < intact - 3)
+  }
+
+  @Test
+  fun activeQueueSurvivesJournalAndCompaction() {
+    val store = PlayerStateStore(dir)
+    store.load()
+    store.setQueue("queue1", listOf("a"))
+    store.setQueue("queue2", listOf("b"))
+    store.setActive("queue2")
+    store.close()
+    assertEquals("queue2", reopen().activeQueueId)
+
+    val compacted = reopen()
+    compacted.compact()
+    compacted.close()
+    assertEquals("queue2", reopen().activeQueueId)
+  }
+
+  @Test
+  fun readOnlyLoadLeavesTornTailInPlace() {
+    val store = PlayerStateStore(dir)
+    store.load()
+    store.setQueue("queue1", listOf("a"))
+    store.setActive("queue1")
+    store.setPosition("queue1", 100)
+    store.close()
+    val journal = File(dir, "player_state.journal")
+    RandomAccessFile(journal, "rw").use { it.setLength(journal.length() - 3) }
+    val torn = journal.length()
+
+    val loaded = PlayerStateStore(dir)
+    assertTrue(loaded.load(repair = false))
+    assertEquals("queue1", loaded.activeQueueId)
+    assertEquals(listOf("a"), loaded.queues.getValue("queue1").trackIds)
+    assertEquals(torn, journal.length())
+  }
+
+  @Test
+  fun clearDropsEverything() {
+    val store = PlayerStateStore(dir)
+    store.load()
+    store.setQueue("queue1", listOf("a"))
+    store.setActive("queue1")
+    store.compact()
+    store.clear()
+    store.setQueue("queue2", listOf("b"))
+    store.close()
+
+    val loaded = reopen()
+    assertNull(loaded.activeQueueId)
+    assertFalse("queue1" in loaded.queues)
+    assertEquals(listOf("b"), loaded.queues.getValue("queue2").trackIds)
+  }
+}
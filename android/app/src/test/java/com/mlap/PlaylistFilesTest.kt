@@ -0,0 +1,111 @@
+package com.mlap
+
+import java.io.File
+import java.io.StringWriter
+import java.nio.file.Files
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+// file:// locations go through android.net.Uri, which is stubbed out in local tests
+class PlaylistFilesTest {
+
+  private lateinit var dir: File
+
+  @Before
+  fun setUp() {
+    dir = Files.createTempDirectory("playlists").toFile()
+  }
+
+  @After
+  fun tearDown() {
+    dir.deleteRecursively()
+  }
+
+  private fun read(name: String, text: String): Pair<List<Pair<String, String?>>, Int> {
+    val file = File(dir, name).also { it.writeText(text) }
+    val entries = ArrayList<Pair<String, String?>>()
+    val skipped = PlaylistFiles.read(file) { path, title -> entries.add(path to title) }
+    return entries to skipped
+  }
+
+  @Test
+  fun m3uTitlesApplyToTheNextLocationOnly() {
+    val (entries, skipped) = read(
+      "list.m3u8",
+      "\uFEFF#EXTM3U\n#EXTINF:215,Artist - Song\n/music/a.mp3\n\n# a comment\n/music/b.flac\n"
+    )
+    assertEquals(listOf("/music/a.mp3" to "Artist - Song", "/music/b.flac" to null), entries)
+    assertEquals(0, skipped)
+  }
+
+  @Test
+  fun plainM3uWithoutHeader() {
+    val (entries, _) = read("list.m3u", "/music/a.mp3\r\n/music/b.mp3\r\n")
+    assertEquals(listOf("/music/a.mp3" to null, "/music/b.mp3" to null), entries)
+  }
+
+  @Test
+  fun relativeLocationsResolveAgainstThePlaylistFolder() {
+    val (entries, _) = read("list.m3u", "a.mp3\nsub/./b.mp3\n../c.mp3\n")
+    val base = dir.absolutePath
+    assertEquals(
+      listOf("$base/a.mp3", "$base/sub/b.mp3", "${dir.absoluteFile.parent}/c.mp3"),
+      entries.map { it.first }
+    )
+  }
+
+  @Test
+  fun windowsSeparatorsAreTurnedAroundAndDrivesKept() {
+    val (entries, _) = read("list.m3u", "Album\\01 Song.mp3\nC:\\Music\\02 Song.mp3\n")
+    assertEquals(listOf("${dir.absolutePath}/Album/01 Song.mp3", "C:/Music/02 Song.mp3"), entries.map { it.first })
+  }
+
+  @Test
+  fun streamsAreSkippedAndCounted() {
+    val (entries, skipped) = read("list.m3u", "http://radio.example/stream\n/music/a.mp3\nrtsp://cam.example/live\n")
+    assertEquals(listOf("/music/a.mp3" to null), entries)
+    assertEquals(2, skipped)
+  }
+
+  @Test
+  fun plsFieldsGroupByNumberInAnyOrder() {
+    val (entries, skipped) = read(
+      "list.pls",
+      "[playlist]\nTitle1=First\nFile1=/music/a.mp3\nLength1=100\n" +
+        "File2=/music/b.mp3\nFile3=http://radio.example/\nTitle3=Radio\n" +
+        "NumberOfEntries=3\nVersion=2\n"
+    )
+    assertEquals(listOf("/music/a.mp3" to "First", "/music/b.mp3" to null), entries)
+    assertEquals(1, skipped)
+  }
+
+  @Test
+  fun plsIsDetectedByHeaderWhateverTheExtension() {
+    val (entries, _) = read("list.txt", "[Playlist]\nFile1=a.mp3\n")
+    assertEquals(listOf("${dir.absolutePath}/a.mp3" to null), entries)
+  }
+
+  @Test
+  fun writtenM3uReadsBack() {
+    val out = StringWriter()
+    PlaylistFiles.writeM3uHeader(out)
+    PlaylistFiles.writeM3uEntry(out, "/music/a.mp3", "Song", "Artist", 215_000)
+    PlaylistFiles.writeM3uEntry(out, "/music/b.mp3", null, null, 0)
+    assertEquals("#EXTM3U\n#EXTINF:215,Artist - Song\n/music/a.mp3\n/music/b.mp3\n", out.toString())
+    val (entries, _) = read("out.m3u8", out.toString())
+    assertEquals(listOf("/music/a.mp3" to "Artist - Song", "/music/b.mp3" to null), entries)
+  }
+
+  @Test
+  fun writtenPlsReadsBack() {
+    val out = StringWriter()
+    PlaylistFiles.writePlsHeader(out)
+    PlaylistFiles.writePlsEntry(out, 1, "/music/a.mp3", "Song", 0)
+    PlaylistFiles.writePlsEntry(out, 2, "/music/b.mp3", null, 61_000)
+    PlaylistFiles.writePlsFooter(out, 2)
+    val (entries, _) = read("out.pls", out.toString())
+    assertEquals(listOf("/music/a.mp3" to "Song", "/music/b.mp3" to null), entries)
+  }
+}
@@ -0,0 +1,50 @@
+package com.mlap
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PlaylistPositionsTest {
+
+  @Test
+  fun appendsAreOneGapApart() {
+    val first = PlaylistPositions.after(0)
+    assertEquals(PlaylistPositions.GAP, first)
+    assertEquals(2 * PlaylistPositions.GAP, PlaylistPositions.after(first))
+  }
+
+  @Test
+  fun moveTakesTheMidpoint() {
+    val gap = PlaylistPositions.GAP
+    assertEquals(gap + gap / 2, PlaylistPositions.between(gap, 2 * gap))
+    // To the front: between nothing (0) and the first entry
+    assertEquals(gap / 2, PlaylistPositions.between(0, gap))
+  }
+
+  @Test
+  fun aGapLastsSixteenInsertsInOneSpot() {
+    var next = 2 * PlaylistPositions.GAP
+    val previous = PlaylistPositions.GAP
+    repeat(16) {
+      val middle = PlaylistPositions.between(previous, next)
+      assertNotNull(middle)
+      assertTrue(middle!! > previous && middle < next)
+      next = middle
+    }
+    assertNull(PlaylistPositions.between(previous, next))
+  }
+
+  @Test
+  fun adjacentPositionsNeedARenumber() {
+    assertNull(PlaylistPositions.between(5, 6))
+    assertNull(PlaylistPositions.between(5, 5))
+  }
+
+  @Test
+  fun renumberRestoresFullGaps() {
+    assertEquals(listOf(1L, 2L, 3L).map { it * PlaylistPositions.GAP }, (0..2).map { PlaylistPositions.renumbered(it) })
+    assertEquals(PlaylistPositions.after(PlaylistPositions.renumbered(0)), PlaylistPositions.renumbered(1))
+  }
+}
@@ -0,0 +1,89 @@
+package com.mlap
+
+import kotlin.math.PI
+import kotlin.math.pow
+import kotlin.math.roundToInt
+import kotlin.math.sin
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+// Reference tones from EBU Tech 3341 (1 kHz stereo sines); the spec allows +-0.1 LU
+class R128MeterTest {
+
+  private class Tone(val dbfs: Double, val seconds: Double)
+
+  private fun measure(vararg tones: Tone, sampleRate: Int = 48000, pcm16: Boolean = false): R128Meter {
+    val meter = R128Meter(sampleRate, 2)
+    var n = 0L
+    for (tone in tones) {
+      val amplitude = 10.0.pow(tone.dbfs / 20)
+      val frames = (tone.seconds * sampleRate).roundToInt()
+      val floats = FloatArray(2 * 4800)
+      val shorts = ShortArray(floats.size)
+      var done = 0
+      while (done < frames) {
+        val count = minOf(4800, frames - done)
+        for (f in 0 until count) {
+          val x = amplitude * sin(2 * PI * 1000 * n++ / sampleRate)
+          floats[2 * f] = x.toFloat()
+          floats[2 * f + 1] = x.toFloat()
+          shorts[2 * f] = (x * 32767).roundToInt().toShort()
+          shorts[2 * f + 1] = shorts[2 * f]
+        }
+        if (pcm16) meter.add(shorts, count) else meter.add(floats, count)
+        done += count
+      }
+    }
+    return meter
+  }
+
+  private fun assertLoudness(expected: Double, meter: R128Meter) {
+    val loudness = meter.integratedLoudness()
+    assertNotNull(loudness)
+    assertEquals(expected, loudness!!, 0.1)
+  }
+
+  @Test
+  fun case1SineAtMinus23() {
+    assertLoudness(-23.0, measure(Tone(-23.0, 20.0)))
+  }
+
+  @Test
+  fun case2SineAtMinus33() {
+    assertLoudness(-33.0, measure(Tone(-33.0, 20.0)))
+  }
+
+  @Test
+  fun case3QuietPartsFallBelowTheRelativeGate() {
+    assertLoudness(-23.0, measure(Tone(-36.0, 10.0), Tone(-23.0, 60.0), Tone(-36.0, 10.0)))
+  }
+
+  @Test
+  fun case5LoudAndQuietPartsAverage() {
+    assertLoudness(-23.0, measure(Tone(-26.0, 20.1), Tone(-20.0, 20.1), Tone(-26.0, 20.1)))
+  }
+
+  @Test
+  fun otherSampleRatesUseTheSameWeighting() {
+    assertLoudness(-23.0, measure(Tone(-23.0, 20.0), sampleRate = 44100))
+  }
+
+  @Test
+  fun sixteenBitInput() {
+    assertLoudness(-23.0, measure(Tone(-23.0, 20.0), pcm16 = true))
+  }
+
+  @Test
+  fun peakIsTheLargestSample() {
+    assertEquals(10.0.pow(-20.0 / 20), measure(Tone(-20.0, 1.0)).peak, 1e-4)
+  }
+
+  @Test
+  fun silenceHasNoLoudness() {
+    assertNull(measure(Tone(-120.0, 5.0)).integratedLoudness())
+    // Shorter than one 400 ms block
+    assertNull(measure(Tone(-23.0, 0.3)).integratedLoudness())
+  }
+}
@@ -0,0 +1,206 @@
+package com.mlap.bench
+
+import com.facebook.react.bridge.JavaOnlyMap
+import com.mlap.FileWalker
+import com.mlap.LibraryGroups
+import com.mlap.MediaScannerModule
+import com.mlap.PlayerStateStore
+import com.mlap.TrackQuery
+import java.nio.file.Files
+import kotlin.random.Random
+
+/**
+ * The benchmark suite: the paths that dominate a cold start (MediaStore rows to
+ * tracks to bridge maps, scan selections, extension and folder filters, library
+ * grouping, player-state journal and snapshot). Sized benchmarks run once per
+ * library size; one op is a full pass over the library.
+ *
+ * Run through Gradle with -Pbench[=regex] (see app/build.gradle), or directly
+ * with the test class path; forks re-enter main with Harness.CHILD_FLAG.
+ */
+object BenchmarkMain {
+
+  private const val QUEUE_ID = "main"
+
+  fun all(sizes: List<Int>): List<Benchmark> {
+    val sized = listOf<Pair<String, (Int) -> Fixture>>(
+      "scanner.readRow" to this::readRows,
+      "scanner.toMap" to this::toMaps,
+      "paths.walkerExtension" to this::walkerExtension,
+      "paths.supportedExtension" to this::supportedExtension,
+      "paths.isLibraryPath" to this::libraryPath,
+      "groups.build" to this::buildGroups,
+      "state.setQueue" to this::setQueue,
+      "state.compact" to this::compact,
+      "state.load" to this::load
+    )
+    val unsized = listOf(
+      Benchmark("scanner.changedSelection", 0) { changedSelection() },
+      Benchmark("query.whereClause", 0) { whereClause() }
+    )
+    return unsized + sized.flatMap { (name, setup) -> sizes.map { Benchmark(name, it, setup) } }
+  }
+
+  @JvmStatic
+  fun main(args: Array<String>) {
+    if (args.size == 5 && args[0] == Harness.CHILD_FLAG) {
+      val id = args[1]
+      val size = id.substringAfter('@', "0").toInt()
+      val benchmark = all(listOf(size)).firstOrNull { it.id == id } ?: error("Unknown benchmark $id")
+      Harness.runChild(benchmark, args[2].toInt(), args[3].toInt(), args[4].toLong())
+      return
+    }
+    val options = Harness.Options.fromSystemProperties()
+    Harness(options).runAll(all(options.sizes))
+  }
+
+  private fun readRows(size: Int): Fixture {
+    val cursor = SyntheticLibrary(size).cursor()
+    return Fixture {
+      cursor.reset()
+      val cols = MediaScannerModule.Columns(cursor)
+      var kept = 0
+      while (cursor.moveToNext()) {
+        if (MediaScannerModule.readRow(cursor, cols) != null) kept++
+      }
+      kept
+    }
+  }
+
+  // JavaOnlyMap stands in for WritableNativeMap, which needs the native bridge
+  private fun toMaps(size: Int): Fixture {
+    val tracks = SyntheticLibrary(size).tracks()
+    val out = ArrayList<Any>(tracks.size)
+    return Fixture {
+      out.clear()
+      for (track in tracks) {
+        val map = JavaOnlyMap()
+        track.writeTo(map)
+        out.add(map)
+      }
+      out.size
+    }
+  }
+
+  private fun walkerExtension(size: Int): Fixture {
+    val names = SyntheticLibrary(size).paths.map { it.substringAfterLast('/') }.toTypedArray()
+    val walker = FileWalker(MediaScannerModule.SUPPORTED_EXTS, emptyList()) {}
+    return Fixture { names.count { walker.matchesExtension(it) } }
+  }
+
+  private fun supportedExtension(size: Int): Fixture {
+    val paths = SyntheticLibrary(size).paths.toTypedArray()
+    return Fixture { paths.count { MediaScannerModule.hasSupportedExtension(it) } }
+  }
+
+  private fun libraryPath(size: Int): Fixture {
+    val paths = SyntheticLibrary(size).paths.toTypedArray()
+    return Fixture { paths.count { MediaScannerModule.isLibraryPath(it) } }
+  }
+
+  private fun buildGroups(size: Int): Fixture {
+    val tracks = SyntheticLibrary(size).tracks()
+    return Fixture {
+      val groups = LibraryGroups.of(tracks)
+      groups.albums.size + groups.artists.size + groups.commonRoot.trackCount
+    }
+  }
+
+  private fun changedSelection(): Fixture {
+    val marker = MediaScannerModule.SyncMarker(
+      listOf(
+        MediaScannerModule.VolumeMarker("external_primary", "1a2b3c4d", 48_213),
+        MediaScannerModule.VolumeMarker("1234-abcd", "9e8f7a6b", 1_027)
+      ),
+      null,
+      0
+    )
+    val token = marker.encode()
+    return Fixture {
+      val since = MediaScannerModule.SyncMarker.parse(token)!!
+      val (selection, args) = marker.changedSelection(since)
+      val (full, fullArgs) = MediaScannerModule.audioSelection(selection, args)
+      full.length + fullArgs.size + since.encode().length
+    }
+  }
+
+  private fun whereClause(): Fixture {
+    val query = TrackQuery(sort = "artist", artist = "Artist Nova 13", text = "100% pure_love")
+    return Fixture {
+      val (where, args) = query.whereClause()
+      where.length + args.size + query.orderBy().length
+    }
+  }
+
+  // One drag-reorder of the queue plus the current-track change, as the player persists them
+  private fun setQueue(size: Int): Fixture {
+    val dir = Files.createTempDirectory("mlap-bench-state").toFile()
+    val store = PlayerStateStore(dir)
+    val ids = ArrayList(SyntheticLibrary(size).tracks().map { it.id })
+    store.setQueue(QUEUE_ID, ids)
+    store.compact()
+    val random = Random(7)
+    return object : Fixture {
+      override fun op(): Int {
+        val from = random.nextInt(ids.size)
+        val to = random.nextInt(ids.size)
+        ids.add(to, ids.removeAt(from))
+        store.setQueue(QUEUE_ID, ids)
+        store.setCurrent(QUEUE_ID, ids[to], from.toLong())
+        store.flush()
+        store.compactIfNeeded()
+        return ids.size
+      }
+
+      override fun close() {
+        store.close()
+        dir.deleteRecursively()
+      }
+    }
+  }
+
+  private fun compact(size: Int): Fixture {
+    val dir = Files.createTempDirectory("mlap-bench-state").toFile()
+    val store = PlayerStateStore(dir)
+    store.setQueue(QUEUE_ID, SyntheticLibrary(size).tracks().map { it.id })
+    return object : Fixture {
+      override fun op(): Int {
+        store.compact()
+        return store.queues.size
+      }
+
+      override fun close() {
+        store.close()
+        dir.deleteRecursively()
+      }
+    }
+  }
+
+  // A snapshot plus a journal of recent edits, as found after a normal session
+  private fun load(size: Int): Fixture {
+    val dir = Files.createTempDirectory("mlap-bench-state").toFile()
+    val writer = PlayerStateStore(dir)
+    val ids = ArrayList(SyntheticLibrary(size).tracks().map { it.id })
+    writer.setQueue(QUEUE_ID, ids)
+    writer.compact()
+    val random = Random(11)
+    repeat(200) {
+      ids.add(random.nextInt(ids.size), ids.removeAt(random.nextInt(ids.size)))
+      writer.setQueue(QUEUE_ID, ids)
+      writer.setPosition(QUEUE_ID, it * 1000L)
+    }
+    writer.close()
+    val reader = PlayerStateStore(dir)
+    return object : Fixture {
+      override fun op(): Int {
+        check(reader.load())
+        return reader.queues.getValue(QUEUE_ID).trackIds.size
+      }
+
+      override fun close() {
+        reader.close()
+        dir.deleteRecursively()
+      }
+    }
+  }
+}
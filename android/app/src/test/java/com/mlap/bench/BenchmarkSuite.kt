@@ -0,0 +1,15 @@
+package com.mlap.bench
+
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+
+/** Gradle entry point for the benchmarks; skipped unless -Pbench is given. */
+class BenchmarkSuite {
+
+  @Test
+  fun run() {
+    assumeTrue("pass -Pbench to run the benchmarks", System.getProperty("bench") != null)
+    val options = Harness.Options.fromSystemProperties()
+    Harness(options).runAll(BenchmarkMain.all(options.sizes))
+  }
+}
@@ -0,0 +1,98 @@
+package com.mlap.bench
+
+import android.content.ContentResolver
+import android.database.CharArrayBuffer
+import android.database.ContentObserver
+import android.database.Cursor
+import android.database.DataSetObserver
+import android.net.Uri
+import android.os.Bundle
+
+/**
+ * In-memory stand-in for a MediaStore cursor: fixed columns over prepared rows,
+ * forward and random positioning, and the typed getters the scanner uses.
+ * Everything else is unsupported. reset() rewinds it for the next pass.
+ */
+class FakeCursor(private val columns: Array<String>, private val rows: Array<Array<Any?>>) : Cursor {
+
+  private var position = -1
+  private var closed = false
+
+  fun reset() {
+    position = -1
+    closed = false
+  }
+
+  private fun value(column: Int): Any? = rows[position][column]
+
+  override fun getCount(): Int = rows.size
+  override fun getPosition(): Int = position
+  override fun move(offset: Int): Boolean = moveToPosition(position + offset)
+
+  override fun moveToPosition(position: Int): Boolean {
+    this.position = position.coerceIn(-1, rows.size)
+    return this.position in rows.indices
+  }
+
+  override fun moveToFirst(): Boolean = moveToPosition(0)
+  override fun moveToLast(): Boolean = moveToPosition(rows.size - 1)
+  override fun moveToNext(): Boolean = moveToPosition(position + 1)
+  override fun moveToPrevious(): Boolean = moveToPosition(position - 1)
+  override fun isFirst(): Boolean = rows.isNotEmpty() && position == 0
+  override fun isLast(): Boolean = rows.isNotEmpty() && position == rows.size - 1
+  override fun isBeforeFirst(): Boolean = rows.isEmpty() || position == -1
+  override fun isAfterLast(): Boolean = rows.isEmpty() || position == rows.size
+
+  override fun getColumnIndex(columnName: String): Int = columns.indexOf(columnName)
+
+  override fun getColumnIndexOrThrow(columnName: String): Int {
+    val index = columns.indexOf(columnName)
+    require(index >= 0) { "column '$columnName' does not exist" }
+    return index
+  }
+
+  override fun getColumnName(columnIndex: Int): String = columns[columnIndex]
+  override fun getColumnNames(): Array<String> = columns
+  override fun getColumnCount(): Int = columns.size
+
+  override fun getString(columnIndex: Int): String? = value(columnIndex)?.toString()
+  override fun getLong(columnIndex: Int): Long = (value(columnIndex) as? Number)?.toLong() ?: 0L
+  override fun getInt(columnIndex: Int): Int = (value(columnIndex) as? Number)?.toInt() ?: 0
+  override fun getShort(columnIndex: Int): Short = getInt(columnIndex).toShort()
+  override fun getFloat(columnIndex: Int): Float = getDouble(columnIndex).toFloat()
+  override fun getDouble(columnIndex: Int): Double = (value(columnIndex) as? Number)?.toDouble() ?: 0.0
+  override fun getBlob(columnIndex: Int): ByteArray? = value(columnIndex) as? ByteArray
+  override fun isNull(columnIndex: Int): Boolean = value(columnIndex) == null
+
+  override fun getType(columnIndex: Int): Int = when (value(columnIndex)) {
+    null -> Cursor.FIELD_TYPE_NULL
+    is Long, is Int -> Cursor.FIELD_TYPE_INTEGER
+    is Float, is Double -> Cursor.FIELD_TYPE_FLOAT
+    is ByteArray -> Cursor.FIELD_TYPE_BLOB
+    else -> Cursor.FIELD_TYPE_STRING
+  }
+
+  override fun close() {
+    closed = true
+  }
+
+  override fun isClosed(): Boolean = closed
+
+  override fun copyStringToBuffer(columnIndex: Int, buffer: CharArrayBuffer?) = unsupported()
+  @Deprecated("Deprecated in Cursor")
+  override fun deactivate() = unsupported()
+  @Deprecated("Deprecated in Cursor")
+  override fun requery(): Boolean = unsupported()
+  override fun registerContentObserver(observer: ContentObserver?) {}
+  override fun unregisterContentObserver(observer: ContentObserver?) {}
+  override fun registerDataSetObserver(observer: DataSetObserver?) {}
+  override fun unregisterDataSetObserver(observer: DataSetObserver?) {}
+  override fun setNotificationUri(cr: ContentResolver?, uri: Uri?) {}
+  override fun getNotificationUri(): Uri? = null
+  override fun getWantsAllOnMoveCalls(): Boolean = false
+  override fun setExtras(extras: Bundle?) {}
+  override fun getExtras(): Bundle = unsupported()
+  override fun respond(extras: Bundle?): Bundle = unsupported()
+
+  private fun unsupported(): Nothing = throw UnsupportedOperationException("FakeCursor")
+}
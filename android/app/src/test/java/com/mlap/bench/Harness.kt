@@ -0,0 +1,197 @@
+package com.mlap.bench
+
+import java.io.File
+import java.lang.management.ManagementFactory
+import java.util.Locale
+import kotlin.math.sqrt
+
+/** One measured operation over prepared state; returns something derived from its work so it is not optimized away. */
+fun interface Fixture : AutoCloseable {
+  fun op(): Int
+
+  override fun close() {}
+}
+
+/** A named benchmark at one library size (0 when the size does not apply). */
+class Benchmark(val name: String, val size: Int, val setup: (Int) -> Fixture) {
+  val id: String get() = if (size > 0) "$name@$size" else name
+}
+
+/**
+ * JMH-style runner: each benchmark runs in forks fresh JVMs (or in-process when
+ * forks is 0), with warmup iterations discarded and measurement iterations
+ * timed. Throughput is ops/s; allocation is the measuring thread's allocated
+ * bytes divided by ops, from the HotSpot per-thread allocation counter.
+ */
+class Harness(private val options: Options) {
+
+  class Options(
+    val filter: Regex?,
+    val forks: Int,
+    val warmupIterations: Int,
+    val iterations: Int,
+    val iterationMillis: Long,
+    val sizes: List<Int>,
+    val report: File?
+  ) {
+    companion object {
+      // Gradle forwards -Pbench* properties as system properties
+      fun fromSystemProperties(): Options {
+        val filter = System.getProperty("bench")?.takeIf { it.isNotBlank() && it != "true" }
+        return Options(
+          filter = filter?.let { Regex(it) },
+          forks = intProperty("bench.forks", 2),
+          warmupIterations = intProperty("bench.warmup", 3),
+          iterations = intProperty("bench.iterations", 5),
+          iterationMillis = intProperty("bench.time", 1000).toLong(),
+          sizes = System.getProperty("bench.sizes")?.split(",")?.mapNotNull { it.trim().toIntOrNull() }
+            ?: listOf(1_000, 10_000, 100_000),
+          report = File(System.getProperty("bench.report") ?: "build/reports/benchmarks/results.csv")
+        )
+      }
+
+      private fun intProperty(key: String, default: Int): Int =
+        System.getProperty(key)?.toIntOrNull() ?: default
+    }
+  }
+
+  class Iteration(val ops: Long, val nanos: Long, val bytes: Long) {
+    val opsPerSecond: Double get() = ops * 1e9 / nanos
+  }
+
+  class Result(val benchmark: Benchmark, val iterations: List<Iteration>) {
+    val opsPerSecond: Double = iterations.map { it.opsPerSecond }.average()
+
+    // Half-width of a ~99% interval over all measured iterations
+    val error: Double = if (iterations.size < 2) Double.NaN else {
+      val variance = iterations.sumOf { (it.opsPerSecond - opsPerSecond).let { d -> d * d } } / (iterations.size - 1)
+      2.576 * sqrt(variance / iterations.size)
+    }
+
+    val bytesPerOp: Double = iterations.sumOf { it.bytes }.toDouble() / iterations.sumOf { it.ops }
+  }
+
+  fun runAll(benchmarks: List<Benchmark>): List<Result> {
+    val selected = benchmarks.filter { options.filter?.containsMatchIn(it.id) ?: true }
+    val results = ArrayList<Result>()
+    for (benchmark in selected) {
+      println("# ${benchmark.id}: ${options.forks} fork(s), ${options.warmupIterations} warmup, ${options.iterations} x ${options.iterationMillis} ms")
+      val iterations = if (options.forks <= 0) {
+        measure(benchmark, options.warmupIterations, options.iterations, options.iterationMillis)
+      } else {
+        (1..options.forks).flatMap { fork(benchmark) }
+      }
+      val result = Result(benchmark, iterations)
+      println("  ${format(result)}")
+      results.add(result)
+    }
+    println()
+    println(table(results))
+    options.report?.let { writeCsv(it, results) }
+    return results
+  }
+
+  // Runs one benchmark in a child JVM with the same class path and reads back its iterations
+  private fun fork(benchmark: Benchmark): List<Iteration> {
+    val java = File(System.getProperty("java.home"), "bin/java").path
+    val command = listOf(
+      java, "-Xms1g", "-Xmx1g", "-cp", System.getProperty("java.class.path"),
+      BenchmarkMain::class.java.name, CHILD_FLAG, benchmark.id,
+      options.warmupIterations.toString(), options.iterations.toString(), options.iterationMillis.toString()
+    )
+    val process = ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start()
+    val iterations = ArrayList<Iteration>()
+    process.inputStream.bufferedReader().forEachLine { line ->
+      if (line.startsWith(RESULT_PREFIX)) {
+        val (ops, nanos, bytes) = line.removePrefix(RESULT_PREFIX).trim().split(" ").map { it.toLong() }
+        iterations.add(Iteration(ops, nanos, bytes))
+      } else {
+        println("  | $line")
+      }
+    }
+    val exit = process.waitFor()
+    check(exit == 0 && iterations.size == options.iterations) { "Fork of ${benchmark.id} failed (exit $exit)" }
+    return iterations
+  }
+
+  companion object {
+    const val CHILD_FLAG = "--child"
+    private const val RESULT_PREFIX = "@iteration"
+
+    private val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+    @Volatile
+    private var sink = 0
+
+    /** Runs warmup and measurement iterations in this JVM. */
+    fun measure(benchmark: Benchmark, warmup: Int, iterations: Int, iterationMillis: Long): List<Iteration> {
+      if (threads.isThreadAllocatedMemorySupported) threads.isThreadAllocatedMemoryEnabled = true
+      val results = ArrayList<Iteration>(iterations)
+      benchmark.setup(benchmark.size).use { fixture ->
+        for (i in 0 until warmup + iterations) {
+          val iteration = iterate(fixture, iterationMillis * 1_000_000)
+          if (i >= warmup) results.add(iteration)
+        }
+      }
+      return results
+    }
+
+    /** Child side of a fork: measures and prints iterations for the parent to parse. */
+    fun runChild(benchmark: Benchmark, warmup: Int, iterations: Int, iterationMillis: Long) {
+      for (it in measure(benchmark, warmup, iterations, iterationMillis)) {
+        println("$RESULT_PREFIX ${it.ops} ${it.nanos} ${it.bytes}")
+      }
+    }
+
+    private fun iterate(fixture: Fixture, budgetNanos: Long): Iteration {
+      val thread = Thread.currentThread().id
+      var acc = 0
+      var ops = 0L
+      val bytesBefore = threads.getThreadAllocatedBytes(thread)
+      val start = System.nanoTime()
+      var elapsed: Long
+      do {
+        acc += fixture.op()
+        ops++
+        elapsed = System.nanoTime() - start
+      } while (elapsed < budgetNanos)
+      val bytes = threads.getThreadAllocatedBytes(thread) - bytesBefore
+      sink += acc
+      return Iteration(ops, elapsed, maxOf(0L, bytes))
+    }
+
+    private fun format(result: Result): String =
+      String.format(Locale.ROOT, "%.3f ± %.3f ops/s, %.1f B/op", result.opsPerSecond, result.error, result.bytesPerOp)
+
+    private fun table(results: List<Result>): String {
+      val width = maxOf(9, results.maxOfOrNull { it.benchmark.name.length } ?: 0)
+      val sb = StringBuilder()
+      sb.append(String.format(Locale.ROOT, "%-${width}s %8s %16s %12s %16s%n", "Benchmark", "Size", "ops/s", "± error", "B/op"))
+      for (r in results) {
+        sb.append(
+          String.format(
+            Locale.ROOT, "%-${width}s %8s %16.3f %12.3f %16.1f%n",
+            r.benchmark.name, if (r.benchmark.size > 0) r.benchmark.size.toString() else "-", r.opsPerSecond, r.error, r.bytesPerOp
+          )
+        )
+      }
+      return sb.toString()
+    }
+
+    private fun writeCsv(file: File, results: List<Result>) {
+      file.parentFile?.mkdirs()
+      file.printWriter().use { out ->
+        out.println("benchmark,size,ops_per_s,error,bytes_per_op,iterations")
+        for (r in results) {
+          out.println(
+            String.format(
+              Locale.ROOT, "%s,%d,%.3f,%.3f,%.1f,%d",
+              r.benchmark.name, r.benchmark.size, r.opsPerSecond, r.error, r.bytesPerOp, r.iterations.size
+            )
+          )
+        }
+      }
+      println("Results written to ${file.absolutePath}")
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.mlap.bench
+
+import android.provider.MediaStore
+import com.mlap.IndexedTrack
+import com.mlap.MediaScannerModule
+import kotlin.random.Random
+
+/**
+ * A deterministic fake music library shaped like a real one: artists with a
+ * few albums each, tracks in Music/<artist>/<album>/ or loose in Download,
+ * a share of untagged files and of paths outside the library folders (which
+ * the scanner must drop), and mixed extension case.
+ */
+class SyntheticLibrary(val size: Int, seed: Long = 42) {
+
+  class Entry(
+    val mediaId: Long,
+    val path: String,
+    val title: String?,
+    val artist: String?,
+    val album: String?,
+    val duration: Long,
+    val mime: String,
+    val dateModified: Long
+  )
+
+  val entries: List<Entry>
+
+  init {
+    val random = Random(seed)
+    val artistCount = maxOf(10, size / 40)
+    entries = List(size) { i ->
+      val artistIndex = random.nextInt(artistCount)
+      val artist = "Artist ${NAMES[artistIndex % NAMES.size]} $artistIndex"
+      val album = "Album ${artistIndex}-${random.nextInt(4)}"
+      val (ext, mime) = FORMATS[random.nextInt(FORMATS.size)]
+      val title = "Track $i ${NAMES[random.nextInt(NAMES.size)]}"
+      val tagged = random.nextInt(10) != 0
+      val path = when (random.nextInt(20)) {
+        0 -> "/storage/emulated/0/Android/media/com.example/Notifications/$title.$ext"
+        1, 2, 3 -> "/storage/emulated/0/Download/$title.$ext"
+        4 -> "/storage/emulated/0/Documents/Recordings/$title.${ext.uppercase()}"
+        else -> "/storage/emulated/0/Music/$artist/$album/$title.$ext"
+      }
+      Entry(
+        mediaId = 1000L + i,
+        path = path,
+        title = title,
+        artist = if (tagged) artist else null,
+        album = if (tagged) album else null,
+        duration = 60_000L + random.nextInt(360_000),
+        mime = mime,
+        dateModified = 1_700_000_000L + random.nextInt(50_000_000)
+      )
+    }
+  }
+
+  val paths: List<String> get() = entries.map { it.path }
+
+  /** A cursor over the scanner's projection, in MediaStore column order. */
+  fun cursor(): FakeCursor = FakeCursor(
+    PROJECTION,
+    Array(entries.size) { i ->
+      val e = entries[i]
+      arrayOf<Any?>(e.mediaId, e.title, e.mime, e.path, e.dateModified, e.duration, e.artist, e.album)
+    }
+  )
+
+  /** The tracks the index would hold: library paths only. */
+  fun tracks(): List<IndexedTrack> = entries.filter { MediaScannerModule.isLibraryPath(it.path) }.map { e ->
+    IndexedTrack(
+      id = e.path,
+      mediaId = e.mediaId,
+      path = e.path,
+      title = e.title,
+      artist = e.artist,
+      album = e.album,
+      duration = e.duration,
+      mime = e.mime,
+      folder = IndexedTrack.folderOf(e.path),
+      dateModified = e.dateModified
+    )
+  }
+
+  companion object {
+    private val PROJECTION = arrayOf(
+      MediaStore.Files.FileColumns._ID,
+      MediaStore.Files.FileColumns.TITLE,
+      MediaStore.Files.FileColumns.MIME_TYPE,
+      MediaStore.Files.FileColumns.DATA,
+      MediaStore.Files.FileColumns.DATE_MODIFIED,
+      MediaStore.Files.FileColumns.DURATION,
+      MediaStore.Files.FileColumns.ARTIST,
+      MediaStore.Files.FileColumns.ALBUM
+    )
+
+    private val FORMATS = listOf(
+      "mp3" to "audio/mpeg", "mp3" to "audio/mpeg", "m4a" to "audio/mp4", "flac" to "audio/flac",
+      "ogg" to "audio/ogg", "opus" to "audio/opus", "wav" to "audio/x-wav"
+    )
+
+    private val NAMES = listOf(
+      "Amber", "Beyoncé", "Cœur", "Delta", "Écho", "Fjord", "Göran", "Hollow", "Ivy", "Jazz",
+      "Kite", "Lumen", "Møller", "Nova", "Orbit", "Pulse", "Quartz", "Rêve", "Sigur", "Tide"
+    )
+  }
+}
@@ -9,8 +9,8 @@ const QUEUE_LABELS = {
   queue3: 'Queue 3',
 };
 
-type TopBarProps = { showMenu?: boolean; onMenuPress?: () => void; iconColor?: string };
-const TopBar: React.FC<TopBarProps> = ({ showMenu = true, onMenuPress, iconColor }) => {
+type TopBarProps = { showMenu?: boolean; onMenuPress?: () => void; onSearchPress?: () => void; iconColor?: string };
+const TopBar: React.FC<TopBarProps> = ({ showMenu = true, onMenuPress, onSearchPress, iconColor }) => {
   const { selectedQueue, setSelectedQueue } = useMultiQueue();
   const [modalVisible, setModalVisible] = React.useState(false);
   const theme = useTheme();
@@ -55,6 +55,7 @@ const TopBar: React.FC<TopBarProps> = ({ showMenu = true, onMenuPress, iconColor
           </Modal>
         </Portal>
       </View>
+      {onSearchPress && <Appbar.Action icon="magnify" color={iconColor ?? theme.colors.onPrimary} onPress={onSearchPress} accessibilityLabel="Search" />}
     </Appbar.Header>
   );
 };
@@ -1,8 +1,26 @@
-import React, { createContext, useContext, useEffect, useState, ReactNode } from 'react';
-import { scanMusic, ScannedTrack } from '../utils/musicScanner';
+import React, { createContext, useContext, useEffect, useRef, useState, ReactNode } from 'react';
+import {
+  loadIndexInfo,
+  scanLibraryChanges,
+  scanMusic,
+  ScannedTrack,
+  watchLibrary,
+} from '../utils/musicScanner';
+import { extractMetadata } from '../utils/metadataExtractor';
+import { onDurationsProbed, probeDurations } from '../utils/durationProber';
+import { analyzeLoudness } from '../utils/loudness';
+import { timed } from '../utils/perfMetrics';
+
+// Where the current library came from: the native track index, or a JS/filesystem
+// fallback scan that never reached the index (native queries know nothing of it)
+export type LibrarySource = 'index' | 'scan' | null;
 
 interface AllTracksContextType {
+  // Only filled for a fallback scan; an indexed library is paged from the native index
   tracks: ScannedTrack[];
+  source: LibrarySource;
+  // Bumped on every change to the indexed library, so paged lists reload
+  revision: number;
   loading: boolean;
   error: string | null;
   refresh: () => void;
@@ -12,15 +30,63 @@ const AllTracksContext = createContext<AllTracksContextType | undefined>(undefin
 
 export const AllTracksProvider = ({ children }: { children: ReactNode }) => {
   const [tracks, setTracks] = useState<ScannedTrack[]>([]);
+  const [source, setSource] = useState<LibrarySource>(null);
+  const [revision, setRevision] = useState(0);
   const [loading, setLoading] = useState(false);
   const [error, setError] = useState<string | null>(null);
 
+  // Sync token from the native scanner; refreshes only pull what changed since
+  const syncTokenRef = useRef<string | null>(null);
+  const sourceRef = useRef<LibrarySource>(null);
+  const bump = () => setRevision(r => r + 1);
+
+  const adoptIndex = (token: string) => {
+    syncTokenRef.current = token;
+    sourceRef.current = 'index';
+    setSource('index');
+    setTracks([]);
+  };
+
+  // Tags and cover art are read natively into the index after each sync; given
+  // paths, only those files are read. Lists pick the rows up on the next revision
+  const extractTags = async (paths: string[] | null = null) => {
+    try {
+      const result = await extractMetadata(paths);
+      if (result && result.updated > 0) bump();
+    } catch (e) {
+      console.warn('Metadata extraction failed', e);
+    }
+  };
+
   const fetchTracks = async () => {
-    setLoading(true);
     setError(null);
     try {
-      const found = await scanMusic();
+      if (!syncTokenRef.current) setLoading(true);
+      const changes = await timed('librarySync', () => scanLibraryChanges(syncTokenRef.current, false));
+      if (changes) {
+        adoptIndex(changes.token);
+        bump();
+        setLoading(false);
+        extractTags();
+        probeDurations().catch(e => console.warn('Duration probing failed', e));
+        analyzeLoudness().catch(e => console.warn('Loudness analysis failed', e));
+        return;
+      }
+    } catch (e) {
+      // fall back to a full scan
+      syncTokenRef.current = null;
+    }
+    setLoading(true);
+    try {
+      const found = await timed('fallbackScan', scanMusic);
       setTracks(found);
+      sourceRef.current = 'scan';
+      setSource('scan');
+      // Fallback scans are not in the index, so name the files to probe
+      const missing = found.filter(t => !t.duration && t.path).map(t => t.path as string);
+      if (missing.length) probeDurations(missing).catch(e => console.warn('Duration probing failed', e));
+      const paths = found.filter(t => t.path).map(t => t.path as string);
+      analyzeLoudness(paths).catch(e => console.warn('Loudness analysis failed', e));
     } catch (e) {
       setError('Failed to scan music');
     } finally {
@@ -28,12 +94,70 @@ export const AllTracksProvider = ({ children }: { children: ReactNode }) => {
     }
   };
 
+  // First paint pages the persisted index; the scan then only applies the delta
+  useEffect(() => {
+    (async () => {
+      try {
+        const info = await timed('indexLoad', loadIndexInfo);
+        if (info) adoptIndex(info.token);
+      } catch (e) {
+        // no usable index yet
+      }
+      fetchTracks();
+    })();
+  }, []);
+
+  // Probed durations arrive in batches; patch them into a scanned list in one pass each
+  useEffect(() => {
+    const sub = onDurationsProbed(items => {
+      if (sourceRef.current === 'index') {
+        bump();
+        return;
+      }
+      const byPath = new Map(items.map(i => [i.path, i]));
+      setTracks(prev =>
+        prev.map(t => {
+          const p = t.path ? byPath.get(t.path) : undefined;
+          if (!p) return t;
+          return {
+            ...t,
+            duration: t.duration || p.duration,
+            bitrate: p.bitrate || t.bitrate,
+            sampleRate: p.sampleRate || t.sampleRate,
+          };
+        }),
+      );
+    });
+    return () => sub.remove();
+  }, []);
+
+  // MediaStore and folder changes arrive as index deltas, so lists stay fresh without
+  // rescans; a fallback-scanned library is not in the index and ignores them
   useEffect(() => {
-    fetchTracks();
+    const sub = watchLibrary(changes => {
+      if (sourceRef.current !== 'index') return;
+      syncTokenRef.current = changes.token;
+      bump();
+      if (changes.full) {
+        extractTags();
+        probeDurations().catch(e => console.warn('Duration probing failed', e));
+        analyzeLoudness().catch(e => console.warn('Loudness analysis failed', e));
+        return;
+      }
+      // Only the files this delta touched need another look
+      const touched = changes.added.concat(changes.updated).filter(t => t.path);
+      if (!touched.length) return;
+      const paths = touched.map(t => t.path as string);
+      extractTags(paths);
+      const undated = touched.filter(t => !t.duration).map(t => t.path as string);
+      if (undated.length) probeDurations(undated).catch(e => console.warn('Duration probing failed', e));
+      analyzeLoudness(paths).catch(e => console.warn('Loudness analysis failed', e));
+    });
+    return () => sub.remove();
   }, []);
 
   return (
-    <AllTracksContext.Provider value={{ tracks, loading, error, refresh: fetchTracks }}>
+    <AllTracksContext.Provider value={{ tracks, source, revision, loading, error, refresh: fetchTracks }}>
       {children}
     </AllTracksContext.Provider>
   );
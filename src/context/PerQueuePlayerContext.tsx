@@ -8,7 +8,15 @@ declare global {
 }
 
 import React, { createContext, useContext, useState, useCallback, useRef, useEffect } from 'react';
-import { savePlayerState, loadPlayerState, PersistedState } from '../utils/playerPersistence';
+import {
+  savePlayerState,
+  loadPlayerState,
+  saveQueuePatch,
+  hasNativePersistence,
+  PersistedState,
+  PersistedQueuePatch,
+} from '../utils/playerPersistence';
+import { onDurationsProbed } from '../utils/durationProber';
 
 import Sound from 'react-native-sound';
 // For debug logging
@@ -25,6 +33,7 @@ const debugPlaybackLog = (...args: any[]) => {
   }
 };
 import type { ScannedTrack } from '../utils/musicScanner';
+import { CrossfadeCurve, hasNativePlayer, nativePlayer, NativeQueueItem } from '../utils/nativePlayer';
 
 export type QueueId = 'queue1' | 'queue2' | 'queue3';
 
@@ -60,6 +69,7 @@ interface PerQueuePlayerContextProps {
   setDuration: (queueId: QueueId, dur: number) => void;
   setVolume: (queueId: QueueId, volume: number) => void;
   getVolume: (queueId: QueueId) => number;
+  setCrossfade: (queueId: QueueId, durationMs: number, curve?: CrossfadeCurve) => void;
   toggleShuffle: (queueId: QueueId) => void;
   toggleLoopMode: (queueId: QueueId) => void;
 }
@@ -77,6 +87,49 @@ const defaultPlayerState: PlayerState = {
   shuffledQueue: null,
 };
 
+// Tracks without a path cannot be handed to the native player
+const toNativeItems = (tracks: ScannedTrack[]): NativeQueueItem[] =>
+  tracks
+    .filter(t => !!t.path)
+    .map(t => ({ id: t.id, path: t.path!, title: t.title, artist: t.artist }));
+
+const sameTrackIds = (a: ScannedTrack[], b: ScannedTrack[]) =>
+  a.length === b.length && a.every((t, i) => t.id === b[i].id);
+
+// Play order of the shuffled queue as indices into the native playlist
+function nativeShuffleOrder(items: NativeQueueItem[], shuffledQueue: ScannedTrack[]): number[] {
+  const slots = new Map<string, number[]>();
+  items.forEach((item, i) => {
+    const list = slots.get(item.id);
+    if (list) list.push(i);
+    else slots.set(item.id, [i]);
+  });
+  const order: number[] = [];
+  for (const t of shuffledQueue) {
+    const list = slots.get(t.id);
+    if (list && list.length) order.push(list.shift()!);
+  }
+  slots.forEach(list => order.push(...list));
+  return order;
+}
+
+// What each queue's native player currently holds
+type NativeSyncState = {
+  loaded: boolean;
+  queue: ScannedTrack[];
+  shuffle: boolean;
+  shuffledQueue: ScannedTrack[] | null;
+  loopMode: LoopMode;
+};
+
+const emptyNativeSyncState = (): NativeSyncState => ({
+  loaded: false,
+  queue: [],
+  shuffle: false,
+  shuffledQueue: null,
+  loopMode: 'off',
+});
+
 export const PerQueuePlayerContext = createContext<PerQueuePlayerContextProps | undefined>(undefined);
 
 export const PerQueuePlayerProvider: React.FC<{ children: React.ReactNode }> = ({ children }) => {
@@ -115,6 +168,160 @@ export const PerQueuePlayerProvider: React.FC<{ children: React.ReactNode }> = (
     queue3: null,
   });
 
+  // Native engine (Android): latest state for event handlers, what each queue's
+  // player holds, and loads requested by playTrack/play that wait for the next commit
+  const playersRef = useRef(players);
+  playersRef.current = players;
+  const nativeSyncRef = useRef<Record<QueueId, NativeSyncState>>({
+    queue1: emptyNativeSyncState(),
+    queue2: emptyNativeSyncState(),
+    queue3: emptyNativeSyncState(),
+  });
+  const pendingNativeLoadRef = useRef<Partial<Record<QueueId, { trackId: string; position: number }>>>({});
+
+  // Push queue, shuffle order and loop mode down to the native players after each commit
+  useEffect(() => {
+    if (!hasNativePlayer) return;
+    (Object.keys(players) as QueueId[]).forEach(queueId => {
+      const p = players[queueId];
+      const synced = nativeSyncRef.current[queueId];
+      const pending = pendingNativeLoadRef.current[queueId];
+      if (pending) {
+        delete pendingNativeLoadRef.current[queueId];
+        let items = toNativeItems(p.queue);
+        let startIndex = items.findIndex(item => item.id === pending.trackId);
+        if (startIndex < 0) {
+          // Track is not part of the queue: play it on its own
+          items = p.currentTrack ? toNativeItems([p.currentTrack]) : [];
+          startIndex = 0;
+        }
+        if (!items.length) return;
+        nativePlayer.setQueue(queueId, items, startIndex, pending.position, true);
+        nativePlayer.setVolume(queueId, p.volume);
+        nativePlayer.setShuffle(queueId, p.shuffle, p.shuffle && p.shuffledQueue ? nativeShuffleOrder(items, p.shuffledQueue) : null);
+        nativePlayer.setRepeatMode(queueId, p.loopMode);
+        nativeSyncRef.current[queueId] = {
+          loaded: true,
+          queue: p.queue,
+          shuffle: p.shuffle,
+          shuffledQueue: p.shuffledQueue,
+          loopMode: p.loopMode,
+        };
+        return;
+      }
+      if (!synced.loaded) return;
+      if (!p.currentTrack && p.queue.length === 0) {
+        nativePlayer.stop(queueId);
+        nativeSyncRef.current[queueId] = emptyNativeSyncState();
+        return;
+      }
+      const queueChanged = !sameTrackIds(synced.queue, p.queue);
+      if (queueChanged) {
+        nativePlayer.syncQueue(queueId, toNativeItems(p.queue));
+      }
+      synced.queue = p.queue;
+      if (queueChanged || synced.shuffle !== p.shuffle || synced.shuffledQueue !== p.shuffledQueue) {
+        const order = p.shuffle && p.shuffledQueue ? nativeShuffleOrder(toNativeItems(p.queue), p.shuffledQueue) : null;
+        nativePlayer.setShuffle(queueId, p.shuffle, order);
+        synced.shuffle = p.shuffle;
+        synced.shuffledQueue = p.shuffledQueue;
+      }
+      if (synced.loopMode !== p.loopMode) {
+        nativePlayer.setRepeatMode(queueId, p.loopMode);
+        synced.loopMode = p.loopMode;
+      }
+    });
+  }, [players]);
+
+  // Track boundaries are handled natively; JS only mirrors the new current item
+  useEffect(() => {
+    if (!hasNativePlayer) return;
+    const transitionSub = nativePlayer.onMediaItemTransition(({ queueId, mediaId, reason }) => {
+      const qid = queueId as QueueId;
+      setPlayers(prev => {
+        const player = prev[qid];
+        if (!player || !mediaId) return prev;
+        if (player.currentTrack?.id === mediaId && reason !== 'repeat') return prev;
+        const track = player.queue.find(t => t.id === mediaId) ?? player.currentTrack;
+        if (!track) return prev;
+        debugPlaybackLog(`[${qid}] Native transition (${reason}) to ${track.title}`);
+        return {
+          ...prev,
+          [qid]: { ...player, currentTrack: track, position: 0, duration: track.duration ?? 0 },
+        };
+      });
+    });
+    const playbackSub = nativePlayer.onPlaybackEvent(({ queueId, event, message, duration }) => {
+      const qid = queueId as QueueId;
+      if (event === 'ready' && duration) {
+        setPlayers(prev => {
+          const player = prev[qid];
+          if (!player?.currentTrack || player.duration === duration) return prev;
+          const currentId = player.currentTrack.id;
+          const queue = player.queue.map(t => (t.id === currentId ? { ...t, duration } : t));
+          return { ...prev, [qid]: { ...player, duration, queue } };
+        });
+      } else if (event === 'playing' || event === 'paused') {
+        // Also fires for media buttons handled natively by the playback service
+        const isPlaying = event === 'playing';
+        setPlayers(prev => (prev[qid] && prev[qid].isPlaying !== isPlaying && prev[qid].currentTrack
+          ? { ...prev, [qid]: { ...prev[qid], isPlaying } }
+          : prev));
+      } else if (event === 'ended' || event === 'error') {
+        if (message) debugPlaybackLog(`[${qid}] Native player error:`, message);
+        setPlayers(prev => ({
+          ...prev,
+          [qid]: { ...prev[qid], isPlaying: false, position: 0 },
+        }));
+      }
+    });
+    // Positions for every playing queue arrive together, so one state update per tick
+    const progressSub = nativePlayer.onPlaybackProgress(({ queues }) => {
+      setPlayers(prev => {
+        let next = prev;
+        for (const status of queues) {
+          const qid = status.queueId as QueueId;
+          const player = next[qid];
+          if (!player || Math.abs(player.position - status.position) <= 10) continue;
+          if (next === prev) next = { ...prev };
+          next[qid] = { ...player, position: status.position };
+        }
+        return next;
+      });
+    });
+    return () => {
+      transitionSub.remove();
+      playbackSub.remove();
+      progressSub.remove();
+    };
+  }, []);
+
+  // Header-probed durations fill queued tracks (and the seek bar) before they play
+  useEffect(() => {
+    const sub = onDurationsProbed(items => {
+      const byPath = new Map(items.map(i => [i.path, i.duration]));
+      setPlayers(prev => {
+        let next = prev;
+        for (const qid of Object.keys(prev) as QueueId[]) {
+          const player = prev[qid];
+          if (!player.queue.some(t => !t.duration && t.path && byPath.has(t.path))) continue;
+          const fill = (t: ScannedTrack) =>
+            !t.duration && t.path && byPath.has(t.path) ? { ...t, duration: byPath.get(t.path) } : t;
+          const currentTrack = player.currentTrack ? fill(player.currentTrack) : player.currentTrack;
+          if (next === prev) next = { ...prev };
+          next[qid] = {
+            ...player,
+            queue: player.queue.map(fill),
+            currentTrack,
+            duration: player.duration || currentTrack?.duration || 0,
+          };
+        }
+        return next;
+      });
+    });
+    return () => sub.remove();
+  }, []);
+
   type SetQueueOptions = { clearAllState?: boolean };
   const setQueue = useCallback((queueId: QueueId, tracks: ScannedTrack[], options?: SetQueueOptions) => {
     setPlayers(prev => {
@@ -145,7 +352,9 @@ export const PerQueuePlayerProvider: React.FC<{ children: React.ReactNode }> = (
     });
   }, []);
 
-  // --- Persistence: restore on mount, save every 15s if playing ---
+  // --- Persistence: restore on mount, then save whatever changes ---
+  // Nothing is saved until the restore has run, so it cannot be overwritten by the empty initial state
+  const restoredRef = useRef(false);
   // Restore state on mount if all players are inactive
   useEffect(() => {
     let mounted = true;
@@ -161,21 +370,26 @@ export const PerQueuePlayerProvider: React.FC<{ children: React.ReactNode }> = (
         if (p && p.currentTrackId) {
           const track = p.queue.find(t => t.id === p.currentTrackId) || null;
           if (track) {
-            // Create Sound object for the track, set position and duration
-            const sound = new Sound(track.path, Sound.MAIN_BUNDLE, (error) => {
-              if (!error) {
-                sound.setVolume(p.volume ?? 1.0);
-                sound.setCurrentTime((p.position ?? 0) / 1000);
-                setPlayers(prev => ({
-                  ...prev,
-                  [queueId]: {
-                    ...prev[queueId],
-                    duration: sound.getDuration() * 1000,
-                  }
-                }));
-              }
-            });
-            soundRefs.current[queueId] = sound;
+            // Native player loads lazily on the first play(); otherwise create
+            // the Sound object for the track, set position and duration
+            let sound: Sound | null = null;
+            if (!hasNativePlayer) {
+              const restored = new Sound(track.path, Sound.MAIN_BUNDLE, (error) => {
+                if (!error) {
+                  restored.setVolume(p.volume ?? 1.0);
+                  restored.setCurrentTime((p.position ?? 0) / 1000);
+                  setPlayers(prev => ({
+                    ...prev,
+                    [queueId]: {
+                      ...prev[queueId],
+                      duration: restored.getDuration() * 1000,
+                    }
+                  }));
+                }
+              });
+              sound = restored;
+              soundRefs.current[queueId] = restored;
+            }
             setPlayers(prev => ({
               ...prev,
               [queueId]: {
@@ -188,7 +402,7 @@ export const PerQueuePlayerProvider: React.FC<{ children: React.ReactNode }> = (
                 sound,
                 shuffle,
                 loopMode,
-                // duration will be set in callback above
+                duration: (track as ScannedTrack).duration ?? 0,
               }
             }));
           } else {
@@ -228,12 +442,36 @@ export const PerQueuePlayerProvider: React.FC<{ children: React.ReactNode }> = (
           }));
         }
       });
-    })();
+    })().finally(() => {
+      restoredRef.current = true;
+    });
     return () => { mounted = false; };
   }, []);
 
-  // Save state on every change (queue, track, position, volume) for all queues, even if paused
+  // Native store: send only the fields that changed since the last save for each queue
+  const lastSavedRef = useRef<Partial<Record<QueueId, PlayerState>>>({});
+  useEffect(() => {
+    if (!hasNativePersistence || !restoredRef.current) return;
+    (Object.keys(players) as QueueId[]).forEach(queueId => {
+      const p = players[queueId];
+      const last = lastSavedRef.current[queueId];
+      if (last === p) return;
+      const patch: PersistedQueuePatch = {};
+      if (!last || last.queue !== p.queue) patch.queue = p.queue.map(t => t.id);
+      if (!last || last.currentTrack?.id !== p.currentTrack?.id) patch.currentTrackId = p.currentTrack?.id ?? null;
+      if (!last || last.position !== p.position) patch.position = p.position;
+      if (!last || last.volume !== p.volume) patch.volume = p.volume;
+      if (!last || last.shuffle !== p.shuffle) patch.shuffle = p.shuffle;
+      if (!last || last.loopMode !== p.loopMode) patch.loopMode = p.loopMode;
+      if (p.isPlaying && !last?.isPlaying) patch.active = true;
+      if (Object.keys(patch).length) saveQueuePatch(queueId, patch);
+      lastSavedRef.current[queueId] = p;
+    });
+  }, [players]);
+
+  // Without the native store: save the whole state on every change (queue, track, position, volume)
   useEffect(() => {
+    if (hasNativePersistence || !restoredRef.current) return;
     const state: PersistedState = {};
     (Object.keys(players) as QueueId[]).forEach(queueId => {
       const p = players[queueId];
@@ -256,37 +494,12 @@ export const PerQueuePlayerProvider: React.FC<{ children: React.ReactNode }> = (
     });
     savePlayerState(state);
   }, [players]);
-  // Save state every 10 seconds (queue, track, position, volume, shuffle, loopMode) for all queues, even if paused
-  useEffect(() => {
-    const interval = setInterval(() => {
-      const state: PersistedState = {};
-      (Object.keys(players) as QueueId[]).forEach(queueId => {
-        const p = players[queueId];
-        state[queueId] = {
-          queue: p.queue.map((t: any) => ({
-            id: t.id,
-            title: t.title,
-            artist: t.artist,
-            album: t.album,
-            duration: t.duration,
-            path: t.path,
-            picture: t.picture,
-          })),
-          currentTrackId: p.currentTrack?.id || null,
-          position: p.position,
-          volume: p.volume,
-          shuffle: p.shuffle,
-          loopMode: p.loopMode,
-        };
-      });
-      savePlayerState(state);
-    }, 10000); // every 10 seconds
-    return () => clearInterval(interval);
-  }, [players]);
 
   // --- End persistence ---
-  // Global polling for all active players to update position in context (no auto-progression)
+  // Sound fallback only: poll every active player for its position (no auto-progression).
+  // The native player pushes positions through onPlaybackProgress instead.
   useEffect(() => {
+    if (hasNativePlayer) return;
     const interval = setInterval(() => {
       setPlayers(prev => {
         (Object.keys(prev) as QueueId[]).forEach(queueId => {
@@ -315,6 +528,10 @@ export const PerQueuePlayerProvider: React.FC<{ children: React.ReactNode }> = (
       ...prev,
       [queueId]: { ...prev[queueId], volume }
     }));
+    if (hasNativePlayer) {
+      nativePlayer.setVolume(queueId, volume);
+      return;
+    }
     // Always set volume on the Sound object if it exists, even if not playing
     const sound = soundRefs.current[queueId];
     if (sound) {
@@ -326,6 +543,11 @@ export const PerQueuePlayerProvider: React.FC<{ children: React.ReactNode }> = (
     }
   }, [playNext]);
 
+  // Crossfades run natively; the Sound fallback keeps hard cuts
+  const setCrossfade = useCallback((queueId: QueueId, durationMs: number, curve?: CrossfadeCurve) => {
+    if (hasNativePlayer) nativePlayer.setCrossfade(queueId, durationMs, curve);
+  }, []);
+
   // Get volume for a queue/player
   const getVolume = useCallback((queueId: QueueId) => {
     return players[queueId]?.volume ?? 1.0;
@@ -337,6 +559,10 @@ export const PerQueuePlayerProvider: React.FC<{ children: React.ReactNode }> = (
   // Use a ref to break the circular dependency between playNext and playTrack
   const playTrackRef = useRef<(queueId: QueueId, track: ScannedTrack) => void | undefined>(undefined);
   const playNext: (queueId: QueueId) => void = useCallback((queueId) => {
+    if (hasNativePlayer && nativeSyncRef.current[queueId].loaded) {
+      nativePlayer.next(queueId);
+      return;
+    }
     setPlayers(prev => {
       const player = prev[queueId];
       const { queue, currentTrack, shuffle, loopMode, shuffledQueue } = player;
@@ -368,6 +594,15 @@ export const PerQueuePlayerProvider: React.FC<{ children: React.ReactNode }> = (
 
 
   const playTrack: (queueId: QueueId, track: ScannedTrack) => void = useCallback((queueId, track) => {
+    if (hasNativePlayer) {
+      // The queue is handed to the native player once this update commits
+      pendingNativeLoadRef.current[queueId] = { trackId: track.id, position: 0 };
+      setPlayers(prev => ({
+        ...prev,
+        [queueId]: { ...prev[queueId], currentTrack: track, isPlaying: true, position: 0, duration: track.duration ?? 0 }
+      }));
+      return;
+    }
     // Stop and release previous sound if exists
     if (soundRefs.current[queueId]) {
       soundRefs.current[queueId]?.stop();
@@ -456,6 +691,10 @@ export const PerQueuePlayerProvider: React.FC<{ children: React.ReactNode }> = (
 
 
   const playPrevious = useCallback((queueId: QueueId) => {
+    if (hasNativePlayer && nativeSyncRef.current[queueId].loaded) {
+      nativePlayer.previous(queueId);
+      return;
+    }
     setPlayers(prev => {
       const player = prev[queueId];
       const { queue, currentTrack, shuffle, shuffledQueue } = player;
@@ -546,6 +785,22 @@ export const PerQueuePlayerProvider: React.FC<{ children: React.ReactNode }> = (
   }, []);
 
   const play = useCallback((queueId: QueueId) => {
+    if (hasNativePlayer) {
+      const player = playersRef.current[queueId];
+      if (nativeSyncRef.current[queueId].loaded) {
+        nativePlayer.resume(queueId);
+      } else if (player?.currentTrack) {
+        // Restored queue: load it natively at the saved position
+        pendingNativeLoadRef.current[queueId] = { trackId: player.currentTrack.id, position: player.position };
+      } else {
+        return;
+      }
+      setPlayers(prev => ({
+        ...prev,
+        [queueId]: { ...prev[queueId], isPlaying: true }
+      }));
+      return;
+    }
     const sound = soundRefs.current[queueId];
     if (sound) {
       sound.play();
@@ -553,23 +808,11 @@ export const PerQueuePlayerProvider: React.FC<{ children: React.ReactNode }> = (
         ...prev,
         [queueId]: { ...prev[queueId], isPlaying: true }
       }));
-      // Resume polling for progress
-      const updateProgress = () => {
-        if (soundRefs.current[queueId] === sound && sound.isPlaying()) {
-          sound.getCurrentTime((seconds) => {
-            setPlayers(prev => ({
-              ...prev,
-              [queueId]: { ...prev[queueId], position: seconds * 1000 }
-            }));
-          });
-          setTimeout(updateProgress, 500);
-        }
-      };
-      updateProgress();
     }
   }, []);
 
   const pause = useCallback((queueId: QueueId) => {
+    if (hasNativePlayer) nativePlayer.pause(queueId);
     const sound = soundRefs.current[queueId];
     if (sound) sound.pause();
     setPlayers(prev => ({
@@ -579,6 +822,7 @@ export const PerQueuePlayerProvider: React.FC<{ children: React.ReactNode }> = (
   }, []);
 
   const seekTo = useCallback((queueId: QueueId, ms: number) => {
+    if (hasNativePlayer && nativeSyncRef.current[queueId].loaded) nativePlayer.seekTo(queueId, ms);
     const sound = soundRefs.current[queueId];
     if (sound) sound.setCurrentTime(ms / 1000);
     setPlayers(prev => {
@@ -615,67 +859,13 @@ export const PerQueuePlayerProvider: React.FC<{ children: React.ReactNode }> = (
   useEffect(() => {
     const soundsAtUnmount = { ...soundRefs.current };
     return () => {
+      // Native players belong to the playback service and keep going without JS
       Object.values(soundsAtUnmount).forEach(sound => sound?.release());
     };
   }, []);
 
-
-  // Attach pauseAllQueues and resumeAllQueues to globalThis for TrackPlayer service
-  // Track last active queue for resume
-  const lastActiveQueueRef = useRef<QueueId | null>(null);
-  useEffect(() => {
-    // Update lastActiveQueueRef when any queue is playing
-    const playingQueue = (Object.keys(players) as QueueId[]).find(qid => players[qid].isPlaying);
-    if (playingQueue) {
-      lastActiveQueueRef.current = playingQueue;
-    }
-  }, [players]);
-
-  if (typeof globalThis !== 'undefined') {
-    // Toggle: current behavior
-    (globalThis as any).mediaButtonToggleAllQueues = () => {
-      const queueIds = ['queue1', 'queue2', 'queue3'] as QueueId[];
-      const pausedWithTracks = queueIds.filter(qid => !players[qid].isPlaying && players[qid].queue.length > 0);
-      if (pausedWithTracks.length > 0) {
-        pausedWithTracks.forEach(qid => {
-          const player = players[qid];
-          if (player.currentTrack) {
-            play(qid);
-          } else if (player.queue.length > 0) {
-            playTrack(qid, player.queue[0]);
-          }
-        });
-      } else {
-        queueIds.forEach(qid => {
-          if (players[qid].isPlaying) pause(qid);
-        });
-      }
-    };
-    // Play all: play all queues with tracks
-    (globalThis as any).mediaButtonPlayAllQueues = () => {
-      const queueIds = ['queue1', 'queue2', 'queue3'] as QueueId[];
-      queueIds.forEach(qid => {
-        const player = players[qid];
-        if (player.queue.length > 0) {
-          if (player.currentTrack) {
-            play(qid);
-          } else {
-            playTrack(qid, player.queue[0]);
-          }
-        }
-      });
-    };
-    // Pause all: pause all playing queues
-    (globalThis as any).mediaButtonPauseAllQueues = () => {
-      const queueIds = ['queue1', 'queue2', 'queue3'] as QueueId[];
-      queueIds.forEach(qid => {
-        if (players[qid].isPlaying) pause(qid);
-      });
-    };
-  }
-
   return (
-    <PerQueuePlayerContext.Provider value={{ players, setQueue, playTrack, play, pause, seekTo, playNext, playPrevious, addToQueue, removeFromQueue, reorderQueue, setIsPlaying, setPosition, setDuration, setVolume, getVolume, toggleShuffle, toggleLoopMode }}>
+    <PerQueuePlayerContext.Provider value={{ players, setQueue, playTrack, play, pause, seekTo, playNext, playPrevious, addToQueue, removeFromQueue, reorderQueue, setIsPlaying, setPosition, setDuration, setVolume, getVolume, setCrossfade, toggleShuffle, toggleLoopMode }}>
       {children}
     </PerQueuePlayerContext.Provider>
   );
@@ -7,6 +7,8 @@ import HomeScreen from '../screens/HomeScreen';
 import NowPlaying from '../screens/NowPlaying';
 import QueueScreen from '../screens/QueueScreen';
 import DebugScreen from '../screens/DebugScreen';
+import SearchScreen from '../screens/SearchScreen';
+import DuplicatesScreen from '../screens/DuplicatesScreen';
 
 
 const Stack = createNativeStackNavigator();
@@ -19,6 +21,8 @@ export default function AppNavigator() {
         <Stack.Screen name="NowPlaying" component={NowPlaying} />
         <Stack.Screen name="Queue" component={QueueScreen} />
         <Stack.Screen name="Debug" component={DebugScreen} />
+        <Stack.Screen name="Search" component={SearchScreen} />
+        <Stack.Screen name="Duplicates" component={DuplicatesScreen} />
       </Stack.Navigator>
     </NavigationContainer>
   );
@@ -1,14 +1,60 @@
 import React, { useState, useEffect, useRef } from 'react';
 import { useNavigation } from '@react-navigation/native';
-import { View, ScrollView, Text, StyleSheet } from 'react-native';
+import { View, ScrollView, Text, StyleSheet, Share } from 'react-native';
 import { Appbar, Button, useTheme } from 'react-native-paper';
+import {
+  exportPerfMetrics,
+  getPerfSnapshot,
+  hasPerfMetrics,
+  PerfMetric,
+  resetPerfMetrics,
+} from '../utils/perfMetrics';
+
+const METRICS_POLL_MS = 1000;
+
+// Timers are recorded in microseconds; show milliseconds
+const formatValue = (value: number, unit: string) =>
+  unit === 'us' ? `${(value / 1000).toFixed(value < 10000 ? 2 : 0)}ms` : `${value}`;
+
+const describeMetric = (m: PerfMetric) => {
+  if (m.type === 'counter') return `${m.count}`;
+  if (m.type === 'meter') return `${m.perMinute}/min (total ${m.count})`;
+  if (m.count === 0) return '-';
+  const f = (v: number) => formatValue(v, m.unit);
+  const unit = m.unit === 'us' ? '' : ` ${m.unit}`;
+  return `n=${m.count} p50=${f(m.p50)} p95=${f(m.p95)} p99=${f(m.p99)} max=${f(m.max)}${unit}`;
+};
 
 const DebugScreen: React.FC = () => {
   const [logs, setLogs] = useState<string[]>([]);
   const scrollViewRef = useRef<ScrollView>(null);
   const theme = useTheme();
   const navigation = useNavigation();
+  const [metrics, setMetrics] = useState<PerfMetric[]>([]);
+
+  // Live metrics: poll the native registry while the screen is open
+  useEffect(() => {
+    if (!hasPerfMetrics()) return;
+    let cancelled = false;
+    const poll = () => {
+      getPerfSnapshot()
+        .then(snapshot => {
+          if (!cancelled && snapshot) setMetrics(snapshot.metrics);
+        })
+        .catch(() => {});
+    };
+    poll();
+    const timer = setInterval(poll, METRICS_POLL_MS);
+    return () => {
+      cancelled = true;
+      clearInterval(timer);
+    };
+  }, []);
 
+  const exportMetrics = async () => {
+    const json = await exportPerfMetrics();
+    if (json) Share.share({ title: 'Performance metrics', message: json });
+  };
 
   // Listen for media button and NowPlayingNotification events
   useEffect(() => {
@@ -56,6 +102,30 @@ const DebugScreen: React.FC = () => {
         <Appbar.BackAction color={theme.colors.onPrimary} onPress={() => navigation.goBack()} accessibilityLabel="Back" />
         <Appbar.Content title="Debug" color={theme.colors.onPrimary} />
       </Appbar.Header>
+      {hasPerfMetrics() && (
+        <>
+          <View style={styles.buttonRow}>
+            <Button mode="outlined" style={styles.rowButton} onPress={() => { resetPerfMetrics(); setMetrics([]); }}>
+              Reset Metrics
+            </Button>
+            <Button mode="outlined" style={styles.rowButton} onPress={exportMetrics}>
+              Export
+            </Button>
+          </View>
+          <ScrollView style={styles.metricsContainer}>
+            {metrics.length === 0 ? (
+              <Text style={{ color: theme.colors.onBackground, opacity: 0.6, margin: 16 }}>No metrics yet.</Text>
+            ) : (
+              metrics.map(m => (
+                <View key={m.name} style={styles.metricRow}>
+                  <Text style={[styles.metricName, { color: theme.colors.onBackground }]}>{m.name}</Text>
+                  <Text style={[styles.metricValue, { color: theme.colors.onBackground }]}>{describeMetric(m)}</Text>
+                </View>
+              ))
+            )}
+          </ScrollView>
+        </>
+      )}
       <Button mode="contained" style={styles.button} onPress={() => setLogs([])}>
         Clear Logs
       </Button>
@@ -76,6 +146,12 @@ const styles = StyleSheet.create({
   container: { flex: 1 },
   button: { margin: 16 },
   logContainer: { flex: 1, marginTop: 8 },
+  buttonRow: { flexDirection: 'row', marginHorizontal: 12, marginTop: 12 },
+  rowButton: { flex: 1, marginHorizontal: 4 },
+  metricsContainer: { flex: 1, marginTop: 8 },
+  metricRow: { marginHorizontal: 16, marginVertical: 3 },
+  metricName: { fontWeight: 'bold' },
+  metricValue: { fontFamily: 'monospace', fontSize: 12 },
 });
 
 export default DebugScreen;
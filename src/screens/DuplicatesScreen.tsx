@@ -0,0 +1,117 @@
+import React, { useEffect, useMemo, useState } from 'react';
+import { View, StyleSheet, SectionList, Text } from 'react-native';
+import { ActivityIndicator, Appbar, List, useTheme } from 'react-native-paper';
+import { useNavigation } from '@react-navigation/native';
+import { useAllTracks } from '../context/AllTracksContext';
+import { DuplicateGroup, findDuplicates, hasDuplicateFinder } from '../utils/duplicates';
+import { loadIndexedTracks, ScannedTrack } from '../utils/musicScanner';
+
+const formatSize = (bytes: number) => `${(bytes / (1024 * 1024)).toFixed(1)} MB`;
+
+// Tracks whose audio is byte-identical (tags aside), one section per set of copies
+const DuplicatesScreen: React.FC = () => {
+  const navigation = useNavigation();
+  const theme = useTheme();
+  const { tracks, source } = useAllTracks();
+  const [groups, setGroups] = useState<DuplicateGroup[] | null>(null);
+  // Rows for the listed copies; an indexed library is not held in memory
+  const [indexedRows, setIndexedRows] = useState<ScannedTrack[]>([]);
+  const [error, setError] = useState<string | null>(null);
+
+  const scan = () => {
+    setGroups(null);
+    setError(null);
+    findDuplicates()
+      .then(found => setGroups(found ?? []))
+      .catch(() => setError('Failed to look for duplicates'));
+  };
+
+  useEffect(scan, []);
+
+  useEffect(() => {
+    if (source !== 'index' || !groups?.length) return;
+    let active = true;
+    loadIndexedTracks(groups.flatMap(g => g.paths))
+      .then(rows => {
+        if (active && rows) setIndexedRows(rows);
+      })
+      .catch(e => console.warn('Duplicate rows failed to load', e));
+    return () => {
+      active = false;
+    };
+  }, [source, groups]);
+
+  const byPath = useMemo(() => {
+    const map = new Map<string, ScannedTrack>();
+    for (const t of source === 'index' ? indexedRows : tracks) if (t.path) map.set(t.path, t);
+    return map;
+  }, [source, indexedRows, tracks]);
+
+  const sections = useMemo(
+    () =>
+      (groups ?? []).map(g => ({
+        key: g.paths[0],
+        title: `${g.paths.length} copies · ${formatSize(g.size)} each`,
+        data: g.paths,
+      })),
+    [groups],
+  );
+
+  const wasted = (groups ?? []).reduce((sum, g) => sum + g.size * (g.paths.length - 1), 0);
+
+  return (
+    <View style={[styles.container, { backgroundColor: theme.colors.background }]}>
+      <Appbar.Header style={{ backgroundColor: theme.colors.primary }}>
+        <Appbar.BackAction color={theme.colors.onPrimary} onPress={() => navigation.goBack()} accessibilityLabel="Back" />
+        <Appbar.Content title="Duplicates" color={theme.colors.onPrimary} />
+        <Appbar.Action icon="refresh" color={theme.colors.onPrimary} onPress={scan} disabled={groups === null} accessibilityLabel="Rescan" />
+      </Appbar.Header>
+      {!hasDuplicateFinder ? (
+        <Text style={[styles.message, { color: theme.colors.onBackground }]}>Not available on this platform</Text>
+      ) : error ? (
+        <Text style={[styles.message, { color: theme.colors.onBackground }]}>{error}</Text>
+      ) : groups === null ? (
+        <View style={styles.centered}>
+          <ActivityIndicator animating={true} size={36} />
+        </View>
+      ) : groups.length === 0 ? (
+        <Text style={[styles.message, { color: theme.colors.onBackground }]}>No duplicates found</Text>
+      ) : (
+        <SectionList
+          sections={sections}
+          keyExtractor={path => path}
+          ListHeaderComponent={
+            <Text style={[styles.summary, { color: theme.colors.onBackground }]}>
+              {groups.length} sets of copies, {formatSize(wasted)} redundant
+            </Text>
+          }
+          renderSectionHeader={({ section }) => (
+            <Text style={[styles.sectionHeader, { color: theme.colors.primary }]}>{section.title}</Text>
+          )}
+          renderItem={({ item }) => {
+            const track = byPath.get(item);
+            return (
+              <List.Item
+                title={track?.title ?? item.split('/').pop()}
+                description={item}
+                descriptionNumberOfLines={2}
+                titleStyle={{ color: theme.colors.onBackground }}
+                descriptionStyle={{ color: theme.colors.onBackground, opacity: 0.6 }}
+              />
+            );
+          }}
+        />
+      )}
+    </View>
+  );
+};
+
+const styles = StyleSheet.create({
+  container: { flex: 1 },
+  centered: { padding: 16, alignItems: 'center' },
+  message: { padding: 16, textAlign: 'center', opacity: 0.6 },
+  summary: { marginHorizontal: 16, marginTop: 12, opacity: 0.7 },
+  sectionHeader: { marginHorizontal: 16, marginTop: 16, fontWeight: 'bold' },
+});
+
+export default DuplicatesScreen;
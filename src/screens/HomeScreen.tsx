@@ -45,11 +45,12 @@ const HomeScreen: React.FC = () => {
   const [drawerVisible, setDrawerVisible] = useState(false);
   const navigation = useNavigation();
   const [tab, setTab] = useState('Songs');
-  const { tracks, loading } = useAllTracks();
+  const { tracks, source, revision, loading } = useAllTracks();
+  const indexed = source === 'index';
 
   return (
     <View style={{ flex: 1, flexDirection: 'column' }}>
-      <TopBar onMenuPress={() => setDrawerVisible(true)} />
+      <TopBar onMenuPress={() => setDrawerVisible(true)} onSearchPress={() => navigation.navigate('Search' as never)} />
       <Portal>
         <Modal
           visible={drawerVisible}
@@ -62,6 +63,7 @@ const HomeScreen: React.FC = () => {
               {/* <Drawer.Item label="Playlists" icon="playlist-music" onPress={() => setDrawerVisible(false)} style={{ backgroundColor: useTheme().colors.background }} labelStyle={{ color: useTheme().colors.onBackground }} /> */}
               {/* <Drawer.Item label="Queues" icon="queue-music" onPress={() => setDrawerVisible(false)} style={{ backgroundColor: useTheme().colors.background }} labelStyle={{ color: useTheme().colors.onBackground }} /> */}
               <Drawer.Item label="Settings" icon="cog" onPress={() => setDrawerVisible(false)} style={{ backgroundColor: useTheme().colors.background }} labelStyle={{ color: useTheme().colors.onBackground }} />
+              <Drawer.Item label="Duplicates" icon="content-duplicate" onPress={() => { setDrawerVisible(false); navigation.navigate('Duplicates' as never); }} style={{ backgroundColor: useTheme().colors.background }} labelStyle={{ color: useTheme().colors.onBackground }} />
               <Drawer.Item style={{ height: 1, marginVertical: 8, backgroundColor: useTheme().colors.surfaceVariant, opacity: 0.5 }} />
               <Drawer.Item label="Debug" icon="bug" onPress={() => { setDrawerVisible(false); navigation.navigate('Debug' as never); }} style={{ backgroundColor: useTheme().colors.background }} labelStyle={{ color: useTheme().colors.onBackground }} />
             </Drawer.Section>
@@ -93,15 +95,15 @@ const HomeScreen: React.FC = () => {
           </View>
         ) : (
           tab === 'Songs' ? (
-            <SongsTab tracks={[...tracks].sort((a, b) => (a.title || '').localeCompare(b.title || ''))} onSongPlay={() => navigation.navigate('NowPlaying' as never)} />
+            <SongsTab tracks={tracks} indexed={indexed} revision={revision} onSongPlay={() => navigation.navigate('NowPlaying' as never)} />
           ) : tab === 'Albums' ? (
-            <AlbumsTab tracks={tracks} />
+            <AlbumsTab tracks={tracks} indexed={indexed} revision={revision} />
           ) : tab === 'Artists' ? (
-            <ArtistsTab tracks={tracks} />
+            <ArtistsTab tracks={tracks} indexed={indexed} revision={revision} />
           ) : tab === 'Playlists' ? (
             <PlaylistsTab />
           ) : tab === 'Folders' ? (
-            <FoldersTab tracks={tracks} />
+            <FoldersTab tracks={tracks} indexed={indexed} revision={revision} />
           ) : null
         )}
       </View>
@@ -0,0 +1,71 @@
+import React, { useState } from 'react';
+import { View, StyleSheet, FlatList, Text } from 'react-native';
+import { Appbar, Searchbar, useTheme } from 'react-native-paper';
+import { useNavigation } from '@react-navigation/native';
+import ListItem from '../components/ListItem';
+import { useAllTracks } from '../context/AllTracksContext';
+import { usePerQueuePlayer } from '../context/PerQueuePlayerContext';
+import { useMultiQueue } from '../context/MultiQueueContext';
+import { useTrackSearch } from '../utils/libraryQuery';
+
+const SearchScreen: React.FC = () => {
+  const navigation = useNavigation();
+  const theme = useTheme();
+  const [query, setQuery] = useState('');
+  const { tracks, source } = useAllTracks();
+  const results = useTrackSearch(query, tracks, source === 'index');
+  const { setQueue, playTrack, addToQueue } = usePerQueuePlayer();
+  const { selectedQueue } = useMultiQueue();
+
+  return (
+    <View style={[styles.container, { backgroundColor: theme.colors.background }]}>
+      <Appbar.Header style={{ backgroundColor: theme.colors.primary }}>
+        <Appbar.BackAction color={theme.colors.onPrimary} onPress={() => navigation.goBack()} accessibilityLabel="Back" />
+        <Appbar.Content title="Search" color={theme.colors.onPrimary} />
+      </Appbar.Header>
+      <Searchbar
+        placeholder="Songs, artists, albums"
+        value={query}
+        onChangeText={setQuery}
+        autoFocus
+        style={styles.searchbar}
+      />
+      {query.trim() && results.length === 0 ? (
+        <Text style={[styles.empty, { color: theme.colors.onBackground }]}>No matches</Text>
+      ) : (
+        <FlatList
+          data={results}
+          keyExtractor={item => item.id}
+          keyboardShouldPersistTaps="handled"
+          renderItem={({ item, index }) => (
+            <ListItem
+              item={{
+                type: 'song',
+                track: item,
+                onPress: () => {
+                  // Queue the results from the tapped one onward
+                  const q = results.slice(index).concat(results.slice(0, index));
+                  setQueue(selectedQueue, q);
+                  playTrack(selectedQueue, item);
+                  navigation.navigate('NowPlaying' as never);
+                },
+              }}
+              textColor={theme.colors.onBackground}
+              backgroundColor={theme.colors.background}
+              onPlayNext={() => addToQueue(selectedQueue, item)}
+              onAddToQueue={() => addToQueue(selectedQueue, item)}
+            />
+          )}
+        />
+      )}
+    </View>
+  );
+};
+
+const styles = StyleSheet.create({
+  container: { flex: 1 },
+  searchbar: { margin: 8 },
+  empty: { padding: 16, textAlign: 'center', opacity: 0.6 },
+});
+
+export default SearchScreen;
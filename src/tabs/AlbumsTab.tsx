@@ -6,15 +6,22 @@ import ListItem from '../components/ListItem';
 import { usePerQueuePlayer } from '../context/PerQueuePlayerContext';
 import { useMultiQueue } from '../context/MultiQueueContext';
 import { StyleSheet } from 'react-native';
+import { useAlbumGroups } from '../utils/libraryGroups';
+import { useFilteredTracks } from '../utils/libraryQuery';
 
-type AlbumsTabProps = { tracks: ScannedTrack[] };
+// tracks is only used when the library is not in the native index (indexed)
+type AlbumsTabProps = { tracks: ScannedTrack[]; indexed: boolean; revision: number };
 
-const AlbumsTab: React.FC<AlbumsTabProps> = ({ tracks }) => {
+const AlbumsTab: React.FC<AlbumsTabProps> = ({ tracks, indexed, revision }) => {
   const theme = useTheme();
   const [selectedAlbum, setSelectedAlbum] = useState<string | null>(null);
 
+  // Native groups come precomputed from the track index
+  const nativeAlbums = useAlbumGroups(revision, indexed);
+
   // Group by album
   const albums = React.useMemo(() => {
+    if (nativeAlbums) return nativeAlbums;
     const map = new Map();
     for (const t of tracks) {
       if (!t.album) continue;
@@ -24,12 +31,13 @@ const AlbumsTab: React.FC<AlbumsTabProps> = ({ tracks }) => {
       if (!entry.artist && t.artist) entry.artist = t.artist;
     }
     return Array.from(map.values()).sort((a, b) => a.name.localeCompare(b.name));
-  }, [tracks]);
+  }, [tracks, nativeAlbums]);
 
   // Songs for selected album
+  const nativeAlbumSongs = useFilteredTracks(selectedAlbum ? { album: selectedAlbum } : null, revision, indexed);
   const albumSongs = React.useMemo(() =>
-    selectedAlbum ? tracks.filter(t => t.album === selectedAlbum) : [],
-    [tracks, selectedAlbum]
+    nativeAlbumSongs ?? (selectedAlbum ? tracks.filter(t => t.album === selectedAlbum) : []),
+    [tracks, selectedAlbum, nativeAlbumSongs]
   );
 
   const { setQueue, playTrack } = usePerQueuePlayer();
@@ -6,17 +6,24 @@ import ListItem from '../components/ListItem';
 import { usePerQueuePlayer } from '../context/PerQueuePlayerContext';
 import { useMultiQueue } from '../context/MultiQueueContext';
 import { StyleSheet } from 'react-native';
+import { useArtistGroups } from '../utils/libraryGroups';
+import { useFilteredTracks } from '../utils/libraryQuery';
 
-type ArtistsTabProps = { tracks: ScannedTrack[] };
+// tracks is only used when the library is not in the native index (indexed)
+type ArtistsTabProps = { tracks: ScannedTrack[]; indexed: boolean; revision: number };
 
 // ArtistIcon removed; using ListItem for all entries
 
-const ArtistsTab: React.FC<ArtistsTabProps> = ({ tracks }) => {
+const ArtistsTab: React.FC<ArtistsTabProps> = ({ tracks, indexed, revision }) => {
   const theme = useTheme();
   const [selectedArtist, setSelectedArtist] = useState<string | null>(null);
 
+  // Native groups come precomputed from the track index
+  const nativeArtists = useArtistGroups(revision, indexed);
+
   // Group by artist
   const artists = React.useMemo(() => {
+    if (nativeArtists) return nativeArtists;
     const map = new Map();
     for (const t of tracks) {
       if (!t.artist) continue;
@@ -26,12 +33,13 @@ const ArtistsTab: React.FC<ArtistsTabProps> = ({ tracks }) => {
       if (t.album) entry.albums.add(t.album);
     }
     return Array.from(map.values()).map(a => ({ ...a, albums: a.albums.size })).sort((a, b) => a.name.localeCompare(b.name));
-  }, [tracks]);
+  }, [tracks, nativeArtists]);
 
   // Songs for selected artist
+  const nativeArtistSongs = useFilteredTracks(selectedArtist ? { artist: selectedArtist } : null, revision, indexed);
   const artistSongs = React.useMemo(() =>
-    selectedArtist ? tracks.filter(t => t.artist === selectedArtist) : [],
-    [tracks, selectedArtist]
+    nativeArtistSongs ?? (selectedArtist ? tracks.filter(t => t.artist === selectedArtist) : []),
+    [tracks, selectedArtist, nativeArtistSongs]
   );
 
   const { setQueue, playTrack } = usePerQueuePlayer();
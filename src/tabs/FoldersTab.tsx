@@ -1,5 +1,5 @@
 // FolderIcon and MusicIcon removed; using ListItem for all entries
-import React, { useState, useMemo, useRef } from 'react';
+import React, { useState, useMemo, useRef, useEffect } from 'react';
 import { View, Text, FlatList, TouchableOpacity, ScrollView } from 'react-native';
 import { ScannedTrack } from '../utils/musicScanner';
 import { useTheme } from 'react-native-paper';
@@ -7,8 +7,11 @@ import ListItem from '../components/ListItem';
 import { usePerQueuePlayer } from '../context/PerQueuePlayerContext';
 import { useMultiQueue } from '../context/MultiQueueContext';
 import { StyleSheet } from 'react-native';
+import { FolderChildren, getFolderChildren, hasLibraryGroups } from '../utils/libraryGroups';
+import { usePagedTracks } from '../utils/libraryQuery';
 
-type FoldersTabProps = { tracks: ScannedTrack[] };
+// tracks is only used when the library is not in the native index (indexed)
+type FoldersTabProps = { tracks: ScannedTrack[]; indexed: boolean; revision: number };
 
 type FolderNode = {
   [key: string]: FolderNode;
@@ -46,7 +49,141 @@ function getCommonRoot(tracks: ScannedTrack[]): string[] {
   return root;
 }
 
-const FoldersTab: React.FC<FoldersTabProps> = ({ tracks }) => {
+type BreadcrumbSegment = { label: string; idx: number };
+
+// Horizontal ScrollView with clickable segments and muted slashes
+const Breadcrumb: React.FC<{
+  segments: BreadcrumbSegment[];
+  onPress: (idx: number) => void;
+}> = ({ segments, onPress }) => {
+  const theme = useTheme();
+  const scrollViewRef = useRef<ScrollView>(null);
+  useEffect(() => {
+    if (scrollViewRef.current) {
+      scrollViewRef.current.scrollToEnd({ animated: true });
+    }
+  }, [segments.length]);
+  return (
+    <View>
+      <ScrollView
+        ref={scrollViewRef}
+        horizontal
+        showsHorizontalScrollIndicator={false}
+        contentContainerStyle={styles.breadcrumbRow}
+      >
+        {segments.map((seg, i) => (
+          <React.Fragment key={seg.idx}>
+            {i !== 0 && (
+              <Text style={[styles.breadcrumbSlash, { color: theme.colors.onBackground }]}>/</Text>
+            )}
+            <TouchableOpacity onPress={() => onPress(seg.idx)}>
+              <Text
+                style={[styles.breadcrumb, { color: theme.colors.primary }]}
+                numberOfLines={1}
+                ellipsizeMode="head"
+              >
+                {seg.label}
+              </Text>
+            </TouchableOpacity>
+          </React.Fragment>
+        ))}
+      </ScrollView>
+    </View>
+  );
+};
+
+const FoldersTab: React.FC<FoldersTabProps> = props =>
+  hasLibraryGroups && props.indexed ? <NativeFoldersView {...props} /> : <JsFoldersView {...props} />;
+
+// Folder tree and counts come from the native index; files are paged in
+const NativeFoldersView: React.FC<FoldersTabProps> = ({ revision }) => {
+  const theme = useTheme();
+  const [requestedPath, setRequestedPath] = useState<string | null>(null);
+  const [folder, setFolder] = useState<FolderChildren | null>(null);
+
+  useEffect(() => {
+    let active = true;
+    getFolderChildren(requestedPath)
+      .then(result => {
+        if (active) setFolder(result);
+      })
+      .catch(e => console.warn('LibraryGroups.getFolderChildren failed', e));
+    return () => {
+      active = false;
+    };
+  }, [requestedPath, revision]);
+
+  const files = usePagedTracks('path', folder ? { folder: folder.path } : null, revision);
+
+  const rootPath = folder?.rootPath ?? '';
+  const below =
+    folder && folder.path.length > rootPath.length
+      ? folder.path.slice(rootPath.length + 1).split('/')
+      : [];
+  const segments: BreadcrumbSegment[] = [
+    { label: rootPath ? rootPath.slice(1) : 'Root', idx: -1 },
+    ...below.map((part, idx) => ({ label: part, idx })),
+  ];
+  const handleBreadcrumbPress = (idx: number) => {
+    setRequestedPath(idx === -1 ? null : rootPath + '/' + below.slice(0, idx + 1).join('/'));
+  };
+
+  type Entry =
+    | { type: 'folder'; name: string; path: string; count: number }
+    | { type: 'file'; track: ScannedTrack };
+  const entries = useMemo<Entry[]>(
+    () => [
+      ...(folder?.folders ?? []).map(f => ({ type: 'folder' as const, ...f })),
+      ...(files?.items ?? []).map(track => ({ type: 'file' as const, track })),
+    ],
+    [folder, files?.items],
+  );
+
+  const { setQueue, playTrack } = usePerQueuePlayer();
+  const { selectedQueue } = useMultiQueue();
+  return (
+    <View style={[styles.container, { backgroundColor: theme.colors.background }]}>
+      <Breadcrumb segments={segments} onPress={handleBreadcrumbPress} />
+      <FlatList
+        data={entries}
+        keyExtractor={item => (item.type === 'folder' ? 'folder:' + item.path : 'file:' + item.track.id)}
+        renderItem={({ item }) =>
+          item.type === 'folder' ? (
+            <ListItem
+              item={{
+                type: 'folder',
+                name: item.name,
+                count: item.count,
+                onPress: () => setRequestedPath(item.path),
+              }}
+              textColor={theme.colors.onBackground}
+              backgroundColor={theme.colors.background}
+            />
+          ) : (
+            <ListItem
+              item={{
+                type: 'song',
+                track: item.track,
+                onPress: async () => {
+                  // Queue every direct file, not just the pages loaded so far
+                  setQueue(selectedQueue, files ? await files.fetchAll() : [item.track]);
+                  playTrack(selectedQueue, item.track);
+                },
+              }}
+              textColor={theme.colors.onBackground}
+              backgroundColor={theme.colors.background}
+            />
+          )
+        }
+        onEndReached={files?.loadMore}
+        onEndReachedThreshold={0.5}
+        style={{ backgroundColor: theme.colors.background }}
+      />
+    </View>
+  );
+};
+
+const JsFoldersView: React.FC<FoldersTabProps> = ({ tracks }) => {
   const theme = useTheme();
   const commonRoot = useMemo(() => getCommonRoot(tracks), [tracks]);
   const [breadcrumb, setBreadcrumb] = useState<string[]>(commonRoot);
@@ -90,14 +227,6 @@ const FoldersTab: React.FC<FoldersTabProps> = ({ tracks }) => {
 
 
 
-  // Render breadcrumb as a horizontal ScrollView with clickable segments and muted slashes
-  const scrollViewRef = useRef<ScrollView>(null);
-  React.useEffect(() => {
-    if (scrollViewRef.current) {
-      scrollViewRef.current.scrollToEnd({ animated: true });
-    }
-  }, [breadcrumb]);
-
   const handleBreadcrumbPress = (idx: number) => {
     if (idx === -1) {
       setBreadcrumb(commonRoot);
@@ -107,7 +236,7 @@ const FoldersTab: React.FC<FoldersTabProps> = ({ tracks }) => {
   };
 
   // Build breadcrumb segments
-  const segments = [
+  const segments: BreadcrumbSegment[] = [
     { label: commonRoot.length ? commonRoot.join('/').slice(1) : 'Root', idx: -1 }
   ];
   breadcrumb.slice(commonRoot.length).forEach((part, idx) => {
@@ -118,31 +247,7 @@ const FoldersTab: React.FC<FoldersTabProps> = ({ tracks }) => {
   const { selectedQueue } = useMultiQueue();
   return (
     <View style={[styles.container, { backgroundColor: theme.colors.background }]}>
-      <View>
-        <ScrollView
-          ref={scrollViewRef}
-          horizontal
-          showsHorizontalScrollIndicator={false}
-          contentContainerStyle={styles.breadcrumbRow}
-        >
-          {segments.map((seg, i) => (
-            <React.Fragment key={seg.idx}>
-              {i !== 0 && (
-                <Text style={[styles.breadcrumbSlash, { color: theme.colors.onBackground }]}>/</Text>
-              )}
-              <TouchableOpacity onPress={() => handleBreadcrumbPress(seg.idx)}>
-                <Text
-                  style={[styles.breadcrumb, { color: theme.colors.primary }]}
-                  numberOfLines={1}
-                  ellipsizeMode="head"
-                >
-                  {seg.label}
-                </Text>
-              </TouchableOpacity>
-            </React.Fragment>
-          ))}
-        </ScrollView>
-      </View>
+      <Breadcrumb segments={segments} onPress={handleBreadcrumbPress} />
       <FlatList
         data={entries}
         keyExtractor={item =>
@@ -1,14 +1,254 @@
-import React from 'react';
-import { View, Text, StyleSheet } from 'react-native';
+import React, { useCallback, useEffect, useState } from 'react';
+import { FlatList, View, Text, TouchableOpacity, StyleSheet } from 'react-native';
+import { Button, Dialog, IconButton, List, Portal, TextInput, useTheme } from 'react-native-paper';
+import RNFS from 'react-native-fs';
+import { usePerQueuePlayer } from '../context/PerQueuePlayerContext';
+import { useMultiQueue } from '../context/MultiQueueContext';
+import {
+  createPlaylist,
+  deletePlaylist,
+  exportPlaylist,
+  hasPlaylists,
+  importPlaylist,
+  listPlaylists,
+  movePlaylistEntry,
+  PlaylistEntry,
+  PlaylistInfo,
+  removePlaylistEntries,
+  usePlaylistEntries,
+} from '../utils/playlists';
 
-const PlaylistsTab = () => (
-  <View style={styles.container}>
-    <Text>Playlists (placeholder)</Text>
-  </View>
-);
+type DialogState = { kind: 'new' | 'import' | 'export'; value: string } | null;
+
+const DIALOG_TITLES = { new: 'New playlist', import: 'Import M3U/PLS file', export: 'Export to file' };
+const DIALOG_LABELS = { new: 'Name', import: 'File path', export: 'File path (.m3u8 or .pls)' };
+
+const PlaylistsTab: React.FC = () => {
+  const theme = useTheme();
+  const [playlists, setPlaylists] = useState<PlaylistInfo[]>([]);
+  const [selected, setSelected] = useState<PlaylistInfo | null>(null);
+  const [dialog, setDialog] = useState<DialogState>(null);
+  const [status, setStatus] = useState<string | null>(null);
+  const [busy, setBusy] = useState(false);
+  // Bumped after edits that can change the whole open playlist, so it reloads
+  const [revision, setRevision] = useState(0);
+  const entries = usePlaylistEntries(selected?.id ?? null, revision);
+  const { setQueue, playTrack } = usePerQueuePlayer();
+  const { selectedQueue } = useMultiQueue();
+
+  const reload = useCallback(() => {
+    listPlaylists()
+      .then(setPlaylists)
+      .catch(e => console.warn('Playlist list failed', e));
+  }, []);
+
+  useEffect(reload, [reload]);
+
+  const edited = () => {
+    setRevision(r => r + 1);
+    reload();
+  };
+
+  const submitDialog = async () => {
+    if (!dialog) return;
+    const value = dialog.value.trim();
+    setDialog(null);
+    if (!value) return;
+    setBusy(true);
+    try {
+      if (dialog.kind === 'new') {
+        await createPlaylist(value);
+      } else if (dialog.kind === 'import') {
+        const result = await importPlaylist(value);
+        if (result) {
+          setStatus(`Imported ${result.entries} entries, ${result.resolved} found in the library`
+            + (result.skipped ? `, ${result.skipped} streams skipped` : ''));
+        }
+      } else if (selected) {
+        const count = await exportPlaylist(selected.id, value);
+        setStatus(`Exported ${count ?? 0} entries to ${value}`);
+      }
+    } catch (e) {
+      setStatus(`Failed: ${e instanceof Error ? e.message : String(e)}`);
+    } finally {
+      setBusy(false);
+      edited();
+    }
+  };
+
+  const play = async (index: number) => {
+    // The whole playlist becomes the queue, from the tapped entry onward;
+    // files that no longer exist are left out
+    const all = await entries.fetchAll();
+    const q = all.slice(index).concat(all.slice(0, index)).filter(e => !e.missing);
+    if (!q.length) return;
+    setQueue(selectedQueue, q);
+    playTrack(selectedQueue, q[0]);
+  };
+
+  const move = async (index: number, delta: number) => {
+    if (!selected) return;
+    const items = entries.items;
+    let before: number | null;
+    if (delta < 0) {
+      if (index === 0) return;
+      before = items[index - 1].entryId;
+    } else {
+      // Moving down means going in front of the entry two places on, or to the end
+      if (index + 1 >= entries.total) return;
+      const beforeIndex = index + 2;
+      if (beforeIndex >= entries.total) before = null;
+      else if (beforeIndex < items.length) before = items[beforeIndex].entryId;
+      else return;
+    }
+    await movePlaylistEntry(selected.id, items[index].entryId, before);
+    entries.moved(index, index + delta);
+    reload();
+  };
+
+  const remove = async (entry: PlaylistEntry) => {
+    if (!selected) return;
+    await removePlaylistEntries(selected.id, [entry.entryId]);
+    entries.removed([entry.entryId]);
+    reload();
+  };
+
+  const dialogView = (
+    <Portal>
+      <Dialog visible={dialog !== null} onDismiss={() => setDialog(null)}>
+        <Dialog.Title>{dialog ? DIALOG_TITLES[dialog.kind] : ''}</Dialog.Title>
+        <Dialog.Content>
+          <TextInput
+            label={dialog ? DIALOG_LABELS[dialog.kind] : ''}
+            value={dialog?.value ?? ''}
+            onChangeText={value => setDialog(d => (d ? { ...d, value } : d))}
+            autoFocus
+          />
+        </Dialog.Content>
+        <Dialog.Actions>
+          <Button onPress={() => setDialog(null)}>Cancel</Button>
+          <Button onPress={submitDialog}>OK</Button>
+        </Dialog.Actions>
+      </Dialog>
+    </Portal>
+  );
+
+  if (!hasPlaylists) {
+    return (
+      <View style={styles.centered}>
+        <Text style={{ color: theme.colors.onBackground }}>Playlists are not available on this platform</Text>
+      </View>
+    );
+  }
+
+  if (selected) {
+    return (
+      <View style={[styles.flex1, { backgroundColor: theme.colors.background }]}>
+        <View style={styles.headerRow}>
+          <TouchableOpacity onPress={() => setSelected(null)}>
+            <Text style={[styles.backText, { color: theme.colors.primary }]}>← Back</Text>
+          </TouchableOpacity>
+          <Text style={[styles.headerTitle, { color: theme.colors.onBackground }]} numberOfLines={1}>
+            {selected.name}
+          </Text>
+          <IconButton
+            icon="export"
+            accessibilityLabel="Export"
+            onPress={() => setDialog({ kind: 'export', value: `${RNFS.ExternalStorageDirectoryPath}/Music/${selected.name}.m3u8` })}
+          />
+          <IconButton
+            icon="delete"
+            accessibilityLabel="Delete playlist"
+            onPress={async () => {
+              await deletePlaylist(selected.id);
+              setSelected(null);
+              edited();
+            }}
+          />
+        </View>
+        {status && <Text style={[styles.status, { color: theme.colors.onBackground }]}>{status}</Text>}
+        <FlatList
+          data={entries.items}
+          keyExtractor={item => String(item.entryId)}
+          onEndReached={entries.loadMore}
+          onEndReachedThreshold={0.5}
+          ListEmptyComponent={<Text style={[styles.empty, { color: theme.colors.onBackground }]}>No songs yet</Text>}
+          renderItem={({ item, index }) => (
+            <List.Item
+              title={item.title ?? item.path}
+              description={item.missing ? 'File not found' : item.artist}
+              onPress={() => play(index)}
+              titleStyle={{ color: theme.colors.onBackground, opacity: item.missing ? 0.5 : 1 }}
+              descriptionStyle={{ color: theme.colors.onBackground, opacity: 0.6 }}
+              right={() => (
+                <View style={styles.entryActions}>
+                  <IconButton icon="arrow-up" size={18} disabled={index === 0} onPress={() => move(index, -1)} />
+                  <IconButton icon="arrow-down" size={18} disabled={index + 1 >= entries.total} onPress={() => move(index, 1)} />
+                  <IconButton icon="close" size={18} onPress={() => remove(item)} />
+                </View>
+              )}
+            />
+          )}
+          style={{ backgroundColor: theme.colors.background }}
+        />
+        {dialogView}
+      </View>
+    );
+  }
+
+  return (
+    <View style={[styles.flex1, { backgroundColor: theme.colors.background }]}>
+      <View style={styles.buttonRow}>
+        <Button mode="outlined" icon="playlist-plus" style={styles.rowButton} onPress={() => setDialog({ kind: 'new', value: '' })}>
+          New
+        </Button>
+        <Button
+          mode="outlined"
+          icon="file-import"
+          style={styles.rowButton}
+          loading={busy}
+          disabled={busy}
+          onPress={() => setDialog({ kind: 'import', value: `${RNFS.ExternalStorageDirectoryPath}/Music/` })}
+        >
+          Import
+        </Button>
+      </View>
+      {status && <Text style={[styles.status, { color: theme.colors.onBackground }]}>{status}</Text>}
+      <FlatList
+        data={playlists}
+        keyExtractor={item => String(item.id)}
+        ListEmptyComponent={<Text style={[styles.empty, { color: theme.colors.onBackground }]}>No playlists yet</Text>}
+        renderItem={({ item }) => (
+          <List.Item
+            title={item.name}
+            description={`${item.count} songs`}
+            left={props => <List.Icon {...props} icon="playlist-music" />}
+            onPress={() => {
+              setStatus(null);
+              setSelected(item);
+            }}
+            titleStyle={{ color: theme.colors.onBackground }}
+            descriptionStyle={{ color: theme.colors.onBackground, opacity: 0.6 }}
+          />
+        )}
+        style={{ backgroundColor: theme.colors.background }}
+      />
+      {dialogView}
+    </View>
+  );
+};
 
 const styles = StyleSheet.create({
-  container: { flex: 1, alignItems: 'center', justifyContent: 'center' },
+  flex1: { flex: 1 },
+  centered: { flex: 1, alignItems: 'center', justifyContent: 'center' },
+  headerRow: { flexDirection: 'row', alignItems: 'center', padding: 8 },
+  backText: { fontWeight: 'bold', marginRight: 12 },
+  headerTitle: { flex: 1, fontWeight: 'bold', fontSize: 18 },
+  buttonRow: { flexDirection: 'row', marginHorizontal: 12, marginTop: 12 },
+  rowButton: { flex: 1, marginHorizontal: 4 },
+  status: { marginHorizontal: 16, marginVertical: 8, opacity: 0.7 },
+  empty: { padding: 16, textAlign: 'center', opacity: 0.6 },
+  entryActions: { flexDirection: 'row', alignItems: 'center' },
 });
 
 export default PlaylistsTab;
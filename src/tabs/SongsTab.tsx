@@ -1,57 +1,110 @@
 import React from 'react';
 
 import { FlatList } from 'react-native';
-import { useTheme } from 'react-native-paper';
+import { Dialog, List, Portal, useTheme } from 'react-native-paper';
 import ListItem from '../components/ListItem';
 import { usePerQueuePlayer } from '../context/PerQueuePlayerContext';
 import { useMultiQueue } from '../context/MultiQueueContext';
 import { ScannedTrack } from '../utils/musicScanner';
+import { compareNoCase, usePagedTracks } from '../utils/libraryQuery';
+import { addToPlaylist, hasPlaylists, listPlaylists, PlaylistInfo } from '../utils/playlists';
+
+const ALL_TRACKS = {};
 
 type SongsTabProps = {
+  // Only used when the library is not in the native index (indexed)
   tracks: ScannedTrack[];
+  indexed: boolean;
+  revision: number;
   onSongPlay?: () => void;
 };
 
-const SongsTab: React.FC<SongsTabProps> = ({ tracks, onSongPlay }) => {
+const SongsTab: React.FC<SongsTabProps> = ({ tracks, indexed, revision, onSongPlay }) => {
   const theme = useTheme();
   const { setQueue, playTrack, addToQueue } = usePerQueuePlayer();
   const { selectedQueue } = useMultiQueue();
+  // Pages come sorted from the native index; the in-memory sort is only the fallback
+  // and uses the same order, so both lists (and the queues built from them) agree
+  const paged = usePagedTracks('title', ALL_TRACKS, revision, indexed);
+  const sortedTracks = React.useMemo(
+    () =>
+      paged
+        ? []
+        : [...tracks].sort((a, b) => compareNoCase(a.title, b.title) || (a.id < b.id ? -1 : a.id > b.id ? 1 : 0)),
+    [paged, tracks],
+  );
+  const data = paged ? paged.items : sortedTracks;
+  // Song waiting for a playlist to be picked, and the playlists to pick from
+  const [playlistTarget, setPlaylistTarget] = React.useState<ScannedTrack | null>(null);
+  const [playlists, setPlaylists] = React.useState<PlaylistInfo[]>([]);
+
+  const pickPlaylist = (track: ScannedTrack) => {
+    setPlaylistTarget(track);
+    listPlaylists()
+      .then(setPlaylists)
+      .catch(e => console.warn('Playlist list failed', e));
+  };
+
   return (
-    <FlatList
-      data={tracks}
-      keyExtractor={item => item.id}
-      renderItem={({ item, index }) => (
-        <ListItem
-          item={{
-            type: 'song',
-            track: item,
-            onPress: () => {
-              // Queue all songs from the tapped one onward
-              const q = tracks.slice(index).concat(tracks.slice(0, index));
-              setQueue(selectedQueue, q);
-              playTrack(selectedQueue, item);
-              if (onSongPlay) onSongPlay();
-            },
-          }}
-          textColor={theme.colors.onBackground}
-          backgroundColor={theme.colors.background}
-          onPlayNext={() => {
-            // Add this song after the current track in the queue
-            // (simple implementation: add to end)
-            addToQueue(selectedQueue, item);
-          }}
-          onAddToQueue={() => {
-            addToQueue(selectedQueue, item);
-          }}
-          onAddToPlaylist={() => {
-            // Placeholder: show a toast or modal in the future
-            // eslint-disable-next-line no-alert
-            alert('Add to playlist coming soon!');
-          }}
-        />
-      )}
-      style={{ backgroundColor: theme.colors.background }}
-    />
+    <>
+      <FlatList
+        data={data}
+        keyExtractor={item => item.id}
+        onEndReached={paged?.loadMore}
+        onEndReachedThreshold={0.5}
+        renderItem={({ item, index }) => (
+          <ListItem
+            item={{
+              type: 'song',
+              track: item,
+              onPress: async () => {
+                // Queue all songs from the tapped one onward
+                const all = paged ? await paged.fetchAll() : data;
+                const q = all.slice(index).concat(all.slice(0, index));
+                setQueue(selectedQueue, q);
+                playTrack(selectedQueue, item);
+                if (onSongPlay) onSongPlay();
+              },
+            }}
+            textColor={theme.colors.onBackground}
+            backgroundColor={theme.colors.background}
+            onPlayNext={() => {
+              // Add this song after the current track in the queue
+              // (simple implementation: add to end)
+              addToQueue(selectedQueue, item);
+            }}
+            onAddToQueue={() => {
+              addToQueue(selectedQueue, item);
+            }}
+            onAddToPlaylist={hasPlaylists && item.path ? () => pickPlaylist(item) : undefined}
+          />
+        )}
+        style={{ backgroundColor: theme.colors.background }}
+      />
+      <Portal>
+        <Dialog visible={playlistTarget !== null} onDismiss={() => setPlaylistTarget(null)}>
+          <Dialog.Title>Add to playlist</Dialog.Title>
+          <Dialog.Content>
+            {playlists.length === 0 ? (
+              <List.Item title="No playlists yet" description="Create one in the Playlists tab" />
+            ) : (
+              playlists.map(p => (
+                <List.Item
+                  key={p.id}
+                  title={p.name}
+                  description={`${p.count} songs`}
+                  onPress={() => {
+                    const path = playlistTarget?.path;
+                    setPlaylistTarget(null);
+                    if (path) addToPlaylist(p.id, [path]).catch(e => console.warn('Add to playlist failed', e));
+                  }}
+                />
+              ))
+            )}
+          </Dialog.Content>
+        </Dialog>
+      </Portal>
+    </>
   );
 };
 
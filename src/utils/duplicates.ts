@@ -0,0 +1,17 @@
+import { NativeModules, Platform } from 'react-native';
+
+// Content-hash duplicate finder over the native track index
+const Duplicates: any = Platform.OS === 'android' ? NativeModules.Duplicates ?? null : null;
+
+export const hasDuplicateFinder = !!Duplicates;
+
+export type DuplicateGroup = {
+  size: number; // audio payload bytes, tags excluded
+  paths: string[];
+};
+
+// Groups of tracks with identical audio, most wasted space first; null when unavailable
+export async function findDuplicates(): Promise<DuplicateGroup[] | null> {
+  if (!Duplicates) return null;
+  return Duplicates.find();
+}
@@ -0,0 +1,25 @@
+import { NativeEventEmitter, NativeModules, Platform } from 'react-native';
+
+// Header-based duration/bitrate/sample-rate reader for files the scanner left at 0
+const DurationProber: any =
+  Platform.OS === 'android' ? NativeModules.DurationProber ?? null : null;
+
+export type ProbedDuration = {
+  path: string;
+  duration: number; // milliseconds
+  bitrate: number; // bits per second, 0 when unknown
+  sampleRate: number; // Hz, 0 when unknown
+};
+
+const emitter = DurationProber ? new NativeEventEmitter(DurationProber) : null;
+
+// Probes the given paths, or every indexed track without a duration; null when unavailable
+export async function probeDurations(paths: string[] | null = null): Promise<number | null> {
+  if (!DurationProber) return null;
+  return DurationProber.probe(paths);
+}
+
+export function onDurationsProbed(listener: (items: ProbedDuration[]) => void) {
+  if (!emitter) return { remove() {} };
+  return emitter.addListener('DurationsProbed', (e: { items: ProbedDuration[] }) => listener(e.items));
+}
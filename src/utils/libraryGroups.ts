@@ -0,0 +1,49 @@
+import { useEffect, useState } from 'react';
+import { NativeModules, Platform } from 'react-native';
+
+// Precomputed album/artist/folder groupings from the native track index
+const LibraryGroups: any =
+  Platform.OS === 'android' ? NativeModules.LibraryGroups ?? null : null;
+
+export const hasLibraryGroups = !!LibraryGroups;
+
+export type AlbumGroup = { name: string; artist?: string; count: number };
+export type ArtistGroup = { name: string; albums: number; count: number };
+
+export type FolderChildren = {
+  path: string;
+  rootPath: string; // deepest folder common to all tracks
+  trackCount: number;
+  directCount: number;
+  folders: { name: string; path: string; count: number }[];
+};
+
+// null opens the common root
+export async function getFolderChildren(path: string | null): Promise<FolderChildren> {
+  return LibraryGroups.getFolderChildren(path);
+}
+
+function useGroups<T>(method: 'getAlbums' | 'getArtists', refreshKey: unknown, enabled: boolean): T[] | null {
+  const [groups, setGroups] = useState<T[]>([]);
+  const active = hasLibraryGroups && enabled;
+  useEffect(() => {
+    if (!active) return;
+    let cancelled = false;
+    LibraryGroups[method]()
+      .then((result: T[]) => {
+        if (!cancelled) setGroups(result);
+      })
+      .catch((e: any) => console.warn(`LibraryGroups.${method} failed`, e));
+    return () => {
+      cancelled = true;
+    };
+  }, [active, method, refreshKey]);
+  return active ? groups : null;
+}
+
+// Both return null when the native module is unavailable or disabled (library not in the index)
+export const useAlbumGroups = (refreshKey: unknown, enabled = true) =>
+  useGroups<AlbumGroup>('getAlbums', refreshKey, enabled);
+
+export const useArtistGroups = (refreshKey: unknown, enabled = true) =>
+  useGroups<ArtistGroup>('getArtists', refreshKey, enabled);
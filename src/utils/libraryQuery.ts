@@ -0,0 +1,231 @@
+import { useCallback, useEffect, useRef, useState } from 'react';
+import { NativeModules, Platform } from 'react-native';
+import { fromNativeRow, ScannedTrack } from './musicScanner';
+
+const NativeMediaScanner: any =
+  Platform.OS === 'android' ? NativeModules.MediaScanner ?? null : null;
+
+export const hasLibraryQuery =
+  !!NativeMediaScanner && typeof NativeMediaScanner.query === 'function';
+
+export type LibrarySort = 'title' | 'artist' | 'album' | 'duration' | 'path';
+
+export type LibraryFilter = {
+  text?: string;
+  artist?: string;
+  album?: string;
+  folder?: string;
+};
+
+export type LibraryQuery = {
+  sort?: LibrarySort;
+  descending?: boolean;
+  filter?: LibraryFilter;
+  offset?: number;
+  limit?: number; // negative reads to the end
+};
+
+export type LibraryPage = {
+  total: number;
+  offset: number;
+  items: ScannedTrack[];
+};
+
+// Windowed read of the native track index
+export async function queryLibrary(query: LibraryQuery): Promise<LibraryPage> {
+  const result = await NativeMediaScanner.query(query);
+  return {
+    total: result.total,
+    offset: result.offset,
+    items: (result.items || []).map(fromNativeRow),
+  };
+}
+
+// Same order as SQLite's COLLATE NOCASE, which the native sorts use: ASCII
+// letters fold to lowercase, everything else compares by code point (UTF-8
+// byte order); missing values sort first
+export function compareNoCase(a: string | null | undefined, b: string | null | undefined): number {
+  if (a == null || b == null) return a == null ? (b == null ? 0 : -1) : 1;
+  let i = 0;
+  let j = 0;
+  while (i < a.length && j < b.length) {
+    let x = a.codePointAt(i) as number;
+    let y = b.codePointAt(j) as number;
+    i += x > 0xffff ? 2 : 1;
+    j += y > 0xffff ? 2 : 1;
+    if (x >= 65 && x <= 90) x += 32;
+    if (y >= 65 && y <= 90) y += 32;
+    if (x !== y) return x - y;
+  }
+  return i < a.length ? 1 : j < b.length ? -1 : 0;
+}
+
+/**
+ * Pages through the native track index as a list scrolls. Returns null when the
+ * native query API is unavailable or disabled (the library is not in the index),
+ * so callers can fall back to in-memory tracks. A null filter loads nothing
+ * (e.g. while the folder is still unknown). Changing sort or filter reloads
+ * from the top; changing refreshKey (e.g. the library revision) re-reads the
+ * rows already loaded, so the list keeps its place.
+ */
+export function usePagedTracks(
+  sort: LibrarySort,
+  filter: LibraryFilter | null,
+  refreshKey: unknown,
+  enabled = true,
+  pageSize = 100,
+) {
+  const [items, setItems] = useState<ScannedTrack[]>([]);
+  const [total, setTotal] = useState(0);
+  const loadingRef = useRef(false);
+  const generationRef = useRef(0);
+  const loadedRef = useRef({ key: '', count: 0 });
+  const filterKey = JSON.stringify(filter);
+  const active = hasLibraryQuery && enabled;
+
+  useEffect(() => {
+    if (!active) return;
+    const generation = ++generationRef.current;
+    if (!filter) {
+      setItems([]);
+      setTotal(0);
+      loadingRef.current = false;
+      loadedRef.current = { key: '', count: 0 };
+      return;
+    }
+    const key = `${sort}:${filterKey}`;
+    const limit = loadedRef.current.key === key ? Math.max(pageSize, loadedRef.current.count) : pageSize;
+    loadedRef.current = { key, count: 0 };
+    loadingRef.current = true;
+    queryLibrary({ sort, filter, offset: 0, limit })
+      .then(page => {
+        if (generation !== generationRef.current) return;
+        loadedRef.current.count = page.items.length;
+        setItems(page.items);
+        setTotal(page.total);
+      })
+      .catch(e => console.warn('queryLibrary failed', e))
+      .finally(() => {
+        if (generation === generationRef.current) loadingRef.current = false;
+      });
+    // eslint-disable-next-line react-hooks/exhaustive-deps
+  }, [active, sort, filterKey, refreshKey, pageSize]);
+
+  const loadMore = useCallback(() => {
+    if (!active || !filter || loadingRef.current || items.length >= total) return;
+    const generation = generationRef.current;
+    loadingRef.current = true;
+    queryLibrary({ sort, filter, offset: items.length, limit: pageSize })
+      .then(page => {
+        if (generation !== generationRef.current) return;
+        loadedRef.current.count += page.items.length;
+        setItems(prev => prev.concat(page.items));
+        setTotal(page.total);
+      })
+      .catch(e => console.warn('queryLibrary failed', e))
+      .finally(() => {
+        if (generation === generationRef.current) loadingRef.current = false;
+      });
+    // eslint-disable-next-line react-hooks/exhaustive-deps
+  }, [active, items.length, total, sort, filterKey, pageSize]);
+
+  // Whole sorted result, only fetched on demand (e.g. to build a play queue)
+  const fetchAll = useCallback(
+    async () =>
+      filter ? (await queryLibrary({ sort, filter, offset: 0, limit: -1 })).items : [],
+    // eslint-disable-next-line react-hooks/exhaustive-deps
+    [sort, filterKey],
+  );
+
+  return active ? { items, total, loadMore, fetchAll } : null;
+}
+
+/**
+ * Every track matching a filter (e.g. one album), sorted; null when the native
+ * query API is unavailable or disabled. A null filter resolves to an empty list.
+ */
+export function useFilteredTracks(
+  filter: LibraryFilter | null,
+  refreshKey: unknown,
+  enabled = true,
+  sort: LibrarySort = 'title',
+): ScannedTrack[] | null {
+  const [items, setItems] = useState<ScannedTrack[]>([]);
+  const filterKey = JSON.stringify(filter);
+  const active = hasLibraryQuery && enabled;
+  useEffect(() => {
+    if (!active) return;
+    if (!filter) {
+      setItems([]);
+      return;
+    }
+    let cancelled = false;
+    queryLibrary({ sort, filter, offset: 0, limit: -1 })
+      .then(page => {
+        if (!cancelled) setItems(page.items);
+      })
+      .catch(e => console.warn('queryLibrary failed', e));
+    return () => {
+      cancelled = true;
+    };
+    // eslint-disable-next-line react-hooks/exhaustive-deps
+  }, [active, filterKey, refreshKey, sort]);
+  return active ? items : null;
+}
+
+const hasNativeSearch =
+  !!NativeMediaScanner && typeof NativeMediaScanner.search === 'function';
+
+// Lowercase, diacritics stripped; same folding as the native search index
+const fold = (s: string) =>
+  s.normalize('NFD').replace(/[\u0300-\u036f]/g, '').toLowerCase();
+
+const words = (s: string) => fold(s).split(/[^a-z0-9\u00c0-\uffff]+/).filter(Boolean);
+
+// Linear fallback: every query word must prefix a word of title/artist/album/path
+function searchInMemory(tracks: ScannedTrack[], query: string, limit: number): ScannedTrack[] {
+  const terms = words(query);
+  if (!terms.length) return [];
+  const hits: ScannedTrack[] = [];
+  for (const t of tracks) {
+    const tw = words(`${t.title ?? ''} ${t.artist ?? ''} ${t.album ?? ''} ${t.path ?? ''}`);
+    if (terms.every(q => tw.some(w => w.startsWith(q)))) hits.push(t);
+    if (hits.length >= limit) break;
+  }
+  return hits;
+}
+
+/**
+ * Ranked search over the library as the user types. When the library is in
+ * the native index (indexed), queries go to its full-text index, which returns
+ * the matching rows; a library from a fallback scan (tracks) is searched in
+ * memory. Stale responses for earlier keystrokes are dropped.
+ */
+export function useTrackSearch(
+  query: string,
+  tracks: ScannedTrack[],
+  indexed: boolean,
+  limit = 200,
+): ScannedTrack[] {
+  const [results, setResults] = useState<ScannedTrack[]>([]);
+  useEffect(() => {
+    if (!query.trim()) {
+      setResults([]);
+      return;
+    }
+    if (!hasNativeSearch || !indexed) {
+      setResults(searchInMemory(tracks, query, limit));
+      return;
+    }
+    let active = true;
+    NativeMediaScanner.search(query, limit)
+      .then((rows: any[]) => {
+        if (active) setResults(rows.map(fromNativeRow));
+      })
+      .catch((e: any) => console.warn('MediaScanner.search failed', e));
+    return () => {
+      active = false;
+    };
+  }, [query, tracks, indexed, limit]);
+  return results;
+}
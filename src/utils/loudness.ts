@@ -0,0 +1,10 @@
+import { NativeModules, Platform } from 'react-native';
+
+// Background ReplayGain/EBU R128 analysis feeding the player's loudness normalization
+const Loudness: any = Platform.OS === 'android' ? NativeModules.Loudness ?? null : null;
+
+// Analyzes the given paths, or every indexed track not analyzed since it last changed; null when unavailable
+export async function analyzeLoudness(paths: string[] | null = null): Promise<number | null> {
+  if (!Loudness) return null;
+  return Loudness.analyze(paths);
+}
@@ -0,0 +1,33 @@
+import { NativeEventEmitter, NativeModules, Platform } from 'react-native';
+
+// Background tag and embedded-artwork reader over the native track index
+const MetadataExtractor: any =
+  Platform.OS === 'android' ? NativeModules.MetadataExtractor ?? null : null;
+
+export const hasMetadataExtractor = !!MetadataExtractor;
+
+export type MetadataProgress = {
+  processed: number;
+  total: number;
+  updated: number;
+  done: boolean;
+};
+
+const emitter = MetadataExtractor ? new NativeEventEmitter(MetadataExtractor) : null;
+
+// Reads the given paths, or every indexed file changed since it was last read; null when unavailable
+export async function extractMetadata(
+  paths: string[] | null = null,
+): Promise<{ processed: number; updated: number } | null> {
+  if (!MetadataExtractor) return null;
+  return MetadataExtractor.start(paths);
+}
+
+export function cancelMetadataExtraction() {
+  MetadataExtractor?.cancel();
+}
+
+export function onMetadataProgress(listener: (e: MetadataProgress) => void) {
+  if (!emitter) return { remove() {} };
+  return emitter.addListener('MetadataProgress', listener);
+}
@@ -1,4 +1,4 @@
-import { PermissionsAndroid, Platform } from 'react-native';
+import { NativeEventEmitter, PermissionsAndroid, Platform } from 'react-native';
 import RNFS from 'react-native-fs';
 
 // We'll try to dynamically load a native MediaStore helper if available.
@@ -26,6 +26,8 @@ export type ScannedTrack = {
   duration?: number; // milliseconds
   path?: string;
   picture?: string | null; // base64 or file path depending on platform
+  bitrate?: number; // bits per second
+  sampleRate?: number; // Hz
 };
 
 async function requestAndroidPermissions(): Promise<boolean> {
@@ -56,6 +58,148 @@ async function requestAndroidPermissions(): Promise<boolean> {
   }
 }
 
+export type LibraryChanges = {
+  token: string;
+  full: boolean; // true when the token was stale and everything is in `added`
+  added: ScannedTrack[];
+  updated: ScannedTrack[];
+  deleted: string[]; // track ids (paths)
+};
+
+// Supported audio file extensions (see Android/ExoPlayer docs)
+const SUPPORTED_EXTS = [
+  '.mp3','.m4a','.aac','.wav','.flac','.ogg','.opus',
+  '.amr','.3gp','.mp4','.mid','.midi','.xmf','.mxmf',
+  '.rtttl','.rtx','.ota','.imy',//'.wma','.aiff','.aif',
+];
+
+// Paths to exclude (from user-provided mount list) -- treated as prefixes
+const EXCLUDED_PATH_PREFIXES = [
+  '/mnt',
+  '/metadata',
+  '/prism',
+  '/optics',
+  '/apex',
+  '/cache',
+  '/efs',
+  '/omr',
+];
+
+let walkCounter = 0;
+
+let emitter: NativeEventEmitter | null = null;
+const scannerEmitter = () => {
+  if (!emitter) emitter = new NativeEventEmitter(NativeMediaScanner);
+  return emitter;
+};
+
+// Parallel native directory walk; batches stream in while it runs
+async function walkNative(
+  roots: string[],
+  onBatch?: (tracks: ScannedTrack[]) => void,
+): Promise<ScannedTrack[]> {
+  const walkId = `walk-${++walkCounter}`;
+  const found: ScannedTrack[] = [];
+  const sub = scannerEmitter().addListener(
+    'MediaScannerWalkBatch',
+    (e: { walkId: string; paths: string[] }) => {
+      if (e.walkId !== walkId) return;
+      const batch = e.paths.map(path => ({
+        id: path,
+        title: path.slice(path.lastIndexOf('/') + 1),
+        path,
+      }));
+      for (const t of batch) found.push(t);
+      onBatch?.(batch);
+    },
+  );
+  try {
+    await NativeMediaScanner.walk(walkId, roots, SUPPORTED_EXTS, EXCLUDED_PATH_PREFIXES);
+  } finally {
+    sub.remove();
+  }
+  return found;
+}
+
+export const fromNativeRow = (t: any): ScannedTrack => ({
+  id: t.path?.toString() ?? t.id?.toString() ?? String(Math.random()),
+  title: t.title,
+  artist: t.artist,
+  album: t.album,
+  duration: t.duration,
+  path: t.path,
+  picture: t.picture ?? null,
+  bitrate: t.bitrate,
+  sampleRate: t.sampleRate,
+});
+
+// Incremental MediaStore sync; resolves null when the native scanner is unavailable.
+// Without withRows a full scan only updates the index and leaves added empty
+export async function scanLibraryChanges(
+  token: string | null,
+  withRows = true,
+): Promise<LibraryChanges | null> {
+  if (
+    !NativeMediaScanner ||
+    typeof NativeMediaScanner.getChangesSince !== 'function'
+  ) {
+    return null;
+  }
+  if (!token) {
+    const ok = await requestAndroidPermissions();
+    if (!ok) {
+      console.warn('Storage permission not granted');
+      return null;
+    }
+  }
+  const result = await NativeMediaScanner.getChangesSince(token, withRows);
+  return toLibraryChanges(result);
+}
+
+const toLibraryChanges = (result: any): LibraryChanges => ({
+  token: result.token,
+  full: result.full,
+  added: (result.added || []).map(fromNativeRow),
+  updated: (result.updated || []).map(fromNativeRow),
+  deleted: (result.deleted || []).map((d: any) => d.path ?? d.id),
+});
+
+// Live MediaStore and Download/Music folder changes, as deltas already written to the index
+export function watchLibrary(listener: (changes: LibraryChanges) => void) {
+  if (!NativeMediaScanner || typeof NativeMediaScanner.startWatching !== 'function') {
+    return { remove() {} };
+  }
+  const sub = scannerEmitter().addListener('MediaScannerLibraryChanged', (e: any) =>
+    listener(toLibraryChanges(e)),
+  );
+  NativeMediaScanner.startWatching();
+  return {
+    remove() {
+      sub.remove();
+      NativeMediaScanner.stopWatching();
+    },
+  };
+}
+
+// Sync token and track count of the persisted index, without reading its rows;
+// null when unavailable or never synced
+export async function loadIndexInfo(): Promise<{ token: string; count: number } | null> {
+  if (!NativeMediaScanner || typeof NativeMediaScanner.getIndexInfo !== 'function') {
+    return null;
+  }
+  const result = await NativeMediaScanner.getIndexInfo();
+  return result?.token ? { token: result.token, count: result.count } : null;
+}
+
+// Current index rows for the given ids (paths); null when the native index is unavailable
+export async function loadIndexedTracks(ids: string[]): Promise<ScannedTrack[] | null> {
+  if (!NativeMediaScanner || typeof NativeMediaScanner.getTracks !== 'function') {
+    return null;
+  }
+  const rows = await NativeMediaScanner.getTracks(ids);
+  return (rows || []).map(fromNativeRow);
+}
+
 export async function scanMusic(): Promise<ScannedTrack[]> {
   const ok = await requestAndroidPermissions();
   if (!ok) {
@@ -89,20 +233,13 @@ export async function scanMusic(): Promise<ScannedTrack[]> {
   if (NativeMediaScanner && typeof NativeMediaScanner.getAll === 'function') {
     try {
       const results = await NativeMediaScanner.getAll();
-      const tracks: ScannedTrack[] = (results || []).map((t: any) => ({
-        id: t.path?.toString() ?? t.id?.toString() ?? String(Math.random()),
-        title: t.title,
-        artist: t.artist,
-        album: t.album,
-        duration: t.duration,
-        path: t.path,
-      }));
+      const tracks: ScannedTrack[] = (results || []).map(fromNativeRow);
 
-      // dedupe
+      // dedupe by path; equal titles are distinct songs, copies are found by content (utils/duplicates)
       const seen = new Set<string>();
       const unique: ScannedTrack[] = [];
       for (const tt of tracks) {
-        const key = tt.path ?? `${tt.title ?? ''}-${tt.artist ?? ''}`;
+        const key = tt.path ?? tt.id;
         if (!seen.has(key)) {
           seen.add(key);
           unique.push(tt);
@@ -147,11 +284,11 @@ export async function scanMusic(): Promise<ScannedTrack[]> {
         path: t.path ?? t.uri,
         picture: t.cover ?? t.picture ?? null,
       }));
-      // dedupe by path or title+artist
+      // dedupe by path; equal titles are distinct songs
       const seen = new Set<string>();
       const unique: ScannedTrack[] = [];
       for (const tt of tracks) {
-        const key = tt.path ?? `${tt.title ?? ''}-${tt.artist ?? ''}`;
+        const key = tt.path ?? tt.id;
         if (!seen.has(key)) {
           seen.add(key);
           unique.push(tt);
@@ -232,37 +369,24 @@ export async function scanMusic(): Promise<ScannedTrack[]> {
       dirsToCheck.push(RNFS.DocumentDirectoryPath);
     }
 
-    // Supported audio file extensions (see Android/ExoPlayer docs)
-    const exts = [
-      '.mp3','.m4a','.aac','.wav','.flac','.ogg','.opus',
-      '.amr','.3gp','.mp4','.mid','.midi','.xmf','.mxmf',
-      '.rtttl','.rtx','.ota','.imy',//'.wma','.aiff','.aif',
-    ];
+    if (NativeMediaScanner && typeof NativeMediaScanner.walk === 'function') {
+      const walked = await walkNative(dirsToCheck);
+      console.log(`scanMusic (native walk): found ${walked.length} files`);
+      logUniqueDirs(walked, 'FS');
+      return walked;
+    }
+
+    const exts = SUPPORTED_EXTS;
+    const excludedPathPrefixes = EXCLUDED_PATH_PREFIXES;
     const found: ScannedTrack[] = [];
 
     const visited = new Set<string>();
-    // Paths to exclude (from user-provided mount list) -- treated as prefixes
-    const excludedPathPrefixes: string[] = [
-      '/mnt',
-      '/metadata',
-      '/prism',
-      '/optics',
-      '/apex',
-      '/cache',
-      '/efs',
-      '/omr',
-    ];
     async function scanDir(path: string) {
-      console.log(`[scanMusic] Entering directory: ${path}`);
       try {
         // skip excluded mount prefixes
         for (const p of excludedPathPrefixes) {
           if (!p) continue;
           if (path === p || path.startsWith(p + '/') || path.startsWith(p)) {
-            // logging for debug
-            console.log(
-              `scanMusic: skipping excluded path prefix ${p} for ${path}`,
-            );
             return;
           }
         }
@@ -272,17 +396,7 @@ export async function scanMusic(): Promise<ScannedTrack[]> {
         const exists = await RNFS.exists(path);
         if (!exists) return;
         const items = await RNFS.readDir(path);
-        // log directory scan start
-        console.log(
-          `scanMusic: scanning dir ${path} (${items.length} entries)`,
-        );
         for (const it of items) {
-          if (it.isFile() && it.name.toLowerCase().endsWith('.opus')) {
-            console.log(`[scanMusic] Found .opus file: ${it.path}`);
-          }
-          if (it.path && it.path.includes('Download')) {
-            console.log(`[scanMusic] Found file in Download: ${it.path}`);
-          }
           // skip hidden files/folders (names starting with a dot)
           if (it.name && it.name.startsWith('.')) continue;
           // skip paths with hidden segments like /foo/.bar/
@@ -339,7 +453,7 @@ export async function scanMusic(): Promise<ScannedTrack[]> {
     const seenFs = new Set<string>();
     const uniqueFs: ScannedTrack[] = [];
     for (const f of found) {
-      const key = f.path ?? f.title ?? f.id;
+      const key = f.path ?? f.id;
       if (!seenFs.has(key)) {
         seenFs.add(key);
         uniqueFs.push(f);
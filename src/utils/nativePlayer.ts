@@ -0,0 +1,144 @@
+import { NativeEventEmitter, NativeModules, Platform } from 'react-native';
+
+// Pooled native ExoPlayer instances, one per queue id (Android only)
+const ExoPlayer: any =
+  Platform.OS === 'android' ? NativeModules.ExoPlayerModule ?? null : null;
+
+export const hasNativePlayer = !!ExoPlayer;
+
+export type NativePlaybackEvent = {
+  queueId: string;
+  event: 'ready' | 'playing' | 'paused' | 'ended' | 'error';
+  message?: string;
+  duration?: number; // milliseconds, on 'ready'
+};
+
+export type NativeQueueItem = {
+  id: string;
+  path: string;
+  title?: string;
+  artist?: string;
+};
+
+export type NativeTransitionEvent = {
+  queueId: string;
+  index: number;
+  mediaId: string | null;
+  reason: 'auto' | 'repeat' | 'seek' | 'playlist';
+};
+
+export type NativeLoopMode = 'off' | 'all' | 'one';
+
+// Mixer strip for one queue: linear gain (1 = unity), pan -1 (left) to 1 (right)
+export type QueueMix = { gain?: number; pan?: number; muted?: boolean };
+
+export type CrossfadeCurve = 'linear' | 'equalPower' | 'sCurve';
+
+export type NativePlayerStatus = {
+  queueId: string;
+  isPlaying: boolean;
+  position: number; // milliseconds
+  duration: number; // milliseconds
+};
+
+// One event per tick for every playing queue
+export type NativeProgressEvent = {
+  queues: NativePlayerStatus[];
+};
+
+const emitter = ExoPlayer ? new NativeEventEmitter(ExoPlayer) : null;
+
+export const nativePlayer = {
+  create(queueId: string) {
+    ExoPlayer?.create(queueId);
+  },
+  play(queueId: string, url: string) {
+    ExoPlayer?.play(queueId, url);
+  },
+  // Hands the whole queue over as a native playlist so the next item is preloaded
+  setQueue(
+    queueId: string,
+    items: NativeQueueItem[],
+    startIndex: number,
+    positionMs = 0,
+    playWhenReady = true,
+  ) {
+    ExoPlayer?.setQueue(queueId, items, startIndex, positionMs, playWhenReady);
+  },
+  // Updates the playlist without interrupting the current item
+  syncQueue(queueId: string, items: NativeQueueItem[]) {
+    ExoPlayer?.syncQueue(queueId, items);
+  },
+  addToQueue(queueId: string, item: NativeQueueItem) {
+    ExoPlayer?.addToQueue(queueId, item);
+  },
+  skipToIndex(queueId: string, index: number) {
+    ExoPlayer?.skipToIndex(queueId, index);
+  },
+  next(queueId: string) {
+    ExoPlayer?.next(queueId);
+  },
+  previous(queueId: string) {
+    ExoPlayer?.previous(queueId);
+  },
+  // order: play order as indices into the playlist (null lets native pick one)
+  setShuffle(queueId: string, enabled: boolean, order: number[] | null) {
+    ExoPlayer?.setShuffle(queueId, enabled, order);
+  },
+  setRepeatMode(queueId: string, mode: NativeLoopMode) {
+    ExoPlayer?.setRepeatMode(queueId, mode);
+  },
+  pause(queueId: string) {
+    ExoPlayer?.pause(queueId);
+  },
+  resume(queueId: string) {
+    ExoPlayer?.resume(queueId);
+  },
+  seekTo(queueId: string, ms: number) {
+    ExoPlayer?.seekTo(queueId, ms);
+  },
+  setVolume(queueId: string, volume: number) {
+    ExoPlayer?.setVolume(queueId, volume);
+  },
+  // Per-queue mixer settings; omitted keys keep their current value
+  setMix(queueId: string, mix: QueueMix) {
+    ExoPlayer?.setMix(queueId, mix);
+  },
+  // Native crossfade on automatic track changes; 0 ms restores gapless cuts
+  setCrossfade(queueId: string, durationMs: number, curve: CrossfadeCurve = 'equalPower') {
+    ExoPlayer?.setCrossfade(queueId, durationMs, curve);
+  },
+  // Loudness normalization for every queue (on by default); preampDb shifts all track gains
+  setNormalization(enabled: boolean, preampDb = 0) {
+    ExoPlayer?.setNormalization(enabled, preampDb);
+  },
+  stop(queueId: string) {
+    ExoPlayer?.stop(queueId);
+  },
+  release(queueId: string) {
+    ExoPlayer?.release(queueId);
+  },
+  releaseAll() {
+    ExoPlayer?.releaseAll();
+  },
+  // Tick rate of onPlaybackProgress; 0 stops it
+  setProgressInterval(ms: number) {
+    ExoPlayer?.setProgressInterval(ms);
+  },
+  async getStatus(queueId: string): Promise<NativePlayerStatus | null> {
+    if (!ExoPlayer) return null;
+    return ExoPlayer.getStatus(queueId);
+  },
+  onPlaybackEvent(listener: (e: NativePlaybackEvent) => void) {
+    if (!emitter) return { remove() {} };
+    return emitter.addListener('onPlaybackEvent', listener);
+  },
+  onPlaybackProgress(listener: (e: NativeProgressEvent) => void) {
+    if (!emitter) return { remove() {} };
+    return emitter.addListener('onPlaybackProgress', listener);
+  },
+  onMediaItemTransition(listener: (e: NativeTransitionEvent) => void) {
+    if (!emitter) return { remove() {} };
+    return emitter.addListener('onMediaItemTransition', listener);
+  },
+};
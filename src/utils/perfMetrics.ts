@@ -0,0 +1,53 @@
+import { NativeModules, Platform } from 'react-native';
+
+// Native counters, histograms and timers (see PerfMetrics.java)
+const PerfMetrics: any =
+  Platform.OS === 'android' ? NativeModules.PerfMetrics ?? null : null;
+
+export type PerfMetric = {
+  name: string;
+  type: 'counter' | 'histogram' | 'meter';
+  unit: string; // 'us' for timers
+  count: number;
+  sum: number;
+  min: number;
+  max: number;
+  p50: number;
+  p95: number;
+  p99: number;
+  perMinute: number; // meters only
+};
+
+export type PerfSnapshot = { uptimeMs: number; metrics: PerfMetric[] };
+
+export const hasPerfMetrics = () => PerfMetrics !== null;
+
+export async function getPerfSnapshot(): Promise<PerfSnapshot | null> {
+  if (!PerfMetrics) return null;
+  return PerfMetrics.getSnapshot();
+}
+
+// Pretty-printed JSON of the current snapshot, for sharing in bug reports
+export async function exportPerfMetrics(): Promise<string | null> {
+  if (!PerfMetrics) return null;
+  return PerfMetrics.exportJson();
+}
+
+export function resetPerfMetrics() {
+  PerfMetrics?.reset();
+}
+
+// Records a JS-side duration as the native timer "js.<name>"
+export function recordTiming(name: string, ms: number) {
+  PerfMetrics?.recordTiming(name, ms);
+}
+
+// Times a promise-returning call under "js.<name>", whether it resolves or throws
+export async function timed<T>(name: string, fn: () => Promise<T>): Promise<T> {
+  const start = Date.now();
+  try {
+    return await fn();
+  } finally {
+    recordTiming(name, Date.now() - start);
+  }
+}
@@ -1,7 +1,15 @@
 import AsyncStorage from '@react-native-async-storage/async-storage';
+import { NativeModules, Platform } from 'react-native';
+import { fromNativeRow } from './musicScanner';
 
 export const PLAYER_STATE_KEY = 'mlap_player_state_v1';
 
+// Binary snapshot + journal on the native side; AsyncStorage JSON elsewhere
+const NativePersistence: any =
+  Platform.OS === 'android' ? NativeModules.PlayerPersistence ?? null : null;
+
+export const hasNativePersistence = !!NativePersistence;
+
 export interface PersistedQueueState {
   queue: {
     id: string;
@@ -22,6 +30,22 @@ export interface PersistedState {
   [queueId: string]: PersistedQueueState;
 }
 
+// Only the fields that changed; the queue goes as track ids
+export type PersistedQueuePatch = {
+  queue?: string[];
+  currentTrackId?: string | null;
+  position?: number;
+  volume?: number;
+  shuffle?: boolean;
+  loopMode?: 'off' | 'all' | 'one';
+  // The queue started playing; media buttons resume it after a cold start
+  active?: boolean;
+};
+
+export function saveQueuePatch(queueId: string, patch: PersistedQueuePatch) {
+  NativePersistence?.update(queueId, patch);
+}
+
 export async function savePlayerState(state: PersistedState) {
   try {
     await AsyncStorage.setItem(PLAYER_STATE_KEY, JSON.stringify(state));
@@ -31,6 +55,21 @@ export async function savePlayerState(state: PersistedState) {
 }
 
 export async function loadPlayerState(): Promise<PersistedState | null> {
+  if (NativePersistence) {
+    try {
+      const stored = await NativePersistence.load();
+      if (stored) {
+        const state: PersistedState = {};
+        Object.keys(stored).forEach(queueId => {
+          state[queueId] = { ...stored[queueId], queue: stored[queueId].queue.map(fromNativeRow) };
+        });
+        return state;
+      }
+    } catch (e) {
+      return null;
+    }
+    return migrateLegacyState();
+  }
   try {
     const raw = await AsyncStorage.getItem(PLAYER_STATE_KEY);
     if (!raw) return null;
@@ -40,7 +79,32 @@ export async function loadPlayerState(): Promise<PersistedState | null> {
   }
 }
 
+// One-time move of the old JSON blob into the native store
+async function migrateLegacyState(): Promise<PersistedState | null> {
+  try {
+    const raw = await AsyncStorage.getItem(PLAYER_STATE_KEY);
+    if (!raw) return null;
+    const legacy: PersistedState = JSON.parse(raw);
+    Object.keys(legacy).forEach(queueId => {
+      const p = legacy[queueId];
+      saveQueuePatch(queueId, {
+        queue: p.queue.map(t => t.id),
+        currentTrackId: p.currentTrackId,
+        position: p.position,
+        volume: p.volume,
+        shuffle: p.shuffle ?? false,
+        loopMode: p.loopMode ?? 'off',
+      });
+    });
+    await AsyncStorage.removeItem(PLAYER_STATE_KEY);
+    return legacy;
+  } catch (e) {
+    return null;
+  }
+}
+
 export async function clearPlayerState() {
+  NativePersistence?.clear();
   try {
     await AsyncStorage.removeItem(PLAYER_STATE_KEY);
   } catch (e) {}
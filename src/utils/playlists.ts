@@ -0,0 +1,157 @@
+import { useCallback, useEffect, useRef, useState } from 'react';
+import { NativeModules, Platform } from 'react-native';
+import { fromNativeRow, ScannedTrack } from './musicScanner';
+
+// Playlists stored natively in the track index
+const Playlists: any = Platform.OS === 'android' ? NativeModules.Playlists ?? null : null;
+
+export const hasPlaylists = !!Playlists;
+
+export type PlaylistInfo = {
+  id: number;
+  name: string;
+  count: number;
+  modified: number; // epoch ms
+};
+
+export type PlaylistEntry = ScannedTrack & {
+  entryId: number;
+  missing: boolean; // not in the index and no file at the path (moved or deleted)
+};
+
+export type PlaylistImport = {
+  id: number;
+  entries: number;
+  resolved: number; // entries matched to indexed tracks
+  skipped: number; // streams and other non-file locations
+};
+
+const fromNativeEntry = (e: any): PlaylistEntry => ({
+  ...fromNativeRow(e),
+  entryId: e.entryId,
+  missing: !!e.missing,
+});
+
+export async function listPlaylists(): Promise<PlaylistInfo[]> {
+  if (!Playlists) return [];
+  return Playlists.list();
+}
+
+export async function createPlaylist(name: string): Promise<number | null> {
+  if (!Playlists) return null;
+  return Playlists.create(name);
+}
+
+export async function renamePlaylist(id: number, name: string): Promise<void> {
+  await Playlists?.rename(id, name);
+}
+
+export async function deletePlaylist(id: number): Promise<void> {
+  await Playlists?.deletePlaylist(id);
+}
+
+export async function addToPlaylist(id: number, paths: string[]): Promise<void> {
+  await Playlists?.add(id, paths);
+}
+
+// Moves an entry in front of another one, or to the end when before is null
+export async function movePlaylistEntry(id: number, entryId: number, before: number | null): Promise<void> {
+  await Playlists?.moveEntry(id, entryId, before ?? -1);
+}
+
+export async function removePlaylistEntries(id: number, entryIds: number[]): Promise<void> {
+  await Playlists?.removeEntries(id, entryIds);
+}
+
+// Streams an M3U/M3U8/PLS file into a new playlist natively; null when unavailable
+export async function importPlaylist(path: string, name: string | null = null): Promise<PlaylistImport | null> {
+  if (!Playlists) return null;
+  return Playlists.importFile(path, name);
+}
+
+// Writes PLS for a .pls path, extended M3U otherwise; resolves the entry count
+export async function exportPlaylist(id: number, path: string): Promise<number | null> {
+  if (!Playlists) return null;
+  return Playlists.exportFile(id, path);
+}
+
+async function getEntries(id: number, offset: number, limit: number) {
+  const result = await Playlists.getEntries(id, offset, limit);
+  return { total: result.total as number, items: (result.items || []).map(fromNativeEntry) as PlaylistEntry[] };
+}
+
+/**
+ * Pages through a playlist as a list scrolls, like usePagedTracks. A null id
+ * loads nothing; changing refreshKey reloads from the top. After a move or
+ * remove has been stored, moved/removed patch the loaded window in place so
+ * the list keeps its place.
+ */
+export function usePlaylistEntries(id: number | null, refreshKey: unknown, pageSize = 200) {
+  const [items, setItems] = useState<PlaylistEntry[]>([]);
+  const [total, setTotal] = useState(0);
+  const loadingRef = useRef(false);
+  const generationRef = useRef(0);
+
+  useEffect(() => {
+    const generation = ++generationRef.current;
+    if (!Playlists || id == null) {
+      setItems([]);
+      setTotal(0);
+      loadingRef.current = false;
+      return;
+    }
+    loadingRef.current = true;
+    getEntries(id, 0, pageSize)
+      .then(page => {
+        if (generation !== generationRef.current) return;
+        setItems(page.items);
+        setTotal(page.total);
+      })
+      .catch(e => console.warn('Playlist read failed', e))
+      .finally(() => {
+        if (generation === generationRef.current) loadingRef.current = false;
+      });
+  }, [id, refreshKey, pageSize]);
+
+  const loadMore = useCallback(() => {
+    if (!Playlists || id == null || loadingRef.current || items.length >= total) return;
+    const generation = generationRef.current;
+    loadingRef.current = true;
+    getEntries(id, items.length, pageSize)
+      .then(page => {
+        if (generation !== generationRef.current) return;
+        setItems(prev => prev.concat(page.items));
+        setTotal(page.total);
+      })
+      .catch(e => console.warn('Playlist read failed', e))
+      .finally(() => {
+        if (generation === generationRef.current) loadingRef.current = false;
+      });
+  }, [id, items.length, total, pageSize]);
+
+  // Entry at from now sits at to; one moved past the loaded window drops out of it
+  // and comes back with the page that holds it
+  const moved = useCallback((from: number, to: number) => {
+    setItems(prev => {
+      if (from < 0 || from >= prev.length || to < 0) return prev;
+      const next = prev.slice();
+      const [entry] = next.splice(from, 1);
+      if (to < prev.length) next.splice(to, 0, entry);
+      return next;
+    });
+  }, []);
+
+  const removed = useCallback((entryIds: number[]) => {
+    const gone = new Set(entryIds);
+    setItems(prev => prev.filter(e => !gone.has(e.entryId)));
+    setTotal(t => Math.max(0, t - gone.size));
+  }, []);
+
+  // Whole playlist, only fetched on demand (e.g. to build a play queue)
+  const fetchAll = useCallback(
+    async () => (id == null || !Playlists ? [] : (await getEntries(id, 0, -1)).items),
+    [id],
+  );
+
+  return { items, total, loadMore, fetchAll, moved, removed };
+}